@@ -0,0 +1,632 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves and restores the state of a processor graph. A checkpoint contains the
+ * contents of the input and output queues of each processor, its context, and
+ * whatever internal state the processor keeps (such as the contents of a
+ * window, the slices of a {@link ca.uqac.lif.cep.tmf.Slice Slice} or the last
+ * value of a cumulative function).
+ * <p>
+ * A checkpoint does not contain the graph itself: it is restored into a graph
+ * built in the same way as the one it was taken from. The state of each
+ * processor is preceded by the name of its class, so that restoring into a
+ * graph of a different shape fails instead of silently mixing up states.
+ * The state of each processor is written to the stream as soon as it is
+ * produced; a checkpoint is never built in memory as a whole.
+ * <p>
+ * Events are written in a compact binary form if they are numbers, strings,
+ * booleans, byte arrays, object arrays, or instances of {@link ArrayList},
+ * {@link LinkedList}, {@link HashSet} and {@link HashMap}. Other events must
+ * implement {@link Serializable}, and are written using Java serialization.
+ * <p>
+ * Processors take part in a checkpoint by overriding
+ * {@link Processor#writeState(Output)} and {@link Processor#readState(Input)}.
+ * A checkpoint must be taken when no event is being processed by the graph.
+ *
+ * @author Sylvain Hallé
+ */
+public class Checkpoint
+{
+  /**
+   * The first bytes of every checkpoint
+   */
+  protected static final int MAGIC = 0x42424350;
+
+  /**
+   * The version of the checkpoint format
+   */
+  protected static final int VERSION = 1;
+
+  private static final byte T_NULL = 0;
+  private static final byte T_INT = 1;
+  private static final byte T_LONG = 2;
+  private static final byte T_FLOAT = 3;
+  private static final byte T_DOUBLE = 4;
+  private static final byte T_STRING = 5;
+  private static final byte T_BOOLEAN = 6;
+  private static final byte T_ARRAY = 7;
+  private static final byte T_ARRAYLIST = 8;
+  private static final byte T_LINKEDLIST = 9;
+  private static final byte T_HASHSET = 10;
+  private static final byte T_HASHMAP = 11;
+  private static final byte T_BYTES = 12;
+  private static final byte T_SERIALIZED = 13;
+
+  private Checkpoint()
+  {
+    super();
+  }
+
+  /**
+   * Writes the state of a processor into a stream. If the processor is a
+   * {@link GroupProcessor}, this includes the state of all the processors it
+   * contains.
+   *
+   * @param p
+   *          The processor
+   * @param os
+   *          The stream to write to. It is flushed, but not closed.
+   * @throws ProcessorException
+   *           If the state cannot be written
+   */
+  public static void save(/* @NotNull */ Processor p, /* @NotNull */ OutputStream os)
+  {
+    try
+    {
+      Output out = new Output(new BufferedOutputStream(os));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeProcessor(p);
+      out.flush();
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+  }
+
+  /**
+   * Restores the state of a processor from a stream
+   *
+   * @param p
+   *          The processor, which must have been built in the same way as the
+   *          one whose state was saved
+   * @param is
+   *          The stream to read from
+   * @throws ProcessorException
+   *           If the state cannot be read, or does not correspond to the
+   *           processor
+   */
+  public static void restore(/* @NotNull */ Processor p, /* @NotNull */ InputStream is)
+  {
+    try
+    {
+      Input in = new Input(new BufferedInputStream(is));
+      if (in.readInt() != MAGIC)
+      {
+        throw new ProcessorException("Not a checkpoint");
+      }
+      int version = in.readInt();
+      if (version != VERSION)
+      {
+        throw new ProcessorException("Unsupported checkpoint version " + version);
+      }
+      in.readProcessor(p);
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+  }
+
+  /**
+   * Copies the state of a processor into another processor built in the same
+   * way
+   *
+   * @param from
+   *          The processor to copy the state from
+   * @param to
+   *          The processor to copy the state to
+   * @throws ProcessorException
+   *           If the state cannot be copied
+   */
+  public static void copyState(/* @NotNull */ Processor from, /* @NotNull */ Processor to)
+  {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    save(from, baos);
+    restore(to, new ByteArrayInputStream(baos.toByteArray()));
+  }
+
+  /**
+   * Stream into which processors write their state
+   */
+  public static class Output
+  {
+    /**
+     * The underlying stream
+     */
+    protected final DataOutputStream m_out;
+
+    /**
+     * Creates a new output
+     *
+     * @param os
+     *          The stream to write to
+     */
+    public Output(/* @NotNull */ OutputStream os)
+    {
+      super();
+      m_out = new DataOutputStream(os);
+    }
+
+    /**
+     * Writes the state of a processor, preceded by the name of its class
+     *
+     * @param p
+     *          The processor
+     * @throws IOException
+     *           If the state cannot be written
+     */
+    public void writeProcessor(/* @NotNull */ Processor p) throws IOException
+    {
+      writeString(p.getClass().getName());
+      p.writeState(this);
+    }
+
+    /**
+     * Writes an integer
+     *
+     * @param x
+     *          The value
+     * @throws IOException
+     *           If the value cannot be written
+     */
+    public void writeInt(int x) throws IOException
+    {
+      m_out.writeInt(x);
+    }
+
+    /**
+     * Writes a long integer
+     *
+     * @param x
+     *          The value
+     * @throws IOException
+     *           If the value cannot be written
+     */
+    public void writeLong(long x) throws IOException
+    {
+      m_out.writeLong(x);
+    }
+
+    /**
+     * Writes a Boolean
+     *
+     * @param b
+     *          The value
+     * @throws IOException
+     *           If the value cannot be written
+     */
+    public void writeBoolean(boolean b) throws IOException
+    {
+      m_out.writeBoolean(b);
+    }
+
+    /**
+     * Writes a string
+     *
+     * @param s
+     *          The string; cannot be {@code null}
+     * @throws IOException
+     *           If the string cannot be written
+     */
+    public void writeString(/* @NotNull */ String s) throws IOException
+    {
+      byte[] bytes = s.getBytes("UTF-8");
+      m_out.writeInt(bytes.length);
+      m_out.write(bytes);
+    }
+
+    /**
+     * Writes the elements of a collection
+     *
+     * @param c
+     *          The collection
+     * @throws IOException
+     *           If an element cannot be written
+     */
+    public void writeCollection(/* @NotNull */ Collection<?> c) throws IOException
+    {
+      m_out.writeInt(c.size());
+      for (Object o : c)
+      {
+        writeObject(o);
+      }
+    }
+
+    /**
+     * Writes the entries of a map
+     *
+     * @param m
+     *          The map
+     * @throws IOException
+     *           If an entry cannot be written
+     */
+    public void writeMap(/* @NotNull */ Map<?, ?> m) throws IOException
+    {
+      m_out.writeInt(m.size());
+      for (Map.Entry<?, ?> e : m.entrySet())
+      {
+        writeObject(e.getKey());
+        writeObject(e.getValue());
+      }
+    }
+
+    /**
+     * Writes an object
+     *
+     * @param o
+     *          The object, which can be {@code null}
+     * @throws IOException
+     *           If the object is of a type that cannot be written
+     */
+    public void writeObject(/* @Null */ Object o) throws IOException
+    {
+      if (o == null)
+      {
+        m_out.writeByte(T_NULL);
+        return;
+      }
+      Class<?> c = o.getClass();
+      if (c == Integer.class)
+      {
+        m_out.writeByte(T_INT);
+        m_out.writeInt((Integer) o);
+      }
+      else if (c == Long.class)
+      {
+        m_out.writeByte(T_LONG);
+        m_out.writeLong((Long) o);
+      }
+      else if (c == Float.class)
+      {
+        m_out.writeByte(T_FLOAT);
+        m_out.writeFloat((Float) o);
+      }
+      else if (c == Double.class)
+      {
+        m_out.writeByte(T_DOUBLE);
+        m_out.writeDouble((Double) o);
+      }
+      else if (c == String.class)
+      {
+        m_out.writeByte(T_STRING);
+        writeString((String) o);
+      }
+      else if (c == Boolean.class)
+      {
+        m_out.writeByte(T_BOOLEAN);
+        m_out.writeBoolean((Boolean) o);
+      }
+      else if (c == Object[].class)
+      {
+        Object[] a = (Object[]) o;
+        m_out.writeByte(T_ARRAY);
+        m_out.writeInt(a.length);
+        for (Object x : a)
+        {
+          writeObject(x);
+        }
+      }
+      else if (c == byte[].class)
+      {
+        byte[] a = (byte[]) o;
+        m_out.writeByte(T_BYTES);
+        m_out.writeInt(a.length);
+        m_out.write(a);
+      }
+      else if (c == ArrayList.class)
+      {
+        m_out.writeByte(T_ARRAYLIST);
+        writeCollection((Collection<?>) o);
+      }
+      else if (c == LinkedList.class)
+      {
+        m_out.writeByte(T_LINKEDLIST);
+        writeCollection((Collection<?>) o);
+      }
+      else if (c == HashSet.class)
+      {
+        m_out.writeByte(T_HASHSET);
+        writeCollection((Collection<?>) o);
+      }
+      else if (c == HashMap.class)
+      {
+        m_out.writeByte(T_HASHMAP);
+        writeMap((Map<?, ?>) o);
+      }
+      else if (o instanceof Serializable)
+      {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        ObjectOutputStream oos = new ObjectOutputStream(baos);
+        oos.writeObject(o);
+        oos.close();
+        byte[] bytes = baos.toByteArray();
+        m_out.writeByte(T_SERIALIZED);
+        m_out.writeInt(bytes.length);
+        m_out.write(bytes);
+      }
+      else
+      {
+        throw new NotSerializableException(c.getName());
+      }
+    }
+
+    /**
+     * Flushes the underlying stream
+     *
+     * @throws IOException
+     *           If the stream cannot be flushed
+     */
+    public void flush() throws IOException
+    {
+      m_out.flush();
+    }
+  }
+
+  /**
+   * Stream from which processors read their state
+   */
+  public static class Input
+  {
+    /**
+     * The underlying stream
+     */
+    protected final DataInputStream m_in;
+
+    /**
+     * Creates a new input
+     *
+     * @param is
+     *          The stream to read from
+     */
+    public Input(/* @NotNull */ InputStream is)
+    {
+      super();
+      m_in = new DataInputStream(is);
+    }
+
+    /**
+     * Reads the state of a processor, after checking that it was written by a
+     * processor of the same class
+     *
+     * @param p
+     *          The processor
+     * @throws IOException
+     *           If the state cannot be read
+     */
+    public void readProcessor(/* @NotNull */ Processor p) throws IOException
+    {
+      String name = readString();
+      if (!name.equals(p.getClass().getName()))
+      {
+        throw new IOException("Checkpoint contains the state of a " + name + ", expected a "
+            + p.getClass().getName());
+      }
+      p.readState(this);
+    }
+
+    /**
+     * Reads an integer
+     *
+     * @return The value
+     * @throws IOException
+     *           If the value cannot be read
+     */
+    public int readInt() throws IOException
+    {
+      return m_in.readInt();
+    }
+
+    /**
+     * Reads a long integer
+     *
+     * @return The value
+     * @throws IOException
+     *           If the value cannot be read
+     */
+    public long readLong() throws IOException
+    {
+      return m_in.readLong();
+    }
+
+    /**
+     * Reads a Boolean
+     *
+     * @return The value
+     * @throws IOException
+     *           If the value cannot be read
+     */
+    public boolean readBoolean() throws IOException
+    {
+      return m_in.readBoolean();
+    }
+
+    /**
+     * Reads a string
+     *
+     * @return The string
+     * @throws IOException
+     *           If the string cannot be read
+     */
+    public String readString() throws IOException
+    {
+      byte[] bytes = new byte[m_in.readInt()];
+      m_in.readFully(bytes);
+      return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Reads elements written by {@link Output#writeCollection(Collection)} and
+     * adds them to a collection
+     *
+     * @param c
+     *          The collection to add the elements to
+     * @throws IOException
+     *           If an element cannot be read
+     */
+    public void readCollection(/* @NotNull */ Collection<Object> c) throws IOException
+    {
+      int size = m_in.readInt();
+      for (int i = 0; i < size; i++)
+      {
+        c.add(readObject());
+      }
+    }
+
+    /**
+     * Reads entries written by {@link Output#writeMap(Map)} and puts them into
+     * a map
+     *
+     * @param m
+     *          The map to put the entries into
+     * @throws IOException
+     *           If an entry cannot be read
+     */
+    public void readMap(/* @NotNull */ Map<Object, Object> m) throws IOException
+    {
+      int size = m_in.readInt();
+      for (int i = 0; i < size; i++)
+      {
+        Object k = readObject();
+        m.put(k, readObject());
+      }
+    }
+
+    /**
+     * Reads an object written by {@link Output#writeObject(Object)}
+     *
+     * @return The object
+     * @throws IOException
+     *           If the object cannot be read
+     */
+    public Object readObject() throws IOException
+    {
+      byte type = m_in.readByte();
+      switch (type)
+      {
+      case T_NULL:
+        return null;
+      case T_INT:
+        return m_in.readInt();
+      case T_LONG:
+        return m_in.readLong();
+      case T_FLOAT:
+        return m_in.readFloat();
+      case T_DOUBLE:
+        return m_in.readDouble();
+      case T_STRING:
+        return readString();
+      case T_BOOLEAN:
+        return m_in.readBoolean();
+      case T_ARRAY:
+      {
+        Object[] a = new Object[m_in.readInt()];
+        for (int i = 0; i < a.length; i++)
+        {
+          a[i] = readObject();
+        }
+        return a;
+      }
+      case T_BYTES:
+      {
+        byte[] a = new byte[m_in.readInt()];
+        m_in.readFully(a);
+        return a;
+      }
+      case T_ARRAYLIST:
+      {
+        List<Object> list = new ArrayList<Object>();
+        readCollection(list);
+        return list;
+      }
+      case T_LINKEDLIST:
+      {
+        List<Object> list = new LinkedList<Object>();
+        readCollection(list);
+        return list;
+      }
+      case T_HASHSET:
+      {
+        HashSet<Object> set = new HashSet<Object>();
+        readCollection(set);
+        return set;
+      }
+      case T_HASHMAP:
+      {
+        HashMap<Object, Object> map = new HashMap<Object, Object>();
+        readMap(map);
+        return map;
+      }
+      case T_SERIALIZED:
+      {
+        byte[] bytes = new byte[m_in.readInt()];
+        m_in.readFully(bytes);
+        ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes));
+        try
+        {
+          return ois.readObject();
+        }
+        catch (ClassNotFoundException e)
+        {
+          throw new IOException(e.getMessage());
+        }
+        finally
+        {
+          ois.close();
+        }
+      }
+      default:
+        throw new IOException("Unknown type tag " + type);
+      }
+    }
+  }
+}
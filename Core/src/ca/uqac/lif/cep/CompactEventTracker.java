@@ -0,0 +1,921 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep;
+
+import ca.uqac.lif.petitpoucet.BrokenChain;
+import ca.uqac.lif.petitpoucet.NodeFunction;
+import ca.uqac.lif.petitpoucet.ProvenanceNode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Event tracker that records associations in compact, append-only storage.
+ * The associations of each processor are appended to <em>chunks</em> of at
+ * most {@link #CHUNK_SIZE} records. Inside a chunk, a record is encoded as a
+ * handful of variable-length integers, and stream positions are stored as the
+ * difference with the previous position; a record of a processor that
+ * associates the <i>n</i>-th input to the <i>n</i>-th output typically takes
+ * four bytes. No object is created per record, except for the
+ * {@link NodeFunction}s passed to
+ * {@link #associateTo(int, NodeFunction, int, int) associateTo()}.
+ * <p>
+ * The tracker can be told to keep only a fraction of the associations:
+ * <ul>
+ * <li>with a <em>sampling rate</em> of <i>n</i>, only the associations of
+ * output events whose position is a multiple of <i>n</i> are recorded</li>
+ * <li>with a <em>retention</em> delay, chunks that have not been written to for
+ * longer than this delay are discarded</li>
+ * <li>with a <em>memory budget</em>, the oldest chunks are discarded when the
+ * storage exceeds the budget</li>
+ * </ul>
+ * Provenance trees are not maintained as events are tracked; they are rebuilt
+ * from the stored associations when {@link #getProvenanceTree(int, int, int)}
+ * is called. Since processors normally produce their output events in
+ * increasing order of position, the chunks of a processor that hold an event
+ * are found by a binary search on the positions they cover; only these chunks
+ * are decoded. Parts of the tree whose associations have not been recorded,
+ * or have been discarded, end with a {@link BrokenChain}.
+ *
+ * @author Sylvain Hallé
+ */
+public class CompactEventTracker implements EventTracker
+{
+  /**
+   * The maximum number of records in a chunk
+   */
+  public static final int CHUNK_SIZE = 1024;
+
+  /**
+   * Record kind: an output event associated to an input event
+   */
+  protected static final int INPUT = 0;
+
+  /**
+   * Record kind: an output event associated to another output event
+   */
+  protected static final int OUTPUT = 1;
+
+  /**
+   * Record kind: an output event associated to a node function
+   */
+  protected static final int FUNCTION = 2;
+
+  /**
+   * The records of each processor, indexed by processor ID
+   */
+  protected final Map<Integer, Column> m_columns = new HashMap<Integer, Column>();
+
+  /**
+   * The connections between processors. The key is made of the ID of a
+   * processor and the index of one of its input streams; the value is made of
+   * the ID of the processor and the index of the output stream connected to it.
+   */
+  protected final Map<Long, Long> m_connections = new HashMap<Long, Long>();
+
+  /**
+   * All the chunks, in the order they were created
+   */
+  protected final ArrayDeque<Chunk> m_chunks = new ArrayDeque<Chunk>();
+
+  /**
+   * The column of the processor that recorded an association last
+   */
+  protected Column m_lastColumn = null;
+
+  /**
+   * Only the output events whose position is a multiple of this number are
+   * recorded
+   */
+  protected int m_samplingRate = 1;
+
+  /**
+   * The time (in milliseconds) after which a chunk that is no longer written
+   * to is discarded; a negative value means chunks are never discarded
+   * because of their age
+   */
+  protected long m_retention = -1;
+
+  /**
+   * The approximate number of bytes the stored associations can occupy; a
+   * negative value means no limit
+   */
+  protected long m_memoryBudget = -1;
+
+  /**
+   * The approximate number of bytes occupied by the stored associations
+   */
+  protected long m_memoryUsage = 0;
+
+  /**
+   * The number of associations currently stored
+   */
+  protected long m_recordCount = 0;
+
+  /**
+   * The number of associations discarded so far
+   */
+  protected long m_discardedCount = 0;
+
+  /**
+   * Creates a new compact event tracker
+   */
+  public CompactEventTracker()
+  {
+    super();
+  }
+
+  /**
+   * Sets the sampling rate of this tracker
+   *
+   * @param n
+   *          Only the associations of output events whose position is a
+   *          multiple of this number are recorded. Set to 1 to record
+   *          everything.
+   * @return This tracker
+   */
+  public synchronized CompactEventTracker setSamplingRate(int n)
+  {
+    if (n < 1)
+    {
+      throw new IllegalArgumentException("Sampling rate must be positive");
+    }
+    m_samplingRate = n;
+    return this;
+  }
+
+  /**
+   * Sets the retention delay of this tracker
+   *
+   * @param millis
+   *          The time (in milliseconds) after which a chunk of associations
+   *          that is no longer written to is discarded. Use a negative value to
+   *          keep associations regardless of their age.
+   * @return This tracker
+   */
+  public synchronized CompactEventTracker setRetention(long millis)
+  {
+    m_retention = millis;
+    return this;
+  }
+
+  /**
+   * Sets the memory budget of this tracker
+   *
+   * @param bytes
+   *          The approximate number of bytes the stored associations can
+   *          occupy. Use a negative value for no limit.
+   * @return This tracker
+   */
+  public synchronized CompactEventTracker setMemoryBudget(long bytes)
+  {
+    m_memoryBudget = bytes;
+    evict(now());
+    return this;
+  }
+
+  /**
+   * Gets the number of associations currently stored by this tracker
+   *
+   * @return The number of associations
+   */
+  public synchronized long getRecordCount()
+  {
+    return m_recordCount;
+  }
+
+  /**
+   * Gets the number of associations that were discarded because of the
+   * retention delay or the memory budget
+   *
+   * @return The number of associations
+   */
+  public synchronized long getDiscardedCount()
+  {
+    return m_discardedCount;
+  }
+
+  /**
+   * Gets the approximate number of bytes occupied by the stored associations
+   *
+   * @return The number of bytes
+   */
+  public synchronized long getMemoryUsage()
+  {
+    return m_memoryUsage;
+  }
+
+  /**
+   * Removes all the associations and connections stored in this tracker
+   */
+  public synchronized void clear()
+  {
+    m_columns.clear();
+    m_connections.clear();
+    m_chunks.clear();
+    m_lastColumn = null;
+    m_memoryUsage = 0;
+    m_recordCount = 0;
+    m_discardedCount = 0;
+  }
+
+  @Override
+  public synchronized void associateTo(int id, NodeFunction f, int out_stream_index,
+      int out_stream_pos)
+  {
+    record(id, FUNCTION, 0, 0, out_stream_index, out_stream_pos, f);
+  }
+
+  @Override
+  public synchronized void associateToInput(int id, int in_stream_index, int in_stream_pos,
+      int out_stream_index, int out_stream_pos)
+  {
+    record(id, INPUT, in_stream_index, in_stream_pos, out_stream_index, out_stream_pos, null);
+  }
+
+  @Override
+  public synchronized void associateToOutput(int id, int in_stream_index, int in_stream_pos,
+      int out_stream_index, int out_stream_pos)
+  {
+    record(id, OUTPUT, in_stream_index, in_stream_pos, out_stream_index, out_stream_pos, null);
+  }
+
+  @Override
+  public synchronized void setConnection(int output_proc_id, int output_stream_index,
+      int input_proc_id, int input_stream_index)
+  {
+    m_connections.put(pack(input_proc_id, input_stream_index),
+        pack(output_proc_id, output_stream_index));
+  }
+
+  @Override
+  public void setTo(Processor ... processors)
+  {
+    for (Processor p : processors)
+    {
+      p.setEventTracker(this);
+    }
+  }
+
+  @Override
+  public synchronized ProvenanceNode getProvenanceTree(int proc_id, int stream_index,
+      int stream_pos)
+  {
+    if (!m_columns.containsKey(proc_id))
+    {
+      return BrokenChain.instance;
+    }
+    evict(now());
+    // The tree is built breadth-first, so that long chains of dependencies
+    // (such as those of a Cumulate) do not exhaust the stack
+    Map<EventFunction, ProvenanceNode> nodes = new HashMap<EventFunction, ProvenanceNode>();
+    Queue<EventFunction> to_expand = new ArrayDeque<EventFunction>();
+    EventFunction root_f = new EventFunction(proc_id, false, stream_index, stream_pos);
+    ProvenanceNode root = new ProvenanceNode(root_f);
+    nodes.put(root_f, root);
+    to_expand.add(root_f);
+    while (!to_expand.isEmpty())
+    {
+      EventFunction ef = to_expand.remove();
+      ProvenanceNode node = nodes.get(ef);
+      if (ef.m_input)
+      {
+        // An input event is the output event of the upstream processor
+        Long upstream = m_connections.get(pack(ef.m_processorId, ef.m_streamIndex));
+        if (upstream == null)
+        {
+          continue;
+        }
+        EventFunction parent_f = new EventFunction((int) (upstream >> 32), false,
+            (int) upstream.longValue(), ef.m_streamPos);
+        link(node, parent_f, nodes, to_expand);
+        continue;
+      }
+      Column col = m_columns.get(ef.m_processorId);
+      boolean found = false;
+      if (col != null)
+      {
+        int pos = ef.m_streamPos;
+        for (int i = col.findChunk(pos); i < col.m_chunks.size(); i++)
+        {
+          Chunk ch = col.m_chunks.get(i);
+          if (col.m_ordered && ch.m_minOutPos > pos)
+          {
+            // The next chunks only hold later positions
+            break;
+          }
+          found |= ch.expand(ef, node, nodes, to_expand);
+        }
+      }
+      if (!found)
+      {
+        node.addParent(BrokenChain.instance);
+      }
+    }
+    return root;
+  }
+
+  /**
+   * Gets the current time. This method is called only if a retention delay is
+   * set.
+   *
+   * @return The time, in milliseconds
+   */
+  protected long now()
+  {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Stores an association
+   *
+   * @param id
+   *          The ID of the processor
+   * @param kind
+   *          The kind of association
+   * @param in_index
+   *          The index of the stream of the event the output depends on
+   * @param in_pos
+   *          The position of the event the output depends on
+   * @param out_index
+   *          The index of the output stream
+   * @param out_pos
+   *          The position of the output event
+   * @param f
+   *          The node function the output depends on, if any
+   */
+  protected void record(int id, int kind, int in_index, int in_pos, int out_index, int out_pos,
+      NodeFunction f)
+  {
+    if (m_samplingRate > 1 && out_pos % m_samplingRate != 0)
+    {
+      return;
+    }
+    Column col = m_lastColumn;
+    if (col == null || col.m_processorId != id)
+    {
+      col = m_columns.get(id);
+      if (col == null)
+      {
+        col = new Column(id);
+        m_columns.put(id, col);
+      }
+      m_lastColumn = col;
+    }
+    long time = m_retention >= 0 ? now() : 0;
+    Chunk ch = col.m_chunks.isEmpty() ? null : col.m_chunks.get(col.m_chunks.size() - 1);
+    if (ch == null || ch.m_count >= CHUNK_SIZE)
+    {
+      ch = new Chunk(col);
+      col.m_chunks.add(ch);
+      m_chunks.add(ch);
+      m_memoryUsage += ch.getFootprint();
+    }
+    long before = ch.getFootprint();
+    ch.write(kind, in_index, in_pos, out_index, out_pos, f);
+    ch.m_lastWrite = time;
+    col.update(out_pos);
+    m_memoryUsage += ch.getFootprint() - before;
+    m_recordCount++;
+    if (m_retention >= 0 || m_memoryBudget >= 0)
+    {
+      evict(time);
+    }
+  }
+
+  /**
+   * Discards the chunks that are too old, or that exceed the memory budget.
+   * Chunks are examined in the order they were created.
+   *
+   * @param time
+   *          The current time
+   */
+  protected void evict(long time)
+  {
+    while (!m_chunks.isEmpty())
+    {
+      Chunk first = m_chunks.peekFirst();
+      boolean expired = m_retention >= 0 && time - first.m_lastWrite > m_retention;
+      boolean over = m_memoryBudget >= 0 && m_memoryUsage > m_memoryBudget;
+      if (!expired && !over)
+      {
+        return;
+      }
+      m_chunks.removeFirst();
+      // The oldest chunk is also the oldest of its column
+      first.m_column.m_chunks.remove(0);
+      m_memoryUsage -= first.getFootprint();
+      m_recordCount -= first.m_count;
+      m_discardedCount += first.m_count;
+    }
+  }
+
+  /**
+   * Adds a parent to a node of a provenance tree, creating the parent node if
+   * it does not exist yet
+   *
+   * @param node
+   *          The node
+   * @param parent_f
+   *          The function of the parent node
+   * @param nodes
+   *          The nodes created so far
+   * @param to_expand
+   *          The functions of the nodes whose parents remain to be computed
+   */
+  protected static void link(ProvenanceNode node, EventFunction parent_f,
+      Map<EventFunction, ProvenanceNode> nodes, Queue<EventFunction> to_expand)
+  {
+    ProvenanceNode parent = nodes.get(parent_f);
+    if (parent == null)
+    {
+      parent = new ProvenanceNode(parent_f);
+      nodes.put(parent_f, parent);
+      to_expand.add(parent_f);
+    }
+    node.addParent(parent);
+    parent.addChild(node);
+  }
+
+  /**
+   * Packs two integers into a long
+   *
+   * @param high
+   *          The integer in the upper half
+   * @param low
+   *          The integer in the lower half
+   * @return The long
+   */
+  protected static long pack(int high, int low)
+  {
+    return ((long) high << 32) | (low & 0xFFFFFFFFL);
+  }
+
+  /**
+   * The records of a single processor
+   */
+  protected static class Column
+  {
+    /**
+     * The ID of the processor
+     */
+    protected final int m_processorId;
+
+    /**
+     * The chunks of this processor, in the order they were created
+     */
+    protected final List<Chunk> m_chunks = new ArrayList<Chunk>();
+
+    /**
+     * The largest output position recorded so far
+     */
+    protected int m_maxOutPos = Integer.MIN_VALUE;
+
+    /**
+     * Whether the output positions have been recorded in non-decreasing
+     * order. In such a case, the ranges of positions covered by the chunks
+     * are sorted, and can be searched by bisection.
+     */
+    protected boolean m_ordered = true;
+
+    /**
+     * Creates a new empty column
+     *
+     * @param id
+     *          The ID of the processor
+     */
+    Column(int id)
+    {
+      super();
+      m_processorId = id;
+    }
+
+    /**
+     * Updates the range of positions of this column after a record is
+     * written
+     *
+     * @param out_pos
+     *          The position of the output event of the record
+     */
+    void update(int out_pos)
+    {
+      if (out_pos < m_maxOutPos)
+      {
+        m_ordered = false;
+      }
+      m_maxOutPos = Math.max(m_maxOutPos, out_pos);
+    }
+
+    /**
+     * Finds the first chunk that can hold records of an output event
+     *
+     * @param pos
+     *          The position of the event
+     * @return The index of the chunk in {@link #m_chunks}; 0 if the
+     *         positions have not been recorded in order
+     */
+    int findChunk(int pos)
+    {
+      if (!m_ordered)
+      {
+        return 0;
+      }
+      int low = 0;
+      int high = m_chunks.size();
+      while (low < high)
+      {
+        int mid = (low + high) >>> 1;
+        if (m_chunks.get(mid).m_maxOutPos < pos)
+        {
+          low = mid + 1;
+        }
+        else
+        {
+          high = mid;
+        }
+      }
+      return low;
+    }
+  }
+
+  /**
+   * A block of consecutive records of a processor. Each record is made of the
+   * following variable-length integers:
+   * <ol>
+   * <li>the kind of record, combined with the index of the output stream</li>
+   * <li>the difference between the position of the output event and that of
+   * the previous record</li>
+   * <li>unless the record refers to a node function, the index of the stream
+   * of the event the output depends on</li>
+   * <li>unless the record refers to a node function, the difference between
+   * the position of that event and the position of the output event</li>
+   * </ol>
+   * Node functions are kept in a separate list, in the order of the records
+   * that refer to them.
+   */
+  protected static class Chunk
+  {
+    /**
+     * The column this chunk belongs to
+     */
+    protected final Column m_column;
+
+    /**
+     * The encoded records
+     */
+    protected byte[] m_data = new byte[64];
+
+    /**
+     * The number of bytes used in {@link #m_data}
+     */
+    protected int m_length = 0;
+
+    /**
+     * The number of records in this chunk
+     */
+    protected int m_count = 0;
+
+    /**
+     * The node functions referred to by the records of this chunk
+     */
+    protected List<NodeFunction> m_functions = null;
+
+    /**
+     * The position of the output event of the last record
+     */
+    protected int m_lastOutPos = 0;
+
+    /**
+     * The smallest output position in this chunk
+     */
+    protected int m_minOutPos = Integer.MAX_VALUE;
+
+    /**
+     * The largest output position in this chunk
+     */
+    protected int m_maxOutPos = Integer.MIN_VALUE;
+
+    /**
+     * The time of the last write into this chunk
+     */
+    protected long m_lastWrite = 0;
+
+    /**
+     * Creates a new empty chunk
+     *
+     * @param col
+     *          The column this chunk belongs to
+     */
+    Chunk(Column col)
+    {
+      super();
+      m_column = col;
+    }
+
+    /**
+     * Gets the approximate number of bytes occupied by this chunk
+     *
+     * @return The number of bytes
+     */
+    long getFootprint()
+    {
+      int functions = m_functions == null ? 0 : m_functions.size();
+      return 64 + m_data.length + 8 * functions;
+    }
+
+    /**
+     * Appends a record to this chunk
+     */
+    void write(int kind, int in_index, int in_pos, int out_index, int out_pos,
+        NodeFunction f)
+    {
+      writeInt((out_index << 2) | kind);
+      writeInt(zigzag(out_pos - m_lastOutPos));
+      m_lastOutPos = out_pos;
+      if (kind == FUNCTION)
+      {
+        if (m_functions == null)
+        {
+          m_functions = new ArrayList<NodeFunction>();
+        }
+        m_functions.add(f);
+      }
+      else
+      {
+        writeInt(in_index);
+        writeInt(zigzag(in_pos - out_pos));
+      }
+      m_minOutPos = Math.min(m_minOutPos, out_pos);
+      m_maxOutPos = Math.max(m_maxOutPos, out_pos);
+      m_count++;
+    }
+
+    /**
+     * Adds to a node the parents given by the records of this chunk
+     *
+     * @param ef
+     *          The function of the node, which must be an output event
+     * @param node
+     *          The node
+     * @param nodes
+     *          The nodes created so far
+     * @param to_expand
+     *          The functions of the nodes whose parents remain to be computed
+     * @return {@code true} if at least one record concerns this event
+     */
+    boolean expand(EventFunction ef, ProvenanceNode node,
+        Map<EventFunction, ProvenanceNode> nodes, Queue<EventFunction> to_expand)
+    {
+      if (ef.m_streamPos < m_minOutPos || ef.m_streamPos > m_maxOutPos)
+      {
+        return false;
+      }
+      boolean found = false;
+      int[] cursor = new int[1];
+      int out_pos = 0;
+      int function_index = 0;
+      for (int r = 0; r < m_count; r++)
+      {
+        int header = readInt(cursor);
+        int kind = header & 3;
+        int out_index = header >>> 2;
+        out_pos += unzigzag(readInt(cursor));
+        if (kind == FUNCTION)
+        {
+          NodeFunction f = m_functions.get(function_index++);
+          if (out_index == ef.m_streamIndex && out_pos == ef.m_streamPos)
+          {
+            ProvenanceNode leaf = new ProvenanceNode(f);
+            node.addParent(leaf);
+            leaf.addChild(node);
+            found = true;
+          }
+          continue;
+        }
+        int in_index = readInt(cursor);
+        int in_pos = out_pos + unzigzag(readInt(cursor));
+        if (out_index == ef.m_streamIndex && out_pos == ef.m_streamPos)
+        {
+          link(node, new EventFunction(ef.m_processorId, kind == INPUT, in_index, in_pos),
+              nodes, to_expand);
+          found = true;
+        }
+      }
+      return found;
+    }
+
+    /**
+     * Writes a non-negative integer with a variable number of bytes
+     *
+     * @param x
+     *          The integer
+     */
+    protected void writeInt(int x)
+    {
+      if (m_length + 5 > m_data.length)
+      {
+        byte[] new_data = new byte[m_data.length * 2];
+        System.arraycopy(m_data, 0, new_data, 0, m_length);
+        m_data = new_data;
+      }
+      while ((x & ~0x7F) != 0)
+      {
+        m_data[m_length++] = (byte) ((x & 0x7F) | 0x80);
+        x >>>= 7;
+      }
+      m_data[m_length++] = (byte) x;
+    }
+
+    /**
+     * Reads an integer written by {@link #writeInt(int)}
+     *
+     * @param cursor
+     *          A one-element array containing the position to read from; it
+     *          is advanced past the integer
+     * @return The integer
+     */
+    protected int readInt(int[] cursor)
+    {
+      int x = 0;
+      int shift = 0;
+      int pos = cursor[0];
+      byte b;
+      do
+      {
+        b = m_data[pos++];
+        x |= (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      cursor[0] = pos;
+      return x;
+    }
+
+    /**
+     * Maps a signed integer to a non-negative one, so that integers of small
+     * magnitude are written with few bytes
+     *
+     * @param x
+     *          The integer
+     * @return The mapped integer
+     */
+    protected static int zigzag(int x)
+    {
+      return (x << 1) ^ (x >> 31);
+    }
+
+    /**
+     * Reverses {@link #zigzag(int)}
+     *
+     * @param x
+     *          The mapped integer
+     * @return The original integer
+     */
+    protected static int unzigzag(int x)
+    {
+      return (x >>> 1) ^ -(x & 1);
+    }
+  }
+
+  /**
+   * Node function designating an input or output event of a processor
+   */
+  public static class EventFunction implements NodeFunction
+  {
+    /**
+     * The ID of the processor
+     */
+    protected final int m_processorId;
+
+    /**
+     * Whether the event is an input event; otherwise it is an output event
+     */
+    protected final boolean m_input;
+
+    /**
+     * The index of the stream
+     */
+    protected final int m_streamIndex;
+
+    /**
+     * The position of the event in the stream
+     */
+    protected final int m_streamPos;
+
+    /**
+     * Creates a new event function
+     *
+     * @param proc_id
+     *          The ID of the processor
+     * @param input
+     *          Set to {@code true} for an input event, {@code false} for an
+     *          output event
+     * @param stream_index
+     *          The index of the stream
+     * @param stream_pos
+     *          The position of the event in the stream
+     */
+    public EventFunction(int proc_id, boolean input, int stream_index, int stream_pos)
+    {
+      super();
+      m_processorId = proc_id;
+      m_input = input;
+      m_streamIndex = stream_index;
+      m_streamPos = stream_pos;
+    }
+
+    /**
+     * Gets the ID of the processor
+     *
+     * @return The ID
+     */
+    public int getProcessorId()
+    {
+      return m_processorId;
+    }
+
+    /**
+     * Determines if the event is an input event
+     *
+     * @return {@code true} for an input event, {@code false} for an output
+     *         event
+     */
+    public boolean isInput()
+    {
+      return m_input;
+    }
+
+    /**
+     * Gets the index of the stream
+     *
+     * @return The index
+     */
+    public int getStreamIndex()
+    {
+      return m_streamIndex;
+    }
+
+    /**
+     * Gets the position of the event in the stream
+     *
+     * @return The position
+     */
+    public int getStreamPosition()
+    {
+      return m_streamPos;
+    }
+
+    @Override
+    public String getDataPointId()
+    {
+      return "BP" + m_processorId + (m_input ? ".I" : ".O") + m_streamIndex + "." + m_streamPos;
+    }
+
+    @Override
+    public NodeFunction dependsOn()
+    {
+      return null;
+    }
+
+    @Override
+    public String toString()
+    {
+      return getDataPointId();
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return m_processorId * 31 + m_streamPos * 7 + m_streamIndex + (m_input ? 1 : 0);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof EventFunction))
+      {
+        return false;
+      }
+      EventFunction ef = (EventFunction) o;
+      return ef.m_processorId == m_processorId && ef.m_input == m_input
+          && ef.m_streamIndex == m_streamIndex && ef.m_streamPos == m_streamPos;
+    }
+  }
+}
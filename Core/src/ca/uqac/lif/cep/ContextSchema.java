@@ -0,0 +1,194 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Associates the names of context elements to integer <em>slots</em>. An
+ * {@link IndexedContext} stores the values of the names declared in a schema
+ * in an array, at the position given by their slot. Processors that share the
+ * same schema can therefore copy their context to each other slot by slot,
+ * and functions can resolve the slot of a name once and then access the
+ * context by position.
+ * <p>
+ * Names are added to a schema as they are encountered, and are never removed.
+ * Looking up the slot of a name that is already declared does not require
+ * any lock.
+ *
+ * @author Sylvain Hallé
+ */
+public class ContextSchema
+{
+  /**
+   * The slot declared for each name. This map is never modified once
+   * published; declaring a new name replaces it with a copy.
+   */
+  private volatile Map<String, Slot> m_slots = new HashMap<String, Slot>();
+
+  /**
+   * The names declared in this schema, in the order of their slots
+   */
+  private final List<String> m_names = new ArrayList<String>();
+
+  /**
+   * Creates a new schema and declares names in it
+   *
+   * @param names
+   *          The names to declare
+   */
+  public ContextSchema(String ... names)
+  {
+    super();
+    for (String name : names)
+    {
+      getSlot(name);
+    }
+  }
+
+  /**
+   * Gets the slot of a name, declaring the name if it is not already in
+   * the schema
+   *
+   * @param name
+   *          The name
+   * @return The slot
+   */
+  public /* @NotNull */ Slot getSlot(/* @NotNull */ String name)
+  {
+    Slot s = m_slots.get(name);
+    if (s != null)
+    {
+      return s;
+    }
+    synchronized (m_names)
+    {
+      s = m_slots.get(name);
+      if (s == null)
+      {
+        s = new Slot(this, m_names.size());
+        m_names.add(name);
+        Map<String, Slot> new_slots = new HashMap<String, Slot>(m_slots);
+        new_slots.put(name, s);
+        m_slots = new_slots;
+      }
+      return s;
+    }
+  }
+
+  /**
+   * Gets the position of the slot of a name
+   *
+   * @param name
+   *          The name
+   * @return The position, or -1 if the name is not declared in this schema
+   */
+  public int indexOf(/* @NotNull */ String name)
+  {
+    Slot s = m_slots.get(name);
+    if (s == null)
+    {
+      return -1;
+    }
+    return s.m_index;
+  }
+
+  /**
+   * Gets the name associated to a slot
+   *
+   * @param index
+   *          The position of the slot
+   * @return The name
+   */
+  public String getName(int index)
+  {
+    synchronized (m_names)
+    {
+      return m_names.get(index);
+    }
+  }
+
+  /**
+   * Gets the number of names declared in this schema
+   *
+   * @return The number of names
+   */
+  public int size()
+  {
+    synchronized (m_names)
+    {
+      return m_names.size();
+    }
+  }
+
+  /**
+   * The slot of a name in a schema. A slot remembers the schema it belongs
+   * to, so that an object holding a slot can check that it is still valid
+   * for a given context with a single comparison.
+   */
+  public static final class Slot
+  {
+    /**
+     * The schema this slot belongs to
+     */
+    private final ContextSchema m_schema;
+
+    /**
+     * The position of this slot
+     */
+    private final int m_index;
+
+    /**
+     * Creates a new slot
+     *
+     * @param schema
+     *          The schema this slot belongs to
+     * @param index
+     *          The position of this slot
+     */
+    Slot(ContextSchema schema, int index)
+    {
+      super();
+      m_schema = schema;
+      m_index = index;
+    }
+
+    /**
+     * Gets the schema this slot belongs to
+     *
+     * @return The schema
+     */
+    public ContextSchema getSchema()
+    {
+      return m_schema;
+    }
+
+    /**
+     * Gets the position of this slot
+     *
+     * @return The position
+     */
+    public int getIndex()
+    {
+      return m_index;
+    }
+  }
+}
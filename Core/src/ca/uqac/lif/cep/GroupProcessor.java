@@ -18,13 +18,16 @@
 package ca.uqac.lif.cep;
 
 import ca.uqac.lif.cep.tmf.Source;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Encapsulates a chain of processors as if it were a single one.
@@ -391,6 +394,10 @@ public class GroupProcessor extends Processor
   protected static synchronized Processor copyProcessor(Processor p, boolean with_state)
   {
     Processor clone_p = p.duplicate(with_state);
+    if (p.m_contextSchema != null)
+    {
+      clone_p.setContextSchema(p.m_contextSchema);
+    }
     clone_p.setContext(p.m_context);
     if (with_state)
     {
@@ -486,6 +493,26 @@ public class GroupProcessor extends Processor
     }
   }
 
+  /**
+   * Sets the schema used to index the context of this group. The schema is
+   * also given to all the processors inside the group, so that the context of
+   * the group can be copied to each of them slot by slot.
+   * 
+   * @param schema
+   *          The schema, or {@code null} to revert to a plain context
+   * @return This group
+   */
+  @Override
+  public synchronized GroupProcessor setContextSchema(ContextSchema schema)
+  {
+    super.setContextSchema(schema);
+    for (Processor p : m_processors)
+    {
+      p.setContextSchema(schema);
+    }
+    return this;
+  }
+
   @Override
   public synchronized void setContext(String key, Object value)
   {
@@ -496,7 +523,7 @@ public class GroupProcessor extends Processor
     }
   }
 
-  public class ProxyPullable implements Pullable
+  public class ProxyPullable implements TimedPullable
   {
     protected Pullable m_pullable;
 
@@ -537,6 +564,12 @@ public class GroupProcessor extends Processor
       return m_pullable.hasNext();
     }
 
+    @Override
+    public synchronized NextStatus hasNext(long timeout, TimeUnit unit)
+    {
+      return IdleStrategy.hasNext(m_pullable, timeout, unit, m_idleStrategy);
+    }
+
     @Override
     public synchronized Processor getProcessor()
     {
@@ -680,6 +713,160 @@ public class GroupProcessor extends Processor
     }
   }
 
+  @Override
+  public synchronized void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    List<Processor> procs = getProcessorsInOrder();
+    out.writeInt(procs.size());
+    for (Processor p : procs)
+    {
+      out.writeProcessor(p);
+    }
+  }
+
+  @Override
+  public synchronized void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    List<Processor> procs = getProcessorsInOrder();
+    int size = in.readInt();
+    if (size != procs.size())
+    {
+      throw new IOException("Checkpoint contains a group of " + size
+          + " processors, expected " + procs.size());
+    }
+    for (Processor p : procs)
+    {
+      in.readProcessor(p);
+    }
+  }
+
+  /**
+   * Gets the processors included in the group, in an order that only depends
+   * on the way they are connected. The processors associated to the inputs of
+   * the group come first, then the processors associated to its outputs; the
+   * others follow in breadth-first order of their connections. Two groups built
+   * in the same way therefore list their processors in the same order, even if
+   * the processors themselves are different instances.
+   * 
+   * @return The list of processors
+   */
+  protected synchronized List<Processor> getProcessorsInOrder()
+  {
+    List<Processor> order = new ArrayList<Processor>(m_processors.size());
+    Set<Processor> seen = new HashSet<Processor>();
+    for (int i = 0; i < getInputArity(); i++)
+    {
+      ProcessorAssociation pa = m_inputPullableAssociations.get(i);
+      if (pa != null && seen.add(pa.m_processor))
+      {
+        order.add(pa.m_processor);
+      }
+    }
+    for (int i = 0; i < getOutputArity(); i++)
+    {
+      ProcessorAssociation pa = m_outputPushableAssociations.get(i);
+      if (pa != null && seen.add(pa.m_processor))
+      {
+        order.add(pa.m_processor);
+      }
+    }
+    for (int k = 0; k < order.size() || seen.size() < m_processors.size(); k++)
+    {
+      if (k == order.size())
+      {
+        // The remaining processors are not connected to the ones found so far;
+        // continue with the one that was created first
+        Processor first = null;
+        for (Processor p : m_processors)
+        {
+          if (!seen.contains(p) && (first == null || p.getId() < first.getId()))
+          {
+            first = p;
+          }
+        }
+        seen.add(first);
+        order.add(first);
+      }
+      Processor p = order.get(k);
+      for (int i = 0; i < p.getOutputArity(); i++)
+      {
+        Pushable push = p.getPushableOutput(i);
+        if (push != null)
+        {
+          addInOrder(push.getProcessor(), order, seen);
+        }
+      }
+      for (int i = 0; i < p.getInputArity(); i++)
+      {
+        Pullable pull = p.getPullableInput(i);
+        if (pull != null)
+        {
+          addInOrder(pull.getProcessor(), order, seen);
+        }
+      }
+    }
+    return order;
+  }
+
+  /**
+   * Adds a processor to the list computed by {@link #getProcessorsInOrder()},
+   * if it belongs to this group and has not been added already
+   * 
+   * @param p
+   *          The processor
+   * @param order
+   *          The list of processors
+   * @param seen
+   *          The processors already in the list
+   */
+  private void addInOrder(Processor p, List<Processor> order, Set<Processor> seen)
+  {
+    if (p != null && m_processors.contains(p) && seen.add(p))
+    {
+      order.add(p);
+    }
+  }
+
+  /**
+   * Gets the processors included in the group
+   * 
+   * @return An array containing the processors
+   */
+  synchronized Processor[] getProcessorArray()
+  {
+    return m_processors.toArray(new Processor[m_processors.size()]);
+  }
+
+  /**
+   * Gets whether the group notifies its sources when an event is pushed
+   * 
+   * @return {@code true} if the sources are notified
+   */
+  synchronized boolean getNotifySources()
+  {
+    return m_notifySources;
+  }
+
+  /**
+   * Gets the association of an input or an output of the group
+   * 
+   * @param index
+   *          The number of the input or output
+   * @param input
+   *          Set to {@code true} for an input, {@code false} for an output
+   * @return The association, or {@code null} if there is none
+   */
+  synchronized ProcessorAssociation getAssociation(int index, boolean input)
+  {
+    if (input)
+    {
+      return m_inputPullableAssociations.get(index);
+    }
+    return m_outputPushableAssociations.get(index);
+  }
+
   /**
    * Gets the processor associated to the i-th input of the group
    * 
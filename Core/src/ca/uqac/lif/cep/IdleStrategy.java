@@ -0,0 +1,298 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Determines what a thread does while it waits for an event that is not
+ * available <em>yet</em>. This happens when a {@link Pullable} is asked for an
+ * event, and the source at the start of the chain has no event to provide
+ * right now, but may have one in the future (for example, a source reading
+ * from a pipe). Rather than asking the source again and again as fast as
+ * possible, the pullable calls {@link #idle(int)} between two attempts.
+ * <p>
+ * Three strategies are provided:
+ * <ul>
+ * <li>{@link #BUSY_SPIN} asks again immediately. It has the lowest latency,
+ * but keeps a core busy.</li>
+ * <li>{@link #YIELD} lets other threads run between two attempts.</li>
+ * <li>{@link Backoff} first spins, then yields, and then parks the thread for
+ * a duration that doubles at each attempt, up to a maximum. An idle consumer
+ * thus uses almost no processor time, while a source that provides events in
+ * quick succession is still served with a low latency. This is the default
+ * strategy, {@link #DEFAULT}.</li>
+ * </ul>
+ * A parked thread can be woken up before the end of its parking time by a
+ * call to {@link LockSupport#unpark(Thread)}; this is what a
+ * {@link ca.uqac.lif.cep.tmf.Tank Tank} does when an event is pushed into it.
+ * <p>
+ * Strategies keep no state: the number of attempts made so far is passed to
+ * {@link #idle(int)}. The same instance can therefore be shared by any number
+ * of processors and threads.
+ *
+ * @author Sylvain Hallé
+ */
+public abstract class IdleStrategy
+{
+  /**
+   * A timeout value meaning "wait forever"
+   */
+  public static final long FOREVER = Long.MAX_VALUE;
+
+  /**
+   * Strategy that asks again immediately
+   */
+  public static final IdleStrategy BUSY_SPIN = new BusySpin();
+
+  /**
+   * Strategy that yields the processor between two attempts
+   */
+  public static final IdleStrategy YIELD = new Yield();
+
+  /**
+   * The default strategy: 100 spins, then 100 yields, then parking from 1
+   * microsecond up to 1 millisecond
+   */
+  public static final IdleStrategy DEFAULT = new Backoff(100, 100,
+      TimeUnit.MICROSECONDS.toNanos(1), TimeUnit.MILLISECONDS.toNanos(1));
+
+  /**
+   * Waits before the next attempt at getting an event
+   *
+   * @param attempts
+   *          The number of consecutive attempts that have failed so far,
+   *          starting at 1
+   */
+  public abstract void idle(int attempts);
+
+  /**
+   * Waits until an event can be pulled from a pullable, or until a timeout
+   * expires. The pullable is queried with {@link Pullable#hasNextSoft()}, and
+   * the strategy is applied between two queries. This is the behaviour of
+   * {@link TimedPullable#hasNext(long, TimeUnit)} for pullables that have no
+   * better way of waiting.
+   *
+   * @param p
+   *          The pullable
+   * @param timeout
+   *          The maximum time to wait, or {@link #FOREVER}
+   * @param unit
+   *          The unit of the timeout
+   * @param strategy
+   *          The strategy to apply between two queries
+   * @return {@link NextStatus#YES} if an event can be pulled,
+   *         {@link NextStatus#NO} if no event will ever be available, and
+   *         {@link NextStatus#MAYBE} if the timeout expired
+   */
+  public static NextStatus waitFor(Pullable p, long timeout, TimeUnit unit,
+      IdleStrategy strategy)
+  {
+    long deadline = getDeadline(timeout, unit);
+    for (int attempts = 1;; attempts++)
+    {
+      NextStatus status = p.hasNextSoft();
+      if (status != NextStatus.MAYBE)
+      {
+        return status;
+      }
+      if (isExpired(deadline))
+      {
+        return NextStatus.MAYBE;
+      }
+      strategy.idle(attempts);
+    }
+  }
+
+  /**
+   * Waits until an event can be pulled from any pullable, or until a timeout
+   * expires. A {@link TimedPullable} is asked to wait by itself; any other
+   * pullable is queried as in
+   * {@link #waitFor(Pullable, long, TimeUnit, IdleStrategy) waitFor()}.
+   *
+   * @param p
+   *          The pullable
+   * @param timeout
+   *          The maximum time to wait, or {@link #FOREVER}
+   * @param unit
+   *          The unit of the timeout
+   * @param strategy
+   *          The strategy to apply between two queries, if the pullable
+   *          cannot wait by itself
+   * @return {@link NextStatus#YES} if an event can be pulled,
+   *         {@link NextStatus#NO} if no event will ever be available, and
+   *         {@link NextStatus#MAYBE} if the timeout expired
+   */
+  public static NextStatus hasNext(Pullable p, long timeout, TimeUnit unit,
+      IdleStrategy strategy)
+  {
+    if (p instanceof TimedPullable)
+    {
+      return ((TimedPullable) p).hasNext(timeout, unit);
+    }
+    return waitFor(p, timeout, unit, strategy);
+  }
+
+  /**
+   * Computes the moment at which a timeout expires
+   *
+   * @param timeout
+   *          The timeout, or {@link #FOREVER}
+   * @param unit
+   *          The unit of the timeout
+   * @return The moment, as a value of {@link System#nanoTime()}, or
+   *         {@link #FOREVER}
+   */
+  public static long getDeadline(long timeout, TimeUnit unit)
+  {
+    if (timeout == FOREVER)
+    {
+      return FOREVER;
+    }
+    long nanos = unit.toNanos(timeout);
+    long now = System.nanoTime();
+    if (nanos >= FOREVER - now)
+    {
+      return FOREVER;
+    }
+    return now + nanos;
+  }
+
+  /**
+   * Gets the time left before a deadline
+   *
+   * @param deadline
+   *          The deadline, as returned by {@link #getDeadline(long, TimeUnit)}
+   * @return The time left, in nanoseconds, or {@link #FOREVER}
+   */
+  public static long getRemaining(long deadline)
+  {
+    if (deadline == FOREVER)
+    {
+      return FOREVER;
+    }
+    return Math.max(0, deadline - System.nanoTime());
+  }
+
+  /**
+   * Determines if a deadline has passed
+   *
+   * @param deadline
+   *          The deadline, as returned by {@link #getDeadline(long, TimeUnit)}
+   * @return {@code true} if the deadline has passed, {@code false} otherwise
+   */
+  public static boolean isExpired(long deadline)
+  {
+    return deadline != FOREVER && System.nanoTime() - deadline >= 0;
+  }
+
+  /**
+   * Strategy that asks again immediately
+   */
+  public static class BusySpin extends IdleStrategy
+  {
+    @Override
+    public void idle(int attempts)
+    {
+      // Do nothing
+    }
+  }
+
+  /**
+   * Strategy that yields the processor between two attempts
+   */
+  public static class Yield extends IdleStrategy
+  {
+    @Override
+    public void idle(int attempts)
+    {
+      Thread.yield();
+    }
+  }
+
+  /**
+   * Strategy that spins, then yields, then parks the thread for increasing
+   * durations
+   */
+  public static class Backoff extends IdleStrategy
+  {
+    /**
+     * The number of attempts during which the thread spins
+     */
+    protected final int m_spins;
+
+    /**
+     * The number of attempts during which the thread yields, after spinning
+     */
+    protected final int m_yields;
+
+    /**
+     * The first parking duration, in nanoseconds
+     */
+    protected final long m_minPark;
+
+    /**
+     * The maximum parking duration, in nanoseconds
+     */
+    protected final long m_maxPark;
+
+    /**
+     * Creates a new backoff strategy
+     *
+     * @param spins
+     *          The number of attempts during which the thread spins
+     * @param yields
+     *          The number of attempts during which the thread yields, after
+     *          spinning
+     * @param min_park
+     *          The first parking duration, in nanoseconds
+     * @param max_park
+     *          The maximum parking duration, in nanoseconds
+     */
+    public Backoff(int spins, int yields, long min_park, long max_park)
+    {
+      super();
+      m_spins = spins;
+      m_yields = yields;
+      m_minPark = Math.max(1, min_park);
+      m_maxPark = Math.max(m_minPark, max_park);
+    }
+
+    @Override
+    public void idle(int attempts)
+    {
+      if (attempts <= m_spins)
+      {
+        return;
+      }
+      if (attempts <= m_spins + m_yields)
+      {
+        Thread.yield();
+        return;
+      }
+      int doublings = Math.min(62, attempts - m_spins - m_yields - 1);
+      long park = m_minPark;
+      for (int i = 0; i < doublings && park < m_maxPark; i++)
+      {
+        park <<= 1;
+      }
+      LockSupport.parkNanos(this, Math.min(park, m_maxPark));
+    }
+  }
+}
@@ -0,0 +1,308 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Context whose elements are stored in an array, at the positions given by a
+ * {@link ContextSchema}. Elements can still be accessed by name, like in any
+ * other {@link Context}; however, objects that have resolved the
+ * {@link ContextSchema.Slot slot} of a name can read and write the
+ * corresponding element with {@link #get(ContextSchema.Slot)} and
+ * {@link #set(ContextSchema.Slot, Object)}, which amount to a plain array
+ * access.
+ * <p>
+ * Contrary to {@link Context}, the operations on an indexed context are
+ * <em>not</em> synchronized: such a context is meant to be used only by the
+ * thread that runs the processor owning it.
+ *
+ * @author Sylvain Hallé
+ */
+public class IndexedContext extends Context
+{
+  /**
+   * Dummy UID
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * A value standing for {@code null} in the array of slots, as {@code null}
+   * itself means that no value is associated to a slot
+   */
+  private static final Object NULL = new Object();
+
+  /**
+   * The schema giving the position of each name
+   */
+  protected final transient ContextSchema m_schema;
+
+  /**
+   * The values of the elements of this context
+   */
+  protected transient Object[] m_values;
+
+  /**
+   * Whether the values in {@link #m_values} have been modified since they were
+   * last copied into the underlying map
+   */
+  protected transient boolean m_stale = false;
+
+  /**
+   * Creates a new empty indexed context
+   *
+   * @param schema
+   *          The schema giving the position of each name
+   */
+  public IndexedContext(/* @NotNull */ ContextSchema schema)
+  {
+    super();
+    m_schema = schema;
+    m_values = new Object[Math.max(4, schema.size())];
+  }
+
+  /**
+   * Gets the schema of this context
+   *
+   * @return The schema
+   */
+  public /* @NotNull */ ContextSchema getSchema()
+  {
+    return m_schema;
+  }
+
+  /**
+   * Gets the value of an element of this context
+   *
+   * @param slot
+   *          The slot of the element, which must belong to the schema of
+   *          this context
+   * @return The value, or {@code null} if the context has no such element
+   */
+  public Object get(/* @NotNull */ ContextSchema.Slot slot)
+  {
+    int i = slot.getIndex();
+    if (i >= m_values.length)
+    {
+      return null;
+    }
+    Object o = m_values[i];
+    return o == NULL ? null : o;
+  }
+
+  /**
+   * Sets the value of an element of this context
+   *
+   * @param slot
+   *          The slot of the element, which must belong to the schema of
+   *          this context
+   * @param value
+   *          The value
+   */
+  public void set(/* @NotNull */ ContextSchema.Slot slot, /* @Null */ Object value)
+  {
+    int i = slot.getIndex();
+    if (i >= m_values.length)
+    {
+      m_values = Arrays.copyOf(m_values, Math.max(m_values.length * 2, i + 1));
+    }
+    m_values[i] = value == null ? NULL : value;
+    m_stale = true;
+  }
+
+  @Override
+  public Object get(Object key)
+  {
+    if (key instanceof String)
+    {
+      int i = m_schema.indexOf((String) key);
+      if (i >= 0)
+      {
+        if (i >= m_values.length)
+        {
+          return null;
+        }
+        Object o = m_values[i];
+        return o == NULL ? null : o;
+      }
+    }
+    return super.get(key);
+  }
+
+  @Override
+  public boolean containsKey(Object key)
+  {
+    if (key instanceof String)
+    {
+      int i = m_schema.indexOf((String) key);
+      if (i >= 0)
+      {
+        return i < m_values.length && m_values[i] != null;
+      }
+    }
+    return super.containsKey(key);
+  }
+
+  @Override
+  public Object put(String key, Object value)
+  {
+    ContextSchema.Slot slot = m_schema.getSlot(key);
+    Object old = get(slot);
+    set(slot, value);
+    return old;
+  }
+
+  @Override
+  public void putAll(Map<? extends String, ? extends Object> o)
+  {
+    if (o instanceof IndexedContext && ((IndexedContext) o).m_schema == m_schema)
+    {
+      // Same schema: copy the values slot by slot
+      IndexedContext ic = (IndexedContext) o;
+      Object[] values = ic.m_values;
+      if (values.length > m_values.length)
+      {
+        m_values = Arrays.copyOf(m_values, values.length);
+      }
+      for (int i = 0; i < values.length; i++)
+      {
+        if (values[i] != null)
+        {
+          m_values[i] = values[i];
+          m_stale = true;
+        }
+      }
+      for (Map.Entry<String, Object> e : ic.unindexedEntries())
+      {
+        if (m_schema.indexOf(e.getKey()) < 0)
+        {
+          put(e.getKey(), e.getValue());
+        }
+      }
+      return;
+    }
+    for (Map.Entry<? extends String, ? extends Object> e : o.entrySet())
+    {
+      put(e.getKey(), e.getValue());
+    }
+  }
+
+  @Override
+  public Object remove(Object key)
+  {
+    if (key instanceof String)
+    {
+      int i = m_schema.indexOf((String) key);
+      if (i >= 0 && i < m_values.length)
+      {
+        Object o = m_values[i];
+        m_values[i] = null;
+        super.remove(key);
+        return o == NULL ? null : o;
+      }
+    }
+    return super.remove(key);
+  }
+
+  @Override
+  public void clear()
+  {
+    Arrays.fill(m_values, null);
+    m_stale = false;
+    super.clear();
+  }
+
+  @Override
+  public int size()
+  {
+    syncMap();
+    return super.size();
+  }
+
+  @Override
+  public boolean isEmpty()
+  {
+    syncMap();
+    return super.isEmpty();
+  }
+
+  @Override
+  public Set<String> keySet()
+  {
+    syncMap();
+    return super.keySet();
+  }
+
+  @Override
+  public Collection<Object> values()
+  {
+    syncMap();
+    return super.values();
+  }
+
+  @Override
+  public Set<Map.Entry<String, Object>> entrySet()
+  {
+    syncMap();
+    return super.entrySet();
+  }
+
+  @Override
+  public boolean containsValue(Object value)
+  {
+    syncMap();
+    return super.containsValue(value);
+  }
+
+  /**
+   * Gets the entries of the underlying map, without first copying into it the
+   * values stored in slots. Entries whose name has a slot in the schema may
+   * therefore be out of date, and should be ignored.
+   *
+   * @return The entries
+   */
+  protected Set<Map.Entry<String, Object>> unindexedEntries()
+  {
+    return super.entrySet();
+  }
+
+  /**
+   * Copies the values stored in slots into the underlying map, so that the
+   * methods inherited from {@link java.util.HashMap} that iterate over the
+   * map see all the elements of the context.
+   */
+  protected void syncMap()
+  {
+    if (!m_stale)
+    {
+      return;
+    }
+    for (int i = 0; i < m_values.length; i++)
+    {
+      Object o = m_values[i];
+      if (o != null)
+      {
+        super.put(m_schema.getName(i), o == NULL ? null : o);
+      }
+    }
+    m_stale = false;
+  }
+}
@@ -17,8 +17,8 @@
  */
 package ca.uqac.lif.cep;
 
+import java.util.ArrayDeque;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.Queue;
 import java.util.Set;
 
@@ -43,9 +43,12 @@ public abstract class PipeCrawler
    */
   public synchronized void crawl(Processor start)
   {
-    Queue<Processor> to_visit = new LinkedList<Processor>();
-    Set<Processor> visited = new HashSet<Processor>();
+    Queue<Processor> to_visit = new ArrayDeque<Processor>();
+    // Contains the processors visited or waiting to be visited, so that
+    // checking whether a processor has been seen takes constant time
+    Set<Processor> seen = new HashSet<Processor>();
     to_visit.add(start);
+    seen.add(start);
     /*
      * This is actually while(!to_visit.isEmpty()), whose number of iterations is
      * bounded by s_maxCrawls for safety.
@@ -54,7 +57,6 @@ public abstract class PipeCrawler
     {
       Processor proc = to_visit.remove();
       visit(proc);
-      visited.add(proc);
       int in_arity = proc.getInputArity();
       int out_arity = proc.getOutputArity();
       for (int i = 0; i < out_arity; i++)
@@ -65,7 +67,7 @@ public abstract class PipeCrawler
           continue;
         }
         Processor target = p.getProcessor();
-        if (!to_visit.contains(target) && !visited.contains(target))
+        if (seen.add(target))
         {
           to_visit.add(target);
         }
@@ -78,7 +80,7 @@ public abstract class PipeCrawler
           continue;
         }
         Processor target = p.getProcessor();
-        if (!to_visit.contains(target) && !visited.contains(target))
+        if (seen.add(target))
         {
           to_visit.add(target);
         }
@@ -19,12 +19,13 @@ package ca.uqac.lif.cep;
 
 import ca.uqac.lif.cep.Connector.Variant;
 import ca.uqac.lif.petitpoucet.NodeFunction;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Queue;
 import java.util.Set;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Receives zero or more input events, and produces zero or more output events.
@@ -113,14 +114,10 @@ public abstract class Processor implements DuplicableProcessor, Contextualizable
   /**
    * A static counter, to be incremented every time a new {@link Processor} is
    * instantiated. This is used to give a unique integer number to every
-   * processor.
+   * processor. The counter is atomic, so that processors can be created
+   * concurrently without taking a lock.
    */
-  private static int s_uniqueIdCounter = 0;
-
-  /**
-   * A lock to access the ID counter
-   */
-  private static Lock s_counterLock = new ReentrantLock();
+  private static final AtomicInteger s_uniqueIdCounter = new AtomicInteger(0);
 
   /**
    * The unique ID given to this processor instance
@@ -133,13 +130,29 @@ public abstract class Processor implements DuplicableProcessor, Contextualizable
   protected Context m_context = null;
 
   /**
-   * Number of times the {@link Pullable#hasNext()} method tries to produce an
-   * output from the input before giving up. While in theory, the method tries "as
-   * long as necessary", in practice a bound was put on the number of attempts as
-   * a safeguard to avoid infinite loops.
+   * The schema used to index the context of this processor, if any
+   */
+  protected ContextSchema m_contextSchema = null;
+
+  /**
+   * Number of times the {@link Pullable#hasNext()} method tried to produce an
+   * output from the input before giving up.
+   * 
+   * @deprecated {@link Pullable#hasNext()} now tries as long as necessary,
+   *             and waits according to the processor's {@link IdleStrategy}
+   *             when no event is available yet; use
+   *             {@link TimedPullable#hasNext(long, java.util.concurrent.TimeUnit)}
+   *             to bound the time spent waiting
    */
+  @Deprecated
   public static final int MAX_PULL_RETRIES = 10000000;
 
+  /**
+   * What the processor's pullables do while they wait for an event that is
+   * not available yet
+   */
+  protected transient IdleStrategy m_idleStrategy = IdleStrategy.DEFAULT;
+
   /**
    * Initializes a processor. This has for effect of executing the basic
    * operations common to every processor:
@@ -166,9 +179,7 @@ public abstract class Processor implements DuplicableProcessor, Contextualizable
     super();
     m_inputArity = in_arity;
     m_outputArity = out_arity;
-    s_counterLock.lock();
-    m_uniqueId = s_uniqueIdCounter++;
-    s_counterLock.unlock();
+    m_uniqueId = s_uniqueIdCounter.getAndIncrement();
     m_inputQueues = new Queue[m_inputArity];
     for (int i = 0; i < m_inputArity; i++)
     {
@@ -190,9 +201,78 @@ public abstract class Processor implements DuplicableProcessor, Contextualizable
    */
   protected final /* @NotNull */ Context newContext()
   {
+    if (m_contextSchema != null)
+    {
+      return new IndexedContext(m_contextSchema);
+    }
     return new Context();
   }
 
+  /**
+   * Sets the schema used to index the context of this processor. The context
+   * then becomes an {@link IndexedContext}, whose elements can be read and
+   * written by position. Processors that are to exchange their context, such
+   * as a processor and its clones, should be given the same schema.
+   * <p>
+   * Note that an indexed context is not synchronized; a processor with a
+   * context schema should not have its context accessed from other threads
+   * while it is running.
+   * 
+   * @param schema
+   *          The schema, or {@code null} to revert to a plain context
+   * @return This processor
+   */
+  public synchronized Processor setContextSchema(/* @Null */ ContextSchema schema)
+  {
+    if (schema == m_contextSchema)
+    {
+      return this;
+    }
+    m_contextSchema = schema;
+    if (m_context != null)
+    {
+      Context old_context = m_context;
+      m_context = newContext();
+      m_context.putAll(old_context);
+    }
+    return this;
+  }
+
+  /**
+   * Gets the schema used to index the context of this processor
+   * 
+   * @return The schema, or {@code null} if the context is not indexed
+   */
+  public /* @Null */ ContextSchema getContextSchema()
+  {
+    return m_contextSchema;
+  }
+
+  /**
+   * Sets what the processor's pullables do while they wait for an event that
+   * is not available yet
+   *
+   * @param strategy
+   *          The strategy
+   * @return This processor
+   */
+  public Processor setIdleStrategy(/* @NotNull */ IdleStrategy strategy)
+  {
+    m_idleStrategy = strategy;
+    return this;
+  }
+
+  /**
+   * Gets what the processor's pullables do while they wait for an event that
+   * is not available yet
+   *
+   * @return The strategy
+   */
+  public /* @NotNull */ IdleStrategy getIdleStrategy()
+  {
+    return m_idleStrategy;
+  }
+
   /**
    * Retrieves an object from the processor's context
    * 
@@ -455,6 +535,11 @@ public abstract class Processor implements DuplicableProcessor, Contextualizable
   public void cloneInto(Processor p)
   {
     p.m_eventTracker = m_eventTracker;
+    p.m_idleStrategy = m_idleStrategy;
+    if (m_contextSchema != null)
+    {
+      p.setContextSchema(m_contextSchema);
+    }
     p.setContext(m_context);
   }
 
@@ -659,6 +744,80 @@ public abstract class Processor implements DuplicableProcessor, Contextualizable
     }
   }
 
+  /**
+   * Writes the state of this processor into a checkpoint. By default, this
+   * writes the input and output event counters, the contents of the input and
+   * output queues, and the context of the processor. Processors that keep
+   * other state should override this method, call it first, and then write
+   * their own state; they should also override {@link #readState(Checkpoint.Input)}
+   * accordingly. A processor whose state cannot be written should throw an
+   * exception, rather than produce a checkpoint that silently drops part of
+   * its state.
+   * 
+   * @param out
+   *          The checkpoint to write to
+   * @throws IOException
+   *           If the state cannot be written
+   */
+  public void writeState(/* @NotNull */ Checkpoint.Output out) throws IOException
+  {
+    out.writeInt(m_inputCount);
+    out.writeInt(m_outputCount);
+    for (Queue<Object> q : m_inputQueues)
+    {
+      out.writeCollection(q);
+    }
+    for (Queue<Object> q : m_outputQueues)
+    {
+      out.writeCollection(q);
+    }
+    synchronized (this)
+    {
+      out.writeBoolean(m_context != null);
+      if (m_context != null)
+      {
+        out.writeMap(m_context);
+      }
+    }
+  }
+
+  /**
+   * Restores the state of this processor from a checkpoint written by
+   * {@link #writeState(Checkpoint.Output)}. The state of the processor before
+   * the call is replaced.
+   * 
+   * @param in
+   *          The checkpoint to read from
+   * @throws IOException
+   *           If the state cannot be read
+   */
+  @SuppressWarnings("unchecked")
+  public void readState(/* @NotNull */ Checkpoint.Input in) throws IOException
+  {
+    m_inputCount = in.readInt();
+    m_outputCount = in.readInt();
+    for (Queue<Object> q : m_inputQueues)
+    {
+      q.clear();
+      in.readCollection(q);
+    }
+    for (Queue<Object> q : m_outputQueues)
+    {
+      q.clear();
+      in.readCollection(q);
+    }
+    if (in.readBoolean())
+    {
+      Context c = new Context();
+      in.readMap((Map<Object, Object>) (Map<?, ?>) c);
+      synchronized (this)
+      {
+        m_context = newContext();
+        m_context.putAll(c);
+      }
+    }
+  }
+
   @Override
   public final Processor duplicate()
   {
@@ -0,0 +1,257 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Creates new instances of a prototype processor. When the prototype is a
+ * {@link GroupProcessor}, duplicating it normally requires to crawl its
+ * processor graph in order to re-pipe the copies of its inner processors. A
+ * template does this analysis once: the connections between the inner
+ * processors, and the associations of the group's inputs and outputs, are
+ * recorded as arrays of positions. Creating an instance then amounts to
+ * duplicating each inner processor and connecting the copies by position.
+ * Groups nested inside the prototype are themselves handled by a template.
+ * <p>
+ * Processors that create many copies of the same processor, such as
+ * {@link ca.uqac.lif.cep.tmf.Slice Slice}, use a template instead of calling
+ * {@link Processor#duplicate() duplicate()} on their prototype. A template
+ * reflects the state of the prototype's graph at the moment it is created; the
+ * prototype must therefore not be re-piped afterwards. The template itself is
+ * immutable, and can be shared between threads; creating instances takes no
+ * lock.
+ *
+ * @author Sylvain Hallé
+ */
+public class ProcessorTemplate
+{
+  /**
+   * The prototype processor
+   */
+  protected final Processor m_prototype;
+
+  /**
+   * If the prototype is a group, the processors it contains; otherwise
+   * {@code null}
+   */
+  protected final Processor[] m_parts;
+
+  /**
+   * For each element of {@link #m_parts}, a template to instantiate it if it
+   * is itself a group, or {@code null} otherwise
+   */
+  protected final ProcessorTemplate[] m_partTemplates;
+
+  /**
+   * The connections between the parts. Each element is an array of four
+   * integers: the position of the source part, its output number, the position
+   * of the target part, and its input number.
+   */
+  protected final int[][] m_connections;
+
+  /**
+   * For each input of the group, the position of the part it is associated
+   * to and the input number on that part; -1 if the input is not associated
+   */
+  protected final int[][] m_inputs;
+
+  /**
+   * For each output of the group, the position of the part it is associated
+   * to and the output number on that part; -1 if the output is not associated
+   */
+  protected final int[][] m_outputs;
+
+  /**
+   * Whether the group notifies its sources when an event is pushed
+   */
+  protected final boolean m_notifySources;
+
+  /**
+   * Creates a new template
+   *
+   * @param prototype
+   *          The processor to create instances of
+   */
+  public ProcessorTemplate(/* @NotNull */ Processor prototype)
+  {
+    super();
+    m_prototype = prototype;
+    if (prototype.getClass() != GroupProcessor.class)
+    {
+      // Subclasses of GroupProcessor may have their own way of duplicating
+      // themselves; in such a case, we stick to duplicate()
+      m_parts = null;
+      m_partTemplates = null;
+      m_connections = null;
+      m_inputs = null;
+      m_outputs = null;
+      m_notifySources = false;
+      return;
+    }
+    GroupProcessor group = (GroupProcessor) prototype;
+    m_notifySources = group.getNotifySources();
+    m_parts = group.getProcessorArray();
+    m_partTemplates = new ProcessorTemplate[m_parts.length];
+    Map<Integer, Integer> positions = new HashMap<Integer, Integer>();
+    for (int i = 0; i < m_parts.length; i++)
+    {
+      positions.put(m_parts[i].getId(), i);
+      if (m_parts[i].getClass() == GroupProcessor.class)
+      {
+        m_partTemplates[i] = new ProcessorTemplate(m_parts[i]);
+      }
+    }
+    // Record the connections between the parts by position
+    int num_connections = 0;
+    int[][] connections = new int[4][];
+    for (int i = 0; i < m_parts.length; i++)
+    {
+      Processor p = m_parts[i];
+      for (int j = 0; j < p.getOutputArity(); j++)
+      {
+        Pushable push = p.getPushableOutput(j);
+        if (push == null)
+        {
+          continue;
+        }
+        Integer target = positions.get(push.getProcessor().getId());
+        if (target == null)
+        {
+          // The output is connected to a processor outside of the group
+          continue;
+        }
+        if (num_connections == connections.length)
+        {
+          int[][] new_connections = new int[connections.length * 2][];
+          System.arraycopy(connections, 0, new_connections, 0, num_connections);
+          connections = new_connections;
+        }
+        connections[num_connections++] = new int[] { i, j, target, push.getPosition() };
+      }
+    }
+    m_connections = new int[num_connections][];
+    System.arraycopy(connections, 0, m_connections, 0, num_connections);
+    m_inputs = getAssociations(group, group.getInputArity(), true, positions);
+    m_outputs = getAssociations(group, group.getOutputArity(), false, positions);
+  }
+
+  /**
+   * Gets the prototype processor of this template
+   *
+   * @return The prototype
+   */
+  public /* @NotNull */ Processor getPrototype()
+  {
+    return m_prototype;
+  }
+
+  /**
+   * Creates a new instance of the prototype. The instance is in the same state
+   * as the result of calling {@link Processor#duplicate() duplicate()} on the
+   * prototype.
+   *
+   * @return The new processor
+   */
+  public /* @NotNull */ Processor newInstance()
+  {
+    if (m_parts == null)
+    {
+      return m_prototype.duplicate();
+    }
+    GroupProcessor group = new GroupProcessor(m_prototype.getInputArity(),
+        m_prototype.getOutputArity());
+    // Copies the event tracker and the context of the prototype
+    m_prototype.cloneInto((Processor) group);
+    group.notifySources(m_notifySources);
+    Processor[] copies = new Processor[m_parts.length];
+    for (int i = 0; i < m_parts.length; i++)
+    {
+      Processor part = m_parts[i];
+      if (m_partTemplates[i] == null)
+      {
+        // Same as GroupProcessor.copyProcessor, without its class lock
+        copies[i] = part.duplicate(false);
+        if (part.m_contextSchema != null)
+        {
+          copies[i].setContextSchema(part.m_contextSchema);
+        }
+        copies[i].setContext(part.m_context);
+      }
+      else
+      {
+        copies[i] = m_partTemplates[i].newInstance();
+        copies[i].setContext(part.m_context);
+      }
+      group.addProcessor(copies[i]);
+    }
+    for (int[] c : m_connections)
+    {
+      Connector.connect(copies[c[0]], c[1], copies[c[2]], c[3]);
+    }
+    for (int i = 0; i < m_inputs.length; i++)
+    {
+      if (m_inputs[i][0] >= 0)
+      {
+        group.associateInput(i, copies[m_inputs[i][0]], m_inputs[i][1]);
+      }
+    }
+    for (int i = 0; i < m_outputs.length; i++)
+    {
+      if (m_outputs[i][0] >= 0)
+      {
+        group.associateOutput(i, copies[m_outputs[i][0]], m_outputs[i][1]);
+      }
+    }
+    return group;
+  }
+
+  /**
+   * Records the associations of the inputs or outputs of a group by position
+   *
+   * @param group
+   *          The group
+   * @param arity
+   *          The number of inputs or outputs of the group
+   * @param input
+   *          Set to {@code true} for inputs, {@code false} for outputs
+   * @param positions
+   *          The position of each part of the group, indexed by processor ID
+   * @return The associations
+   */
+  protected static int[][] getAssociations(GroupProcessor group, int arity, boolean input,
+      Map<Integer, Integer> positions)
+  {
+    int[][] associations = new int[arity][];
+    for (int i = 0; i < arity; i++)
+    {
+      GroupProcessor.ProcessorAssociation pa = group.getAssociation(i, input);
+      Integer pos = pa == null ? null : positions.get(pa.m_processor.getId());
+      if (pos == null)
+      {
+        associations[i] = new int[] { -1, -1 };
+      }
+      else
+      {
+        associations[i] = new int[] { pos, pa.m_ioNumber };
+      }
+    }
+    return associations;
+  }
+}
@@ -128,10 +128,11 @@ public interface Pullable extends Iterator<Object>, Iterable<Object>
    * <li>Otherwise, the method will keep calling {@link #hasNext()} on the inputs
    * as long as they don't answer "no", and will try to produce an output event
    * until one is produced.</li>
-   * <li>To avoid infinite looping, the method eventually gives up (and answers
-   * "no") after some maximum number of repetitions is reached. This is configured
-   * by the static field {@link Processor#MAX_PULL_RETRIES}.
+   * <li>If the source at the start of the chain has no event to provide yet,
+   * the method waits until it has one, applying the processor's
+   * {@link IdleStrategy} between two attempts.</li>
    * </ul>
+   * The method therefore answers "no" only if no event will ever be output.
    * 
    * @return Whether a next event exists
    */
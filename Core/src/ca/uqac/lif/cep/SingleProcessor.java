@@ -17,11 +17,13 @@
  */
 package ca.uqac.lif.cep;
 
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Performs a computation on input events to produce output events.
@@ -142,6 +144,48 @@ public abstract class SingleProcessor extends Processor
     return false;
   }
 
+  /**
+   * Allows a processor that holds back events to output them in "pull mode".
+   * Called by the processor's pullables when its inputs have no more events
+   * to provide and no output event is waiting; this plays the role that
+   * {@link #onEndOfTrace(Queue)} plays in "push mode". The method may be
+   * called more than once, and should output nothing once there is nothing
+   * left to output.
+   *
+   * @param outputs
+   *          A queue of arrays of objects. The processor should push arrays into
+   *          this queue for every output front it produces.
+   * @return true if the processor should output one or several output fronts,
+   *         false otherwise and by default.
+   * @throws ProcessorException
+   *           An exception thrown when a problem occurs with the operation
+   */
+  protected boolean onUpstreamExhausted(Queue<Object[]> outputs) throws ProcessorException
+  {
+    return false;
+  }
+
+  @Override
+  public void reset()
+  {
+    super.reset();
+    m_hasBeenNotifiedOfEndOfTrace = false;
+  }
+
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeBoolean(m_hasBeenNotifiedOfEndOfTrace);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_hasBeenNotifiedOfEndOfTrace = in.readBoolean();
+  }
+
   /**
    * Implementation of a {@link Pushable} for a single processor.
    * 
@@ -303,7 +347,7 @@ public abstract class SingleProcessor extends Processor
    * 
    * @author Sylvain Hallé
    */
-  protected class OutputPullable implements Pullable
+  protected class OutputPullable implements TimedPullable
   {
     /**
      * The index of the processor's output this pullable refers to
@@ -379,17 +423,86 @@ public abstract class SingleProcessor extends Processor
 
     @Override
     public synchronized boolean hasNext()
+    {
+      return checkExhausted(waitForNext(IdleStrategy.FOREVER, false)) == NextStatus.YES;
+    }
+
+    @Override
+    public synchronized NextStatus hasNext(long timeout, TimeUnit unit)
+    {
+      return checkExhausted(waitForNext(IdleStrategy.getDeadline(timeout, unit), true));
+    }
+
+    /**
+     * Gives the processor a chance to output the events it holds back, once
+     * its inputs have no more events to provide
+     *
+     * @param status
+     *          The answer obtained from the inputs
+     * @return {@link NextStatus#YES} if the processor output events in
+     *         {@link SingleProcessor#onUpstreamExhausted(Queue)}, and
+     *         <tt>status</tt> otherwise
+     */
+    protected NextStatus checkExhausted(NextStatus status)
+    {
+      if (status != NextStatus.NO)
+      {
+        return status;
+      }
+      m_tempQueue.clear();
+      boolean computed;
+      try
+      {
+        computed = onUpstreamExhausted(m_tempQueue);
+      }
+      catch (ProcessorException e)
+      {
+        throw new PullableException(e);
+      }
+      if (!computed)
+      {
+        return NextStatus.NO;
+      }
+      for (Object[] evt : m_tempQueue)
+      {
+        if (evt != null)
+        {
+          for (int i = 0; i < m_outputArity; i++)
+          {
+            m_outputQueues[i].add(evt[i]);
+          }
+        }
+      }
+      return m_outputQueues[m_index].isEmpty() ? NextStatus.NO : NextStatus.YES;
+    }
+
+    /**
+     * Pulls events from the inputs until an output event is produced, no
+     * event will ever be produced, or a deadline passes. If the processor has
+     * no input and produces nothing, the processor's {@link IdleStrategy} is
+     * applied before the next attempt.
+     * 
+     * @param deadline
+     *          The deadline, as returned by
+     *          {@link IdleStrategy#getDeadline(long, TimeUnit)}
+     * @param timed
+     *          Set to {@code true} to query the inputs with
+     *          {@link TimedPullable#hasNext(long, TimeUnit)}, {@code false} to query
+     *          them with {@link Pullable#hasNext()}
+     * @return Whether a next event exists
+     */
+    protected NextStatus waitForNext(long deadline, boolean timed)
     {
       Queue<Object> out_queue = m_outputQueues[m_index];
       // If an event is already waiting in the output queue,
       // return it and don't pull anything from the input
       if (!out_queue.isEmpty())
       {
-        return true;
+        return NextStatus.YES;
       }
-      // Check if each pullable has an event ready
-      for (int tries = 0; tries < Processor.MAX_PULL_RETRIES; tries++)
+      for (int attempts = 1;; attempts++)
       {
+        // Check if each pullable has an event ready
         for (int i = 0; i < m_inputArity; i++)
         {
           Pullable p = m_inputPullables[i];
@@ -398,10 +511,18 @@ public abstract class SingleProcessor extends Processor
             throw new PullableException("Input " + i + " of this processor is connected to nothing",
                 getProcessor());
           }
-          boolean status = p.hasNext();
-          if (!status)
+          if (timed)
+          {
+            NextStatus status = IdleStrategy.hasNext(p, IdleStrategy.getRemaining(deadline),
+                TimeUnit.NANOSECONDS, m_idleStrategy);
+            if (status != NextStatus.YES)
+            {
+              return status;
+            }
+          }
+          else if (!p.hasNext())
           {
-            return false;
+            return NextStatus.NO;
           }
         }
         // We are here only if every input pullable has answered YES
@@ -429,7 +550,7 @@ public abstract class SingleProcessor extends Processor
         if (!computed)
         {
           // No output will ever be returned: stop there
-          return false;
+          return NextStatus.NO;
         }
         if (!m_tempQueue.isEmpty())
         {
@@ -449,21 +570,41 @@ public abstract class SingleProcessor extends Processor
             else
             {
               // This source will NEVER output anything again
-              return false;
+              return NextStatus.NO;
             }
           }
           if (status_to_return == NextStatus.YES)
           {
-            return true;
+            return NextStatus.YES;
           }
         }
         // Otherwise, try the whole thing again
+        if (timed && IdleStrategy.isExpired(deadline))
+        {
+          return NextStatus.MAYBE;
+        }
+        if (m_inputArity == 0)
+        {
+          // A source that has no event to provide yet: rather than asking it
+          // again right away, let the idle strategy decide when to do so
+          m_idleStrategy.idle(attempts);
+        }
       }
-      return false;
     }
 
     @Override
     public synchronized NextStatus hasNextSoft()
+    {
+      return checkExhausted(pullSoftFromInputs());
+    }
+
+    /**
+     * Pulls an event from each input, without blocking, and computes the
+     * output events
+     *
+     * @return Whether a next event exists
+     */
+    protected NextStatus pullSoftFromInputs()
     {
       Queue<Object> out_queue = m_outputQueues[m_index];
       // If an event is already waiting in the output queue,
@@ -0,0 +1,50 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Pullable} that can wait for an event for a bounded time. The
+ * pullables of the processors in this library all implement this interface;
+ * other pullables need not. To wait on any pullable, use
+ * {@link IdleStrategy#hasNext(Pullable, long, TimeUnit, IdleStrategy)}, which
+ * falls back to querying the pullable repeatedly when it does not implement
+ * this interface.
+ *
+ * @author Sylvain Hallé
+ */
+public interface TimedPullable extends Pullable
+{
+  /**
+   * Determines if an event can be pulled from the output, waiting at most for
+   * some time. This method works like {@link #hasNext()}, except that it
+   * gives up when the timeout expires. In such a case, it answers "maybe",
+   * which distinguishes an event that is not available <em>yet</em> from an
+   * event that will never be.
+   *
+   * @param timeout
+   *          The maximum time to wait, or {@link IdleStrategy#FOREVER}
+   * @param unit
+   *          The unit of the timeout
+   * @return {@link NextStatus#YES} if an event can be pulled,
+   *         {@link NextStatus#NO} if no event will ever be output, and
+   *         {@link NextStatus#MAYBE} if the timeout expired
+   */
+  public NextStatus hasNext(long timeout, TimeUnit unit);
+}
@@ -18,6 +18,7 @@
 package ca.uqac.lif.cep;
 
 import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
 
 /**
  * A Pullable object that casts all its output to a given type. The
@@ -41,7 +42,7 @@ import java.util.Iterator;
  *          The type of the output objects
  */
 @SuppressWarnings("unchecked")
-public class TypedPullable<T> implements Pullable
+public class TypedPullable<T> implements TimedPullable
 {
   /**
    * The actual pullable this class is wrapping
@@ -92,6 +93,12 @@ public class TypedPullable<T> implements Pullable
     return m_pullable.hasNext();
   }
 
+  @Override
+  public NextStatus hasNext(long timeout, TimeUnit unit)
+  {
+    return IdleStrategy.hasNext(m_pullable, timeout, unit, IdleStrategy.DEFAULT);
+  }
+
   @Override
   public Processor getProcessor()
   {
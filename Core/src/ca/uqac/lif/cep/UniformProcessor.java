@@ -22,6 +22,7 @@ import java.util.Iterator;
 import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Processor that produces exactly one output front for each input front
@@ -178,15 +179,25 @@ public abstract class UniformProcessor extends SingleProcessor
     @Override
     public synchronized void notifyEndOfTrace() throws PushableException
     {
+      boolean outs;
       try
       {
-        onEndOfTrace(m_outputArray);
+        outs = onEndOfTrace(m_outputArray);
       }
       catch (ProcessorException e)
       {
         throw new PushableException(e);
       }
-      m_outputPushables[0].push(m_outputArray[0]);
+      if (m_outputPushables[0] == null)
+      {
+        throw new PushableException(
+            "Output 0 of processor " + getProcessor() + " is connected to nothing");
+      }
+      if (outs)
+      {
+        m_outputPushables[0].push(m_outputArray[0]);
+      }
+      m_outputPushables[0].notifyEndOfTrace();
     }
 
     @Override
@@ -212,7 +223,7 @@ public abstract class UniformProcessor extends SingleProcessor
    * Simple experiments with a {@link Passthrough} processor have shown a speed
    * boost of about 2.5&times; compared to {@link OutputPullable}.
    */
-  public class UnaryPullable implements Pullable
+  public class UnaryPullable implements TimedPullable
   {
 
     @Override
@@ -299,7 +310,7 @@ public abstract class UniformProcessor extends SingleProcessor
           throw new PullableException("Input 0 of this processor is connected to nothing",
               getProcessor());
         }
-        return m_inputPullables[0].hasNextSoft();
+        return checkExhausted(m_inputPullables[0].hasNextSoft());
       }
     }
 
@@ -319,8 +330,65 @@ public abstract class UniformProcessor extends SingleProcessor
           throw new PullableException("Input 0 of this processor is connected to nothing",
               getProcessor());
         }
-        return m_inputPullables[0].hasNext();
+        return checkExhausted(m_inputPullables[0].hasNext() ? NextStatus.YES : NextStatus.NO)
+            == NextStatus.YES;
+      }
+    }
+
+    @Override
+    public NextStatus hasNext(long timeout, TimeUnit unit)
+    {
+      if (!m_inputQueues[0].isEmpty())
+      {
+        return NextStatus.YES;
+      }
+      if (m_inputPullables[0] == null)
+      {
+        throw new PullableException("Input 0 of this processor is connected to nothing",
+            getProcessor());
+      }
+      return checkExhausted(
+          IdleStrategy.hasNext(m_inputPullables[0], timeout, unit, m_idleStrategy));
+    }
+
+    /**
+     * Gives the processor a chance to output the events it holds back when
+     * its input has no more events to provide.
+     *
+     * @param status
+     *          The status returned by the input
+     * @return The status of this pullable
+     * @see SingleProcessor#onUpstreamExhausted(Queue)
+     */
+    protected NextStatus checkExhausted(NextStatus status)
+    {
+      if (status != NextStatus.NO)
+      {
+        return status;
+      }
+      m_tempQueue.clear();
+      boolean computed;
+      try
+      {
+        computed = onUpstreamExhausted(m_tempQueue);
+      }
+      catch (ProcessorException e)
+      {
+        throw new PullableException(e);
+      }
+      if (!computed)
+      {
+        return NextStatus.NO;
+      }
+      for (Object[] evt : m_tempQueue)
+      {
+        if (evt != null)
+        {
+          // Events in this queue are returned as is by pull()
+          m_inputQueues[0].add(evt[0]);
+        }
       }
+      return m_inputQueues[0].isEmpty() ? NextStatus.NO : NextStatus.YES;
     }
 
     @Override
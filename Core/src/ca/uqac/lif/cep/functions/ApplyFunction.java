@@ -17,8 +17,10 @@
  */
 package ca.uqac.lif.cep.functions;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.ProcessorException;
 import ca.uqac.lif.cep.UniformProcessor;
+import java.io.IOException;
 import java.util.Set;
 
 /**
@@ -83,6 +85,20 @@ public class ApplyFunction extends UniformProcessor
     return true;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    m_function.writeState(out);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_function.readState(in);
+  }
+
   @Override
   public synchronized ApplyFunction duplicate(boolean with_state)
   {
@@ -0,0 +1,474 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.functions;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.Context;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.SingleProcessor;
+import java.io.IOException;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Applies a function to input events on a pool of threads, while preserving
+ * the order of the events. Like {@link ApplyFunction}, this processor produces
+ * one output front for each input front. However, up to <i>k</i> fronts can be
+ * <em>in flight</em>: the function is evaluated on a front while it is still
+ * being evaluated on the fronts received before it. Results are kept in a
+ * reorder buffer, and output in the order of the input fronts.
+ * <p>
+ * This is meant for functions that are expensive to evaluate and keep no
+ * state from one front to the next, such as the extraction of regular
+ * expressions or the decoding of JSON documents. The processor holds <i>k</i>
+ * copies of the function, one for each slot of the reorder buffer, so that a
+ * copy is never evaluated by two threads at the same time. Each evaluation
+ * calls {@link Function#evaluateFast(Object[], Object[], Context)
+ * evaluateFast()} followed by {@link Function#waitFor() waitFor()}.
+ * <p>
+ * The result for a front is not necessarily available when the front is
+ * received; it is output along with the fronts that follow. All pending
+ * results are output when the end of the trace is reached, in push mode and
+ * in pull mode. A {@link Checkpoint} saves the input fronts in flight; they
+ * are evaluated again when the checkpoint is restored.
+ * <p>
+ * By default, the processor runs the functions on a thread pool of its own,
+ * with <i>k</i> threads, which is created when the first front is received.
+ * It can instead be given an existing {@link ExecutorService}, which can then
+ * be shared by multiple processors.
+ *
+ * @author Sylvain Hallé
+ */
+@SuppressWarnings("squid:S2160")
+public class ApplyFunctionParallel extends SingleProcessor
+{
+  /**
+   * The function to apply
+   */
+  protected Function m_function;
+
+  /**
+   * The copies of the function, one for each slot of the reorder buffer
+   */
+  protected final transient Function[] m_functions;
+
+  /**
+   * The results of the fronts in flight, in a circular buffer
+   */
+  protected final transient Future<?>[] m_pending;
+
+  /**
+   * The outputs of the fronts in flight, in a circular buffer
+   */
+  protected final transient Object[][] m_results;
+
+  /**
+   * The input fronts in flight, in a circular buffer
+   */
+  protected final transient Object[][] m_fronts;
+
+  /**
+   * The index of the oldest front in flight in {@link #m_pending}
+   */
+  protected int m_head = 0;
+
+  /**
+   * The number of fronts in flight
+   */
+  protected int m_inFlight = 0;
+
+  /**
+   * The executor evaluating the function
+   */
+  protected transient ExecutorService m_executor;
+
+  /**
+   * Whether the executor has been created by this processor, and must
+   * therefore be shut down by it
+   */
+  protected boolean m_ownExecutor;
+
+  /**
+   * Creates a new parallel function processor with a thread pool of its own
+   *
+   * @param f
+   *          The function to apply
+   * @param k
+   *          The maximum number of fronts in flight
+   */
+  public ApplyFunctionParallel(/* @NotNull */ Function f, int k)
+  {
+    this(f, k, null);
+  }
+
+  /**
+   * Creates a new parallel function processor
+   *
+   * @param f
+   *          The function to apply
+   * @param k
+   *          The maximum number of fronts in flight
+   * @param executor
+   *          The executor evaluating the function. If {@code null}, the
+   *          processor creates a thread pool of its own.
+   */
+  public ApplyFunctionParallel(/* @NotNull */ Function f, int k,
+      /* @Null */ ExecutorService executor)
+  {
+    super(f.getInputArity(), f.getOutputArity());
+    m_function = f;
+    k = Math.max(1, k);
+    m_functions = new Function[k];
+    m_functions[0] = f;
+    for (int i = 1; i < k; i++)
+    {
+      m_functions[i] = f.duplicate();
+    }
+    m_pending = new Future<?>[k];
+    m_results = new Object[k][];
+    m_fronts = new Object[k][];
+    m_executor = executor;
+    m_ownExecutor = executor == null;
+  }
+
+  /**
+   * Gets the maximum number of fronts in flight
+   *
+   * @return The number of fronts
+   */
+  public int getMaxInFlight()
+  {
+    return m_pending.length;
+  }
+
+  /**
+   * Gets the function associated to that processor
+   *
+   * @return The function
+   */
+  public Function getFunction()
+  {
+    return m_function;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    if (m_inFlight == m_pending.length)
+    {
+      // The buffer is full: wait for the oldest front
+      outputHead(outputs);
+    }
+    submit(inputs.clone());
+    // Output the results that are already available
+    while (m_inFlight > 0 && m_pending[m_head].isDone())
+    {
+      outputHead(outputs);
+    }
+    return true;
+  }
+
+  /**
+   * Sends a front to the executor. The buffer must not be full.
+   *
+   * @param inputs
+   *          The front
+   */
+  protected void submit(Object[] inputs)
+  {
+    int slot = (m_head + m_inFlight) % m_pending.length;
+    m_fronts[slot] = inputs;
+    m_results[slot] = new Object[getOutputArity()];
+    m_pending[slot] = getExecutor().submit(new Evaluation(m_functions[slot], inputs,
+        m_results[slot], m_context));
+    m_inFlight++;
+  }
+
+  @Override
+  protected boolean onEndOfTrace(Queue<Object[]> outputs)
+  {
+    drain(outputs);
+    return true;
+  }
+
+  @Override
+  protected boolean onUpstreamExhausted(Queue<Object[]> outputs)
+  {
+    // In pull mode, output the results of the fronts in flight
+    if (m_inFlight == 0)
+    {
+      return false;
+    }
+    drain(outputs);
+    return true;
+  }
+
+  /**
+   * Waits for all the fronts in flight, and outputs their results
+   *
+   * @param outputs
+   *          The queue where the results are added
+   */
+  protected void drain(Queue<Object[]> outputs)
+  {
+    while (m_inFlight > 0)
+    {
+      outputHead(outputs);
+    }
+  }
+
+  /**
+   * Waits for the oldest front in flight, and outputs its result
+   *
+   * @param outputs
+   *          The queue where the result is added
+   */
+  protected void outputHead(Queue<Object[]> outputs)
+  {
+    Future<?> f = m_pending[m_head];
+    Object[] result = m_results[m_head];
+    m_pending[m_head] = null;
+    m_results[m_head] = null;
+    m_fronts[m_head] = null;
+    m_head = (m_head + 1) % m_pending.length;
+    m_inFlight--;
+    try
+    {
+      f.get();
+    }
+    catch (InterruptedException e)
+    {
+      // Restore interrupted state
+      Thread.currentThread().interrupt();
+      throw new ProcessorException(e);
+    }
+    catch (ExecutionException e)
+    {
+      throw new ProcessorException(e.getCause());
+    }
+    if (m_eventTracker != null)
+    {
+      for (int i = 0; i < getInputArity(); i++)
+      {
+        for (int j = 0; j < result.length; j++)
+        {
+          associateToInput(i, m_inputCount, j, m_outputCount);
+        }
+      }
+      m_inputCount++;
+      m_outputCount++;
+    }
+    outputs.add(result);
+  }
+
+  /**
+   * Gets the executor evaluating the function, creating it if necessary
+   *
+   * @return The executor
+   */
+  protected synchronized ExecutorService getExecutor()
+  {
+    if (m_executor == null)
+    {
+      m_executor = Executors.newFixedThreadPool(m_pending.length, new DaemonThreadFactory());
+    }
+    return m_executor;
+  }
+
+  /**
+   * Stops the thread pool of this processor, if it has one of its own.
+   * Results of the fronts in flight are lost. The pool is created again upon
+   * the next front.
+   */
+  @Override
+  public synchronized void stop()
+  {
+    cancelAll();
+    if (m_ownExecutor && m_executor != null)
+    {
+      m_executor.shutdownNow();
+      m_executor = null;
+    }
+  }
+
+  @Override
+  public void reset()
+  {
+    super.reset();
+    cancelAll();
+    for (Function f : m_functions)
+    {
+      f.reset();
+    }
+  }
+
+  /**
+   * Cancels the evaluation of all the fronts in flight
+   */
+  protected void cancelAll()
+  {
+    for (int i = 0; i < m_pending.length; i++)
+    {
+      if (m_pending[i] != null)
+      {
+        m_pending[i].cancel(true);
+        m_pending[i] = null;
+        m_results[i] = null;
+        m_fronts[i] = null;
+      }
+    }
+    m_head = 0;
+    m_inFlight = 0;
+  }
+
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    for (Function f : m_functions)
+    {
+      f.writeState(out);
+    }
+    out.writeInt(m_inFlight);
+    for (int i = 0; i < m_inFlight; i++)
+    {
+      out.writeObject(m_fronts[(m_head + i) % m_pending.length]);
+    }
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    cancelAll();
+    for (Function f : m_functions)
+    {
+      f.readState(in);
+    }
+    int in_flight = in.readInt();
+    for (int i = 0; i < in_flight; i++)
+    {
+      submit((Object[]) in.readObject());
+    }
+  }
+
+  @Override
+  public final void getInputTypesFor(/* @NotNull */ Set<Class<?>> classes, int index)
+  {
+    // The type is determined by that of the underlying function
+    m_function.getInputTypesFor(classes, index);
+  }
+
+  @Override
+  public final synchronized Class<?> getOutputType(int index)
+  {
+    // The type is determined by that of the underlying function
+    return m_function.getOutputTypeFor(index);
+  }
+
+  @Override
+  public String toString()
+  {
+    return m_function.toString();
+  }
+
+  @Override
+  public synchronized ApplyFunctionParallel duplicate(boolean with_state)
+  {
+    ApplyFunctionParallel out = new ApplyFunctionParallel(m_function.duplicate(with_state),
+        m_pending.length, m_ownExecutor ? null : m_executor);
+    cloneInto(out);
+    return out;
+  }
+
+  /**
+   * The evaluation of the function on one front
+   */
+  protected static class Evaluation implements Callable<Object>
+  {
+    /**
+     * The copy of the function to evaluate
+     */
+    protected final Function m_function;
+
+    /**
+     * The input front
+     */
+    protected final Object[] m_inputs;
+
+    /**
+     * The array where the outputs are written
+     */
+    protected final Object[] m_outputs;
+
+    /**
+     * The context of the processor
+     */
+    protected final Context m_context;
+
+    /**
+     * Creates a new evaluation
+     *
+     * @param f
+     *          The copy of the function to evaluate
+     * @param inputs
+     *          The input front
+     * @param outputs
+     *          The array where the outputs are written
+     * @param context
+     *          The context of the processor
+     */
+    public Evaluation(Function f, Object[] inputs, Object[] outputs, Context context)
+    {
+      super();
+      m_function = f;
+      m_inputs = inputs;
+      m_outputs = outputs;
+      m_context = context;
+    }
+
+    @Override
+    public Object call()
+    {
+      m_function.evaluateFast(m_inputs, m_outputs, m_context);
+      m_function.waitFor();
+      return null;
+    }
+  }
+
+  /**
+   * Creates daemon threads, so that an idle pool does not prevent the
+   * virtual machine from exiting
+   */
+  protected static class DaemonThreadFactory implements ThreadFactory
+  {
+    @Override
+    public Thread newThread(Runnable r)
+    {
+      Thread t = new Thread(r);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
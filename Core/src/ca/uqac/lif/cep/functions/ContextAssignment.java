@@ -1,7 +1,9 @@
 package ca.uqac.lif.cep.functions;
 
 import ca.uqac.lif.cep.Context;
+import ca.uqac.lif.cep.ContextSchema;
 import ca.uqac.lif.cep.Contextualizable;
+import ca.uqac.lif.cep.IndexedContext;
 
 public class ContextAssignment
 {
@@ -16,6 +18,12 @@ public class ContextAssignment
    */
   protected Function m_value;
 
+  /**
+   * The slot of the context element in the schema of the last
+   * {@link IndexedContext} this assignment was applied to
+   */
+  protected transient ContextSchema.Slot m_slot = null;
+
   /**
    * Creates a new context assignment
    * @param left The context key
@@ -60,6 +68,18 @@ public class ContextAssignment
   public void assign(Object[] inputs, Object[] outputs, Context context)
   {
     m_value.evaluate(inputs, outputs, context);
+    if (context instanceof IndexedContext)
+    {
+      IndexedContext ic = (IndexedContext) context;
+      ContextSchema.Slot slot = m_slot;
+      if (slot == null || slot.getSchema() != ic.getSchema())
+      {
+        slot = ic.getSchema().getSlot(m_lvalue);
+        m_slot = slot;
+      }
+      ic.set(slot, outputs[0]);
+      return;
+    }
     context.put(m_lvalue, outputs[0]);
   }
 
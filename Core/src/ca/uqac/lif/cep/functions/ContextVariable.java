@@ -18,6 +18,8 @@
 package ca.uqac.lif.cep.functions;
 
 import ca.uqac.lif.cep.Context;
+import ca.uqac.lif.cep.ContextSchema;
+import ca.uqac.lif.cep.IndexedContext;
 
 /**
  * Placeholder for the value of a context element. A `ContextVariable` can be
@@ -33,6 +35,12 @@ public class ContextVariable extends Variable
    */
   protected final String m_name;
 
+  /**
+   * The slot of the name in the schema of the last {@link IndexedContext} this
+   * placeholder was evaluated on
+   */
+  protected transient ContextSchema.Slot m_slot = null;
+
   /**
    * Creates a new argument placeholder
    * 
@@ -75,6 +83,18 @@ public class ContextVariable extends Variable
   @SuppressWarnings("squid:S1168")
   public void evaluate(Object[] inputs, Object[] outputs, Context context)
   {
+    if (context instanceof IndexedContext)
+    {
+      IndexedContext ic = (IndexedContext) context;
+      ContextSchema.Slot slot = m_slot;
+      if (slot == null || slot.getSchema() != ic.getSchema())
+      {
+        slot = ic.getSchema().getSlot(m_name);
+        m_slot = slot;
+      }
+      outputs[0] = ic.get(slot);
+      return;
+    }
     if (context == null || !context.containsKey(m_name))
     {
       outputs[0] = null;
@@ -17,6 +17,9 @@
  */
 package ca.uqac.lif.cep.functions;
 
+import ca.uqac.lif.cep.Checkpoint;
+import java.io.IOException;
+
 /**
  * A function with memory.
  * 
@@ -66,6 +69,19 @@ public class CumulativeFunction<T> extends UnaryFunction<T, T>
     m_lastValue = m_function.getStartValue();
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    out.writeObject(m_lastValue);
+  }
+
+  @Override
+  @SuppressWarnings("unchecked")
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    m_lastValue = (T) in.readObject();
+  }
+
   @Override
   public CumulativeFunction<T> duplicate(boolean with_state)
   {
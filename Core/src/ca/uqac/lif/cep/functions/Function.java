@@ -17,7 +17,9 @@
  */
 package ca.uqac.lif.cep.functions;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Context;
+import java.io.IOException;
 import java.util.Set;
 
 /**
@@ -91,6 +93,34 @@ public abstract class Function implements DuplicableFunction
     // Do nothing
   }
 
+  /**
+   * Writes the state of the function into a checkpoint. In the case of a
+   * stateless function, nothing requires to be done.
+   * 
+   * @param out
+   *          The checkpoint to write to
+   * @throws IOException
+   *           If the state cannot be written
+   */
+  public void writeState(/* @NotNull */ Checkpoint.Output out) throws IOException
+  {
+    // Do nothing
+  }
+
+  /**
+   * Restores the state of the function from a checkpoint written by
+   * {@link #writeState(Checkpoint.Output)}
+   * 
+   * @param in
+   *          The checkpoint to read from
+   * @throws IOException
+   *           If the state cannot be read
+   */
+  public void readState(/* @NotNull */ Checkpoint.Input in) throws IOException
+  {
+    // Do nothing
+  }
+
   /**
    * Populates the set of classes accepted by the function for its <i>i</i>-th
    * input
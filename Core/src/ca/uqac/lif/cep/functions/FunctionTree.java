@@ -17,7 +17,9 @@
  */
 package ca.uqac.lif.cep.functions;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Context;
+import java.io.IOException;
 import java.util.Set;
 
 /**
@@ -142,6 +144,26 @@ public class FunctionTree extends Function
 
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    m_function.writeState(out);
+    for (Function f : m_children)
+    {
+      f.writeState(out);
+    }
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    m_function.readState(in);
+    for (Function f : m_children)
+    {
+      f.readState(in);
+    }
+  }
+
   @Override
   public synchronized FunctionTree duplicate(boolean with_state)
   {
@@ -20,10 +20,22 @@ package ca.uqac.lif.cep.io;
 import ca.uqac.lif.cep.ProcessorException;
 import ca.uqac.lif.cep.UniformProcessor;
 import java.io.IOException;
+import java.util.Queue;
 
 /**
  * Processor calling an external command upon receiving an event, and returning
  * the output of that command as its output stream.
+ * <p>
+ * By default, a new process is started for every input event. When a
+ * {@link CoProcess.Framing framing} is set with
+ * {@link #setFraming(CoProcess.Framing) setFraming()}, the processor rather
+ * runs in <em>co-process</em> mode: the command is started once, and each
+ * event is written to its standard input as a framed request, whose
+ * response becomes the output event. This avoids the cost of launching a
+ * process for each event. The command is stopped when the end of the input
+ * trace is reached, or when {@link #stop()} is called. To keep several
+ * requests in flight, or to distribute them across many instances of the
+ * command, use {@link CallPool}.
  * 
  * @author Sylvain Hallé
  * @dictentry
@@ -36,12 +48,44 @@ public class Call extends UniformProcessor
    */
   protected final String[] m_command;
 
+  /**
+   * The framing used to exchange messages with the command in co-process
+   * mode, or {@code null} to start a new process for every event
+   */
+  protected CoProcess.Framing m_framing = null;
+
+  /**
+   * The running command in co-process mode
+   */
+  protected transient CoProcess m_coProcess = null;
+
   public Call(String ... command)
   {
     super(1, 1);
     m_command = command;
   }
 
+  /**
+   * Puts the processor in co-process mode, or brings it back to the default
+   * mode.
+   * 
+   * @param framing
+   *          The framing used to exchange messages with the command, or
+   *          {@code null} to start a new process for every event
+   * @return This processor
+   */
+  public Call setFraming(/* @Null */ CoProcess.Framing framing)
+  {
+    stop();
+    m_framing = framing;
+    m_coProcess = null;
+    if (framing != null)
+    {
+      m_coProcess = new CoProcess(framing, m_command);
+    }
+    return this;
+  }
+
   /**
    * The time to wait (in milliseconds) before polling the command's result
    */
@@ -53,7 +97,12 @@ public class Call extends UniformProcessor
     // Pass the event (as is) to the standard input of the command
     try
     {
-      byte[] contents = CommandRunner.runAndGet(m_command, (byte[]) inputs[0]);
+      if (m_coProcess != null)
+      {
+        outputs[0] = m_coProcess.call(toBytes(inputs[0]));
+        return true;
+      }
+      byte[] contents = CommandRunner.runAndGet(m_command, toBytes(inputs[0]));
       outputs[0] = contents;
       return true;
     }
@@ -63,9 +112,54 @@ public class Call extends UniformProcessor
     }
   }
 
+  /**
+   * Converts an input event into the bytes sent to the command.
+   * 
+   * @param o
+   *          The event, which must be a byte array or a string
+   * @return The bytes
+   */
+  static byte[] toBytes(Object o)
+  {
+    if (o instanceof String)
+    {
+      return ((String) o).getBytes();
+    }
+    return (byte[]) o;
+  }
+
+  @Override
+  protected boolean onEndOfTrace(Object[] outputs)
+  {
+    stop();
+    return false;
+  }
+
+  @Override
+  protected boolean onUpstreamExhausted(Queue<Object[]> outputs)
+  {
+    stop();
+    return false;
+  }
+
+  /**
+   * Stops the command if the processor runs in co-process mode. The command
+   * is started again upon the next event.
+   */
+  @Override
+  public void stop()
+  {
+    if (m_coProcess != null)
+    {
+      m_coProcess.stop();
+    }
+  }
+
   @Override
   public Call duplicate(boolean with_state)
   {
-    return new Call(m_command);
+    Call c = new Call(m_command);
+    c.setFraming(m_framing);
+    return c;
   }
 }
@@ -0,0 +1,270 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.io;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.SingleProcessor;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Queue;
+
+/**
+ * Processor sending each input event to a pool of long-lived external
+ * commands, and returning their responses as its output stream. Each
+ * instance of the command is handled by a {@link CoProcess}; events are
+ * distributed to the instances in a round-robin fashion.
+ * <p>
+ * Contrary to {@link Call}, the processor does not wait for the response to
+ * an event before sending the next one: up to a given number of requests can
+ * be <em>in flight</em> at any moment. Responses are nevertheless output in
+ * the same order as the input events. Since the responses to pending requests
+ * accumulate in the pipes between the processor and the commands, the number
+ * of requests in flight should be kept small enough for these responses to
+ * fit in the operating system's pipe buffers.
+ * <p>
+ * Pending responses are flushed when the end of the input trace is reached,
+ * both in push mode and in pull mode; the commands are then stopped.
+ * <p>
+ * A {@link Checkpoint} saves the requests whose response has not been output
+ * yet. When the checkpoint is restored, the commands are restarted and these
+ * requests are sent to them again, to the same instances as the first time.
+ * The state of the commands themselves is not saved.
+ *
+ * @author Sylvain Hallé
+ */
+@SuppressWarnings("squid:S2160")
+public class CallPool extends SingleProcessor
+{
+  /**
+   * The command to call
+   */
+  protected final String[] m_command;
+
+  /**
+   * The framing used to exchange messages with the commands
+   */
+  protected final CoProcess.Framing m_framing;
+
+  /**
+   * The maximum number of requests in flight
+   */
+  protected final int m_maxInFlight;
+
+  /**
+   * The instances of the command
+   */
+  protected final transient CoProcess[] m_workers;
+
+  /**
+   * The instances to which the pending requests have been sent, in the order
+   * in which the requests were sent
+   */
+  protected final transient ArrayDeque<CoProcess> m_pending;
+
+  /**
+   * The pending requests, in the order in which they were sent
+   */
+  protected final transient ArrayDeque<byte[]> m_requests;
+
+  /**
+   * The index of the worker that will receive the next request
+   */
+  protected int m_nextWorker = 0;
+
+  /**
+   * Creates a new call pool
+   *
+   * @param num_workers
+   *          The number of instances of the command to run
+   * @param max_in_flight
+   *          The maximum number of requests sent to the commands whose
+   *          response has not been output yet
+   * @param framing
+   *          The framing used to exchange messages with the commands
+   * @param command
+   *          The command to call
+   */
+  public CallPool(int num_workers, int max_in_flight, /* @NotNull */ CoProcess.Framing framing,
+      String ... command)
+  {
+    super(1, 1);
+    m_command = command;
+    m_framing = framing;
+    m_maxInFlight = Math.max(1, max_in_flight);
+    m_workers = new CoProcess[Math.max(1, num_workers)];
+    for (int i = 0; i < m_workers.length; i++)
+    {
+      m_workers[i] = new CoProcess(framing, command);
+    }
+    m_pending = new ArrayDeque<CoProcess>(m_maxInFlight);
+    m_requests = new ArrayDeque<byte[]>(m_maxInFlight);
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    try
+    {
+      send(Call.toBytes(inputs[0]));
+      while (m_pending.size() >= m_maxInFlight)
+      {
+        outputs.add(wrapObject(receive()));
+      }
+      return true;
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+  }
+
+  @Override
+  protected boolean onEndOfTrace(Queue<Object[]> outputs)
+  {
+    drain(outputs);
+    stop();
+    return true;
+  }
+
+  @Override
+  protected boolean onUpstreamExhausted(Queue<Object[]> outputs)
+  {
+    // In pull mode, flush the responses to pending requests
+    if (m_pending.isEmpty())
+    {
+      stop();
+      return false;
+    }
+    drain(outputs);
+    stop();
+    return true;
+  }
+
+  /**
+   * Reads the responses to all pending requests.
+   *
+   * @param outputs
+   *          The queue where the responses are added
+   */
+  protected void drain(Queue<Object[]> outputs)
+  {
+    try
+    {
+      while (!m_pending.isEmpty())
+      {
+        outputs.add(wrapObject(receive()));
+      }
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+  }
+
+  /**
+   * Sends a request to the next instance of the command.
+   *
+   * @param request
+   *          The request
+   * @throws IOException
+   *           If the request cannot be sent
+   */
+  protected void send(byte[] request) throws IOException
+  {
+    CoProcess worker = m_workers[m_nextWorker];
+    m_nextWorker = (m_nextWorker + 1) % m_workers.length;
+    worker.send(request);
+    m_pending.add(worker);
+    m_requests.add(request);
+  }
+
+  /**
+   * Reads the response to the oldest pending request.
+   *
+   * @return The response
+   * @throws IOException
+   *           If the response cannot be read
+   */
+  protected byte[] receive() throws IOException
+  {
+    m_requests.remove();
+    return m_pending.remove().receive();
+  }
+
+  /**
+   * Stops all the instances of the command. Responses to pending requests
+   * are lost. The commands are started again upon the next event.
+   */
+  @Override
+  public void stop()
+  {
+    for (CoProcess worker : m_workers)
+    {
+      worker.stop();
+    }
+    m_pending.clear();
+    m_requests.clear();
+  }
+
+  @Override
+  public void reset()
+  {
+    super.reset();
+    stop();
+    m_nextWorker = 0;
+  }
+
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeInt(m_nextWorker);
+    out.writeInt(m_requests.size());
+    for (byte[] request : m_requests)
+    {
+      out.writeObject(request);
+    }
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    stop();
+    int next = in.readInt();
+    int num_requests = in.readInt();
+    // Rewind to the instance that received the oldest pending request
+    m_nextWorker = ((next - num_requests) % m_workers.length + m_workers.length) % m_workers.length;
+    for (int i = 0; i < num_requests; i++)
+    {
+      send((byte[]) in.readObject());
+    }
+  }
+
+  @Override
+  public CallPool duplicate(boolean with_state)
+  {
+    CallPool p = new CallPool(m_workers.length, m_maxInFlight, m_framing, m_command);
+    if (with_state)
+    {
+      Checkpoint.copyState(this, p);
+    }
+    return p;
+  }
+}
@@ -0,0 +1,404 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.io;
+
+import java.io.BufferedOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * A long-lived external command that exchanges messages through its standard
+ * input and output. Contrary to {@link CommandRunner}, which starts a new
+ * process for every input, a co-process is started once; each request is
+ * written to its standard input, and the corresponding response is read back
+ * from its standard output, in the same order. Requests and responses are
+ * delimited according to a {@link Framing}.
+ * <p>
+ * Requests can be <em>pipelined</em>: several calls to {@link #send(byte[])}
+ * can be made before the corresponding responses are fetched with
+ * {@link #receive()}. It is up to the external command to answer every request
+ * with exactly one response, in the order in which requests were received.
+ * Anything the command writes to its standard error is discarded.
+ *
+ * @author Sylvain Hallé
+ */
+public class CoProcess
+{
+  /**
+   * The way requests and responses are delimited in the byte streams
+   * exchanged with the command.
+   */
+  public static enum Framing
+  {
+    /**
+     * Each message is followed by a newline character. Messages must
+     * therefore not contain any newline themselves. A carriage return
+     * preceding the newline in a response is removed.
+     */
+    LINES,
+
+    /**
+     * Each message is preceded by its length in bytes, written as a 4-byte
+     * big-endian integer
+     */
+    LENGTH_PREFIXED
+  }
+
+  /**
+   * The command to run
+   */
+  protected final String[] m_command;
+
+  /**
+   * The framing used to delimit messages
+   */
+  protected final Framing m_framing;
+
+  /**
+   * The running process, or {@code null} if the command is not started
+   */
+  protected Process m_process = null;
+
+  /**
+   * The stream connected to the command's standard input
+   */
+  protected OutputStream m_stdin;
+
+  /**
+   * The stream connected to the command's standard output
+   */
+  protected InputStream m_stdout;
+
+  /**
+   * A buffer where bytes read from the standard output are stored
+   */
+  protected byte[] m_readBuffer = new byte[8192];
+
+  /**
+   * The position of the next unread byte in {@link #m_readBuffer}
+   */
+  protected int m_readPos = 0;
+
+  /**
+   * The position after the last valid byte in {@link #m_readBuffer}
+   */
+  protected int m_readLimit = 0;
+
+  /**
+   * The number of requests that have been sent but whose response has not
+   * been read yet
+   */
+  protected int m_inFlight = 0;
+
+  /**
+   * Creates a new co-process.
+   *
+   * @param framing
+   *          The framing used to delimit messages
+   * @param command
+   *          The command to run
+   */
+  public CoProcess(/* @NotNull */ Framing framing, String ... command)
+  {
+    super();
+    m_framing = framing;
+    m_command = command;
+  }
+
+  /**
+   * Starts the command, if it is not already running.
+   *
+   * @throws IOException
+   *           If the command cannot be started
+   */
+  public synchronized void start() throws IOException
+  {
+    if (m_process != null)
+    {
+      return;
+    }
+    ProcessBuilder builder = new ProcessBuilder(m_command);
+    m_process = builder.start();
+    m_stdin = new BufferedOutputStream(m_process.getOutputStream());
+    m_stdout = m_process.getInputStream();
+    m_readPos = 0;
+    m_readLimit = 0;
+    m_inFlight = 0;
+    Thread drain = new Thread(new ErrorDrain(m_process.getErrorStream()));
+    drain.setDaemon(true);
+    drain.start();
+  }
+
+  /**
+   * Sends a request to the command, without waiting for its response. The
+   * command is started if it is not already running.
+   *
+   * @param request
+   *          The contents of the request
+   * @throws IOException
+   *           If the request cannot be written
+   */
+  public synchronized void send(/* @NotNull */ byte[] request) throws IOException
+  {
+    start();
+    if (m_framing == Framing.LENGTH_PREFIXED)
+    {
+      int len = request.length;
+      m_stdin.write((len >>> 24) & 0xFF);
+      m_stdin.write((len >>> 16) & 0xFF);
+      m_stdin.write((len >>> 8) & 0xFF);
+      m_stdin.write(len & 0xFF);
+      m_stdin.write(request);
+    }
+    else
+    {
+      m_stdin.write(request);
+      m_stdin.write('\n');
+    }
+    m_stdin.flush();
+    m_inFlight++;
+  }
+
+  /**
+   * Reads the response to the oldest request that has not been answered yet.
+   * This method blocks until the response is available.
+   *
+   * @return The contents of the response
+   * @throws IOException
+   *           If the response cannot be read, or if the command terminates
+   *           before sending it
+   */
+  public synchronized byte[] receive() throws IOException
+  {
+    if (m_process == null)
+    {
+      throw new IOException("The command is not running");
+    }
+    byte[] response;
+    if (m_framing == Framing.LENGTH_PREFIXED)
+    {
+      int len = 0;
+      for (int i = 0; i < 4; i++)
+      {
+        len = (len << 8) | readByte();
+      }
+      if (len < 0)
+      {
+        throw new IOException("Invalid message length " + len);
+      }
+      response = new byte[len];
+      int copied = 0;
+      while (copied < len)
+      {
+        if (m_readPos == m_readLimit)
+        {
+          fill();
+        }
+        int n = Math.min(len - copied, m_readLimit - m_readPos);
+        System.arraycopy(m_readBuffer, m_readPos, response, copied, n);
+        m_readPos += n;
+        copied += n;
+      }
+    }
+    else
+    {
+      response = readLine();
+    }
+    m_inFlight--;
+    return response;
+  }
+
+  /**
+   * Sends a request to the command and waits for its response. Any response
+   * to previously pipelined requests must have been read before calling
+   * this method.
+   *
+   * @param request
+   *          The contents of the request
+   * @return The contents of the response
+   * @throws IOException
+   *           If the exchange with the command fails
+   */
+  public synchronized byte[] call(/* @NotNull */ byte[] request) throws IOException
+  {
+    send(request);
+    return receive();
+  }
+
+  /**
+   * Gets the number of requests that have been sent but whose response has
+   * not been read yet.
+   *
+   * @return The number of requests
+   */
+  public synchronized int getInFlight()
+  {
+    return m_inFlight;
+  }
+
+  /**
+   * Stops the command. Its standard input is closed first, giving the command
+   * a chance to terminate by itself; the process is then destroyed. Any
+   * response that has not been read is lost.
+   */
+  public synchronized void stop()
+  {
+    if (m_process == null)
+    {
+      return;
+    }
+    try
+    {
+      m_stdin.close();
+    }
+    catch (IOException e)
+    {
+      // Nothing to do; the process is destroyed anyway
+    }
+    m_process.destroy();
+    m_process = null;
+    m_inFlight = 0;
+  }
+
+  /**
+   * Reads a newline-terminated message from the standard output.
+   *
+   * @return The message, without its terminating newline
+   * @throws IOException
+   *           If the message cannot be read
+   */
+  protected byte[] readLine() throws IOException
+  {
+    byte[] line = null;
+    int line_len = 0;
+    for (;;)
+    {
+      if (m_readPos == m_readLimit)
+      {
+        fill();
+      }
+      int end = m_readPos;
+      while (end < m_readLimit && m_readBuffer[end] != '\n')
+      {
+        end++;
+      }
+      int n = end - m_readPos;
+      if (line == null)
+      {
+        line = new byte[Math.max(n, 16)];
+      }
+      else if (line_len + n > line.length)
+      {
+        line = Arrays.copyOf(line, Math.max(line.length * 2, line_len + n));
+      }
+      System.arraycopy(m_readBuffer, m_readPos, line, line_len, n);
+      line_len += n;
+      if (end < m_readLimit)
+      {
+        // Skip the newline and stop there
+        m_readPos = end + 1;
+        break;
+      }
+      m_readPos = m_readLimit;
+    }
+    if (line_len > 0 && line[line_len - 1] == '\r')
+    {
+      line_len--;
+    }
+    return Arrays.copyOf(line, line_len);
+  }
+
+  /**
+   * Reads a single byte from the standard output.
+   *
+   * @return The byte, as an integer between 0 and 255
+   * @throws IOException
+   *           If the byte cannot be read
+   */
+  protected int readByte() throws IOException
+  {
+    if (m_readPos == m_readLimit)
+    {
+      fill();
+    }
+    return m_readBuffer[m_readPos++] & 0xFF;
+  }
+
+  /**
+   * Refills the read buffer from the standard output. This method blocks until
+   * at least one byte is available.
+   *
+   * @throws IOException
+   *           If the command's standard output is closed
+   */
+  protected void fill() throws IOException
+  {
+    int len = m_stdout.read(m_readBuffer, 0, m_readBuffer.length);
+    if (len < 0)
+    {
+      throw new EOFException("The command has terminated before sending its response");
+    }
+    m_readPos = 0;
+    m_readLimit = len;
+  }
+
+  /**
+   * Reads and discards everything a command writes to its standard error, so
+   * that it never blocks on a full pipe.
+   */
+  protected static class ErrorDrain implements Runnable
+  {
+    /**
+     * The stream to drain
+     */
+    private final InputStream m_is;
+
+    /**
+     * Creates a new drain
+     *
+     * @param is
+     *          The stream to drain
+     */
+    public ErrorDrain(InputStream is)
+    {
+      super();
+      m_is = is;
+    }
+
+    @Override
+    public void run()
+    {
+      byte[] buffer = new byte[1024];
+      try
+      {
+        while (m_is.read(buffer) >= 0)
+        {
+          // Discard
+        }
+        m_is.close();
+      }
+      catch (IOException e)
+      {
+        // The process has been destroyed; nothing to do
+      }
+    }
+  }
+}
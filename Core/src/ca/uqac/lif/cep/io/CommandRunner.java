@@ -17,15 +17,30 @@
  */
 package ca.uqac.lif.cep.io;
 
+import ca.uqac.lif.cep.Pushable;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Utility class to run commands on the command line and fetch their output.
+ * <p>
+ * The output of the command is captured into a growable byte buffer. For
+ * commands producing large outputs, two alternatives are available:
+ * <ul>
+ * <li>with {@link #setStdoutPushable(Pushable) setStdoutPushable()}, the
+ * contents of the standard output are pushed downstream as byte arrays, as
+ * soon as they are read, instead of being kept in memory;</li>
+ * <li>with {@link #setMemoryLimit(int) setMemoryLimit()}, the captured
+ * contents are moved to a temporary file once they exceed a given size.</li>
+ * </ul>
  * 
  * @author Sylvain Hallé
  *
@@ -44,6 +59,18 @@ public class CommandRunner extends Thread
 
   protected int m_errorCode = 0;
 
+  /**
+   * A pushable to which the contents of stdout are sent as they are read,
+   * or {@code null} to capture these contents
+   */
+  protected Pushable m_stdoutPushable = null;
+
+  /**
+   * The maximum number of bytes of stdout kept in memory before being moved
+   * to a temporary file. A negative value means no limit.
+   */
+  protected int m_memoryLimit = -1;
+
   /**
    * Creates a CommandRunner to run a command.
    * 
@@ -85,6 +112,38 @@ public class CommandRunner extends Thread
     this(command, new byte[0]);
   }
 
+  /**
+   * Sets a pushable to which the contents of the command's standard output
+   * are sent, in chunks, as soon as they are read. These contents are then
+   * not captured, and {@link #getBytes()} returns an empty array. Note that
+   * the chunks are pushed from a different thread than the one that runs
+   * the command.
+   * 
+   * @param p
+   *          The pushable, or {@code null} to capture the output
+   * @return This command runner
+   */
+  public CommandRunner setStdoutPushable(/* @Null */ Pushable p)
+  {
+    m_stdoutPushable = p;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of bytes of the command's standard output that
+   * are kept in memory. Beyond this size, the captured contents are moved to
+   * a temporary file, which is deleted when the virtual machine exits.
+   * 
+   * @param limit
+   *          The number of bytes, or a negative value for no limit
+   * @return This command runner
+   */
+  public CommandRunner setMemoryLimit(int limit)
+  {
+    m_memoryLimit = limit;
+    return this;
+  }
+
   /**
    * Constantly reads an input stream and captures its content. Inspired from
    * <a href=
@@ -94,15 +153,48 @@ public class CommandRunner extends Thread
   protected class StreamGobbler extends Thread
   {
     InputStream m_is;
-    ArrayList<Byte> m_contents;
     String m_name;
 
-    private StreamGobbler(InputStream is, String name)
+    /**
+     * The captured contents
+     */
+    byte[] m_contents;
+
+    /**
+     * The number of valid bytes in {@link #m_contents}
+     */
+    int m_size;
+
+    /**
+     * A pushable to send contents to, instead of capturing them
+     */
+    Pushable m_pushable;
+
+    /**
+     * The maximum number of bytes to keep in memory, or a negative value for
+     * no limit
+     */
+    int m_limit;
+
+    /**
+     * The file where contents are moved beyond {@link #m_limit}
+     */
+    File m_spillFile = null;
+
+    /**
+     * The stream writing to {@link #m_spillFile}
+     */
+    OutputStream m_spillStream = null;
+
+    private StreamGobbler(InputStream is, String name, Pushable p, int limit)
     {
       super();
-      m_contents = new ArrayList<Byte>();
+      m_contents = new byte[0];
+      m_size = 0;
       this.m_is = is;
       m_name = name;
+      m_pushable = p;
+      m_limit = limit;
     }
 
     @Override
@@ -114,15 +206,24 @@ public class CommandRunner extends Thread
         int len;
         while (!m_stop && (len = m_is.read(buffer)) > 0)
         {
+          if (m_pushable != null)
+          {
+            m_pushable.push(Arrays.copyOf(buffer, len));
+            continue;
+          }
           synchronized (this)
           {
-            for (int i = 0; i < len; i++)
-            {
-              m_contents.add(buffer[i]);
-            }
+            append(buffer, len);
           }
         }
         m_is.close();
+        synchronized (this)
+        {
+          if (m_spillStream != null)
+          {
+            m_spillStream.close();
+          }
+        }
       }
       catch (IOException ioe)
       {
@@ -130,6 +231,41 @@ public class CommandRunner extends Thread
       }
     }
 
+    /**
+     * Adds a chunk of data to the captured contents
+     * 
+     * @param buffer
+     *          The array containing the data
+     * @param len
+     *          The number of bytes to take from the array
+     * @throws IOException
+     *           If writing to the temporary file fails
+     */
+    private void append(byte[] buffer, int len) throws IOException
+    {
+      if (m_spillStream == null && m_limit >= 0 && m_size + len > m_limit)
+      {
+        m_spillFile = File.createTempFile("beepbeep-" + m_name, ".out");
+        m_spillFile.deleteOnExit();
+        m_spillStream = new FileOutputStream(m_spillFile);
+        m_spillStream.write(m_contents, 0, m_size);
+        m_contents = new byte[0];
+      }
+      if (m_spillStream != null)
+      {
+        m_spillStream.write(buffer, 0, len);
+      }
+      else
+      {
+        if (m_size + len > m_contents.length)
+        {
+          m_contents = Arrays.copyOf(m_contents, Math.max(m_contents.length * 2, m_size + len));
+        }
+        System.arraycopy(buffer, 0, m_contents, m_size, len);
+      }
+      m_size += len;
+    }
+
     /**
      * Returns the contents captured by the gobbler as an array of bytes
      * 
@@ -137,15 +273,45 @@ public class CommandRunner extends Thread
      */
     public synchronized byte[] getBytes()
     {
-      int size = m_contents.size();
-      byte[] out = new byte[size];
-      int i = 0;
-      for (byte b : m_contents)
+      if (m_spillFile == null)
       {
-        out[i++] = b;
+        return Arrays.copyOf(m_contents, m_size);
+      }
+      byte[] out = new byte[m_size];
+      try
+      {
+        InputStream is = getInputStream();
+        int pos = 0;
+        int len;
+        while (pos < m_size && (len = is.read(out, pos, m_size - pos)) > 0)
+        {
+          pos += len;
+        }
+        is.close();
+      }
+      catch (IOException e)
+      {
+        Logger.getAnonymousLogger().log(Level.WARNING, "", e);
       }
       return out;
     }
+
+    /**
+     * Returns a stream reading the contents captured by the gobbler
+     * 
+     * @return The stream
+     * @throws IOException
+     *           If the temporary file holding the contents cannot be opened
+     */
+    public synchronized InputStream getInputStream() throws IOException
+    {
+      if (m_spillFile == null)
+      {
+        return new ByteArrayInputStream(m_contents, 0, m_size);
+      }
+      m_spillStream.flush();
+      return new FileInputStream(m_spillFile);
+    }
   }
 
   public static byte[] runAndGet(String[] command, String inputs) throws IOException
@@ -164,22 +330,13 @@ public class CommandRunner extends Thread
   public static byte[] runAndGet(String[] command, byte[] inputs) throws IOException
   {
     CommandRunner runner = new CommandRunner(command, inputs);
+    // The command is run in the current thread; execute() returns once
+    // the command is done and its output has been entirely read
     runner.execute();
-    // Wait until the command is done
-    while (runner.isAlive())
+    if (Thread.currentThread().isInterrupted())
     {
-      // Wait 0.1 s and check again
-      try
-      {
-        Thread.sleep(100);
-      }
-      catch (InterruptedException e)
-      {
-        // This happens if the user cancels the command manually
-        runner.stopCommand();
-        runner.interrupt();
-        return new byte[0];
-      }
+      // This happens if the user cancels the command manually
+      return new byte[0];
     }
     return runner.getBytes();
   }
@@ -204,24 +361,25 @@ public class CommandRunner extends Thread
     {
       ProcessBuilder builder = new ProcessBuilder(m_command);
       process = builder.start();
-      m_stderrGobbler = new StreamGobbler(process.getErrorStream(), "ERR");
-      m_stdoutGobbler = new StreamGobbler(process.getInputStream(), "IN");
+      m_stderrGobbler = new StreamGobbler(process.getErrorStream(), "ERR", null, m_memoryLimit);
+      m_stdoutGobbler = new StreamGobbler(process.getInputStream(), "IN", m_stdoutPushable,
+          m_memoryLimit);
+      // Start gobblers before writing to stdin, so that a command producing
+      // output before having read all its input does not block
+      m_stderrGobbler.start();
+      m_stdoutGobbler.start();
       // Send data into stdin of process
+      OutputStream process_stdin = process.getOutputStream();
       if (m_stdin != null)
       {
-        OutputStream process_stdin = process.getOutputStream();
         process_stdin.write(m_stdin, 0, m_stdin.length);
         process_stdin.flush();
-        process_stdin.close();
       }
-      // Start gobblers
-      m_stderrGobbler.start();
-      m_stdoutGobbler.start();
+      process_stdin.close();
       m_errorCode = process.waitFor();
-      do
-      {
-        // Wait for both gobblers to finish
-      } while (!m_stop && (m_stderrGobbler.isAlive() || m_stdoutGobbler.isAlive()));
+      // Wait for both gobblers to finish
+      m_stdoutGobbler.join();
+      m_stderrGobbler.join();
     }
     catch (InterruptedException e)
     {
@@ -231,6 +389,30 @@ public class CommandRunner extends Thread
     }
   }
 
+  /**
+   * Waits until the command, run in a separate thread with {@link #start()},
+   * is done, and returns its exit code.
+   * 
+   * @return The exit code of the command
+   * @throws InterruptedException
+   *           If the current thread is interrupted while waiting
+   */
+  public int waitFor() throws InterruptedException
+  {
+    join();
+    return m_errorCode;
+  }
+
+  /**
+   * Gets the exit code of the command
+   * 
+   * @return The exit code
+   */
+  public int getErrorCode()
+  {
+    return m_errorCode;
+  }
+
   /**
    * Gets the contents of stdout sent by the command as an array of bytes
    * 
@@ -241,6 +423,20 @@ public class CommandRunner extends Thread
     return m_stdoutGobbler.getBytes();
   }
 
+  /**
+   * Gets a stream reading the contents of stdout sent by the command. This
+   * is the preferred way of reading large outputs that have been moved to a
+   * temporary file.
+   * 
+   * @return The stream
+   * @throws IOException
+   *           If the temporary file holding the contents cannot be opened
+   */
+  public synchronized InputStream getInputStream() throws IOException
+  {
+    return m_stdoutGobbler.getInputStream();
+  }
+
   /**
    * Gets the contents of stdout sent by the command as a string
    * 
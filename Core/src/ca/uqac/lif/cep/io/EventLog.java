@@ -0,0 +1,267 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.io;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Constants and helper methods for the binary event log written by
+ * {@link WriteEventLog} and read by {@link ReadEventLog}.
+ * <p>
+ * A log is a directory containing one or more <em>segments</em>. Each segment
+ * is a file whose name is the sequence number of its first event, padded to
+ * 20 digits and followed by {@value #SUFFIX}. A segment starts with a header
+ * made of {@link #MAGIC} and {@link #VERSION}, followed by records. Each record
+ * is made of:
+ * <ol>
+ * <li>the length <i>n</i> of the event's payload (4 bytes)</li>
+ * <li>the sequence number of the event (8 bytes)</li>
+ * <li>the timestamp of the event, in milliseconds (8 bytes)</li>
+ * <li>the payload itself (<i>n</i> bytes), encoded like events in a
+ * {@link ca.uqac.lif.cep.Checkpoint Checkpoint}</li>
+ * </ol>
+ * Segments are created with a fixed size and filled with zeros; a length of
+ * 0 therefore marks the end of the records written so far.
+ *
+ * @author Sylvain Hallé
+ */
+class EventLog
+{
+  /**
+   * The extension of segment files
+   */
+  public static final String SUFFIX = ".log";
+
+  /**
+   * The first bytes of every segment
+   */
+  public static final int MAGIC = 0x42424c47;
+
+  /**
+   * The version of the log format
+   */
+  public static final int VERSION = 1;
+
+  /**
+   * The size of the segment header, in bytes
+   */
+  public static final int SEGMENT_HEADER = 8;
+
+  /**
+   * The size of the header of a record, in bytes
+   */
+  public static final int RECORD_HEADER = 20;
+
+  private EventLog()
+  {
+    super();
+  }
+
+  /**
+   * Gets the file of a segment
+   *
+   * @param directory
+   *          The directory of the log
+   * @param first
+   *          The sequence number of the first event of the segment
+   * @return The file
+   */
+  public static File getSegment(File directory, long first)
+  {
+    return new File(directory, String.format("%020d", first) + SUFFIX);
+  }
+
+  /**
+   * Lists the segments of a log
+   *
+   * @param directory
+   *          The directory of the log
+   * @return The sequence number of the first event of each segment, in
+   *         increasing order
+   */
+  public static long[] listSegments(File directory)
+  {
+    String[] names = directory.list();
+    if (names == null)
+    {
+      return new long[0];
+    }
+    long[] segments = new long[names.length];
+    int num_segments = 0;
+    for (String name : names)
+    {
+      if (name.length() != 20 + SUFFIX.length() || !name.endsWith(SUFFIX))
+      {
+        continue;
+      }
+      try
+      {
+        segments[num_segments++] = Long.parseLong(name.substring(0, 20));
+      }
+      catch (NumberFormatException e)
+      {
+        num_segments--;
+      }
+    }
+    segments = Arrays.copyOf(segments, num_segments);
+    Arrays.sort(segments);
+    return segments;
+  }
+
+  /**
+   * Maps a segment into memory
+   *
+   * @param segment
+   *          The file of the segment
+   * @param write
+   *          Set to {@code true} to map the file for writing
+   * @param size
+   *          The number of bytes to map. When writing, the file is extended to
+   *          this size if necessary.
+   * @return The buffer, whose position is set after the segment header
+   * @throws IOException
+   *           If the file cannot be mapped, or is not a segment
+   */
+  public static MappedByteBuffer map(File segment, boolean write, long size) throws IOException
+  {
+    RandomAccessFile raf = new RandomAccessFile(segment, write ? "rw" : "r");
+    MappedByteBuffer buffer;
+    try
+    {
+      boolean is_new = raf.length() == 0;
+      buffer = raf.getChannel().map(write ? FileChannel.MapMode.READ_WRITE
+          : FileChannel.MapMode.READ_ONLY, 0, size);
+      if (is_new && write)
+      {
+        buffer.putInt(0, MAGIC);
+        buffer.putInt(4, VERSION);
+      }
+    }
+    finally
+    {
+      // The mapping remains valid once the channel is closed
+      raf.close();
+    }
+    if (size < SEGMENT_HEADER || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION)
+    {
+      throw new IOException("Not an event log segment: " + segment);
+    }
+    buffer.position(SEGMENT_HEADER);
+    return buffer;
+  }
+
+  /**
+   * Output stream that gives access to its internal buffer, so that an
+   * encoded event can be copied into a segment without a copy of its bytes
+   */
+  static class BufferOutput extends ByteArrayOutputStream
+  {
+    public BufferOutput()
+    {
+      super(256);
+    }
+
+    /**
+     * Gets the internal buffer of this stream
+     *
+     * @return The buffer; only its first {@link #size()} bytes are meaningful
+     */
+    public byte[] getBuffer()
+    {
+      return buf;
+    }
+  }
+
+  /**
+   * Input stream reading a region of a byte buffer, so that an event can be
+   * decoded directly from a mapped segment
+   */
+  static class BufferInput extends InputStream
+  {
+    /**
+     * The buffer to read from
+     */
+    protected ByteBuffer m_buffer;
+
+    /**
+     * The position of the next byte to read
+     */
+    protected int m_position;
+
+    /**
+     * The position after the last byte to read
+     */
+    protected int m_limit;
+
+    /**
+     * Sets the region to read
+     *
+     * @param buffer
+     *          The buffer to read from
+     * @param position
+     *          The position of the first byte
+     * @param length
+     *          The number of bytes to read
+     */
+    public void setRegion(ByteBuffer buffer, int position, int length)
+    {
+      m_buffer = buffer;
+      m_position = position;
+      m_limit = position + length;
+    }
+
+    @Override
+    public int read()
+    {
+      if (m_position >= m_limit)
+      {
+        return -1;
+      }
+      return m_buffer.get(m_position++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len)
+    {
+      if (m_position >= m_limit)
+      {
+        return -1;
+      }
+      int n = Math.min(len, m_limit - m_position);
+      for (int i = 0; i < n; i++)
+      {
+        b[off + i] = m_buffer.get(m_position++);
+      }
+      return n;
+    }
+
+    @Override
+    public int available()
+    {
+      return m_limit - m_position;
+    }
+  }
+}
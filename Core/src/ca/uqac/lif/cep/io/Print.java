@@ -17,7 +17,9 @@
  */
 package ca.uqac.lif.cep.io;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.tmf.Sink;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Queue;
 
@@ -36,6 +38,17 @@ import java.util.Queue;
  * defines the symbol that is inserted between each event. Further customization
  * of the output can be achieved by passing to a fancier type of print stream,
  * such as an ANSI-aware printer.
+ * <p>
+ * When large volumes of events are printed, the processor can be put in
+ * <em>buffered</em> mode with {@link #setBufferSize(int) setBufferSize()}.
+ * In this mode, the text for each event is formatted into an internal
+ * character buffer, which is written to the print stream in a single call
+ * once it reaches the given size, when the end of the trace is reached, or
+ * when {@link #flush()} or {@link #close()} is called. Prefix, suffix and
+ * separator produce the same output as in unbuffered mode; however, the
+ * {@link #beforeEvent(PrintStream) beforeEvent()} and similar hooks are not
+ * called, as the text is not sent to the print stream at the moment each
+ * event is processed.
  * 
  * @author Sylvain Hallé
  * @dictentry
@@ -63,6 +76,17 @@ public class Print extends Sink
    */
   protected String m_suffix = "";
 
+  /**
+   * The buffer where the text is formatted in buffered mode
+   */
+  protected transient StringBuilder m_buffer = null;
+
+  /**
+   * The number of characters the buffer can hold before being written to the
+   * print stream. A value of 0 disables buffering.
+   */
+  protected int m_bufferSize = 0;
+
   /**
    * Creates a new printer with an input arity of 1 and sending its output to the
    * standard output.
@@ -142,6 +166,46 @@ public class Print extends Sink
     return this;
   }
 
+  /**
+   * Sets the size of the buffer used to accumulate text before writing it to
+   * the print stream. Setting a size greater than 0 puts the processor in
+   * buffered mode.
+   * 
+   * @param size
+   *          The number of characters to accumulate before writing them to the
+   *          print stream, or 0 to write each event immediately
+   * @return This print processor
+   */
+  public /* @NotNull */ Print setBufferSize(int size)
+  {
+    flush();
+    if (size > 0)
+    {
+      m_buffer = new StringBuilder(size + 64);
+      m_bufferSize = size;
+    }
+    else
+    {
+      m_buffer = null;
+      m_bufferSize = 0;
+    }
+    return this;
+  }
+
+  /**
+   * Writes to the print stream any text remaining in the buffer. This method
+   * has no effect if the processor is not in buffered mode.
+   */
+  public void flush()
+  {
+    if (m_buffer != null && m_buffer.length() > 0)
+    {
+      m_out.print(m_buffer.toString());
+      m_out.flush();
+      m_buffer.setLength(0);
+    }
+  }
+
   /**
    * Gets a reference to the print stream to which the character strings will be
    * sent.
@@ -162,6 +226,7 @@ public class Print extends Sink
    */
   public Print setPrintStream(/* @NotNull */ PrintStream printer)
   {
+    flush();
     m_out = printer;
     return this;
   }
@@ -170,6 +235,17 @@ public class Print extends Sink
   @SuppressWarnings("squid:S1168")
   protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
   {
+    if (m_buffer != null)
+    {
+      m_buffer.append(m_prefix);
+      prettyPrint(m_buffer, inputs[0]);
+      m_buffer.append(m_suffix).append(m_separator);
+      if (m_buffer.length() >= m_bufferSize)
+      {
+        flush();
+      }
+      return true;
+    }
     beforeEvent(m_out);
     m_out.print(m_prefix);
     prettyPrint(m_out, inputs[0]);
@@ -181,6 +257,13 @@ public class Print extends Sink
     return true;
   }
 
+  @Override
+  protected boolean onEndOfTrace(Queue<Object[]> outputs)
+  {
+    flush();
+    return false;
+  }
+
   /**
    * Method that is called before an event is to be printed. Descendants of this
    * call can be used to make special calls to the underlying print stream, for
@@ -272,16 +355,92 @@ public class Print extends Sink
   }
   
   /**
-   * Closes the underlying PrintStream
+   * Formats an object into a character buffer, in the same way as
+   * {@link #prettyPrint(PrintStream, Object)}.
+   * 
+   * @param sb
+   *          The buffer to append to
+   * @param o
+   *          The object to print
+   */
+  protected void prettyPrint(/* @NotNull */ StringBuilder sb, /* @Null */ Object o)
+  {
+    if (o instanceof Number)
+    {
+      prettyPrint(sb, (Number) o);
+    }
+    else if (o instanceof String)
+    {
+      sb.append((String) o);
+    }
+    else
+    {
+      sb.append(o);
+    }
+  }
+
+  /**
+   * Formats a number into a character buffer, in the same way as
+   * {@link #prettyPrint(Number)}. Primitive values are appended directly, so
+   * that no intermediate string is created for the most common number types.
+   * 
+   * @param sb
+   *          The buffer to append to
+   * @param n
+   *          The number
+   */
+  protected void prettyPrint(/* @NotNull */ StringBuilder sb, /* @NotNull */ Number n)
+  {
+    float f = n.floatValue();
+    if (f == Math.round(f))
+    {
+      sb.append(n.intValue());
+    }
+    else if (n instanceof Float)
+    {
+      sb.append(f);
+    }
+    else if (n instanceof Double)
+    {
+      sb.append(n.doubleValue());
+    }
+    else if (n instanceof Long)
+    {
+      sb.append(n.longValue());
+    }
+    else
+    {
+      sb.append(n.toString());
+    }
+  }
+
+  /**
+   * Closes the underlying PrintStream, after writing the contents of the
+   * buffer if the processor is in buffered mode
    */
   public void close()
   {
+    flush();
     m_out.close();
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    // Text waiting in the buffer is not part of the state: a checkpoint
+    // marks the point up to which the output has been written
+    flush();
+    super.writeState(out);
+  }
+
   @Override
   public /* @NotNull */ Print duplicate(boolean with_state)
   {
-    return new Print(getInputArity(), m_out);
+    Print p = new Print(getInputArity(), m_out);
+    if (m_bufferSize > 0)
+    {
+      p.setBufferSize(m_bufferSize);
+    }
+    return p;
   }
 }
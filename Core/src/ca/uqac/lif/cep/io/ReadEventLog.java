@@ -0,0 +1,326 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.io;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.tmf.Source;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Queue;
+
+/**
+ * Source that replays the events of a binary event log written by a
+ * {@link WriteEventLog}. The source can start from any sequence number, which
+ * is set with {@link #seek(long)}; segments that only contain earlier events
+ * are not read at all. Segments are memory-mapped, so that events are decoded
+ * directly from the pages of the file.
+ * <p>
+ * By default, the end of the log is the end of the trace: once the source
+ * reaches it, its pullable answers that no event will ever be output, and
+ * processors downstream stop asking for more. When the source is told to
+ * {@link #follow(boolean) follow} the log, it rather answers "maybe" at the
+ * end of the log: {@link ca.uqac.lif.cep.Pullable#hasNext() hasNext()} then
+ * waits, according to the source's
+ * {@link ca.uqac.lif.cep.IdleStrategy IdleStrategy}, until events are
+ * appended to the log. In both cases, events appended to the log are read
+ * on the next call; a segment that has grown since it was mapped is mapped
+ * again.
+ * <p>
+ * The sequence number of the next event to read is part of the state saved
+ * in a {@link Checkpoint}. A graph whose events come from this source can
+ * therefore be restored and resume from the event that follows the
+ * checkpoint, without replaying the whole log.
+ *
+ * @author Sylvain Hallé
+ */
+public class ReadEventLog extends Source
+{
+  /**
+   * The directory of the log
+   */
+  protected final File m_directory;
+
+  /**
+   * The sequence number of the next event to output
+   */
+  protected long m_nextSequence = 0;
+
+  /**
+   * The timestamp of the last event output, or -1 if no event has been output
+   */
+  protected long m_timestamp = -1;
+
+  /**
+   * Whether the source waits for events to be appended when it reaches the
+   * end of the log
+   */
+  protected boolean m_follow = false;
+
+  /**
+   * The sequence number of the first event of the current segment
+   */
+  protected transient long m_segmentFirst = -1;
+
+  /**
+   * The memory-mapped contents of the current segment, or {@code null} if no
+   * segment is open
+   */
+  protected transient MappedByteBuffer m_buffer;
+
+  /**
+   * The stream reading the payload of an event from {@link #m_buffer}
+   */
+  protected final transient EventLog.BufferInput m_payload;
+
+  /**
+   * The decoder reading events from {@link #m_payload}
+   */
+  protected final transient Checkpoint.Input m_decoder;
+
+  /**
+   * Creates a new event log source
+   *
+   * @param directory
+   *          The directory of the log
+   */
+  public ReadEventLog(/* @NotNull */ File directory)
+  {
+    super(1);
+    m_directory = directory;
+    m_payload = new EventLog.BufferInput();
+    m_decoder = new Checkpoint.Input(m_payload);
+  }
+
+  /**
+   * Sets the sequence number of the next event to output
+   *
+   * @param sequence
+   *          The sequence number
+   * @return This source
+   */
+  public ReadEventLog seek(long sequence)
+  {
+    m_nextSequence = sequence;
+    m_buffer = null;
+    m_segmentFirst = -1;
+    return this;
+  }
+
+  /**
+   * Sets whether the source waits for events to be appended to the log when
+   * it reaches its end
+   *
+   * @param b
+   *          Set to {@code true} to follow the log, {@code false} to end the
+   *          trace at the end of the log (default)
+   * @return This source
+   */
+  public ReadEventLog follow(boolean b)
+  {
+    m_follow = b;
+    return this;
+  }
+
+  /**
+   * Gets the sequence number of the next event to output
+   *
+   * @return The sequence number
+   */
+  public long getNextSequence()
+  {
+    return m_nextSequence;
+  }
+
+  /**
+   * Gets the timestamp of the last event output
+   *
+   * @return The timestamp, in milliseconds, or -1 if no event has been output
+   */
+  public long getTimestamp()
+  {
+    return m_timestamp;
+  }
+
+  @Override
+  public void reset()
+  {
+    super.reset();
+    seek(0);
+    m_timestamp = -1;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    try
+    {
+      // When following the log, its end only means no event is available yet
+      return readNext(outputs) || m_follow;
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+  }
+
+  /**
+   * Reads the next event of the log
+   *
+   * @param outputs
+   *          The queue in which to put the event
+   * @return {@code true} if an event was read, {@code false} if the end of
+   *         the log is reached
+   * @throws IOException
+   *           If the log cannot be read
+   */
+  protected boolean readNext(Queue<Object[]> outputs) throws IOException
+  {
+    if (m_buffer == null && !openSegment(false))
+    {
+      return false;
+    }
+    for (;;)
+    {
+      int pos = m_buffer.position();
+      int length = m_buffer.limit() - pos < EventLog.RECORD_HEADER ? 0 : m_buffer.getInt(pos);
+      if (length <= 0)
+      {
+        // End of the records of this segment
+        if (remapSegment())
+        {
+          continue;
+        }
+        if (!openSegment(true))
+        {
+          return false;
+        }
+        continue;
+      }
+      m_buffer.position(pos + EventLog.RECORD_HEADER + length);
+      long sequence = m_buffer.getLong(pos + 4);
+      if (sequence < m_nextSequence)
+      {
+        continue;
+      }
+      m_payload.setRegion(m_buffer, pos + EventLog.RECORD_HEADER, length);
+      Object o = m_decoder.readObject();
+      m_timestamp = m_buffer.getLong(pos + 12);
+      m_nextSequence = sequence + 1;
+      outputs.add(new Object[] { o });
+      return true;
+    }
+  }
+
+  /**
+   * Maps the current segment again if its file is now larger than the
+   * mapping, keeping the current position
+   *
+   * @return {@code true} if the segment was mapped again, {@code false} if
+   *         it has not grown
+   * @throws IOException
+   *           If the segment cannot be mapped
+   */
+  protected boolean remapSegment() throws IOException
+  {
+    File segment = EventLog.getSegment(m_directory, m_segmentFirst);
+    long length = segment.length();
+    if (length <= m_buffer.capacity())
+    {
+      return false;
+    }
+    int pos = m_buffer.position();
+    m_buffer = EventLog.map(segment, false, length);
+    m_buffer.position(pos);
+    return true;
+  }
+
+  /**
+   * Opens a segment of the log
+   *
+   * @param next
+   *          Set to {@code true} to open the segment that follows the current
+   *          one, {@code false} to open the segment containing the next event
+   * @return {@code true} if a segment was opened, {@code false} if there is no
+   *         such segment
+   * @throws IOException
+   *           If the segment cannot be opened
+   */
+  protected boolean openSegment(boolean next) throws IOException
+  {
+    long[] segments = EventLog.listSegments(m_directory);
+    int index = -1;
+    for (int i = 0; i < segments.length; i++)
+    {
+      if (next ? segments[i] > m_segmentFirst : segments[i] <= m_nextSequence)
+      {
+        index = i;
+        if (next)
+        {
+          break;
+        }
+      }
+    }
+    if (index < 0)
+    {
+      if (!next && segments.length > 0)
+      {
+        // The log starts after the requested event
+        index = 0;
+      }
+      else
+      {
+        return false;
+      }
+    }
+    File segment = EventLog.getSegment(m_directory, segments[index]);
+    m_buffer = EventLog.map(segment, false, segment.length());
+    m_segmentFirst = segments[index];
+    return true;
+  }
+
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeLong(m_nextSequence);
+    out.writeLong(m_timestamp);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    seek(in.readLong());
+    m_timestamp = in.readLong();
+  }
+
+  @Override
+  public ReadEventLog duplicate(boolean with_state)
+  {
+    ReadEventLog rel = new ReadEventLog(m_directory);
+    rel.m_follow = m_follow;
+    if (with_state)
+    {
+      rel.seek(m_nextSequence);
+      rel.m_timestamp = m_timestamp;
+    }
+    return rel;
+  }
+}
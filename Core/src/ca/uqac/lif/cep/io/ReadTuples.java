@@ -0,0 +1,753 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.io;
+
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.functions.UnaryFunction;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+/**
+ * Source that reads delimited records (such as CSV) from a Java
+ * {@link InputStream}, and outputs each of them as a {@link Tuple}.
+ * <p>
+ * The first record of the input is interpreted as the names of the fields of
+ * each tuple. Blank lines, as well as lines starting with <tt>#</tt>, are
+ * ignored. Fields can be enclosed in double quotes, in which case they can
+ * contain the delimiter, line breaks, and double quotes written twice.
+ * Unquoted fields are trimmed of leading and trailing spaces.
+ * <p>
+ * The type of each column is decided once, by its first non-empty value: if
+ * this value is an unquoted number, the column is numeric, otherwise all its
+ * values are output as strings. In a numeric column, integers are output as
+ * {@link Integer}s, or as {@link Long}s if they do not fit in an int, and
+ * other numbers are output as {@link Double}s, so that no precision is lost.
+ * A value of a numeric column that is not a number is output as the string
+ * it is made of. Empty fields and missing fields are output as
+ * {@code null}. Contrary to
+ * {@link ca.uqac.lif.cep.util.Strings.SplitString SplitString}, numbers are
+ * recognized with a hand-written scanner, so that a value that is not a
+ * number never causes an exception to be thrown.
+ * <p>
+ * All the tuples produced by a reader share the same {@link Schema}, where
+ * the position of each field name is computed only once.
+ *
+ * @author Sylvain Hallé
+ * @dictentry
+ */
+@SuppressWarnings("squid:S2160")
+public class ReadTuples extends ReadInputStream
+{
+  /**
+   * Type of a column that only had empty values so far
+   */
+  protected static final int TYPE_UNKNOWN = 0;
+
+  /**
+   * Type of a column whose values are numbers
+   */
+  protected static final int TYPE_NUMBER = 1;
+
+  /**
+   * Type of a column whose values are strings
+   */
+  protected static final int TYPE_STRING = 2;
+
+  /**
+   * The reader to read characters from
+   */
+  protected transient Reader m_reader;
+
+  /**
+   * The buffer where characters are read
+   */
+  protected transient char[] m_buffer;
+
+  /**
+   * The position of the next character to read in the buffer
+   */
+  protected int m_pos = 0;
+
+  /**
+   * The number of valid characters in the buffer
+   */
+  protected int m_limit = 0;
+
+  /**
+   * Whether the end of the input has been reached
+   */
+  protected boolean m_endOfInput = false;
+
+  /**
+   * The character separating fields
+   */
+  protected char m_delimiter = ',';
+
+  /**
+   * The schema of the tuples, or {@code null} if the header has not been
+   * read yet
+   */
+  protected Schema m_schema = null;
+
+  /**
+   * The type of each column
+   */
+  protected int[] m_columnTypes;
+
+  /**
+   * A buffer used to accumulate the characters of a field
+   */
+  protected final StringBuilder m_field = new StringBuilder();
+
+  /**
+   * The fields of the record being read
+   */
+  protected final List<String> m_fields = new ArrayList<String>();
+
+  /**
+   * For each field of the record being read, whether it was quoted
+   */
+  protected boolean[] m_quoted = new boolean[16];
+
+  /**
+   * Creates a new tuple reader
+   *
+   * @param is
+   *          The input stream to read from
+   */
+  public ReadTuples(/* @NotNull */ InputStream is)
+  {
+    super(is);
+    m_reader = new InputStreamReader(is);
+    m_buffer = new char[m_chunkSize];
+  }
+
+  /**
+   * Sets the character separating the fields of a record
+   *
+   * @param delimiter
+   *          The character (default: comma)
+   * @return This reader
+   */
+  public ReadTuples setDelimiter(char delimiter)
+  {
+    m_delimiter = delimiter;
+    return this;
+  }
+
+  /**
+   * Gets the schema of the tuples produced by this reader
+   *
+   * @return The schema, or {@code null} if no record has been read yet
+   */
+  public /* @Null */ Schema getSchema()
+  {
+    return m_schema;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    try
+    {
+      if (m_schema == null)
+      {
+        if (!readRecord())
+        {
+          return false;
+        }
+        m_schema = new Schema(m_fields.toArray(new String[m_fields.size()]));
+        m_columnTypes = new int[m_schema.size()];
+      }
+      if (!readRecord())
+      {
+        return false;
+      }
+      outputs.add(new Object[] { toTuple() });
+      return true;
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+  }
+
+  /**
+   * Converts the record that has just been read into a tuple
+   *
+   * @return The tuple
+   */
+  protected Tuple toTuple()
+  {
+    int size = m_schema.size();
+    Object[] values = new Object[size];
+    int n = Math.min(size, m_fields.size());
+    for (int i = 0; i < n; i++)
+    {
+      String s = m_fields.get(i);
+      if (s.isEmpty() && !m_quoted[i])
+      {
+        // Empty field
+        continue;
+      }
+      if (m_columnTypes[i] == TYPE_UNKNOWN)
+      {
+        m_columnTypes[i] = !m_quoted[i] && isNumber(s) ? TYPE_NUMBER : TYPE_STRING;
+      }
+      if (m_columnTypes[i] == TYPE_NUMBER && isNumber(s))
+      {
+        values[i] = parseNumber(s);
+      }
+      else
+      {
+        values[i] = s;
+      }
+    }
+    return new Tuple(m_schema, values);
+  }
+
+  /**
+   * Reads the next record of the input, skipping blank and comment lines. The
+   * fields of the record are put in {@link #m_fields}.
+   *
+   * @return {@code true} if a record has been read, {@code false} if the end
+   *         of the input has been reached
+   * @throws IOException
+   *           If reading from the input fails
+   */
+  protected boolean readRecord() throws IOException
+  {
+    m_fields.clear();
+    // Skip blank lines and comments
+    for (;;)
+    {
+      int c = peek();
+      if (c < 0)
+      {
+        return false;
+      }
+      if (c == '\n' || c == '\r')
+      {
+        m_pos++;
+      }
+      else if (c == '#')
+      {
+        skipLine();
+      }
+      else
+      {
+        break;
+      }
+    }
+    for (;;)
+    {
+      boolean quoted = readField();
+      int index = m_fields.size();
+      if (index >= m_quoted.length)
+      {
+        m_quoted = Arrays.copyOf(m_quoted, m_quoted.length * 2);
+      }
+      m_quoted[index] = quoted;
+      m_fields.add(m_field.toString());
+      int c = peek();
+      if (c == m_delimiter)
+      {
+        m_pos++;
+        continue;
+      }
+      // End of line or end of input
+      skipLine();
+      return true;
+    }
+  }
+
+  /**
+   * Reads a single field into {@link #m_field}, and stops on the delimiter or
+   * the end of the line that follows it.
+   *
+   * @return {@code true} if the field was quoted, {@code false} otherwise
+   * @throws IOException
+   *           If reading from the input fails
+   */
+  protected boolean readField() throws IOException
+  {
+    m_field.setLength(0);
+    int c = peek();
+    while (c == ' ' || c == '\t')
+    {
+      m_pos++;
+      c = peek();
+    }
+    if (c == '"')
+    {
+      m_pos++;
+      for (;;)
+      {
+        c = peek();
+        if (c < 0)
+        {
+          break;
+        }
+        m_pos++;
+        if (c == '"')
+        {
+          if (peek() == '"')
+          {
+            // Escaped quote
+            m_pos++;
+            m_field.append('"');
+          }
+          else
+          {
+            break;
+          }
+        }
+        else
+        {
+          m_field.append((char) c);
+        }
+      }
+      // Ignore anything between the closing quote and the delimiter
+      c = peek();
+      while (c >= 0 && c != m_delimiter && c != '\n' && c != '\r')
+      {
+        m_pos++;
+        c = peek();
+      }
+      return true;
+    }
+    while (c >= 0 && c != m_delimiter && c != '\n' && c != '\r')
+    {
+      m_field.append((char) c);
+      m_pos++;
+      c = peek();
+    }
+    int len = m_field.length();
+    while (len > 0 && (m_field.charAt(len - 1) == ' ' || m_field.charAt(len - 1) == '\t'))
+    {
+      len--;
+    }
+    m_field.setLength(len);
+    return false;
+  }
+
+  /**
+   * Skips all characters up to and including the next line break
+   *
+   * @throws IOException
+   *           If reading from the input fails
+   */
+  protected void skipLine() throws IOException
+  {
+    int c = peek();
+    while (c >= 0 && c != '\n')
+    {
+      m_pos++;
+      c = peek();
+    }
+    if (c == '\n')
+    {
+      m_pos++;
+    }
+  }
+
+  /**
+   * Gets the next character of the input without consuming it
+   *
+   * @return The character, or -1 if the end of the input is reached
+   * @throws IOException
+   *           If reading from the input fails
+   */
+  protected int peek() throws IOException
+  {
+    if (m_pos < m_limit)
+    {
+      return m_buffer[m_pos];
+    }
+    if (m_endOfInput)
+    {
+      return -1;
+    }
+    int len = m_reader.read(m_buffer, 0, m_buffer.length);
+    if (len <= 0)
+    {
+      m_endOfInput = true;
+      m_reader.close();
+      return -1;
+    }
+    m_pos = 0;
+    m_limit = len;
+    return m_buffer[0];
+  }
+
+  /**
+   * Converts a string into a number. The string must be a number according to
+   * {@link #isNumber(String)}.
+   *
+   * @param s
+   *          The string
+   * @return An {@link Integer} or a {@link Long} if the string is an integer
+   *         that fits in one of them, a {@link Double} otherwise
+   */
+  protected static Number parseNumber(String s)
+  {
+    if (s.indexOf('.') < 0 && s.indexOf('e') < 0 && s.indexOf('E') < 0)
+    {
+      try
+      {
+        long l = Long.parseLong(s.charAt(0) == '+' ? s.substring(1) : s);
+        if (l >= Integer.MIN_VALUE && l <= Integer.MAX_VALUE)
+        {
+          return (int) l;
+        }
+        return l;
+      }
+      catch (NumberFormatException e)
+      {
+        // Too large for a long
+      }
+    }
+    return Double.parseDouble(s);
+  }
+
+  /**
+   * Checks if a string represents a decimal number, optionally written in
+   * scientific notation
+   *
+   * @param s
+   *          The string
+   * @return {@code true} if the string is a number, {@code false} otherwise
+   */
+  protected static boolean isNumber(String s)
+  {
+    int len = s.length();
+    int i = 0;
+    if (len > 0 && (s.charAt(0) == '-' || s.charAt(0) == '+'))
+    {
+      i = 1;
+    }
+    int digits = 0;
+    while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+    {
+      i++;
+      digits++;
+    }
+    if (i < len && s.charAt(i) == '.')
+    {
+      i++;
+      while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+      {
+        i++;
+        digits++;
+      }
+    }
+    if (digits == 0)
+    {
+      return false;
+    }
+    if (i < len && (s.charAt(i) == 'e' || s.charAt(i) == 'E'))
+    {
+      i++;
+      if (i < len && (s.charAt(i) == '-' || s.charAt(i) == '+'))
+      {
+        i++;
+      }
+      int exp_digits = 0;
+      while (i < len && s.charAt(i) >= '0' && s.charAt(i) <= '9')
+      {
+        i++;
+        exp_digits++;
+      }
+      if (exp_digits == 0)
+      {
+        return false;
+      }
+    }
+    return i == len;
+  }
+
+  @Override
+  public ReadTuples duplicate(boolean with_state)
+  {
+    // By default, it does not make sense to duplicate such a processor
+    throw new UnsupportedOperationException();
+  }
+
+  /**
+   * The names of the fields of a tuple, along with their position. A schema
+   * is shared by all the tuples read from the same source.
+   */
+  public static class Schema
+  {
+    /**
+     * The names of the fields, in order
+     */
+    protected final String[] m_names;
+
+    /**
+     * A map from each field name to its position
+     */
+    protected final Map<String, Integer> m_indices;
+
+    /**
+     * Creates a new schema
+     *
+     * @param names
+     *          The names of the fields, in order
+     */
+    public Schema(String ... names)
+    {
+      super();
+      m_names = names;
+      m_indices = new HashMap<String, Integer>(names.length * 2);
+      for (int i = 0; i < names.length; i++)
+      {
+        m_indices.put(names[i], i);
+      }
+    }
+
+    /**
+     * Gets the position of a field
+     *
+     * @param name
+     *          The name of the field
+     * @return The position, or -1 if no field has this name
+     */
+    public int indexOf(String name)
+    {
+      Integer i = m_indices.get(name);
+      if (i == null)
+      {
+        return -1;
+      }
+      return i;
+    }
+
+    /**
+     * Gets the name of the field at some position
+     *
+     * @param index
+     *          The position
+     * @return The name
+     */
+    public String getName(int index)
+    {
+      return m_names[index];
+    }
+
+    /**
+     * Gets the number of fields
+     *
+     * @return The number of fields
+     */
+    public int size()
+    {
+      return m_names.length;
+    }
+
+    @Override
+    public String toString()
+    {
+      return Arrays.toString(m_names);
+    }
+  }
+
+  /**
+   * An ordered list of values, whose fields are named by a {@link Schema}
+   */
+  public static class Tuple
+  {
+    /**
+     * The schema of this tuple
+     */
+    protected final Schema m_schema;
+
+    /**
+     * The values of the fields, in the same order as in the schema
+     */
+    protected final Object[] m_values;
+
+    /**
+     * Creates a new tuple
+     *
+     * @param schema
+     *          The schema of this tuple
+     * @param values
+     *          The values of the fields, in the same order as in the schema
+     */
+    public Tuple(/* @NotNull */ Schema schema, /* @NotNull */ Object ... values)
+    {
+      super();
+      m_schema = schema;
+      m_values = values;
+    }
+
+    /**
+     * Gets the schema of this tuple
+     *
+     * @return The schema
+     */
+    public Schema getSchema()
+    {
+      return m_schema;
+    }
+
+    /**
+     * Gets the value of a field by its position
+     *
+     * @param index
+     *          The position
+     * @return The value
+     */
+    public Object get(int index)
+    {
+      return m_values[index];
+    }
+
+    /**
+     * Gets the value of a field by its name
+     *
+     * @param name
+     *          The name of the field
+     * @return The value, or {@code null} if no field has this name
+     */
+    public Object get(String name)
+    {
+      int i = m_schema.indexOf(name);
+      if (i < 0)
+      {
+        return null;
+      }
+      return m_values[i];
+    }
+
+    /**
+     * Gets the number of fields of this tuple
+     *
+     * @return The number of fields
+     */
+    public int size()
+    {
+      return m_values.length;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return Arrays.hashCode(m_values);
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      if (!(o instanceof Tuple))
+      {
+        return false;
+      }
+      return Arrays.equals(m_values, ((Tuple) o).m_values);
+    }
+
+    @Override
+    public String toString()
+    {
+      StringBuilder out = new StringBuilder();
+      out.append("(");
+      for (int i = 0; i < m_values.length; i++)
+      {
+        if (i > 0)
+        {
+          out.append(",");
+        }
+        out.append(m_schema.getName(i)).append("=").append(m_values[i]);
+      }
+      out.append(")");
+      return out.toString();
+    }
+  }
+
+  /**
+   * Function that extracts the value of a field from a {@link Tuple}. The
+   * position of the field is looked up once for each schema, rather than for
+   * each tuple.
+   */
+  public static class GetField extends UnaryFunction<Tuple, Object>
+  {
+    /**
+     * The name of the field to extract
+     */
+    protected final String m_name;
+
+    /**
+     * The last schema for which the position of the field was looked up
+     */
+    protected transient Schema m_lastSchema = null;
+
+    /**
+     * The position of the field in {@link #m_lastSchema}
+     */
+    protected transient int m_lastIndex = -1;
+
+    /**
+     * Creates a new instance of the function
+     *
+     * @param name
+     *          The name of the field to extract
+     */
+    public GetField(/* @NotNull */ String name)
+    {
+      super(Tuple.class, Object.class);
+      m_name = name;
+    }
+
+    @Override
+    public Object getValue(Tuple t)
+    {
+      Schema s = t.getSchema();
+      if (s != m_lastSchema)
+      {
+        m_lastIndex = s.indexOf(m_name);
+        m_lastSchema = s;
+      }
+      if (m_lastIndex < 0)
+      {
+        return null;
+      }
+      return t.get(m_lastIndex);
+    }
+
+    @Override
+    public GetField duplicate(boolean with_state)
+    {
+      return new GetField(m_name);
+    }
+
+    @Override
+    public String toString()
+    {
+      return "Get " + m_name;
+    }
+  }
+}
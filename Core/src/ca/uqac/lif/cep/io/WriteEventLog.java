@@ -0,0 +1,309 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.io;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.tmf.Sink;
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.util.Queue;
+
+/**
+ * Sink that appends the events it receives to a binary event log. Each event
+ * is given a sequence number, starting at 0, and a timestamp. The log is split
+ * into segments of fixed size, which are memory-mapped: appending an event
+ * amounts to copying its encoded form into memory, and it is left to the
+ * operating system to write the pages to disk. Calling {@link #flush()}
+ * forces the pages of the current segment to be written.
+ * <p>
+ * If the log already contains events, new events are appended after them,
+ * and numbered from where the log stopped. The log can be read back, from any
+ * sequence number, by a {@link ReadEventLog}. The format of the log is
+ * described in {@link EventLog}.
+ * <p>
+ * The current segment is written to disk and closed when the end of the trace
+ * is reached, or when {@link #close()} is called. Segments are never
+ * truncated: a segment may still be mapped, by this sink or by a reader, and
+ * truncating a mapped file fails on some systems. The unused end of a segment
+ * is made of zeros, which most file systems do not allocate on disk.
+ *
+ * @author Sylvain Hallé
+ */
+public class WriteEventLog extends Sink
+{
+  /**
+   * The default size of a segment, in bytes
+   */
+  public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+  /**
+   * The directory of the log
+   */
+  protected final File m_directory;
+
+  /**
+   * The size of each new segment, in bytes
+   */
+  protected long m_segmentSize = DEFAULT_SEGMENT_SIZE;
+
+  /**
+   * The file of the current segment
+   */
+  protected transient File m_segment;
+
+  /**
+   * The memory-mapped contents of the current segment, or {@code null} if no
+   * segment is open
+   */
+  protected transient MappedByteBuffer m_buffer;
+
+  /**
+   * The sequence number to give to the next event
+   */
+  protected long m_nextSequence = 0;
+
+  /**
+   * A buffer in which events are encoded before being copied into the segment
+   */
+  protected final transient EventLog.BufferOutput m_scratch;
+
+  /**
+   * The encoder writing events into {@link #m_scratch}
+   */
+  protected final transient Checkpoint.Output m_encoder;
+
+  /**
+   * Creates a new event log sink
+   *
+   * @param directory
+   *          The directory of the log. It is created if it does not exist.
+   */
+  public WriteEventLog(/* @NotNull */ File directory)
+  {
+    super(1);
+    m_directory = directory;
+    m_scratch = new EventLog.BufferOutput();
+    m_encoder = new Checkpoint.Output(m_scratch);
+  }
+
+  /**
+   * Sets the size of the segments created by this sink. Events larger than
+   * this size get a segment of their own.
+   *
+   * @param size
+   *          The size, in bytes
+   * @return This sink
+   */
+  public WriteEventLog setSegmentSize(long size)
+  {
+    m_segmentSize = size;
+    return this;
+  }
+
+  /**
+   * Gets the sequence number that will be given to the next event
+   *
+   * @return The sequence number
+   */
+  public long getNextSequence()
+  {
+    try
+    {
+      open();
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+    return m_nextSequence;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    try
+    {
+      append(inputs[0]);
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+    return true;
+  }
+
+  @Override
+  protected boolean onEndOfTrace(Queue<Object[]> outputs)
+  {
+    close();
+    return false;
+  }
+
+  /**
+   * Appends an event to the log
+   *
+   * @param o
+   *          The event
+   * @throws IOException
+   *           If the event cannot be written
+   */
+  protected void append(Object o) throws IOException
+  {
+    open();
+    m_scratch.reset();
+    m_encoder.writeObject(o);
+    int length = m_scratch.size();
+    if (m_buffer.remaining() < EventLog.RECORD_HEADER + length)
+    {
+      closeSegment();
+      createSegment(EventLog.RECORD_HEADER + length);
+    }
+    int pos = m_buffer.position();
+    m_buffer.position(pos + 4);
+    m_buffer.putLong(m_nextSequence);
+    m_buffer.putLong(getTimestamp());
+    m_buffer.put(m_scratch.getBuffer(), 0, length);
+    // The length is written last, so that a reader never sees a record whose
+    // payload is incomplete
+    m_buffer.putInt(pos, length);
+    m_nextSequence++;
+  }
+
+  /**
+   * Gets the timestamp given to the event being appended
+   *
+   * @return The timestamp, in milliseconds
+   */
+  protected long getTimestamp()
+  {
+    return System.currentTimeMillis();
+  }
+
+  /**
+   * Forces the events appended so far to be written to disk
+   */
+  public void flush()
+  {
+    if (m_buffer != null)
+    {
+      m_buffer.force();
+    }
+  }
+
+  /**
+   * Closes the current segment of the log, after writing its events to disk.
+   * Appending a new event reopens the log.
+   */
+  public void close()
+  {
+    try
+    {
+      closeSegment();
+    }
+    catch (IOException e)
+    {
+      throw new ProcessorException(e);
+    }
+  }
+
+  /**
+   * Opens the last segment of the log, if no segment is currently open. The
+   * records of that segment are skipped to find the position and the
+   * sequence number of the next event.
+   *
+   * @throws IOException
+   *           If the segment cannot be opened
+   */
+  protected void open() throws IOException
+  {
+    if (m_buffer != null)
+    {
+      return;
+    }
+    if (!m_directory.isDirectory() && !m_directory.mkdirs())
+    {
+      throw new IOException("Cannot create directory " + m_directory);
+    }
+    long[] segments = EventLog.listSegments(m_directory);
+    if (segments.length == 0)
+    {
+      m_nextSequence = 0;
+      createSegment(0);
+      return;
+    }
+    long first = segments[segments.length - 1];
+    m_segment = EventLog.getSegment(m_directory, first);
+    m_buffer = EventLog.map(m_segment, true, Math.max(m_segment.length(), m_segmentSize));
+    long next = first;
+    int pos = m_buffer.position();
+    while (m_buffer.limit() - pos >= EventLog.RECORD_HEADER)
+    {
+      int length = m_buffer.getInt(pos);
+      if (length <= 0)
+      {
+        break;
+      }
+      next = m_buffer.getLong(pos + 4) + 1;
+      pos += EventLog.RECORD_HEADER + length;
+    }
+    m_buffer.position(pos);
+    m_nextSequence = next;
+  }
+
+  /**
+   * Creates a new segment, starting at the current sequence number
+   *
+   * @param min_size
+   *          The minimum number of bytes the segment must be able to hold,
+   *          excluding its header
+   * @throws IOException
+   *           If the segment cannot be created
+   */
+  protected void createSegment(int min_size) throws IOException
+  {
+    m_segment = EventLog.getSegment(m_directory, m_nextSequence);
+    long size = Math.max(m_segmentSize, (long) EventLog.SEGMENT_HEADER + min_size);
+    m_buffer = EventLog.map(m_segment, true, size);
+  }
+
+  /**
+   * Closes the current segment, if any, after writing its events to disk.
+   * The mapping itself is released by the garbage collector.
+   *
+   * @throws IOException
+   *           If the segment cannot be written
+   */
+  protected void closeSegment() throws IOException
+  {
+    if (m_buffer == null)
+    {
+      return;
+    }
+    m_buffer.force();
+    m_buffer = null;
+  }
+
+  @Override
+  public WriteEventLog duplicate(boolean with_state)
+  {
+    // Two sinks cannot append to the same log
+    throw new UnsupportedOperationException();
+  }
+}
@@ -18,6 +18,7 @@
 package ca.uqac.lif.cep.tmf;
 
 import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorTemplate;
 import ca.uqac.lif.cep.SingleProcessor;
 import java.util.LinkedList;
 
@@ -56,6 +57,12 @@ public abstract class AbstractWindow extends SingleProcessor
    */
   protected Processor m_processor = null;
 
+  /**
+   * A template used to create copies of the internal processor when this
+   * window is duplicated. It is shared by a window and its duplicates.
+   */
+  protected transient ProcessorTemplate m_template = null;
+
   /**
    * Creates a new abstract window processor
    * @param in_processor The processor to run on each window
@@ -67,4 +74,19 @@ public abstract class AbstractWindow extends SingleProcessor
     m_width = width;
     m_processor = in_processor;
   }
+
+  /**
+   * Gets the template used to create copies of the internal processor,
+   * creating it if necessary
+   * 
+   * @return The template
+   */
+  protected synchronized ProcessorTemplate getTemplate()
+  {
+    if (m_template == null)
+    {
+      m_template = new ProcessorTemplate(m_processor);
+    }
+    return m_template;
+  }
 }
@@ -17,6 +17,9 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
+import java.io.IOException;
+
 /**
  * Returns one input event and discards the next *n*-1. The value *n* is called
  * the **decimation interval**. However, a mode can be specified in order to
@@ -108,10 +111,29 @@ public class CountDecimate extends Decimate
     m_current = 0;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeInt(m_current);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_current = in.readInt();
+  }
+
   @Override
   public CountDecimate duplicate(boolean with_state)
   {
-    return new CountDecimate(m_interval, m_shouldProcessLastInputs);
+    CountDecimate c = new CountDecimate(m_interval, m_shouldProcessLastInputs);
+    if (with_state)
+    {
+      Checkpoint.copyState(this, c);
+    }
+    return c;
   }
 
 }
@@ -18,8 +18,10 @@
 
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.ProcessorException;
 import ca.uqac.lif.cep.SingleProcessor;
+import java.io.IOException;
 import java.util.Queue;
 
 /**
@@ -166,4 +168,17 @@ public abstract class Decimate extends SingleProcessor
   {
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeObject(m_lastProcessedInputs);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_lastProcessedInputs = (Object[]) in.readObject();
+  }
 }
@@ -17,7 +17,9 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.SingleProcessor;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -90,9 +92,29 @@ public class Demultiplex extends SingleProcessor
     m_window.clear();
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeCollection(m_window);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_window.clear();
+    in.readCollection(m_window);
+  }
+
   @Override
   public Demultiplex duplicate(boolean with_state)
   {
-    return new Demultiplex(m_width);
+    Demultiplex d = new Demultiplex(m_width);
+    if (with_state)
+    {
+      Checkpoint.copyState(this, d);
+    }
+    return d;
   }
 }
@@ -17,11 +17,23 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.IdleStrategy;
+import ca.uqac.lif.cep.NextStatus;
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
 import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.TimedPullable;
 import ca.uqac.lif.cep.UniformProcessor;
 import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Duplicates an input trace into two or more output traces.
@@ -29,6 +41,43 @@ import java.util.Queue;
  * It is represented graphically as:
  * 
  * ![Fork]({@docRoot}/doc-files/tmf/Fork.png)
+ * <p>
+ * In push mode, the fork normally pushes each event to its outputs one after
+ * the other, on the thread that pushed the event. The time taken to push an
+ * event is then the sum of the time taken by each branch. In <em>parallel</em>
+ * mode, each output is instead given a queue and a thread of its own: pushing
+ * an event only puts it into the queue of each branch, and each thread pushes
+ * the events of its queue downstream, in the order they were received. The
+ * queues are bounded; when the queue of a branch is full, the thread pushing
+ * events waits until the branch catches up, according to the processor's
+ * {@link ca.uqac.lif.cep.IdleStrategy IdleStrategy}.
+ * <p>
+ * When the end of the trace is notified to a parallel fork, the notification
+ * is forwarded to each branch after the events in its queue, and the call
+ * returns once all the branches have processed it. Since branches are run by
+ * different threads, they should not be joined again by a processor
+ * downstream; exceptions thrown by a branch are thrown back to the thread
+ * pushing events, upon the next event or end of trace. Parallel mode has no
+ * effect in pull mode.
+ * <p>
+ * In pull mode, the fork normally keeps a copy of each event in a queue for
+ * every output, until it is pulled from that output. If one output is pulled
+ * much less often than the others, its queue grows without limit. With a
+ * <em>shared buffer</em>, the fork instead keeps each event once, in a ring
+ * buffer of fixed capacity, and each output has a cursor to the next event
+ * it will return. An event is pulled from upstream only when the fastest
+ * output needs it, and its slot is reused once the slowest output has read
+ * it. When the fastest output is ahead of the slowest one by the capacity of
+ * the buffer, an {@link OverflowPolicy} decides what happens:
+ * <ul>
+ * <li>with {@link OverflowPolicy#BLOCK BLOCK}, the fast output waits until
+ * the slow one catches up. This only makes sense if the outputs are pulled
+ * from different threads; {@link Pullable#hasNextSoft()} answers "maybe"
+ * instead of waiting.</li>
+ * <li>with {@link OverflowPolicy#DROP DROP}, the slow output skips the
+ * oldest event, and the number of events it missed is counted
+ * (see {@link #getDropped(int)}).</li>
+ * </ul>
  * 
  * @author Sylvain Hallé
  * @dictentry
@@ -36,15 +85,251 @@ import java.util.Queue;
 @SuppressWarnings("squid:S2160")
 public class Fork extends UniformProcessor
 {
+  /**
+   * The default maximum number of events waiting in the queue of a branch
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * The event put into the queue of a branch to notify the end of the trace
+   */
+  protected static final Object END = new Object();
+
+  /**
+   * Whether the fork pushes events to its outputs on separate threads
+   */
+  protected boolean m_parallel = false;
+
+  /**
+   * The maximum number of events waiting in the queue of a branch
+   */
+  protected int m_capacity = DEFAULT_CAPACITY;
+
+  /**
+   * In parallel mode, the branches of the fork, one for each output. They are
+   * created upon the first event.
+   */
+  protected transient Branch[] m_branches = null;
+
+  /**
+   * The first exception thrown by a branch, if any
+   */
+  protected transient volatile RuntimeException m_error = null;
+
+  /**
+   * What a fork with a shared buffer does when the buffer is full
+   */
+  public static enum OverflowPolicy
+  {
+    /**
+     * The fastest output waits for the slowest one
+     */
+    BLOCK,
+
+    /**
+     * The slowest output skips the oldest event
+     */
+    DROP
+  }
+
+  /**
+   * In pull mode, the ring buffer shared by all the outputs, or {@code null}
+   * if each output has a queue of its own
+   */
+  protected transient Object[] m_ring = null;
+
+  /**
+   * What to do when the ring buffer is full
+   */
+  protected OverflowPolicy m_policy = OverflowPolicy.BLOCK;
+
+  /**
+   * The number of events stored in the ring buffer so far
+   */
+  protected long m_head = 0;
+
+  /**
+   * For each output, the number of the next event to return
+   */
+  protected long[] m_cursors;
+
+  /**
+   * For each output, the number of events skipped because the buffer was
+   * full
+   */
+  protected long[] m_dropped;
+
+  /**
+   * Whether the input of the fork has no more events to provide
+   */
+  protected boolean m_inputEnded = false;
+
+  /**
+   * Whether an output is fetching an event from the input of the fork. Only
+   * one output at a time queries the input, without holding the lock on the
+   * buffer.
+   */
+  protected transient boolean m_fetching = false;
+
   public Fork(int out_arity)
   {
     super(1, out_arity);
   }
 
+  /**
+   * Sets whether the fork pushes events to its outputs on separate threads.
+   * This must be called before the fork receives its first event.
+   *
+   * @param b
+   *          Set to {@code true} to enable parallel mode, {@code false}
+   *          otherwise
+   * @return This fork
+   */
+  public Fork parallel(boolean b)
+  {
+    m_parallel = b;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of events waiting in the queue of a branch, in
+   * parallel mode
+   *
+   * @param capacity
+   *          The capacity
+   * @return This fork
+   */
+  public Fork setCapacity(int capacity)
+  {
+    m_capacity = Math.max(1, capacity);
+    return this;
+  }
+
+  /**
+   * Makes the outputs share a single buffer in pull mode. This must be called
+   * before the first event is pulled.
+   *
+   * @param capacity
+   *          The number of events the buffer can hold
+   * @param policy
+   *          What to do when the buffer is full
+   * @return This fork
+   */
+  public synchronized Fork useSharedBuffer(int capacity, /* @NotNull */ OverflowPolicy policy)
+  {
+    m_ring = new Object[Math.max(1, capacity)];
+    m_policy = policy;
+    m_cursors = new long[m_outputArity];
+    m_dropped = new long[m_outputArity];
+    m_head = 0;
+    m_inputEnded = false;
+    m_fetching = false;
+    return this;
+  }
+
+  /**
+   * Gets the number of events an output has skipped because the shared
+   * buffer was full
+   *
+   * @param index
+   *          The index of the output
+   * @return The number of events, or 0 if the fork has no shared buffer
+   */
+  public long getDropped(int index)
+  {
+    if (m_ring == null)
+    {
+      return 0;
+    }
+    synchronized (m_ring)
+    {
+      return m_dropped[index];
+    }
+  }
+
+  @Override
+  public synchronized Pullable getPullableOutput(int index)
+  {
+    if (m_ring == null)
+    {
+      return super.getPullableOutput(index);
+    }
+    if (!(m_outputPullables[index] instanceof CursorPullable))
+    {
+      m_outputPullables[index] = new CursorPullable(index);
+    }
+    return m_outputPullables[index];
+  }
+
+  @Override
+  public synchronized Pushable getPushableInput(int index)
+  {
+    if (!m_parallel)
+    {
+      return super.getPushableInput(index);
+    }
+    if (!(m_inputPushables[index] instanceof FanOutPushable))
+    {
+      m_inputPushables[index] = new FanOutPushable();
+    }
+    return m_inputPushables[index];
+  }
+
+  /**
+   * Stops the threads of all the branches. Events that have not been pushed
+   * downstream are lost. The threads are started again upon the next event.
+   */
+  @Override
+  public synchronized void stop()
+  {
+    if (m_branches != null)
+    {
+      for (Branch b : m_branches)
+      {
+        b.halt();
+      }
+    }
+  }
+
+  @Override
+  public synchronized void reset()
+  {
+    super.reset();
+    stop();
+    if (m_branches != null)
+    {
+      for (Branch b : m_branches)
+      {
+        b.m_events.clear();
+        b.m_size.set(0);
+      }
+    }
+    m_error = null;
+    if (m_ring != null)
+    {
+      synchronized (m_ring)
+      {
+        Arrays.fill(m_ring, null);
+        Arrays.fill(m_cursors, 0);
+        Arrays.fill(m_dropped, 0);
+        m_head = 0;
+        m_inputEnded = false;
+        m_ring.notifyAll();
+      }
+    }
+  }
+
   @Override
   public Fork duplicate(boolean with_state)
   {
-    return new Fork(getOutputArity());
+    Fork f = new Fork(getOutputArity());
+    f.m_parallel = m_parallel;
+    f.m_capacity = m_capacity;
+    if (m_ring != null)
+    {
+      f.useSharedBuffer(m_ring.length, m_policy);
+    }
+    return f;
   }
 
   @Override
@@ -86,5 +371,652 @@ public class Fork extends UniformProcessor
       out_pushables[i] = m_outputPushables[i];
     }
     m_outputPushables = out_pushables;
+    if (m_branches != null)
+    {
+      stop();
+      m_branches = null;
+    }
+    if (m_ring != null)
+    {
+      // New outputs start at the oldest event still in the buffer
+      long oldest = Math.max(0, m_head - m_ring.length);
+      int old_arity = m_cursors.length;
+      m_cursors = Arrays.copyOf(m_cursors, out_arity);
+      m_dropped = Arrays.copyOf(m_dropped, out_arity);
+      for (int i = old_arity; i < out_arity; i++)
+      {
+        m_cursors[i] = oldest;
+      }
+    }
+  }
+
+  /**
+   * Gets the branches of the fork, creating them if necessary
+   *
+   * @return The branches
+   */
+  protected synchronized Branch[] getBranches()
+  {
+    if (m_branches == null)
+    {
+      m_branches = new Branch[m_outputArity];
+      for (int i = 0; i < m_branches.length; i++)
+      {
+        m_branches[i] = new Branch(i);
+      }
+    }
+    return m_branches;
+  }
+
+  /**
+   * Throws the first exception thrown by a branch, if any
+   */
+  protected void checkError()
+  {
+    RuntimeException e = m_error;
+    if (e != null)
+    {
+      m_error = null;
+      throw new Pushable.PushableException(e);
+    }
+  }
+
+  /**
+   * Pushable that puts events into the queues of the branches
+   */
+  protected class FanOutPushable implements Pushable
+  {
+    @Override
+    public synchronized Pushable push(Object o)
+    {
+      checkError();
+      m_tempQueue.clear();
+      try
+      {
+        compute(new Object[] { o }, m_tempQueue);
+      }
+      catch (ProcessorException e)
+      {
+        throw new PushableException(e);
+      }
+      Branch[] branches = getBranches();
+      for (Object[] front : m_tempQueue)
+      {
+        for (int i = 0; i < branches.length; i++)
+        {
+          branches[i].submit(front[i]);
+        }
+      }
+      return this;
+    }
+
+    @Override
+    public synchronized Future<Pushable> pushFast(Object o)
+    {
+      push(o);
+      return Pushable.NULL_FUTURE;
+    }
+
+    @Override
+    public synchronized void notifyEndOfTrace()
+    {
+      if (m_hasBeenNotifiedOfEndOfTrace)
+      {
+        return;
+      }
+      m_hasBeenNotifiedOfEndOfTrace = true;
+      Branch[] branches = getBranches();
+      for (Branch b : branches)
+      {
+        b.submit(END);
+      }
+      for (Branch b : branches)
+      {
+        b.join();
+      }
+      checkError();
+    }
+
+    @Override
+    public Processor getProcessor()
+    {
+      return Fork.this;
+    }
+
+    @Override
+    public int getPosition()
+    {
+      return 0;
+    }
+  }
+
+  /**
+   * Pushes the events of one output of the fork on its own thread
+   */
+  protected class Branch implements Runnable
+  {
+    /**
+     * The index of the output of this branch
+     */
+    protected final int m_index;
+
+    /**
+     * The events waiting to be pushed
+     */
+    protected final ConcurrentLinkedQueue<Object> m_events;
+
+    /**
+     * The number of events in {@link #m_events}
+     */
+    protected final AtomicInteger m_size;
+
+    /**
+     * The thread running this branch, or {@code null} if it is not running
+     */
+    protected volatile Thread m_thread = null;
+
+    /**
+     * Whether the thread should keep running
+     */
+    protected volatile boolean m_run = false;
+
+    /**
+     * Creates a new branch
+     *
+     * @param index
+     *          The index of the output of this branch
+     */
+    public Branch(int index)
+    {
+      super();
+      m_index = index;
+      m_events = new ConcurrentLinkedQueue<Object>();
+      m_size = new AtomicInteger();
+    }
+
+    /**
+     * Puts an event into the queue of this branch, waiting until the queue
+     * has room for it
+     *
+     * @param o
+     *          The event
+     */
+    public void submit(Object o)
+    {
+      start();
+      for (int attempts = 1; m_size.get() >= m_capacity; attempts++)
+      {
+        checkError();
+        m_idleStrategy.idle(attempts);
+      }
+      m_events.add(o);
+      m_size.incrementAndGet();
+      LockSupport.unpark(m_thread);
+    }
+
+    /**
+     * Starts the thread of this branch, if it is not running
+     */
+    public void start()
+    {
+      if (!m_run)
+      {
+        // The previous thread, if any, has ended after the end of the trace
+        halt();
+        m_run = true;
+        Thread t = new Thread(this);
+        t.setDaemon(true);
+        m_thread = t;
+        t.start();
+      }
+    }
+
+    /**
+     * Waits for the thread of this branch to end
+     */
+    public void join()
+    {
+      Thread t = m_thread;
+      if (t == null)
+      {
+        return;
+      }
+      try
+      {
+        t.join();
+      }
+      catch (InterruptedException e)
+      {
+        // Restore interrupted state
+        Thread.currentThread().interrupt();
+      }
+    }
+
+    /**
+     * Stops the thread of this branch and waits for it to end
+     */
+    public void halt()
+    {
+      if (m_thread == null)
+      {
+        return;
+      }
+      m_run = false;
+      LockSupport.unpark(m_thread);
+      join();
+      m_thread = null;
+    }
+
+    @Override
+    public void run()
+    {
+      while (m_run)
+      {
+        Object o = m_events.poll();
+        if (o == null)
+        {
+          LockSupport.parkNanos(this, 1000000);
+          continue;
+        }
+        try
+        {
+          Pushable p = m_outputPushables[m_index];
+          if (p == null)
+          {
+            throw new Pushable.PushableException(
+                "Output " + m_index + " of this processor is connected to nothing", Fork.this);
+          }
+          if (o == END)
+          {
+            p.notifyEndOfTrace();
+          }
+          else
+          {
+            p.push(o);
+          }
+        }
+        catch (RuntimeException e)
+        {
+          if (m_error == null)
+          {
+            m_error = e;
+          }
+        }
+        if (o == END)
+        {
+          // Nothing else to do after the end of the trace
+          m_run = false;
+        }
+        m_size.decrementAndGet();
+      }
+    }
+  }
+
+  /**
+   * Pullable that reads the events of the shared buffer at the cursor of an
+   * output
+   */
+  protected class CursorPullable implements TimedPullable
+  {
+    /**
+     * The index of the output this pullable refers to
+     */
+    protected final int m_index;
+
+    /**
+     * Creates a new pullable
+     *
+     * @param index
+     *          The index of the output this pullable refers to
+     */
+    public CursorPullable(int index)
+    {
+      super();
+      m_index = index;
+    }
+
+    @Override
+    public Iterator<Object> iterator()
+    {
+      return this;
+    }
+
+    @Override
+    public void remove()
+    {
+      // Cannot remove an event on a pullable
+      throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public Object pullSoft()
+    {
+      if (hasNextSoft() != NextStatus.YES)
+      {
+        return null;
+      }
+      synchronized (m_ring)
+      {
+        // The event stays in the buffer until this output takes it
+        return m_cursors[m_index] < m_head ? take() : null;
+      }
+    }
+
+    @Override
+    public Object pull()
+    {
+      for (;;)
+      {
+        if (!hasNext())
+        {
+          return null;
+        }
+        synchronized (m_ring)
+        {
+          if (m_cursors[m_index] < m_head)
+          {
+            return take();
+          }
+        }
+      }
+    }
+
+    @Override
+    @SuppressWarnings("squid:S2272") // since() pull throws the exception
+    public Object next()
+    {
+      return pull();
+    }
+
+    @Override
+    public NextStatus hasNextSoft()
+    {
+      return waitForNext(0, true, true);
+    }
+
+    @Override
+    public boolean hasNext()
+    {
+      return waitForNext(IdleStrategy.FOREVER, false, false) == NextStatus.YES;
+    }
+
+    @Override
+    public NextStatus hasNext(long timeout, TimeUnit unit)
+    {
+      return waitForNext(IdleStrategy.getDeadline(timeout, unit), true, false);
+    }
+
+    /**
+     * Returns the event at the cursor of this output, and moves the cursor to
+     * the next event. The caller must hold the lock on the buffer and have
+     * made sure that the event exists.
+     *
+     * @return The event
+     */
+    protected Object take()
+    {
+      long min = minCursor();
+      Object o = m_ring[(int) (m_cursors[m_index] % m_ring.length)];
+      if (m_cursors[m_index]++ == min)
+      {
+        // The slowest output has moved: a slot may have become free
+        m_ring.notifyAll();
+      }
+      return o;
+    }
+
+    /**
+     * Makes sure that the event at the cursor of this output is in the
+     * buffer, pulling it from upstream if necessary. The lock on the buffer
+     * is not held while upstream is queried, so that the other outputs can
+     * keep reading the events already in the buffer.
+     *
+     * @param deadline
+     *          The deadline, as returned by
+     *          {@link IdleStrategy#getDeadline(long, TimeUnit)}
+     * @param timed
+     *          Whether the deadline applies
+     * @param soft
+     *          Set to {@code true} to query upstream with
+     *          {@link Pullable#hasNextSoft()} and never wait
+     * @return Whether a next event exists
+     */
+    protected NextStatus waitForNext(long deadline, boolean timed, boolean soft)
+    {
+      for (;;)
+      {
+        synchronized (m_ring)
+        {
+          for (;;)
+          {
+            if (m_cursors[m_index] < m_head)
+            {
+              return NextStatus.YES;
+            }
+            if (m_inputEnded)
+            {
+              return NextStatus.NO;
+            }
+            if (!m_fetching)
+            {
+              break;
+            }
+            // Another output is fetching the event this output needs
+            if (soft || !awaitChange(deadline, timed))
+            {
+              return NextStatus.MAYBE;
+            }
+          }
+          m_fetching = true;
+        }
+        NextStatus status;
+        try
+        {
+          status = fetch(deadline, timed, soft);
+        }
+        finally
+        {
+          synchronized (m_ring)
+          {
+            m_fetching = false;
+            m_ring.notifyAll();
+          }
+        }
+        if (status != NextStatus.YES)
+        {
+          return status;
+        }
+        // Check the cursors again: the event may have been dropped already
+      }
+    }
+
+    /**
+     * Pulls an event from upstream and adds it to the buffer. The caller
+     * must have set {@link Fork#m_fetching}, and must not hold the lock on
+     * the buffer.
+     *
+     * @param deadline
+     *          The deadline, as returned by
+     *          {@link IdleStrategy#getDeadline(long, TimeUnit)}
+     * @param timed
+     *          Whether the deadline applies
+     * @param soft
+     *          Set to {@code true} to query upstream with
+     *          {@link Pullable#hasNextSoft()} and never wait
+     * @return {@code YES} if an event was added to the buffer
+     */
+    protected NextStatus fetch(long deadline, boolean timed, boolean soft)
+    {
+      Pullable p = m_inputPullables[0];
+      if (p == null)
+      {
+        throw new PullableException("Input 0 of this processor is connected to nothing",
+            getProcessor());
+      }
+      NextStatus status;
+      if (soft)
+      {
+        status = p.hasNextSoft();
+      }
+      else if (timed)
+      {
+        status = IdleStrategy.hasNext(p, IdleStrategy.getRemaining(deadline),
+            TimeUnit.NANOSECONDS, m_idleStrategy);
+      }
+      else
+      {
+        status = p.hasNext() ? NextStatus.YES : NextStatus.NO;
+      }
+      if (status == NextStatus.NO)
+      {
+        synchronized (m_ring)
+        {
+          m_inputEnded = true;
+        }
+        return NextStatus.NO;
+      }
+      if (status == NextStatus.MAYBE)
+      {
+        return NextStatus.MAYBE;
+      }
+      synchronized (m_ring)
+      {
+        while (m_head - minCursor() >= m_ring.length)
+        {
+          // There is a new event, but no room for it
+          if (!makeRoom(deadline, timed, soft))
+          {
+            return NextStatus.MAYBE;
+          }
+        }
+      }
+      Object o = soft ? p.pullSoft() : p.pull();
+      synchronized (m_ring)
+      {
+        m_ring[(int) (m_head % m_ring.length)] = o;
+        m_head++;
+      }
+      return NextStatus.YES;
+    }
+
+    /**
+     * Frees the slot of the oldest event in a full buffer, according to the
+     * overflow policy
+     *
+     * @param deadline
+     *          The deadline, as returned by
+     *          {@link IdleStrategy#getDeadline(long, TimeUnit)}
+     * @param timed
+     *          Whether the deadline applies
+     * @param soft
+     *          Set to {@code true} to give up rather than wait
+     * @return {@code true} if the buffer may have room for an event,
+     *         {@code false} if it is still full
+     */
+    protected boolean makeRoom(long deadline, boolean timed, boolean soft)
+    {
+      if (m_policy == OverflowPolicy.DROP)
+      {
+        long oldest = m_head - m_ring.length + 1;
+        for (int i = 0; i < m_cursors.length; i++)
+        {
+          if (m_cursors[i] < oldest)
+          {
+            m_dropped[i] += oldest - m_cursors[i];
+            m_cursors[i] = oldest;
+          }
+        }
+        return true;
+      }
+      if (soft)
+      {
+        return false;
+      }
+      return awaitChange(deadline, timed);
+    }
+
+    /**
+     * Waits until another output notifies a change in the buffer. The caller
+     * must hold the lock on the buffer.
+     *
+     * @param deadline
+     *          The deadline, as returned by
+     *          {@link IdleStrategy#getDeadline(long, TimeUnit)}
+     * @param timed
+     *          Whether the deadline applies
+     * @return {@code false} if the deadline has expired, {@code true}
+     *         otherwise
+     */
+    protected boolean awaitChange(long deadline, boolean timed)
+    {
+      if (timed && IdleStrategy.isExpired(deadline))
+      {
+        return false;
+      }
+      try
+      {
+        long remaining = timed ? IdleStrategy.getRemaining(deadline) : 0;
+        if (timed)
+        {
+          m_ring.wait(Math.max(1, TimeUnit.NANOSECONDS.toMillis(remaining)));
+        }
+        else
+        {
+          m_ring.wait();
+        }
+      }
+      catch (InterruptedException e)
+      {
+        // Restore interrupted state
+        Thread.currentThread().interrupt();
+        throw new PullableException(e);
+      }
+      return true;
+    }
+
+    /**
+     * Gets the smallest cursor among all outputs
+     *
+     * @return The cursor
+     */
+    protected long minCursor()
+    {
+      long min = Long.MAX_VALUE;
+      for (long c : m_cursors)
+      {
+        min = Math.min(min, c);
+      }
+      return min;
+    }
+
+    @Override
+    public Processor getProcessor()
+    {
+      return Fork.this;
+    }
+
+    @Override
+    public int getPosition()
+    {
+      return m_index;
+    }
+
+    @Override
+    public void start()
+    {
+      Fork.this.start();
+    }
+
+    @Override
+    public void stop()
+    {
+      Fork.this.stop();
+    }
+
+    @Override
+    public void dispose()
+    {
+      // Nothing to do
+    }
   }
 }
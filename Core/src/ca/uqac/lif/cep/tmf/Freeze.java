@@ -17,7 +17,9 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.UniformProcessor;
+import java.io.IOException;
 
 /**
  * Repeatedly outputs the first event it has received. <code>Freeze</code> works
@@ -62,9 +64,28 @@ public class Freeze extends UniformProcessor
     return true;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeObject(m_output);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_output = (Object[]) in.readObject();
+  }
+
   @Override
   public Freeze duplicate(boolean with_state)
   {
-    return new Freeze();
+    Freeze f = new Freeze();
+    if (with_state)
+    {
+      Checkpoint.copyState(this, f);
+    }
+    return f;
   }
 }
@@ -17,7 +17,9 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.SingleProcessor;
+import java.io.IOException;
 import java.util.Queue;
 
 /**
@@ -87,9 +89,28 @@ public class Insert extends SingleProcessor
     m_sentPad = false;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeBoolean(m_sentPad);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_sentPad = in.readBoolean();
+  }
+
   @Override
   public Insert duplicate(boolean with_state)
   {
-    return new Insert(m_pad, m_times);
+    Insert i = new Insert(m_pad, m_times);
+    if (with_state)
+    {
+      Checkpoint.copyState(this, i);
+    }
+    return i;
   }
 }
@@ -0,0 +1,907 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.tmf;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.IdleStrategy;
+import ca.uqac.lif.cep.NextStatus;
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.SingleProcessor;
+import ca.uqac.lif.cep.functions.Function;
+import ca.uqac.lif.cep.functions.FunctionException;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Joins the events of two streams that have the same key. The processor has
+ * two inputs, the <em>left</em> (0) and the <em>right</em> (1) stream, and a
+ * function on each side that computes the key of an event. It keeps the most
+ * recent events of each side in a window, and indexes them by key in a hash
+ * table. When an event arrives on one side, it is matched against the
+ * events of the other side that have the same key, and one output event is
+ * produced for each match. Contrarily to other 2:1 processors, the join does
+ * not wait for an event on both inputs: events are processed as soon as they
+ * arrive on either side.
+ * <p>
+ * By default, an output event is an array made of the left event and the
+ * right event. A <em>combiner</em>, a 2:1 function taking the left and the
+ * right event, can be given to compute something else.
+ * <p>
+ * The window of each side can be bounded by a number of events, by a
+ * duration, or both. When it is bounded by a duration, each side also has a
+ * function computing the timestamp of an event, and two events match only if
+ * their timestamps differ by at most the width of the window. Unless a
+ * number of events is given explicitly, the window is bounded by
+ * {@link #DEFAULT_COUNT} events without a duration, and by the duration
+ * alone otherwise. Events are removed
+ * from the windows as soon as they fall out of them, in constant time per
+ * event; an event with a {@code null} key matches nothing.
+ * <p>
+ * In an <em>inner</em> join, left events that have no match produce
+ * nothing. In a <em>left outer</em> join, a left event that leaves its window
+ * without having been matched produces an output event whose right part is
+ * {@code null}; those still in the window at the end of the trace are output
+ * then.
+ *
+ * @author Sylvain Hallé
+ */
+@SuppressWarnings("squid:S2160")
+public class Join extends SingleProcessor
+{
+  /**
+   * The default number of events kept in the window of each side, when the
+   * window is not bounded by a duration
+   */
+  public static final int DEFAULT_COUNT = 1024;
+
+  /**
+   * The left and right sides of the join
+   */
+  protected final transient Side[] m_sides;
+
+  /**
+   * The function computing an output event from a left and a right event,
+   * or {@code null} to output them in an array
+   */
+  protected Function m_combiner = null;
+
+  /**
+   * Whether unmatched left events are output
+   */
+  protected boolean m_leftOuter = false;
+
+  /**
+   * The maximum number of events in the window of each side, 0 if there is
+   * no bound on the number of events, or -1 if it has not been set
+   */
+  protected int m_count = -1;
+
+  /**
+   * The width of the time window, or -1 if there is no bound on time
+   */
+  protected long m_width = -1;
+
+  /**
+   * The highest timestamp seen so far on either side
+   */
+  protected long m_now = Long.MIN_VALUE;
+
+  /**
+   * For each side, whether it has no more events to provide
+   */
+  protected final boolean[] m_ended = new boolean[2];
+
+  /**
+   * In pull mode, the side from which an event is pulled first at the next
+   * round
+   */
+  protected int m_turn = 0;
+
+  /**
+   * An array used to evaluate functions
+   */
+  protected final transient Object[] m_value = new Object[1];
+
+  /**
+   * Creates a new join
+   *
+   * @param left_key
+   *          The function computing the key of a left event
+   * @param right_key
+   *          The function computing the key of a right event
+   */
+  public Join(/* @NotNull */ Function left_key, /* @NotNull */ Function right_key)
+  {
+    super(2, 1);
+    m_sides = new Side[] { new Side(left_key), new Side(right_key) };
+  }
+
+  /**
+   * Sets the function computing an output event from a left and a right
+   * event
+   *
+   * @param f
+   *          The function, with an input arity of 2; its second argument is
+   *          {@code null} for an unmatched left event in a left outer join
+   * @return This join
+   */
+  public Join setCombiner(/* @Null */ Function f)
+  {
+    m_combiner = f;
+    return this;
+  }
+
+  /**
+   * Sets whether unmatched left events are output
+   *
+   * @param b
+   *          Set to {@code true} for a left outer join, {@code false} for an
+   *          inner join
+   * @return This join
+   */
+  public Join leftOuter(boolean b)
+  {
+    m_leftOuter = b;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of events in the window of each side. This bound
+   * applies in addition to the time window, if any.
+   *
+   * @param n
+   *          The number of events, or 0 for no bound
+   * @return This join
+   */
+  public Join setCountWindow(int n)
+  {
+    m_count = Math.max(0, n);
+    return this;
+  }
+
+  /**
+   * Bounds the windows by a duration. Unless {@link #setCountWindow(int)} is
+   * also called, the windows are then bounded by the duration alone, and not
+   * by {@link #DEFAULT_COUNT} events.
+   *
+   * @param width
+   *          The width of the window, in the unit of the timestamps
+   * @param left_time
+   *          The function computing the timestamp of a left event, as a
+   *          number
+   * @param right_time
+   *          The function computing the timestamp of a right event, as a
+   *          number
+   * @return This join
+   */
+  public Join setTimeWindow(long width, /* @NotNull */ Function left_time,
+      /* @NotNull */ Function right_time)
+  {
+    m_width = Math.max(0, width);
+    m_sides[0].m_timeFunction = left_time;
+    m_sides[1].m_timeFunction = right_time;
+    return this;
+  }
+
+  /**
+   * Gets the maximum number of events in the window of each side
+   *
+   * @return The number of events, or 0 if there is no bound
+   */
+  public int getCountWindow()
+  {
+    if (m_count >= 0)
+    {
+      return m_count;
+    }
+    return m_width >= 0 ? 0 : DEFAULT_COUNT;
+  }
+
+  /**
+   * Gets the number of events currently kept in the window of a side
+   *
+   * @param side
+   *          0 for the left side, 1 for the right side
+   * @return The number of events
+   */
+  public int getWindowSize(int side)
+  {
+    return m_sides[side].m_entries.size();
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    // Only called if both inputs are processed in lockstep
+    process(0, inputs[0], outputs);
+    process(1, inputs[1], outputs);
+    return true;
+  }
+
+  /**
+   * Processes an event received on one side of the join
+   *
+   * @param side
+   *          0 for the left side, 1 for the right side
+   * @param event
+   *          The event
+   * @param outputs
+   *          The queue where output fronts are added
+   */
+  protected void process(int side, Object event, Queue<Object[]> outputs)
+  {
+    Side own = m_sides[side];
+    Side other = m_sides[1 - side];
+    Entry e = new Entry(evaluate(own.m_keyFunction, event), event);
+    if (m_width >= 0)
+    {
+      e.m_time = ((Number) evaluate(own.m_timeFunction, event)).longValue();
+      m_now = Math.max(m_now, e.m_time);
+      expireTime(m_sides[0], outputs);
+      expireTime(m_sides[1], outputs);
+    }
+    if (e.m_key != null)
+    {
+      ArrayDeque<Entry> matches = other.m_index.get(e.m_key);
+      if (matches != null)
+      {
+        for (Entry m : matches)
+        {
+          if (m_width >= 0 && Math.abs(m.m_time - e.m_time) > m_width)
+          {
+            continue;
+          }
+          m.m_matched = true;
+          e.m_matched = true;
+          if (side == 0)
+          {
+            output(event, m.m_event, outputs);
+          }
+          else
+          {
+            output(m.m_event, event, outputs);
+          }
+        }
+      }
+    }
+    own.add(e);
+    int count = getCountWindow();
+    if (count > 0 && own.m_entries.size() > count)
+    {
+      expire(own, outputs);
+    }
+  }
+
+  /**
+   * Removes from the window of a side the events that are too old for the
+   * time window
+   *
+   * @param s
+   *          The side
+   * @param outputs
+   *          The queue where output fronts are added
+   */
+  protected void expireTime(Side s, Queue<Object[]> outputs)
+  {
+    while (!s.m_entries.isEmpty() && m_now - s.m_entries.peek().m_time > m_width)
+    {
+      expire(s, outputs);
+    }
+  }
+
+  /**
+   * Removes the oldest event from the window of a side
+   *
+   * @param s
+   *          The side
+   * @param outputs
+   *          The queue where output fronts are added
+   */
+  protected void expire(Side s, Queue<Object[]> outputs)
+  {
+    Entry e = s.remove();
+    if (m_leftOuter && s == m_sides[0] && !e.m_matched)
+    {
+      output(e.m_event, null, outputs);
+    }
+  }
+
+  /**
+   * Outputs the unmatched left events still in the window, if the join is a
+   * left outer join, and empties the windows
+   *
+   * @param outputs
+   *          The queue where output fronts are added
+   */
+  protected void flush(Queue<Object[]> outputs)
+  {
+    for (Side s : m_sides)
+    {
+      while (!s.m_entries.isEmpty())
+      {
+        expire(s, outputs);
+      }
+    }
+  }
+
+  /**
+   * Adds to a queue the output front for a pair of events
+   *
+   * @param left
+   *          The left event
+   * @param right
+   *          The right event, or {@code null}
+   * @param outputs
+   *          The queue
+   */
+  protected void output(Object left, Object right, Queue<Object[]> outputs)
+  {
+    Object[] pair = new Object[] { left, right };
+    if (m_combiner == null)
+    {
+      outputs.add(new Object[] { pair });
+      return;
+    }
+    Object[] out = new Object[1];
+    try
+    {
+      m_combiner.evaluate(pair, out, m_context);
+    }
+    catch (FunctionException ex)
+    {
+      throw new ProcessorException(ex);
+    }
+    outputs.add(out);
+  }
+
+  /**
+   * Evaluates a 1:1 function on an event
+   *
+   * @param f
+   *          The function
+   * @param event
+   *          The event
+   * @return The value of the function
+   */
+  protected Object evaluate(Function f, Object event)
+  {
+    try
+    {
+      f.evaluate(new Object[] { event }, m_value, m_context);
+    }
+    catch (FunctionException ex)
+    {
+      throw new ProcessorException(ex);
+    }
+    return m_value[0];
+  }
+
+  @Override
+  protected boolean onEndOfTrace(Queue<Object[]> outputs)
+  {
+    flush(outputs);
+    return true;
+  }
+
+  @Override
+  public synchronized Pushable getPushableInput(int index)
+  {
+    if (m_inputPushables[index] == null)
+    {
+      m_inputPushables[index] = new JoinPushable(index);
+    }
+    return m_inputPushables[index];
+  }
+
+  @Override
+  public synchronized Pullable getPullableOutput(int index)
+  {
+    if (m_outputPullables[index] == null)
+    {
+      m_outputPullables[index] = new JoinPullable(index);
+    }
+    return m_outputPullables[index];
+  }
+
+  @Override
+  public void getInputTypesFor(/* @NotNull */ Set<Class<?>> classes, int index)
+  {
+    m_sides[index].m_keyFunction.getInputTypesFor(classes, 0);
+  }
+
+  @Override
+  public Class<?> getOutputType(int index)
+  {
+    if (m_combiner == null)
+    {
+      return Object[].class;
+    }
+    return m_combiner.getOutputTypeFor(0);
+  }
+
+  @Override
+  public void reset()
+  {
+    super.reset();
+    for (Side s : m_sides)
+    {
+      s.clear();
+      s.m_keyFunction.reset();
+      if (s.m_timeFunction != null)
+      {
+        s.m_timeFunction.reset();
+      }
+    }
+    if (m_combiner != null)
+    {
+      m_combiner.reset();
+    }
+    m_now = Long.MIN_VALUE;
+    m_ended[0] = false;
+    m_ended[1] = false;
+    m_turn = 0;
+  }
+
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeLong(m_now);
+    out.writeBoolean(m_ended[0]);
+    out.writeBoolean(m_ended[1]);
+    out.writeInt(m_turn);
+    for (Side s : m_sides)
+    {
+      out.writeInt(s.m_entries.size());
+      for (Entry e : s.m_entries)
+      {
+        out.writeObject(e.m_key);
+        out.writeObject(e.m_event);
+        out.writeLong(e.m_time);
+        out.writeBoolean(e.m_matched);
+      }
+    }
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_now = in.readLong();
+    m_ended[0] = in.readBoolean();
+    m_ended[1] = in.readBoolean();
+    m_turn = in.readInt();
+    for (Side s : m_sides)
+    {
+      s.clear();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++)
+      {
+        Entry e = new Entry(in.readObject(), in.readObject());
+        e.m_time = in.readLong();
+        e.m_matched = in.readBoolean();
+        s.add(e);
+      }
+    }
+  }
+
+  @Override
+  public Join duplicate(boolean with_state)
+  {
+    Join j = new Join(m_sides[0].m_keyFunction.duplicate(with_state),
+        m_sides[1].m_keyFunction.duplicate(with_state));
+    if (m_combiner != null)
+    {
+      j.m_combiner = m_combiner.duplicate(with_state);
+    }
+    j.m_leftOuter = m_leftOuter;
+    j.m_count = m_count;
+    if (m_width >= 0)
+    {
+      j.setTimeWindow(m_width, m_sides[0].m_timeFunction.duplicate(with_state),
+          m_sides[1].m_timeFunction.duplicate(with_state));
+    }
+    cloneInto(j);
+    if (with_state)
+    {
+      Checkpoint.copyState(this, j);
+    }
+    return j;
+  }
+
+  /**
+   * An event kept in the window of a side
+   */
+  protected static class Entry
+  {
+    /**
+     * The key of the event
+     */
+    final Object m_key;
+
+    /**
+     * The event
+     */
+    final Object m_event;
+
+    /**
+     * The timestamp of the event, if the window is bounded by time
+     */
+    long m_time = 0;
+
+    /**
+     * Whether the event has been matched with an event of the other side
+     */
+    boolean m_matched = false;
+
+    Entry(Object key, Object event)
+    {
+      super();
+      m_key = key;
+      m_event = event;
+    }
+  }
+
+  /**
+   * The window of one side of the join, with its index
+   */
+  protected static class Side
+  {
+    /**
+     * The function computing the key of an event
+     */
+    final Function m_keyFunction;
+
+    /**
+     * The function computing the timestamp of an event, if the window is
+     * bounded by time
+     */
+    Function m_timeFunction = null;
+
+    /**
+     * The events in the window, from the oldest to the most recent
+     */
+    final ArrayDeque<Entry> m_entries = new ArrayDeque<Entry>();
+
+    /**
+     * The events in the window, indexed by key. For each key, the events are
+     * also in order, so that the oldest event of the window is always the
+     * first of its key.
+     */
+    final Map<Object, ArrayDeque<Entry>> m_index = new HashMap<Object, ArrayDeque<Entry>>();
+
+    Side(Function key)
+    {
+      super();
+      m_keyFunction = key;
+    }
+
+    /**
+     * Adds an event to the window
+     *
+     * @param e
+     *          The event
+     */
+    void add(Entry e)
+    {
+      m_entries.add(e);
+      if (e.m_key == null)
+      {
+        return;
+      }
+      ArrayDeque<Entry> list = m_index.get(e.m_key);
+      if (list == null)
+      {
+        list = new ArrayDeque<Entry>(2);
+        m_index.put(e.m_key, list);
+      }
+      list.add(e);
+    }
+
+    /**
+     * Removes the oldest event from the window
+     *
+     * @return The event
+     */
+    Entry remove()
+    {
+      Entry e = m_entries.remove();
+      if (e.m_key == null)
+      {
+        return e;
+      }
+      ArrayDeque<Entry> list = m_index.get(e.m_key);
+      list.remove();
+      if (list.isEmpty())
+      {
+        m_index.remove(e.m_key);
+      }
+      return e;
+    }
+
+    /**
+     * Empties the window
+     */
+    void clear()
+    {
+      m_entries.clear();
+      m_index.clear();
+    }
+  }
+
+  /**
+   * Pushable that processes the events of one side as soon as they arrive
+   */
+  protected class JoinPushable implements Pushable
+  {
+    /**
+     * The side this pushable refers to
+     */
+    protected final int m_index;
+
+    /**
+     * Creates a new pushable
+     *
+     * @param index
+     *          0 for the left side, 1 for the right side
+     */
+    public JoinPushable(int index)
+    {
+      super();
+      m_index = index;
+    }
+
+    @Override
+    public Pushable push(Object o)
+    {
+      synchronized (Join.this)
+      {
+        m_tempQueue.clear();
+        try
+        {
+          process(m_index, o, m_tempQueue);
+        }
+        catch (ProcessorException e)
+        {
+          throw new PushableException(e);
+        }
+        pushOutputs();
+      }
+      return this;
+    }
+
+    @Override
+    public Future<Pushable> pushFast(Object o)
+    {
+      push(o);
+      return Pushable.NULL_FUTURE;
+    }
+
+    @Override
+    public void notifyEndOfTrace()
+    {
+      synchronized (Join.this)
+      {
+        if (m_ended[m_index])
+        {
+          return;
+        }
+        m_ended[m_index] = true;
+        if (!m_ended[1 - m_index])
+        {
+          return;
+        }
+        m_tempQueue.clear();
+        try
+        {
+          onEndOfTrace(m_tempQueue);
+        }
+        catch (ProcessorException e)
+        {
+          throw new PushableException(e);
+        }
+        pushOutputs();
+        Pushable p = m_outputPushables[0];
+        if (p == null)
+        {
+          throw new PushableException("Output 0 of this processor is connected to nothing",
+              getProcessor());
+        }
+        p.notifyEndOfTrace();
+      }
+    }
+
+    /**
+     * Pushes the fronts of the temporary queue to the output
+     */
+    protected void pushOutputs()
+    {
+      if (m_tempQueue.isEmpty())
+      {
+        return;
+      }
+      Pushable p = m_outputPushables[0];
+      if (p == null)
+      {
+        throw new PushableException("Output 0 of this processor is connected to nothing",
+            getProcessor());
+      }
+      for (Object[] front : m_tempQueue)
+      {
+        p.push(front[0]);
+      }
+    }
+
+    @Override
+    public Processor getProcessor()
+    {
+      return Join.this;
+    }
+
+    @Override
+    public int getPosition()
+    {
+      return m_index;
+    }
+  }
+
+  /**
+   * Pullable that pulls events from both sides in turn, and processes each
+   * of them as soon as it is pulled
+   */
+  protected class JoinPullable extends OutputPullable
+  {
+    /**
+     * Creates a new pullable
+     *
+     * @param index
+     *          The index of the processor's output this pullable refers to
+     */
+    public JoinPullable(int index)
+    {
+      super(index);
+    }
+
+    @Override
+    protected NextStatus waitForNext(long deadline, boolean timed)
+    {
+      for (;;)
+      {
+        // Inputs are queried with a blocking call: a round that outputs
+        // nothing has processed events, and the next one can start at once
+        NextStatus status = round(timed ? deadline : IdleStrategy.FOREVER, false);
+        if (status != NextStatus.MAYBE || (timed && IdleStrategy.isExpired(deadline)))
+        {
+          return status;
+        }
+      }
+    }
+
+    @Override
+    public synchronized NextStatus hasNextSoft()
+    {
+      return round(0, true);
+    }
+
+    /**
+     * Pulls at most one event from each side that has not ended, and
+     * processes them
+     *
+     * @param deadline
+     *          The deadline, as returned by
+     *          {@link IdleStrategy#getDeadline(long, TimeUnit)}
+     * @param soft
+     *          Set to {@code true} to query the inputs with
+     *          {@link Pullable#hasNextSoft()}
+     * @return {@link NextStatus#YES} if an output event is ready,
+     *         {@link NextStatus#NO} if none will ever be, and
+     *         {@link NextStatus#MAYBE} otherwise
+     */
+    protected NextStatus round(long deadline, boolean soft)
+    {
+      Queue<Object> out_queue = m_outputQueues[0];
+      if (!out_queue.isEmpty())
+      {
+        return NextStatus.YES;
+      }
+      if (m_ended[0] && m_ended[1])
+      {
+        return NextStatus.NO;
+      }
+      m_tempQueue.clear();
+      for (int i = 0; i < 2; i++)
+      {
+        int side = (m_turn + i) % 2;
+        if (m_ended[side])
+        {
+          continue;
+        }
+        Pullable p = m_inputPullables[side];
+        if (p == null)
+        {
+          throw new PullableException("Input " + side
+              + " of this processor is connected to nothing", getProcessor());
+        }
+        NextStatus status;
+        if (soft)
+        {
+          status = p.hasNextSoft();
+        }
+        else if (deadline == IdleStrategy.FOREVER)
+        {
+          status = p.hasNext() ? NextStatus.YES : NextStatus.NO;
+        }
+        else
+        {
+          status = IdleStrategy.hasNext(p, IdleStrategy.getRemaining(deadline),
+              TimeUnit.NANOSECONDS, m_idleStrategy);
+        }
+        if (status == NextStatus.NO)
+        {
+          m_ended[side] = true;
+        }
+        else if (status == NextStatus.YES)
+        {
+          Object o = soft ? p.pullSoft() : p.pull();
+          try
+          {
+            process(side, o, m_tempQueue);
+          }
+          catch (ProcessorException e)
+          {
+            throw new PullableException(e);
+          }
+        }
+      }
+      m_turn = 1 - m_turn;
+      if (m_ended[0] && m_ended[1])
+      {
+        try
+        {
+          flush(m_tempQueue);
+        }
+        catch (ProcessorException e)
+        {
+          throw new PullableException(e);
+        }
+      }
+      for (Object[] front : m_tempQueue)
+      {
+        out_queue.add(front[0]);
+      }
+      if (!out_queue.isEmpty())
+      {
+        return NextStatus.YES;
+      }
+      if (m_ended[0] && m_ended[1])
+      {
+        return NextStatus.NO;
+      }
+      return NextStatus.MAYBE;
+    }
+  }
+}
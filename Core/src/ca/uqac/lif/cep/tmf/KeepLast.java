@@ -1,6 +1,8 @@
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.SingleProcessor;
+import java.io.IOException;
 import java.util.Queue;
 
 /**
@@ -19,10 +21,29 @@ public class KeepLast extends SingleProcessor
     m_lasts = new Object[in_arity];
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeObject(m_lasts);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_lasts = (Object[]) in.readObject();
+  }
+
   @Override
   public KeepLast duplicate(boolean with_state)
   {
-    return new KeepLast(m_inputArity);
+    KeepLast k = new KeepLast(m_inputArity);
+    if (with_state)
+    {
+      Checkpoint.copyState(this, k);
+    }
+    return k;
   }
 
   @Override
@@ -17,13 +17,19 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.IdleStrategy;
 import ca.uqac.lif.cep.NextStatus;
 import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pushable;
-import java.util.Arrays;
+import ca.uqac.lif.cep.TimedPullable;
 import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 /**
  * Merges the contents of multiple traces into a single trace. The multiplexer
@@ -44,6 +50,23 @@ import java.util.concurrent.Future;
  * In other words, the muxer provides a way to merge <i>n</i> input traces into
  * a single one, preserving the relative ordering of events coming from the same
  * input trace.
+ * <p>
+ * In push mode, the inputs of a plain muxer must be fed by a single thread,
+ * as the muxer pushes each event downstream from the thread that pushed it.
+ * In <em>concurrent</em> mode, each input can be fed by a thread of its own.
+ * Events are then put into a lock-free queue, which is drained by one
+ * producer thread at a time: the thread that pushes an event while no other
+ * thread is draining the queue pushes downstream all the events it finds
+ * there, including those of the other inputs. The processors downstream are
+ * therefore never entered by two threads at once, without any thread of
+ * their own and without any lock. An input whose queue is full waits,
+ * according to the muxer's idle strategy, until the queue has room.
+ * <p>
+ * By default, all the inputs share a single queue, and events are output in
+ * the order they are received. In <em>fair</em> mode, each input has a queue
+ * of its own, and the queues are drained in turn, one event at a time; an
+ * input that produces events faster than the others then fills its own queue
+ * and waits, instead of delaying the events of the other inputs.
  * 
  * @author Sylvain Hallé
  *
@@ -51,12 +74,61 @@ import java.util.concurrent.Future;
 @SuppressWarnings("squid:S2160")
 public class Multiplex extends Processor
 {
+  /**
+   * The default maximum number of events waiting in a queue, in concurrent
+   * mode
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
   /**
    * Array containing for each PushableInput of the processor if it has been
-   * notified of the end of trace or not. Used to determine if the Multiplexer
-   * should notify its PushableOutput of the end of trace or not
+   * notified of the end of trace (1) or not (0). Used to determine if the
+   * Multiplexer should notify its PushableOutput of the end of trace or not
+   */
+  private final AtomicIntegerArray m_havePushableInputsReachedEnd;
+
+  /**
+   * The number of PushableInputs that have not been notified of the end of
+   * the trace
+   */
+  private final AtomicInteger m_inputsRemaining;
+
+  /**
+   * Whether the PushableOutput has been notified of the end of the trace
+   */
+  private final AtomicBoolean m_endNotified = new AtomicBoolean(false);
+
+  /**
+   * Whether the inputs can be fed by multiple threads
    */
-  private boolean[] m_havePushableInputsReachedEnd;
+  protected boolean m_concurrent = false;
+
+  /**
+   * Whether each input has a queue of its own, in concurrent mode
+   */
+  protected boolean m_fair = false;
+
+  /**
+   * The maximum number of events waiting in a queue, in concurrent mode
+   */
+  protected int m_capacity = DEFAULT_CAPACITY;
+
+  /**
+   * In concurrent mode, the queues of events waiting to be pushed
+   */
+  protected transient ConcurrentLinkedQueue<Object>[] m_queues = null;
+
+  /**
+   * The number of events in each queue
+   */
+  protected transient AtomicInteger[] m_sizes = null;
+
+  /**
+   * The number of requests to drain the queues that have not been served.
+   * The thread that raises it from 0 drains the queues until it falls back
+   * to 0.
+   */
+  protected final transient AtomicInteger m_wip = new AtomicInteger();
 
   /**
    * Instantiates a multiplexer
@@ -68,8 +140,199 @@ public class Multiplex extends Processor
   public Multiplex(int in_arity)
   {
     super(in_arity, 1);
-    m_havePushableInputsReachedEnd = new boolean[in_arity];
-    Arrays.fill(m_havePushableInputsReachedEnd, false);
+    m_havePushableInputsReachedEnd = new AtomicIntegerArray(in_arity);
+    m_inputsRemaining = new AtomicInteger(in_arity);
+  }
+
+  /**
+   * Sets whether the inputs of the muxer can be pushed events by multiple
+   * threads. This must be called before the muxer receives its first event.
+   *
+   * @param b
+   *          Set to {@code true} to enable concurrent mode, {@code false}
+   *          otherwise
+   * @return This muxer
+   */
+  public Multiplex concurrent(boolean b)
+  {
+    m_concurrent = b;
+    createQueues();
+    return this;
+  }
+
+  /**
+   * Sets whether each input has a queue of its own, in concurrent mode.
+   * This must be called before the muxer receives its first event.
+   *
+   * @param b
+   *          Set to {@code true} to drain the inputs in turn, {@code false}
+   *          to output events in the order they are received
+   * @return This muxer
+   */
+  public Multiplex fair(boolean b)
+  {
+    m_fair = b;
+    createQueues();
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of events waiting in a queue, in concurrent
+   * mode. As the inputs check this bound without a lock, it can be
+   * exceeded by a few events when they share a queue.
+   *
+   * @param capacity
+   *          The capacity
+   * @return This muxer
+   */
+  public Multiplex setCapacity(int capacity)
+  {
+    m_capacity = Math.max(1, capacity);
+    return this;
+  }
+
+  /**
+   * Creates the queues used in concurrent mode
+   */
+  @SuppressWarnings("unchecked")
+  protected void createQueues()
+  {
+    if (!m_concurrent)
+    {
+      m_queues = null;
+      m_sizes = null;
+      return;
+    }
+    int num_queues = m_fair ? getInputArity() : 1;
+    m_queues = new ConcurrentLinkedQueue[num_queues];
+    m_sizes = new AtomicInteger[num_queues];
+    for (int i = 0; i < num_queues; i++)
+    {
+      m_queues[i] = new ConcurrentLinkedQueue<Object>();
+      m_sizes[i] = new AtomicInteger();
+    }
+  }
+
+  /**
+   * Puts an event into the queue of an input, waiting until the queue has
+   * room for it, and drains the queues if no other thread is doing so
+   *
+   * @param index
+   *          The index of the input
+   * @param o
+   *          The event
+   */
+  protected void submit(int index, /* @NotNull */ Object o)
+  {
+    int q = m_fair ? index : 0;
+    for (int attempts = 1; m_sizes[q].get() >= m_capacity; attempts++)
+    {
+      // Help if the thread draining the queues has just left
+      drain();
+      m_idleStrategy.idle(attempts);
+    }
+    m_queues[q].add(o);
+    m_sizes[q].incrementAndGet();
+    drain();
+  }
+
+  /**
+   * Pushes downstream the events of all the queues, unless another thread is
+   * already doing so, and notifies the end of the trace once all the inputs
+   * have reached it and the queues are empty. If pushing an event throws an
+   * exception, the draining goes on with the next events, so that the events
+   * of the other inputs are not left in the queues; the first exception is
+   * then thrown to the thread that drained the queues.
+   */
+  protected void drain()
+  {
+    if (m_wip.getAndIncrement() != 0)
+    {
+      // The draining thread will see the new events
+      return;
+    }
+    int missed = 1;
+    RuntimeException error = null;
+    while (true)
+    {
+      // Read before draining: once all inputs have ended, no event is added
+      boolean ended = m_inputsRemaining.get() == 0;
+      boolean any = true;
+      while (any)
+      {
+        any = false;
+        for (int i = 0; i < m_queues.length; i++)
+        {
+          Object o = m_queues[i].poll();
+          if (o != null)
+          {
+            m_sizes[i].decrementAndGet();
+            any = true;
+            try
+            {
+              m_outputPushables[0].push(o);
+            }
+            catch (RuntimeException e)
+            {
+              error = error == null ? e : error;
+            }
+          }
+        }
+      }
+      if (ended && m_endNotified.compareAndSet(false, true))
+      {
+        try
+        {
+          m_outputPushables[0].notifyEndOfTrace();
+        }
+        catch (RuntimeException e)
+        {
+          error = error == null ? e : error;
+        }
+      }
+      missed = m_wip.addAndGet(-missed);
+      if (missed == 0)
+      {
+        break;
+      }
+    }
+    if (error != null)
+    {
+      throw error;
+    }
+  }
+
+  /**
+   * Gets the number of events waiting to be pushed downstream, in
+   * concurrent mode
+   *
+   * @return The number of events
+   */
+  public int getPendingCount()
+  {
+    int count = 0;
+    if (m_sizes != null)
+    {
+      for (AtomicInteger size : m_sizes)
+      {
+        count += size.get();
+      }
+    }
+    return count;
+  }
+
+  @Override
+  public void reset()
+  {
+    super.reset();
+    for (int i = 0; i < getInputArity(); i++)
+    {
+      m_havePushableInputsReachedEnd.set(i, 0);
+    }
+    m_inputsRemaining.set(getInputArity());
+    m_endNotified.set(false);
+    createQueues();
+    m_wip.set(0);
   }
 
   @Override
@@ -90,10 +353,14 @@ public class Multiplex extends Processor
   @Override
   public Multiplex duplicate(boolean with_state)
   {
-    return new Multiplex(getInputArity());
+    Multiplex m = new Multiplex(getInputArity());
+    m.m_fair = m_fair;
+    m.m_capacity = m_capacity;
+    m.concurrent(m_concurrent);
+    return m;
   }
 
-  protected final class MuxPullable implements Pullable
+  protected final class MuxPullable implements TimedPullable
   {
     public MuxPullable()
     {
@@ -208,34 +475,37 @@ public class Multiplex extends Processor
         return true;
       }
       boolean all_no = true;
-      NextStatus out = NextStatus.MAYBE;
-      for (int i = 0; i < Processor.MAX_PULL_RETRIES; i++)
+      for (Pullable p : m_inputPullables)
       {
-        for (Pullable p : m_inputPullables)
-        {
-          boolean ns = p.hasNext();
-          if (ns)
-          {
-            all_no = false;
-            // We don't do a "break" here.
-            // We must go through ALL pullables, even if we encounter one
-            // that says yes. Otherwise, we might end up pulling events from
-            // the same pullable all the time.
-            out = NextStatus.YES;
-          }
-        }
-        if (all_no)
-        {
-          return false;
-        }
-        if (out == NextStatus.YES)
+        if (p.hasNext())
         {
-          return true;
+          // We don't do a "break" here.
+          // We must go through ALL pullables, even if we encounter one
+          // that says yes. Otherwise, we might end up pulling events from
+          // the same pullable all the time.
+          all_no = false;
         }
       }
-      // We went through the maximum number of retries without getting
-      // anything; declare defeat and return NO
-      return false;
+      // Each input has either said yes, or that it will never produce
+      // anything: no need to try again
+      return !all_no;
+    }
+
+    /**
+     * Waits until one of the inputs has an event, or until a timeout
+     * expires. The inputs are queried in turn with
+     * {@link Pullable#hasNextSoft()}, so that an input that has no event yet
+     * does not prevent an event from being pulled from the others. The
+     * multiplexer's idle strategy is applied between two rounds.
+     */
+    @Override
+    public NextStatus hasNext(long timeout, TimeUnit unit)
+    {
+      if (!m_outputQueues[0].isEmpty())
+      {
+        return NextStatus.YES;
+      }
+      return IdleStrategy.waitFor(this, timeout, unit, m_idleStrategy);
     }
 
     @Override
@@ -279,6 +549,11 @@ public class Multiplex extends Processor
     @Override
     public Pushable push(Object o)
     {
+      if (m_concurrent)
+      {
+        submit(m_index, o);
+        return this;
+      }
       m_outputPushables[0].push(o);
       return this;
     }
@@ -286,23 +561,36 @@ public class Multiplex extends Processor
     @Override
     public Future<Pushable> pushFast(Object o)
     {
+      if (m_concurrent)
+      {
+        submit(m_index, o);
+        return Pushable.NULL_FUTURE;
+      }
       return m_outputPushables[0].pushFast(o);
     }
 
     @Override
     public void notifyEndOfTrace() throws PushableException
     {
-      m_havePushableInputsReachedEnd[m_index] = true;
-
-      for (boolean hasReachedEnd : m_havePushableInputsReachedEnd)
+      if (!m_havePushableInputsReachedEnd.compareAndSet(m_index, 0, 1))
       {
-        if (!hasReachedEnd)
-        {
-          return;
-        }
+        // This input has already reached the end of the trace
+        return;
+      }
+      if (m_inputsRemaining.decrementAndGet() > 0)
+      {
+        return;
+      }
+      if (m_concurrent)
+      {
+        // The end is notified once the queues are empty
+        drain();
+        return;
+      }
+      if (m_endNotified.compareAndSet(false, true))
+      {
+        m_outputPushables[0].notifyEndOfTrace();
       }
-
-      m_outputPushables[0].notifyEndOfTrace();
     }
 
     @Override
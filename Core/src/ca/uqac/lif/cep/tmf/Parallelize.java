@@ -0,0 +1,779 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.tmf;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.ProcessorTemplate;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.SingleProcessor;
+import ca.uqac.lif.cep.functions.Function;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs copies of a processor on several threads, and distributes the input
+ * events among them according to a partition key. The processor takes as
+ * input a processor <i>p</i>, a function <i>f</i> and a number of workers
+ * <i>n</i>. It creates <i>n</i> copies of <i>p</i>, each run by its own
+ * thread. When an input front <i>e</i> arrives, it computes
+ * <i>f</i>(<i>e</i>), and sends <i>e</i> to the copy whose number is given by
+ * the hash code of that key. All the fronts with the same key are thus
+ * processed by the same copy, in the order they were received.
+ * <p>
+ * This produces the same result as <i>p</i> itself when <i>p</i> computes
+ * something independently for each key; a typical example is a
+ * {@link Slice} on the same key. It makes no sense for processors whose
+ * output depends on events of different keys.
+ * <p>
+ * Events are handed to the workers through lock-free queues, whose length is
+ * bounded: when the queue of a worker is full, the thread pushing events
+ * sleeps until a worker wakes it up after processing a front. The events output by the copies are
+ * merged into the output of this processor. By default, they are output in
+ * the order the copies produce them; when order preservation is enabled,
+ * the events produced for an input front are output only after those of all
+ * the fronts received before it.
+ * <p>
+ * Since copies work asynchronously, the output events corresponding to an
+ * input front are not necessarily available when the front is pushed. They
+ * are output with the fronts that follow, and all of them are output when the
+ * end of the trace is reached, in push mode and in pull mode. In push mode,
+ * the end of the trace is also notified to each copy, and whatever they
+ * output at that moment is output last.
+ * <p>
+ * Taking a {@link Checkpoint}, or duplicating the processor with its state,
+ * first waits for the copies to process the fronts in flight. Their output
+ * events are kept in the processor, to be output with the next fronts, and
+ * the state of each copy is saved along with that of the processor.
+ *
+ * @author Sylvain Hallé
+ */
+@SuppressWarnings("squid:S2160")
+public class Parallelize extends SingleProcessor
+{
+  /**
+   * The default maximum number of fronts waiting in the queue of a worker
+   */
+  public static final int DEFAULT_CAPACITY = 1024;
+
+  /**
+   * The processor to run in parallel
+   */
+  protected final Processor m_processor;
+
+  /**
+   * The function computing the partition key of an input front
+   */
+  protected final Function m_keyFunction;
+
+  /**
+   * The template used to create the copies of the processor
+   */
+  protected final transient ProcessorTemplate m_template;
+
+  /**
+   * The workers, each running a copy of the processor
+   */
+  protected final transient Worker[] m_workers;
+
+  /**
+   * The events output by the workers, and the notices that they have finished
+   * processing a front
+   */
+  protected final transient ConcurrentLinkedQueue<Result> m_results;
+
+  /**
+   * Whether output events should follow the order of the input fronts
+   */
+  protected boolean m_preserveOrder = false;
+
+  /**
+   * The maximum number of fronts waiting in the queue of a worker
+   */
+  protected int m_capacity = DEFAULT_CAPACITY;
+
+  /**
+   * The sequence number given to the next input front
+   */
+  protected long m_nextSequence = 0;
+
+  /**
+   * The number of fronts sent to the workers that they have not finished
+   * processing
+   */
+  protected int m_inFlight = 0;
+
+  /**
+   * When order is preserved, the sequence number of the next front whose
+   * output events can be output
+   */
+  protected long m_nextToOutput = 0;
+
+  /**
+   * When order is preserved, the output events of fronts that cannot be output
+   * yet, indexed by sequence number
+   */
+  protected final transient Map<Long, List<Result>> m_waiting;
+
+  /**
+   * For each output, the events ready to be output, and which are waiting for
+   * an event on the other outputs to form a complete front
+   */
+  protected final transient Queue<Object>[] m_ready;
+
+  /**
+   * The first exception thrown by a worker, if any
+   */
+  protected transient volatile RuntimeException m_error = null;
+
+  /**
+   * The thread waiting for the workers to process a front, if any
+   */
+  protected transient volatile Thread m_waiter = null;
+
+  /**
+   * An array used to evaluate the key function
+   */
+  protected final transient Object[] m_key = new Object[1];
+
+  /**
+   * Creates a new parallel processor
+   *
+   * @param p
+   *          The processor to run in parallel. It is left untouched; each worker
+   *          runs a copy of it.
+   * @param key
+   *          The function computing the partition key of an input front. Its
+   *          input arity must be that of <i>p</i>.
+   * @param num_workers
+   *          The number of workers
+   */
+  @SuppressWarnings("unchecked")
+  public Parallelize(/* @NotNull */ Processor p, /* @NotNull */ Function key, int num_workers)
+  {
+    super(p.getInputArity(), p.getOutputArity());
+    m_processor = p;
+    m_keyFunction = key;
+    m_template = new ProcessorTemplate(p);
+    m_workers = new Worker[Math.max(1, num_workers)];
+    m_results = new ConcurrentLinkedQueue<Result>();
+    m_waiting = new HashMap<Long, List<Result>>();
+    m_ready = new Queue[getOutputArity()];
+    for (int i = 0; i < m_ready.length; i++)
+    {
+      m_ready[i] = new ArrayDeque<Object>();
+    }
+    for (int i = 0; i < m_workers.length; i++)
+    {
+      m_workers[i] = new Worker(m_template.newInstance());
+    }
+  }
+
+  /**
+   * Creates a new parallel processor with one worker per available core
+   *
+   * @param p
+   *          The processor to run in parallel
+   * @param key
+   *          The function computing the partition key of an input front
+   */
+  public Parallelize(/* @NotNull */ Processor p, /* @NotNull */ Function key)
+  {
+    this(p, key, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * Sets whether output events should follow the order of the input fronts
+   *
+   * @param b
+   *          Set to {@code true} to preserve the order, {@code false}
+   *          otherwise
+   * @return This processor
+   */
+  public Parallelize preserveOrder(boolean b)
+  {
+    m_preserveOrder = b;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of fronts waiting in the queue of a worker
+   *
+   * @param capacity
+   *          The capacity
+   * @return This processor
+   */
+  public Parallelize setCapacity(int capacity)
+  {
+    m_capacity = Math.max(1, capacity);
+    return this;
+  }
+
+  /**
+   * Gets the number of workers of this processor
+   *
+   * @return The number of workers
+   */
+  public int getWorkerCount()
+  {
+    return m_workers.length;
+  }
+
+  @Override
+  protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+  {
+    m_keyFunction.evaluate(inputs, m_key, m_context);
+    Object key = m_key[0];
+    int h = key == null ? 0 : key.hashCode();
+    // Spread the bits of the hash code, as in HashMap
+    h ^= (h >>> 20) ^ (h >>> 12);
+    h ^= (h >>> 7) ^ (h >>> 4);
+    Worker w = m_workers[(h & 0x7fffffff) % m_workers.length];
+    while (w.m_size.get() >= m_capacity)
+    {
+      collect(outputs);
+      if (w.m_size.get() >= m_capacity)
+      {
+        awaitResult();
+      }
+    }
+    submit(w, inputs);
+    collect(outputs);
+    return true;
+  }
+
+  @Override
+  protected boolean onEndOfTrace(Queue<Object[]> outputs)
+  {
+    drain(outputs);
+    // Notify the copies of the end of the trace
+    for (Worker w : m_workers)
+    {
+      submit(w, null);
+    }
+    drain(outputs);
+    return true;
+  }
+
+  @Override
+  protected boolean onUpstreamExhausted(Queue<Object[]> outputs)
+  {
+    // In pull mode, output the results of the fronts in flight
+    drain(outputs);
+    return !outputs.isEmpty();
+  }
+
+  /**
+   * Sends a front to a worker
+   *
+   * @param w
+   *          The worker
+   * @param inputs
+   *          The front, or {@code null} to notify the end of the trace
+   */
+  protected void submit(Worker w, Object[] inputs)
+  {
+    Object[] front = inputs == null ? null : inputs.clone();
+    w.m_tasks.add(new Task(m_nextSequence++, front));
+    w.m_size.incrementAndGet();
+    m_inFlight++;
+    w.start();
+    LockSupport.unpark(w.m_thread);
+  }
+
+  /**
+   * Waits until the workers have processed all the fronts sent to them, and
+   * adds their output events to a queue
+   *
+   * @param outputs
+   *          The queue
+   */
+  protected void drain(Queue<Object[]> outputs)
+  {
+    quiesce();
+    collect(outputs);
+  }
+
+  /**
+   * Waits until the workers have processed all the fronts sent to them. Their
+   * output events are kept in {@link #m_ready}.
+   */
+  protected void quiesce()
+  {
+    gather();
+    while (m_inFlight > 0)
+    {
+      awaitResult();
+      gather();
+    }
+  }
+
+  /**
+   * Sleeps until a worker posts a result. The method may also return
+   * spuriously; callers check their condition again.
+   */
+  protected void awaitResult()
+  {
+    m_waiter = Thread.currentThread();
+    // A result posted after this check unparks the thread, which makes the
+    // call to park return right away
+    if (m_results.isEmpty())
+    {
+      LockSupport.park(this);
+    }
+    m_waiter = null;
+  }
+
+  /**
+   * Adds to a queue the events output by the workers so far
+   *
+   * @param outputs
+   *          The queue
+   */
+  protected void collect(Queue<Object[]> outputs)
+  {
+    gather();
+    // Form output fronts from the events ready on each output
+    for (;;)
+    {
+      for (Queue<Object> q : m_ready)
+      {
+        if (q.isEmpty())
+        {
+          return;
+        }
+      }
+      Object[] front = new Object[m_ready.length];
+      for (int i = 0; i < front.length; i++)
+      {
+        front[i] = m_ready[i].remove();
+      }
+      outputs.add(front);
+    }
+  }
+
+  /**
+   * Takes the results posted by the workers so far, and puts the events that
+   * can be output in {@link #m_ready}
+   */
+  protected void gather()
+  {
+    Result r;
+    while ((r = m_results.poll()) != null)
+    {
+      if (!m_preserveOrder)
+      {
+        if (r.m_index < 0)
+        {
+          m_inFlight--;
+        }
+        else
+        {
+          m_ready[r.m_index].add(r.m_event);
+        }
+        continue;
+      }
+      List<Result> list = m_waiting.get(r.m_sequence);
+      if (list == null)
+      {
+        list = new ArrayList<Result>(2);
+        m_waiting.put(r.m_sequence, list);
+      }
+      list.add(r);
+      if (r.m_index >= 0)
+      {
+        continue;
+      }
+      m_inFlight--;
+      // A front is complete: release the fronts that can now be output
+      while ((list = m_waiting.get(m_nextToOutput)) != null
+          && list.get(list.size() - 1).m_index < 0)
+      {
+        m_waiting.remove(m_nextToOutput++);
+        for (Result res : list)
+        {
+          if (res.m_index >= 0)
+          {
+            m_ready[res.m_index].add(res.m_event);
+          }
+        }
+      }
+    }
+    RuntimeException e = m_error;
+    if (e != null)
+    {
+      m_error = null;
+      throw new ProcessorException(e);
+    }
+  }
+
+  /**
+   * Stops the threads of all the workers. Fronts that have not been
+   * processed are lost. The threads are started again upon the next front.
+   */
+  @Override
+  public void stop()
+  {
+    for (Worker w : m_workers)
+    {
+      w.halt();
+    }
+  }
+
+  @Override
+  public void reset()
+  {
+    super.reset();
+    stop();
+    for (Worker w : m_workers)
+    {
+      w.m_processor.reset();
+      w.m_tasks.clear();
+      w.m_size.set(0);
+    }
+    m_results.clear();
+    m_waiting.clear();
+    for (Queue<Object> q : m_ready)
+    {
+      q.clear();
+    }
+    m_nextSequence = 0;
+    m_nextToOutput = 0;
+    m_inFlight = 0;
+    m_error = null;
+  }
+
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    // The state of the copies only stops changing once they are idle
+    quiesce();
+    super.writeState(out);
+    m_keyFunction.writeState(out);
+    for (Queue<Object> q : m_ready)
+    {
+      out.writeCollection(q);
+    }
+    out.writeLong(m_nextSequence);
+    out.writeLong(m_nextToOutput);
+    for (Worker w : m_workers)
+    {
+      out.writeProcessor(w.m_processor);
+    }
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    stop();
+    m_keyFunction.readState(in);
+    for (Queue<Object> q : m_ready)
+    {
+      q.clear();
+      in.readCollection(q);
+    }
+    m_nextSequence = in.readLong();
+    m_nextToOutput = in.readLong();
+    m_results.clear();
+    m_waiting.clear();
+    m_inFlight = 0;
+    m_error = null;
+    for (Worker w : m_workers)
+    {
+      w.m_tasks.clear();
+      w.m_size.set(0);
+      in.readProcessor(w.m_processor);
+    }
+  }
+
+  @Override
+  public Parallelize duplicate(boolean with_state)
+  {
+    Parallelize p = new Parallelize(m_processor, m_keyFunction.duplicate(), m_workers.length);
+    p.m_preserveOrder = m_preserveOrder;
+    p.m_capacity = m_capacity;
+    if (with_state)
+    {
+      Checkpoint.copyState(this, p);
+    }
+    return p;
+  }
+
+  /**
+   * A front sent to a worker
+   */
+  protected static class Task
+  {
+    /**
+     * The sequence number of the front
+     */
+    final long m_sequence;
+
+    /**
+     * The front, or {@code null} to notify the end of the trace
+     */
+    final Object[] m_front;
+
+    Task(long sequence, Object[] front)
+    {
+      super();
+      m_sequence = sequence;
+      m_front = front;
+    }
+  }
+
+  /**
+   * An event output by a worker, or the notice that a worker has finished
+   * processing a front
+   */
+  protected static class Result
+  {
+    /**
+     * The sequence number of the front that caused the event
+     */
+    final long m_sequence;
+
+    /**
+     * The index of the output the event was produced on, or -1 for the
+     * notice that the front has been processed
+     */
+    final int m_index;
+
+    /**
+     * The event
+     */
+    final Object m_event;
+
+    Result(long sequence, int index, Object event)
+    {
+      super();
+      m_sequence = sequence;
+      m_index = index;
+      m_event = event;
+    }
+  }
+
+  /**
+   * Runs a copy of the processor on its own thread
+   */
+  protected class Worker implements Runnable
+  {
+    /**
+     * The copy of the processor
+     */
+    protected final Processor m_processor;
+
+    /**
+     * The inputs of the copy
+     */
+    protected final Pushable[] m_inputs;
+
+    /**
+     * The fronts waiting to be processed
+     */
+    protected final ConcurrentLinkedQueue<Task> m_tasks;
+
+    /**
+     * The number of fronts in {@link #m_tasks}
+     */
+    protected final AtomicInteger m_size;
+
+    /**
+     * The thread running this worker, or {@code null} if it is not running
+     */
+    protected volatile Thread m_thread = null;
+
+    /**
+     * Whether the thread should keep running
+     */
+    protected volatile boolean m_run = false;
+
+    /**
+     * The sequence number of the front being processed
+     */
+    protected long m_current;
+
+    /**
+     * Creates a new worker
+     *
+     * @param p
+     *          The copy of the processor to run
+     */
+    public Worker(/* @NotNull */ Processor p)
+    {
+      super();
+      m_processor = p;
+      m_tasks = new ConcurrentLinkedQueue<Task>();
+      m_size = new AtomicInteger();
+      m_inputs = new Pushable[p.getInputArity()];
+      for (int i = 0; i < m_inputs.length; i++)
+      {
+        m_inputs[i] = p.getPushableInput(i);
+      }
+      for (int i = 0; i < p.getOutputArity(); i++)
+      {
+        Connector.connect(p, i, new Collector(this, i), 0);
+      }
+    }
+
+    /**
+     * Starts the thread of this worker, if it is not running
+     */
+    public void start()
+    {
+      if (!m_run)
+      {
+        // The previous thread, if any, has ended after the end of the trace
+        halt();
+        m_run = true;
+        Thread t = new Thread(this);
+        t.setDaemon(true);
+        m_thread = t;
+        t.start();
+      }
+    }
+
+    /**
+     * Stops the thread of this worker and waits for it to end
+     */
+    public void halt()
+    {
+      Thread t = m_thread;
+      if (t == null)
+      {
+        return;
+      }
+      m_run = false;
+      LockSupport.unpark(t);
+      try
+      {
+        t.join();
+      }
+      catch (InterruptedException e)
+      {
+        // Restore interrupted state
+        Thread.currentThread().interrupt();
+      }
+      m_thread = null;
+    }
+
+    @Override
+    public void run()
+    {
+      while (m_run)
+      {
+        Task t = m_tasks.poll();
+        if (t == null)
+        {
+          // Woken up by submit() or halt()
+          LockSupport.park(this);
+          continue;
+        }
+        m_current = t.m_sequence;
+        try
+        {
+          for (int i = 0; i < m_inputs.length; i++)
+          {
+            if (t.m_front == null)
+            {
+              m_inputs[i].notifyEndOfTrace();
+            }
+            else
+            {
+              m_inputs[i].push(t.m_front[i]);
+            }
+          }
+        }
+        catch (RuntimeException e)
+        {
+          if (m_error == null)
+          {
+            m_error = e;
+          }
+        }
+        if (t.m_front == null)
+        {
+          // Nothing else to do after the end of the trace
+          m_run = false;
+        }
+        m_size.decrementAndGet();
+        m_results.add(new Result(t.m_sequence, -1, null));
+        Thread waiter = m_waiter;
+        if (waiter != null)
+        {
+          LockSupport.unpark(waiter);
+        }
+      }
+    }
+  }
+
+  /**
+   * Receives the events output by the copy of the processor run by a worker
+   */
+  protected class Collector extends Sink
+  {
+    /**
+     * The worker running the copy
+     */
+    protected final Worker m_worker;
+
+    /**
+     * The index of the copy's output this sink is connected to
+     */
+    protected final int m_index;
+
+    /**
+     * Creates a new collector
+     *
+     * @param w
+     *          The worker running the copy
+     * @param index
+     *          The index of the copy's output this sink is connected to
+     */
+    public Collector(Worker w, int index)
+    {
+      super(1);
+      m_worker = w;
+      m_index = index;
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+    {
+      m_results.add(new Result(m_worker.m_current, m_index, inputs[0]));
+      return true;
+    }
+
+    @Override
+    public Collector duplicate(boolean with_state)
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
@@ -17,6 +17,8 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
+import java.io.IOException;
 import java.util.ArrayDeque;
 import java.util.Queue;
 
@@ -121,6 +123,27 @@ public class QueueSink extends Sink
     return out;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    for (Queue<Object> q : m_queues)
+    {
+      out.writeCollection(q);
+    }
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    for (Queue<Object> q : m_queues)
+    {
+      q.clear();
+      in.readCollection(q);
+    }
+  }
+
   @Override
   public QueueSink duplicate(boolean with_state)
   {
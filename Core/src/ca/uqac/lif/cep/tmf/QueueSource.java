@@ -17,9 +17,11 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Connector.Variant;
 import ca.uqac.lif.petitpoucet.DirectValue;
 import ca.uqac.lif.petitpoucet.NodeFunction;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -53,6 +55,13 @@ public class QueueSource extends Source
    */
   protected int m_index;
 
+  /**
+   * The node functions designating each event of the queue, created on demand
+   * when an event tracker is set. They are kept so that a new function is not
+   * created every time an event is output.
+   */
+  protected transient QueueFunction[] m_queueFunctions = null;
+
   /**
    * Creates a new queue source of given output arity. The events of the queue
    * source will be duplicated on each of the outputs.
@@ -179,15 +188,43 @@ public class QueueSource extends Source
       {
         index += size;
       }
+      QueueFunction qf = getQueueFunction(index);
       for (int i = 0; i < getOutputArity(); i++)
       {
-        associateTo(new QueueFunction(getId(), index), i, m_outputCount);
+        associateTo(qf, i, m_outputCount);
       }
     }
     m_outputCount++;
     return true;
   }
 
+  /**
+   * Gets the node function designating an event of the queue
+   * 
+   * @param index
+   *          The position of the event in the queue
+   * @return The node function
+   */
+  protected QueueFunction getQueueFunction(int index)
+  {
+    if (m_queueFunctions == null || index >= m_queueFunctions.length)
+    {
+      QueueFunction[] functions = new QueueFunction[Math.max(index + 1, m_events.size())];
+      if (m_queueFunctions != null)
+      {
+        System.arraycopy(m_queueFunctions, 0, functions, 0, m_queueFunctions.length);
+      }
+      m_queueFunctions = functions;
+    }
+    QueueFunction qf = m_queueFunctions[index];
+    if (qf == null)
+    {
+      qf = new QueueFunction(getId(), index);
+      m_queueFunctions[index] = qf;
+    }
+    return qf;
+  }
+
   @Override
   public void reset()
   {
@@ -195,6 +232,20 @@ public class QueueSource extends Source
     m_index = 0;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeInt(m_index);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_index = in.readInt();
+  }
+
   @Override
   public QueueSource duplicate(boolean with_state)
   {
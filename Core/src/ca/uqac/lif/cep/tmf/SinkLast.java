@@ -17,6 +17,8 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
+import java.io.IOException;
 import java.util.Queue;
 
 /**
@@ -80,9 +82,30 @@ public class SinkLast extends Sink
     return m_last;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeObject(m_last);
+    out.writeInt(m_eventCounter);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_last = (Object[]) in.readObject();
+    m_eventCounter = in.readInt();
+  }
+
   @Override
   public SinkLast duplicate(boolean with_state)
   {
-    return new SinkLast(getInputArity());
+    SinkLast s = new SinkLast(getInputArity());
+    if (with_state)
+    {
+      Checkpoint.copyState(this, s);
+    }
+    return s;
   }
 }
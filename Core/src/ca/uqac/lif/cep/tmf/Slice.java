@@ -17,16 +17,20 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Connector;
 import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.ProcessorTemplate;
 import ca.uqac.lif.cep.Pushable;
 import ca.uqac.lif.cep.UniformProcessor;
 import ca.uqac.lif.cep.functions.Function;
 import ca.uqac.lif.cep.functions.FunctionException;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Future;
@@ -68,6 +72,13 @@ public class Slice extends UniformProcessor
    */
   protected Function m_cleaningFunction = null;
 
+  /**
+   * The template used to create a new instance of the internal processor for
+   * each slice. It is created on the first slice, and shared by a slicer and
+   * its duplicates.
+   */
+  protected transient ProcessorTemplate m_template = null;
+
   protected HashMap<Object, Processor> m_slices;
 
   protected HashMap<Object, QueueSink> m_sinks;
@@ -125,13 +136,13 @@ public class Slice extends UniformProcessor
   public Slice setProcessor(Processor p)
   {
     m_processor = p;
+    m_template = null;
     return this;
   }
 
   @Override
   protected boolean compute(Object[] inputs, Object[] outputs)
   {
-    int output_arity = getOutputArity();
     Object[] f_value = new Object[1];
     try
     {
@@ -187,12 +198,7 @@ public class Slice extends UniformProcessor
         if (!m_slices.containsKey(slice_id))
         {
           // First time we see this value: create new slice
-          Processor p = m_processor.duplicate();
-          m_slices.put(slice_id, p);
-          addContextFromSlice(p, slice_id);
-          QueueSink sink = new QueueSink(output_arity);
-          Connector.connect(p, sink);
-          m_sinks.put(slice_id, sink);
+          newSlice(slice_id);
           // Put dummy value temporarily
           m_lastValues.put(slice_id, null);
         }
@@ -271,6 +277,28 @@ public class Slice extends UniformProcessor
     return true;
   }
 
+  /**
+   * Creates the processor and the sink of a new slice
+   * 
+   * @param slice_id
+   *          The value associated to the slice
+   * @return The processor of the new slice
+   */
+  protected Processor newSlice(Object slice_id)
+  {
+    if (m_template == null)
+    {
+      m_template = new ProcessorTemplate(m_processor);
+    }
+    Processor p = m_template.newInstance();
+    m_slices.put(slice_id, p);
+    addContextFromSlice(p, slice_id);
+    QueueSink sink = new QueueSink(getOutputArity());
+    Connector.connect(p, sink);
+    m_sinks.put(slice_id, sink);
+    return p;
+  }
+
   /**
    * Sets whether a slice function that returns a collection of values must be
    * handled as individual slice IDs.
@@ -323,6 +351,47 @@ public class Slice extends UniformProcessor
     return m_slices.size();
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    m_slicingFunction.writeState(out);
+    if (m_cleaningFunction != null)
+    {
+      m_cleaningFunction.writeState(out);
+    }
+    out.writeMap(m_lastValues);
+    out.writeInt(m_slices.size());
+    for (Map.Entry<Object, Processor> e : m_slices.entrySet())
+    {
+      out.writeObject(e.getKey());
+      out.writeProcessor(e.getValue());
+      out.writeProcessor(m_sinks.get(e.getKey()));
+    }
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_slicingFunction.readState(in);
+    if (m_cleaningFunction != null)
+    {
+      m_cleaningFunction.readState(in);
+    }
+    m_lastValues.clear();
+    in.readMap(m_lastValues);
+    m_slices.clear();
+    m_sinks.clear();
+    int num_slices = in.readInt();
+    for (int i = 0; i < num_slices; i++)
+    {
+      Object slice_id = in.readObject();
+      in.readProcessor(newSlice(slice_id));
+      in.readProcessor(m_sinks.get(slice_id));
+    }
+  }
+
   @Override
   public Slice duplicate(boolean with_state)
   {
@@ -338,10 +407,10 @@ public class Slice extends UniformProcessor
     }
     s.setContext(m_context);
     s.m_explodeArrays = m_explodeArrays;
+    s.m_template = m_template;
     if (with_state)
     {
-      throw new UnsupportedOperationException(
-          "Duplication with state not supported yet on this processor");
+      Checkpoint.copyState(this, s);
     }
     return s;
   }
@@ -17,9 +17,11 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Context;
 import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.Pullable;
+import java.io.IOException;
 import java.util.Queue;
 
 /**
@@ -147,9 +149,36 @@ public class Splice extends Source
     return false;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeInt(m_processorIndex);
+    for (Processor p : m_processors)
+    {
+      out.writeProcessor(p);
+    }
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_processorIndex = in.readInt();
+    for (Processor p : m_processors)
+    {
+      in.readProcessor(p);
+    }
+  }
+
   @Override
   public Splice duplicate(boolean with_state)
   {
-    return new Splice(m_processors);
+    Splice s = new Splice(m_processors);
+    if (with_state)
+    {
+      Checkpoint.copyState(this, s);
+    }
+    return s;
   }
 }
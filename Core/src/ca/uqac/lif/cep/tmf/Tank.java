@@ -17,12 +17,18 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.IdleStrategy;
 import ca.uqac.lif.cep.NextStatus;
 import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.TimedPullable;
 import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Accumulates pushed events into a queue until they are pulled. The Tank is a
@@ -91,8 +97,13 @@ public class Tank extends Processor
     return m_pullable;
   }
 
-  protected class QueuePullable implements Pullable
+  protected class QueuePullable implements TimedPullable
   {
+    /**
+     * The threads waiting for an event in {@link #hasNext(long, TimeUnit)}
+     */
+    protected final Queue<Thread> m_waiters = new ConcurrentLinkedQueue<Thread>();
+
     @Override
     public Iterator<Object> iterator()
     {
@@ -152,6 +163,27 @@ public class Tank extends Processor
       }
     }
 
+    /**
+     * Waits until an event is pushed into the tank, or until a timeout
+     * expires. The thread waits according to the tank's idle strategy, and is
+     * woken up as soon as an event is pushed. Any number of threads can wait
+     * at the same time; all of them are woken up.
+     */
+    @Override
+    public NextStatus hasNext(long timeout, TimeUnit unit)
+    {
+      Thread current = Thread.currentThread();
+      m_waiters.add(current);
+      try
+      {
+        return IdleStrategy.waitFor(this, timeout, unit, m_idleStrategy);
+      }
+      finally
+      {
+        m_waiters.remove(current);
+      }
+    }
+
     @Override
     public Processor getProcessor()
     {
@@ -206,6 +238,15 @@ public class Tank extends Processor
         }
         m_inputQueues[0].add(o);
       }
+      // Wake up the consumers waiting for an event, if any
+      QueuePullable pullable = m_pullable;
+      if (pullable != null)
+      {
+        for (Thread waiter : pullable.m_waiters)
+        {
+          LockSupport.unpark(waiter);
+        }
+      }
       return this;
     }
 
@@ -17,6 +17,9 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
+import java.io.IOException;
+
 /**
  * After returning an input event, discards all others for the next *n* seconds.
  * This processor therefore acts as a rate limiter.
@@ -100,9 +103,28 @@ public class TimeDecimate extends Decimate
     m_timeLastSent = -1;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeLong(m_timeLastSent);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_timeLastSent = in.readLong();
+  }
+
   @Override
   public TimeDecimate duplicate(boolean with_state)
   {
-    return new TimeDecimate(m_interval, m_shouldProcessLastInputs);
+    TimeDecimate t = new TimeDecimate(m_interval, m_shouldProcessLastInputs);
+    if (with_state)
+    {
+      Checkpoint.copyState(this, t);
+    }
+    return t;
   }
 }
@@ -17,7 +17,9 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.SingleProcessor;
+import java.io.IOException;
 import java.util.Queue;
 
 /**
@@ -78,6 +80,20 @@ public class Trim extends SingleProcessor
     return true;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeInt(m_eventsReceived);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_eventsReceived = in.readInt();
+  }
+
   @Override
   public Trim duplicate(boolean with_state)
   {
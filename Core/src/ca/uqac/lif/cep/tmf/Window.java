@@ -17,10 +17,13 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Connector;
 import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.ProcessorTemplate;
 import ca.uqac.lif.cep.Pushable;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
@@ -179,14 +182,36 @@ public class Window extends AbstractWindow
     }
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    for (List<Object> w : m_window)
+    {
+      out.writeCollection(w);
+    }
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    for (List<Object> w : m_window)
+    {
+      w.clear();
+      in.readCollection(w);
+    }
+  }
+
   @Override
   public Window duplicate(boolean with_state)
   {
-    Window w = new Window(m_processor.duplicate(), m_width);
+    ProcessorTemplate template = getTemplate();
+    Window w = new Window(template.newInstance(), m_width);
+    w.m_template = template;
     if (with_state)
     {
-      throw new UnsupportedOperationException(
-          "Duplication with state not supported yet on this processor");
+      Checkpoint.copyState(this, w);
     }
     return w;
   }
@@ -17,10 +17,12 @@
  */
 package ca.uqac.lif.cep.tmf;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.ProcessorException;
 import ca.uqac.lif.cep.SingleProcessor;
 import ca.uqac.lif.cep.functions.Function;
 import ca.uqac.lif.cep.functions.FunctionException;
+import java.io.IOException;
 import java.util.LinkedList;
 import java.util.Queue;
 
@@ -111,6 +113,23 @@ public class WindowFunction extends SingleProcessor
     return true;
   }
 
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeCollection(m_window);
+    m_function.writeState(out);
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_window.clear();
+    in.readCollection(m_window);
+    m_function.readState(in);
+  }
+
   @Override
   public WindowFunction duplicate(boolean with_state)
   {
@@ -17,25 +17,55 @@
  */
 package ca.uqac.lif.cep.util;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Connector;
 import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorTemplate;
 import ca.uqac.lif.cep.Pushable;
 import ca.uqac.lif.cep.SingleProcessor;
 import ca.uqac.lif.cep.functions.BinaryFunction;
 import ca.uqac.lif.cep.functions.Function;
+import ca.uqac.lif.cep.functions.FunctionException;
 import ca.uqac.lif.cep.functions.InvalidArgumentException;
 import ca.uqac.lif.cep.functions.UnaryFunction;
 import ca.uqac.lif.cep.tmf.SinkLast;
+import java.io.IOException;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 /**
  * A container object for functions and processors applying to generic
  * collections, i.e. "bags" of objects.
+ * <p>
+ * The functions that evaluate another function on each element of a
+ * collection, such as {@link ApplyToAll} and {@link FilterElements}, can be
+ * given an {@link ExecutorService}. Collections with at least a given number
+ * of elements are then split into chunks of that size, which are evaluated in
+ * parallel; the results are put back together in the order of the elements.
+ * This is only meant for functions that keep no state from one element to
+ * the next.
+ * <p>
+ * These functions can also return a {@link View} instead of a new list or
+ * set. A view computes its elements only when it is iterated, so that a chain
+ * such as {@link ApplyToAll} followed by {@link FilterElements} followed by
+ * {@link Size} evaluates each element in a single pass, without creating any
+ * intermediate collection. A view can be turned into a list or a set with
+ * {@link #materialize}. Applying a function to the elements of a set can
+ * produce duplicates, which a view could only remove by storing its
+ * elements; {@link ApplyToAll} therefore always returns a new set when given
+ * a set.
  * 
  * @author Sylvain Hallé
  * @dictentry
@@ -60,13 +90,29 @@ public class Bags
   /**
    * Computes the Cartesian product of two collections
    */
-  public static final Product product = new Product();
+  public static final Product product = new Product(false);
+
+  /**
+   * Computes the Cartesian product of two collections, as a {@link View}
+   */
+  public static final Product lazyProduct = new Product(true);
 
   /**
    * Gets any element of a bag
    */
   public static final AnyElement anyElement = new AnyElement();
 
+  /**
+   * Turns a view into a list or a set
+   */
+  public static final Materialize materialize = new Materialize();
+
+  /**
+   * The default number of elements from which a collection is evaluated in
+   * parallel, and the size of each chunk
+   */
+  public static final int DEFAULT_THRESHOLD = 4096;
+
   /**
    * Gets all the elements of the collection that satisfy some condition. This
    * condition is specified as an unary function that is successively applied to
@@ -85,6 +131,23 @@ public class Bags
      */
     protected UnaryFunction<?, Boolean> m_condition;
 
+    /**
+     * The executor evaluating the condition in parallel, or {@code null} to
+     * evaluate it sequentially
+     */
+    protected transient ExecutorService m_executor = null;
+
+    /**
+     * The number of elements from which a collection is evaluated in
+     * parallel
+     */
+    protected int m_threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * Whether the function returns a {@link View}
+     */
+    protected boolean m_lazy = false;
+
     protected FilterElements()
     {
       super(Object.class, Object.class);
@@ -113,27 +176,81 @@ public class Bags
       m_condition = condition;
     }
 
+    /**
+     * Sets the executor evaluating the condition on large collections
+     *
+     * @param executor
+     *          The executor, or {@code null} to evaluate the condition
+     *          sequentially
+     * @return This function
+     */
+    public FilterElements parallel(/* @Null */ ExecutorService executor)
+    {
+      m_executor = executor;
+      return this;
+    }
+
+    /**
+     * Sets the number of elements from which a collection is evaluated in
+     * parallel. This is also the size of each chunk.
+     *
+     * @param threshold
+     *          The number of elements
+     * @return This function
+     */
+    public FilterElements setThreshold(int threshold)
+    {
+      m_threshold = Math.max(1, threshold);
+      return this;
+    }
+
+    /**
+     * Sets whether the function returns a {@link View} of the elements that
+     * satisfy the condition, instead of a new list or set. The condition is
+     * then evaluated by the thread that iterates over the view, each time it
+     * does so.
+     *
+     * @param b
+     *          {@code true} to return a view, {@code false} otherwise
+     * @return This function
+     */
+    public FilterElements lazy(boolean b)
+    {
+      m_lazy = b;
+      return this;
+    }
+
     @Override
     public Object getValue(Object x)
     {
-      Collection<Object> c = null;
-      if (x instanceof Set)
+      if (!(x instanceof Set || x instanceof List || x instanceof View))
       {
-        c = new HashSet<Object>();
+        throw new InvalidArgumentException(this, 0);
       }
-      else if (x instanceof List)
+      if (m_lazy)
       {
-        c = new ArrayList<Object>();
+        return new FilteredView(getSource(x), m_condition, isDistinct(x));
       }
-      else
+      Collection<Object> c = isDistinct(x) ? new HashSet<Object>() : new ArrayList<Object>();
+      Collection<?> elements = (Collection<?>) x;
+      if (!(x instanceof View) && isParallel(m_executor, m_threshold, elements.size()))
       {
-        throw new InvalidArgumentException(this, 0);
+        Object[] in_array = elements.toArray();
+        Object[] keep = applyToElements(m_condition, in_array, m_executor, m_threshold);
+        for (int i = 0; i < in_array.length; i++)
+        {
+          if ((Boolean) keep[i])
+          {
+            c.add(in_array[i]);
+          }
+        }
+        return c;
       }
-      for (Object o : (Collection<?>) x)
+      Object[] in = new Object[1];
+      Object[] values = new Object[1];
+      for (Object o : elements)
       {
-        Object[] in = new Object[1];
         in[0] = o;
-        Object[] values = new Object[1];
         m_condition.evaluate(in, values);
         if ((Boolean) values[0])
         {
@@ -174,6 +291,12 @@ public class Bags
 
     protected transient Pushable m_pushable;
 
+    /**
+     * A template used to create copies of the processor when this processor
+     * is duplicated. It is shared by a processor and its duplicates.
+     */
+    protected transient ProcessorTemplate m_template = null;
+
     /**
      * Creates a new RunOn processor
      * @param processor The processor on which to run the elements
@@ -210,10 +333,39 @@ public class Bags
       return true;
     }
 
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      // The processor is reset on every event; only the last front it
+      // output is kept from one event to the next
+      out.writeProcessor(m_sink);
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      in.readProcessor(m_sink);
+    }
+
     @Override
     public RunOn duplicate(boolean with_state)
     {
-      return new RunOn(m_processor.duplicate(with_state));
+      if (with_state)
+      {
+        return new RunOn(m_processor.duplicate(true));
+      }
+      synchronized (this)
+      {
+        if (m_template == null)
+        {
+          m_template = new ProcessorTemplate(m_processor);
+        }
+      }
+      RunOn ro = new RunOn(m_template.newInstance());
+      ro.m_template = m_template;
+      return ro;
     }
   }
 
@@ -407,6 +559,23 @@ public class Bags
      */
     protected Function m_function;
 
+    /**
+     * The executor evaluating the function in parallel, or {@code null} to
+     * evaluate it sequentially
+     */
+    protected transient ExecutorService m_executor = null;
+
+    /**
+     * The number of elements from which a collection is evaluated in
+     * parallel
+     */
+    protected int m_threshold = DEFAULT_THRESHOLD;
+
+    /**
+     * Whether the function returns a {@link View}
+     */
+    protected boolean m_lazy = false;
+
     public ApplyToAll()
     {
       super(Object.class, Object.class);
@@ -429,30 +598,98 @@ public class Bags
       m_function = function;
     }
 
+    /**
+     * Sets the executor evaluating the function on large collections
+     *
+     * @param executor
+     *          The executor, or {@code null} to evaluate the function
+     *          sequentially
+     * @return This function
+     */
+    public ApplyToAll parallel(/* @Null */ ExecutorService executor)
+    {
+      m_executor = executor;
+      return this;
+    }
+
+    /**
+     * Sets the number of elements from which a collection is evaluated in
+     * parallel. This is also the size of each chunk.
+     *
+     * @param threshold
+     *          The number of elements
+     * @return This function
+     */
+    public ApplyToAll setThreshold(int threshold)
+    {
+      m_threshold = Math.max(1, threshold);
+      return this;
+    }
+
+    /**
+     * Sets whether the function returns a {@link View} of the values of the
+     * function, instead of a new list or array. The function is then
+     * evaluated by the thread that iterates over the view, each time it does
+     * so. A set, or a view obtained from a set, still gives a new set, so
+     * that duplicate values are removed.
+     *
+     * @param b
+     *          {@code true} to return a view, {@code false} otherwise
+     * @return This function
+     */
+    public ApplyToAll lazy(boolean b)
+    {
+      m_lazy = b;
+      return this;
+    }
+
     @Override
     public Object getValue(Object x)
     {
-      if (x instanceof List)
+      if (m_lazy && !isDistinct(x) && (x instanceof List || x instanceof View
+          || x.getClass().isArray()))
       {
-        List<Object> out = new ArrayList<Object>(((List<?>) x).size());
-        for (Object o : (List<?>) x)
+        return new MappedView(getSource(x), m_function);
+      }
+      if (x instanceof View)
+      {
+        Collection<Object> out = isDistinct(x) ? new HashSet<Object>() : new ArrayList<Object>();
+        Object[] in = new Object[1];
+        Object[] values = new Object[1];
+        for (Object o : (View) x)
         {
-          Object[] in = new Object[1];
           in[0] = o;
-          Object[] values = new Object[1];
           m_function.evaluate(in, values);
           out.add(values[0]);
         }
         return out;
       }
-      if (x instanceof Set)
+      if (x instanceof List || x instanceof Set)
       {
-        Set<Object> out = new HashSet<Object>();
-        for (Object o : (Set<?>) x)
+        Collection<?> elements = (Collection<?>) x;
+        Collection<Object> out;
+        if (x instanceof List)
+        {
+          out = new ArrayList<Object>(elements.size());
+        }
+        else
+        {
+          out = new HashSet<Object>();
+        }
+        if (isParallel(m_executor, m_threshold, elements.size()))
+        {
+          for (Object o : applyToElements(m_function, elements.toArray(), m_executor,
+              m_threshold))
+          {
+            out.add(o);
+          }
+          return out;
+        }
+        Object[] in = new Object[1];
+        Object[] values = new Object[1];
+        for (Object o : elements)
         {
-          Object[] in = new Object[1];
           in[0] = o;
-          Object[] values = new Object[1];
           m_function.evaluate(in, values);
           out.add(values[0]);
         }
@@ -460,39 +697,45 @@ public class Bags
       }
       if (x.getClass().isArray())
       {
-        Object[] in_array = (Object[]) x;
-        Object[] out = new Object[in_array.length];
-        for (int i = 0; i < in_array.length; i++)
-        {
-          Object[] in = new Object[1];
-          in[0] = in_array[i];
-          Object[] values = new Object[1];
-          m_function.evaluate(in, values);
-          out[i] = values[0];
-        }
-        return out;
+        return applyToElements(m_function, (Object[]) x, m_executor, m_threshold);
       }
       throw new InvalidArgumentException(this, 0);
     }
   }
 
   /**
-   * Computes the Cartesian product of two collections.
-   * 
+   * Computes the Cartesian product of two collections. The product is a list
+   * of arrays, each made of an element of each collection. The
+   * {@link Bags#lazyProduct lazy} instance of this function returns a
+   * {@link View} instead: its pairs are created as it is iterated, so that
+   * its size can be obtained, and its first pairs read, without creating all
+   * the pairs of the product.
+   *
    * @author Sylvain Hallé
    */
   @SuppressWarnings("rawtypes")
   public static class Product extends BinaryFunction<Collection, Collection, Collection>
   {
-    private Product()
+    /**
+     * Whether the function returns a view
+     */
+    protected final boolean m_lazy;
+
+    private Product(boolean lazy)
     {
       super(Collection.class, Collection.class, Collection.class);
+      m_lazy = lazy;
     }
 
     @Override
     public Collection getValue(Collection x, Collection y)
     {
-      Set<Object[]> out = new HashSet<Object[]>();
+      if (m_lazy)
+      {
+        return new ProductView(x, y);
+      }
+      List<Object[]> out = new ArrayList<Object[]>((int) Math.min(Integer.MAX_VALUE,
+          (long) x.size() * y.size()));
       for (Object o_x : x)
       {
         for (Object o_y : y)
@@ -504,6 +747,340 @@ public class Bags
     }
   }
 
+  /**
+   * Turns a {@link View} into a new list or set, by evaluating all its
+   * elements. A view obtained from a set becomes a set; any other view
+   * becomes a list. Any other object is returned as is.
+   */
+  public static class Materialize extends UnaryFunction<Object, Object>
+  {
+    protected Materialize()
+    {
+      super(Object.class, Object.class);
+    }
+
+    @Override
+    public Object getValue(Object x)
+    {
+      if (x instanceof View)
+      {
+        return ((View) x).materialize();
+      }
+      return x;
+    }
+  }
+
+  /**
+   * A read-only collection whose elements are computed each time it is
+   * iterated. Unlike a list or a set, a view keeps duplicate elements, and
+   * its elements are not stored anywhere; the functions that read a
+   * collection, such as {@link Size}, {@link GetSize}, {@link Contains} or
+   * {@link AnyElement}, compute them in a single pass and stop as soon as
+   * they have their result.
+   * <p>
+   * A view does not copy the collection it was created from: it reads that
+   * collection each time it is iterated, and therefore sees the changes made
+   * to it in the meantime. A view must therefore be consumed in the same step
+   * as the event it was computed from, or be materialized; this is the case
+   * of a view output by a processor that updates a collection in place, such
+   * as {@link Lists.Pack} or {@link Maps.PutInto}. A view evaluates its own
+   * copy of the function it was given, so that the function is not shared
+   * with the view's creator.
+   */
+  public abstract static class View extends AbstractCollection<Object>
+  {
+    /**
+     * Whether the elements of the view are known to be distinct, because it
+     * was obtained from a set
+     */
+    protected final boolean m_distinct;
+
+    /**
+     * Creates a new view
+     *
+     * @param distinct
+     *          Whether the view is obtained from a set
+     */
+    protected View(boolean distinct)
+    {
+      super();
+      m_distinct = distinct;
+    }
+
+    /**
+     * Gets a new collection with the elements of this view
+     *
+     * @return A set if the view was obtained from a set, a list otherwise
+     */
+    public Collection<Object> materialize()
+    {
+      Collection<Object> c = m_distinct ? new HashSet<Object>() : new ArrayList<Object>();
+      for (Object o : this)
+      {
+        c.add(o);
+      }
+      return c;
+    }
+  }
+
+  /**
+   * A view of the values of a function on each element of a collection
+   */
+  protected static class MappedView extends View
+  {
+    /**
+     * The elements to evaluate the function on
+     */
+    protected final Collection<?> m_source;
+
+    /**
+     * The function
+     */
+    protected final Function m_function;
+
+    MappedView(Collection<?> source, Function f)
+    {
+      // The values of a function can repeat, even on distinct elements
+      super(false);
+      m_source = source;
+      m_function = f.duplicate(true);
+    }
+
+    @Override
+    public int size()
+    {
+      return m_source.size();
+    }
+
+    @Override
+    public Iterator<Object> iterator()
+    {
+      final Iterator<?> it = m_source.iterator();
+      return new ViewIterator()
+      {
+        // The same arrays are used for every element
+        private final Object[] m_in = new Object[1];
+
+        private final Object[] m_values = new Object[1];
+
+        @Override
+        public boolean hasNext()
+        {
+          return it.hasNext();
+        }
+
+        @Override
+        public Object next()
+        {
+          m_in[0] = it.next();
+          m_function.evaluate(m_in, m_values);
+          return m_values[0];
+        }
+      };
+    }
+  }
+
+  /**
+   * A view of the elements of a collection that satisfy a condition
+   */
+  protected static class FilteredView extends View
+  {
+    /**
+     * The elements to filter
+     */
+    protected final Collection<?> m_source;
+
+    /**
+     * The condition
+     */
+    protected final Function m_condition;
+
+    FilteredView(Collection<?> source, Function condition, boolean distinct)
+    {
+      super(distinct);
+      m_source = source;
+      m_condition = condition.duplicate(true);
+    }
+
+    @Override
+    public int size()
+    {
+      int size = 0;
+      Iterator<Object> it = iterator();
+      while (it.hasNext())
+      {
+        it.next();
+        size++;
+      }
+      return size;
+    }
+
+    @Override
+    public Iterator<Object> iterator()
+    {
+      final Iterator<?> it = m_source.iterator();
+      return new ViewIterator()
+      {
+        private final Object[] m_in = new Object[1];
+
+        private final Object[] m_values = new Object[1];
+
+        /**
+         * Whether {@link #m_next} holds the next element of the view
+         */
+        private boolean m_ready = false;
+
+        private Object m_next;
+
+        @Override
+        public boolean hasNext()
+        {
+          while (!m_ready && it.hasNext())
+          {
+            m_in[0] = it.next();
+            m_condition.evaluate(m_in, m_values);
+            if ((Boolean) m_values[0])
+            {
+              m_next = m_in[0];
+              m_ready = true;
+            }
+          }
+          return m_ready;
+        }
+
+        @Override
+        public Object next()
+        {
+          if (!hasNext())
+          {
+            throw new NoSuchElementException();
+          }
+          m_ready = false;
+          return m_next;
+        }
+      };
+    }
+  }
+
+  /**
+   * A view of the pairs of elements of two collections
+   */
+  protected static class ProductView extends View
+  {
+    /**
+     * The first collection
+     */
+    protected final Collection<?> m_x;
+
+    /**
+     * The second collection
+     */
+    protected final Collection<?> m_y;
+
+    ProductView(Collection<?> x, Collection<?> y)
+    {
+      // Arrays are compared by identity: the view materializes as a list
+      super(false);
+      m_x = x;
+      m_y = y;
+    }
+
+    @Override
+    public int size()
+    {
+      return (int) Math.min(Integer.MAX_VALUE, (long) m_x.size() * m_y.size());
+    }
+
+    @Override
+    public Iterator<Object> iterator()
+    {
+      final Iterator<?> it_x = m_x.iterator();
+      return new ViewIterator()
+      {
+        private Iterator<?> m_itY = m_y.iterator();
+
+        private Object m_current;
+
+        private boolean m_started = false;
+
+        @Override
+        public boolean hasNext()
+        {
+          if (!m_started || !m_itY.hasNext())
+          {
+            if (!it_x.hasNext())
+            {
+              return false;
+            }
+            if (m_started)
+            {
+              m_itY = m_y.iterator();
+            }
+            if (!m_itY.hasNext())
+            {
+              // The second collection is empty
+              return false;
+            }
+            m_current = it_x.next();
+            m_started = true;
+          }
+          return true;
+        }
+
+        @Override
+        public Object next()
+        {
+          if (!hasNext())
+          {
+            throw new NoSuchElementException();
+          }
+          return new Object[] { m_current, m_itY.next() };
+        }
+      };
+    }
+  }
+
+  /**
+   * An iterator over a view, which cannot remove elements
+   */
+  protected abstract static class ViewIterator implements Iterator<Object>
+  {
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  /**
+   * Gets the collection a view iterates over
+   *
+   * @param x
+   *          A view, a collection or an array
+   * @return The view or the collection itself, or a list backed by the
+   *         array
+   */
+  protected static Collection<?> getSource(/* @NotNull */ Object x)
+  {
+    if (x instanceof Collection)
+    {
+      return (Collection<?>) x;
+    }
+    return Arrays.asList((Object[]) x);
+  }
+
+  /**
+   * Checks if an object is a set, or a view obtained from a set
+   *
+   * @param x
+   *          The object
+   * @return {@code true} if the object is a set or a view obtained from a set
+   */
+  protected static boolean isDistinct(/* @NotNull */ Object x)
+  {
+    return x instanceof Set || (x instanceof View && ((View) x).m_distinct);
+  }
+
   /**
    * Returns any element of a collection. If the collection is empty, returns
    * {@code null}.
@@ -529,6 +1106,148 @@ public class Bags
     }
   }
 
+  /**
+   * Checks if a collection is to be evaluated in parallel
+   *
+   * @param executor
+   *          The executor, or {@code null} for a sequential evaluation
+   * @param threshold
+   *          The number of elements from which the evaluation is parallel
+   * @param size
+   *          The number of elements of the collection
+   * @return {@code true} if the evaluation is parallel
+   */
+  protected static boolean isParallel(/* @Null */ ExecutorService executor, int threshold,
+      int size)
+  {
+    return executor != null && size >= threshold;
+  }
+
+  /**
+   * Evaluates a unary function on each element of an array. If the array is
+   * large enough, it is split into chunks of <i>threshold</i> elements; the
+   * first chunk is evaluated by the calling thread, and each of the others by
+   * the executor, on its own copy of the function.
+   *
+   * @param f
+   *          The function
+   * @param in
+   *          The elements
+   * @param executor
+   *          The executor, or {@code null} for a sequential evaluation
+   * @param threshold
+   *          The number of elements from which the evaluation is parallel
+   * @return An array with the value of the function for each element
+   */
+  protected static Object[] applyToElements(/* @NotNull */ Function f,
+      /* @NotNull */ Object[] in, /* @Null */ ExecutorService executor, int threshold)
+  {
+    Object[] out = new Object[in.length];
+    if (!isParallel(executor, threshold, in.length))
+    {
+      new Chunk(f, in, out, 0, in.length).call();
+      return out;
+    }
+    int num_chunks = (in.length + threshold - 1) / threshold;
+    List<Future<Object>> futures = new ArrayList<Future<Object>>(num_chunks - 1);
+    boolean done = false;
+    try
+    {
+      for (int i = 1; i < num_chunks; i++)
+      {
+        futures.add(executor.submit(new Chunk(f.duplicate(), in, out, i * threshold,
+            Math.min(in.length, (i + 1) * threshold))));
+      }
+      new Chunk(f, in, out, 0, threshold).call();
+      for (Future<Object> future : futures)
+      {
+        future.get();
+      }
+      done = true;
+    }
+    catch (InterruptedException e)
+    {
+      // Restore interrupted state
+      Thread.currentThread().interrupt();
+      throw new FunctionException(e);
+    }
+    catch (ExecutionException e)
+    {
+      if (e.getCause() instanceof RuntimeException)
+      {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new FunctionException(e.getCause());
+    }
+    finally
+    {
+      if (!done)
+      {
+        for (Future<Object> future : futures)
+        {
+          future.cancel(true);
+        }
+      }
+    }
+    return out;
+  }
+
+  /**
+   * The evaluation of a function on a range of elements of an array
+   */
+  protected static class Chunk implements Callable<Object>
+  {
+    /**
+     * The function to evaluate
+     */
+    protected final Function m_function;
+
+    /**
+     * The elements
+     */
+    protected final Object[] m_in;
+
+    /**
+     * The array where the value for each element is written
+     */
+    protected final Object[] m_out;
+
+    /**
+     * The position of the first element of the range
+     */
+    protected final int m_from;
+
+    /**
+     * The position after the last element of the range
+     */
+    protected final int m_to;
+
+    Chunk(Function f, Object[] in, Object[] out, int from, int to)
+    {
+      super();
+      m_function = f;
+      m_in = in;
+      m_out = out;
+      m_from = from;
+      m_to = to;
+    }
+
+    @Override
+    public Object call()
+    {
+      // The same arrays are used for every element
+      Object[] in = new Object[1];
+      Object[] values = new Object[1];
+      for (int i = m_from; i < m_to; i++)
+      {
+        in[0] = m_in[i];
+        m_function.evaluate(in, values);
+        m_out[i] = values[0];
+      }
+      return null;
+    }
+  }
+
   /**
    * Converts an object into an array
    * 
@@ -0,0 +1,511 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.util;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.UniformProcessor;
+import ca.uqac.lif.cep.functions.BinaryFunction;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Estimates the number of occurrences of each element in a stream, using a
+ * fixed amount of memory. A Count-Min sketch is a table of counters with
+ * <i>d</i> rows of <i>w</i> columns. Each row has its own hash function; an
+ * element increments one counter in each row, and its frequency is estimated
+ * as the smallest of these counters. The estimate is never below the actual
+ * frequency; it exceeds it by at most &epsilon;<i>n</i> with probability
+ * 1&minus;&delta;, where <i>n</i> is the number of elements added,
+ * <i>w</i>&nbsp;=&nbsp;&lceil;e/&epsilon;&rceil; and
+ * <i>d</i>&nbsp;=&nbsp;&lceil;ln(1/&delta;)&rceil;. Adding an element and
+ * estimating its frequency both take O(<i>d</i>) time.
+ * <p>
+ * Sketches of the same dimensions can be merged, by adding their counters.
+ * <p>
+ * This class also contains the functions and processors that handle sketches:
+ * <ul>
+ * <li>{@link PutInto} adds each input event to a sketch, and outputs the
+ * sketch</li>
+ * <li>{@link Count} adds each input event to a sketch, and outputs the
+ * estimated number of occurrences of that event so far</li>
+ * <li>{@link #frequency} is the estimated frequency of an element in a
+ * sketch, and {@link #union} the merge of two sketches</li>
+ * </ul>
+ *
+ * @author Sylvain Hallé
+ */
+public class CountMin implements Serializable
+{
+  /**
+   * Dummy UID
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The default relative error of a sketch
+   */
+  public static final double DEFAULT_EPSILON = 0.001;
+
+  /**
+   * The default probability that the error of an estimate exceeds the bound
+   */
+  public static final double DEFAULT_DELTA = 0.01;
+
+  /**
+   * A single instance of the {@link Frequency} function
+   */
+  public static final Frequency frequency = new Frequency();
+
+  /**
+   * A single instance of the {@link Union} function
+   */
+  public static final Union union = new Union();
+
+  /**
+   * The number of columns of the table
+   */
+  protected final int m_width;
+
+  /**
+   * The counters, row by row
+   */
+  protected final long[] m_counters;
+
+  /**
+   * The number of rows of the table
+   */
+  protected final int m_depth;
+
+  /**
+   * The number of elements added to the sketch
+   */
+  protected long m_total = 0;
+
+  /**
+   * Creates a new sketch with the default error bounds
+   */
+  public CountMin()
+  {
+    this(DEFAULT_EPSILON, DEFAULT_DELTA);
+  }
+
+  /**
+   * Creates a new sketch from error bounds
+   *
+   * @param epsilon
+   *          The maximum error of an estimate, relative to the number of
+   *          elements added
+   * @param delta
+   *          The probability that the error of an estimate exceeds this bound
+   */
+  public CountMin(double epsilon, double delta)
+  {
+    this((int) Math.ceil(Math.E / epsilon), (int) Math.ceil(Math.log(1 / delta)));
+  }
+
+  /**
+   * Creates a new sketch from its dimensions
+   *
+   * @param width
+   *          The number of columns of the table
+   * @param depth
+   *          The number of rows of the table
+   */
+  public CountMin(int width, int depth)
+  {
+    super();
+    if (width < 1 || depth < 1)
+    {
+      throw new IllegalArgumentException("Width and depth must be positive");
+    }
+    m_width = width;
+    m_depth = depth;
+    m_counters = new long[width * depth];
+  }
+
+  /**
+   * Gets the number of columns of the table
+   *
+   * @return The number of columns
+   */
+  public int getWidth()
+  {
+    return m_width;
+  }
+
+  /**
+   * Gets the number of rows of the table
+   *
+   * @return The number of rows
+   */
+  public int getDepth()
+  {
+    return m_depth;
+  }
+
+  /**
+   * Gets the number of elements added to the sketch
+   *
+   * @return The number of elements
+   */
+  public long getTotal()
+  {
+    return m_total;
+  }
+
+  /**
+   * Gets the largest amount by which an estimate exceeds the actual
+   * frequency of an element, with probability 1&minus;&delta;
+   *
+   * @return The error
+   */
+  public double getErrorBound()
+  {
+    return Math.E / m_width * m_total;
+  }
+
+  /**
+   * Adds an occurrence of an element to the sketch
+   *
+   * @param o
+   *          The element
+   * @return The estimated frequency of the element, including this
+   *         occurrence
+   */
+  public long add(/* @Null */ Object o)
+  {
+    return add(o, 1);
+  }
+
+  /**
+   * Adds occurrences of an element to the sketch
+   *
+   * @param o
+   *          The element
+   * @param count
+   *          The number of occurrences, which must not be negative
+   * @return The estimated frequency of the element, including these
+   *         occurrences
+   */
+  public long add(/* @Null */ Object o, long count)
+  {
+    long h = HyperLogLog.hash(o);
+    long min = Long.MAX_VALUE;
+    for (int i = 0; i < m_depth; i++)
+    {
+      int index = getIndex(h, i);
+      m_counters[index] += count;
+      min = Math.min(min, m_counters[index]);
+    }
+    m_total += count;
+    return min;
+  }
+
+  /**
+   * Estimates the number of occurrences of an element
+   *
+   * @param o
+   *          The element
+   * @return The estimate
+   */
+  public long estimate(/* @Null */ Object o)
+  {
+    long h = HyperLogLog.hash(o);
+    long min = Long.MAX_VALUE;
+    for (int i = 0; i < m_depth; i++)
+    {
+      min = Math.min(min, m_counters[getIndex(h, i)]);
+    }
+    return min;
+  }
+
+  /**
+   * Gets the counter of an element in a row of the table. The hash of each
+   * row is derived from the two halves of a single 64-bit hash.
+   *
+   * @param h
+   *          The hash of the element
+   * @param row
+   *          The row
+   * @return The index of the counter in {@link #m_counters}
+   */
+  protected int getIndex(long h, int row)
+  {
+    int h1 = (int) h;
+    int h2 = (int) (h >>> 32);
+    int combined = h1 + row * h2;
+    return row * m_width + (combined & 0x7fffffff) % m_width;
+  }
+
+  /**
+   * Merges another sketch into this one
+   *
+   * @param other
+   *          The other sketch, which must have the same dimensions
+   * @return This sketch
+   */
+  public CountMin merge(/* @NotNull */ CountMin other)
+  {
+    if (other.m_width != m_width || other.m_depth != m_depth)
+    {
+      throw new IllegalArgumentException("Cannot merge sketches of different dimensions");
+    }
+    for (int i = 0; i < m_counters.length; i++)
+    {
+      m_counters[i] += other.m_counters[i];
+    }
+    m_total += other.m_total;
+    return this;
+  }
+
+  /**
+   * Creates a copy of this sketch
+   *
+   * @return The copy
+   */
+  public CountMin copy()
+  {
+    CountMin c = new CountMin(m_width, m_depth);
+    c.merge(this);
+    return c;
+  }
+
+  /**
+   * Empties the sketch
+   */
+  public void clear()
+  {
+    Arrays.fill(m_counters, 0);
+    m_total = 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "CM(" + m_width + "x" + m_depth + ")";
+  }
+
+  /**
+   * Function that estimates the frequency of an element in a sketch. The
+   * first argument is the sketch, and the second is the element.
+   */
+  public static class Frequency extends BinaryFunction<CountMin, Object, Long>
+  {
+    protected Frequency()
+    {
+      super(CountMin.class, Object.class, Long.class);
+    }
+
+    @Override
+    public Long getValue(CountMin x, Object y)
+    {
+      return x.estimate(y);
+    }
+
+    @Override
+    public Frequency duplicate(boolean with_state)
+    {
+      return this;
+    }
+  }
+
+  /**
+   * Function that merges two sketches into a new one
+   */
+  public static class Union extends BinaryFunction<CountMin, CountMin, CountMin>
+  {
+    protected Union()
+    {
+      super(CountMin.class, CountMin.class, CountMin.class);
+    }
+
+    @Override
+    public CountMin getValue(CountMin x, CountMin y)
+    {
+      return x.copy().merge(y);
+    }
+
+    @Override
+    public Union duplicate(boolean with_state)
+    {
+      return this;
+    }
+  }
+
+  /**
+   * Processor that adds its input events to a sketch
+   */
+  protected abstract static class SketchProcessor extends UniformProcessor
+  {
+    /**
+     * The underlying sketch
+     */
+    protected CountMin m_sketch;
+
+    /**
+     * Creates a new instance of the processor
+     *
+     * @param sketch
+     *          The sketch, which must be empty
+     */
+    public SketchProcessor(/* @NotNull */ CountMin sketch)
+    {
+      super(1, 1);
+      m_sketch = sketch;
+    }
+
+    /**
+     * Gets the underlying sketch
+     *
+     * @return The sketch
+     */
+    public CountMin getSketch()
+    {
+      return m_sketch;
+    }
+
+    @Override
+    public void reset()
+    {
+      super.reset();
+      m_sketch.clear();
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeObject(m_sketch);
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_sketch = (CountMin) in.readObject();
+    }
+
+    /**
+     * Gets a new sketch for a copy of this processor
+     *
+     * @param with_state
+     *          Whether the new sketch should contain the elements of this one
+     * @return The sketch
+     */
+    protected CountMin newSketch(boolean with_state)
+    {
+      if (with_state)
+      {
+        return m_sketch.copy();
+      }
+      return new CountMin(m_sketch.m_width, m_sketch.m_depth);
+    }
+  }
+
+  /**
+   * Adds each input event to a sketch, and outputs the sketch. The same
+   * sketch object is output every time.
+   */
+  public static class PutInto extends SketchProcessor
+  {
+    /**
+     * Creates a new instance of the processor with the default error bounds
+     */
+    public PutInto()
+    {
+      this(new CountMin());
+    }
+
+    /**
+     * Creates a new instance of the processor
+     *
+     * @param sketch
+     *          The sketch to update, which must be empty
+     */
+    public PutInto(/* @NotNull */ CountMin sketch)
+    {
+      super(sketch);
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Object[] outputs)
+    {
+      m_sketch.add(inputs[0]);
+      outputs[0] = m_sketch;
+      return true;
+    }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return CountMin.class;
+    }
+
+    @Override
+    public PutInto duplicate(boolean with_state)
+    {
+      return new PutInto(newSketch(with_state));
+    }
+  }
+
+  /**
+   * Adds each input event to a sketch, and outputs the estimated number of
+   * occurrences of that event so far
+   */
+  public static class Count extends SketchProcessor
+  {
+    /**
+     * Creates a new instance of the processor with the default error bounds
+     */
+    public Count()
+    {
+      this(new CountMin());
+    }
+
+    /**
+     * Creates a new instance of the processor
+     *
+     * @param sketch
+     *          The sketch to update, which must be empty
+     */
+    public Count(/* @NotNull */ CountMin sketch)
+    {
+      super(sketch);
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Object[] outputs)
+    {
+      outputs[0] = m_sketch.add(inputs[0]);
+      return true;
+    }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return Long.class;
+    }
+
+    @Override
+    public Count duplicate(boolean with_state)
+    {
+      return new Count(newSketch(with_state));
+    }
+  }
+}
@@ -17,13 +17,23 @@
  */
 package ca.uqac.lif.cep.util;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.SingleProcessor;
+import java.io.IOException;
 import java.util.Queue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 /**
  * Extracts chunks of an input stream based on a regular expression.
+ * <p>
+ * The processor keeps a buffer of the characters received so far that could
+ * still be part of a match. When new characters arrive, matching resumes from
+ * the earliest position of this buffer where a match could still begin, and
+ * the characters that precede this position are discarded. A maximum size can
+ * be given to this buffer with {@link #setMaxBufferSize(int)}; when this
+ * size is exceeded, the contents of the buffer are either dropped or output
+ * as is (see {@link #emitOverflow(boolean)}).
  * 
  * @author Sylvain Hallé
  * @dictentry
@@ -33,18 +43,36 @@ public class FindPattern extends SingleProcessor
   /**
    * The buffered contents of the string received so far
    */
-  protected String m_contents;
+  protected StringBuilder m_contents;
 
   /**
    * The pattern to extract from the input stream
    */
   protected Pattern m_pattern;
 
+  /**
+   * A matcher for the pattern, reused across calls to
+   * {@link #compute(Object[], Queue)}
+   */
+  protected transient Matcher m_matcher;
+
   /**
    * Trims the pattern from leading and trailing spaces
    */
   protected boolean m_trim = true;
 
+  /**
+   * The maximum number of characters to keep in the buffer, or a negative
+   * value for no limit
+   */
+  protected int m_maxBufferSize = -1;
+
+  /**
+   * Whether the contents of the buffer are output when its maximum size is
+   * exceeded, rather than dropped
+   */
+  protected boolean m_emitOverflow = false;
+
   /**
    * Creates a new pattern scanner
    * 
@@ -65,8 +93,11 @@ public class FindPattern extends SingleProcessor
   public FindPattern(Pattern pattern)
   {
     super(1, 1);
-    m_contents = "";
+    m_contents = new StringBuilder();
     m_pattern = pattern;
+    m_matcher = pattern.matcher(m_contents);
+    m_matcher.useTransparentBounds(true);
+    m_matcher.useAnchoringBounds(false);
   }
 
   @Override
@@ -74,13 +105,37 @@ public class FindPattern extends SingleProcessor
   {
     FindPattern fp = new FindPattern(m_pattern);
     fp.m_trim = m_trim;
+    fp.m_maxBufferSize = m_maxBufferSize;
+    fp.m_emitOverflow = m_emitOverflow;
     if (with_state)
     {
-      fp.m_contents = new String(m_contents);
+      fp.m_contents.append(m_contents);
     }
     return fp;
   }
 
+  @Override
+  public void reset()
+  {
+    super.reset();
+    m_contents.setLength(0);
+  }
+
+  @Override
+  public void writeState(Checkpoint.Output out) throws IOException
+  {
+    super.writeState(out);
+    out.writeString(m_contents.toString());
+  }
+
+  @Override
+  public void readState(Checkpoint.Input in) throws IOException
+  {
+    super.readState(in);
+    m_contents.setLength(0);
+    m_contents.append(in.readString());
+  }
+
   /**
    * Sets whether to apply <tt>trim()</tt> to each output event
    * 
@@ -94,39 +149,82 @@ public class FindPattern extends SingleProcessor
     return this;
   }
 
+  /**
+   * Sets the maximum number of characters that can be kept in the buffer
+   * while waiting for a match to complete
+   * 
+   * @param size
+   *          The number of characters, or a negative value for no limit
+   *          (default)
+   * @return This scanner
+   */
+  public FindPattern setMaxBufferSize(int size)
+  {
+    m_maxBufferSize = size;
+    return this;
+  }
+
+  /**
+   * Sets what to do with the contents of the buffer when its maximum size is
+   * exceeded
+   * 
+   * @param b
+   *          Set to {@code true} to output these contents as an event,
+   *          {@code false} to drop them (default)
+   * @return This scanner
+   */
+  public FindPattern emitOverflow(boolean b)
+  {
+    m_emitOverflow = b;
+    return this;
+  }
+
   @Override
   protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
   {
-    m_contents += (String) inputs[0];
-    Matcher mat = m_pattern.matcher(m_contents);
+    m_contents.append((String) inputs[0]);
+    Matcher mat = m_matcher;
+    int length = m_contents.length();
+    mat.reset(m_contents);
     int last_end = 0;
     while (mat.find())
     {
-      if (mat.groupCount() > 0)
+      int group = mat.groupCount() > 0 ? 1 : 0;
+      if (m_trim)
       {
-        if (m_trim)
-        {
-          outputs.add(new Object[] { mat.group(1).trim() });
-        }
-        else
-        {
-          outputs.add(new Object[] { mat.group(1) });
-        }
+        outputs.add(new Object[] { mat.group(group).trim() });
       }
       else
       {
-        if (m_trim)
-        {
-          outputs.add(new Object[] { mat.group(0).trim() });
-        }
-        else
+        outputs.add(new Object[] { mat.group(group) });
+      }
+      last_end = mat.end();
+    }
+    // Find the first position where a match could still begin once more
+    // characters are received. If the last search did not reach the end of
+    // the buffer, no such position exists.
+    int keep_from = length;
+    if (mat.hitEnd())
+    {
+      for (int pos = last_end; pos < length; pos++)
+      {
+        mat.region(pos, length);
+        if (mat.lookingAt() || mat.hitEnd())
         {
-          outputs.add(new Object[] { mat.group(0) });
+          keep_from = pos;
+          break;
         }
       }
-      last_end = mat.end();
     }
-    m_contents = m_contents.substring(last_end);
+    m_contents.delete(0, keep_from);
+    if (m_maxBufferSize >= 0 && m_contents.length() > m_maxBufferSize)
+    {
+      if (m_emitOverflow)
+      {
+        outputs.add(new Object[] { m_contents.toString() });
+      }
+      m_contents.setLength(0);
+    }
     return true;
   }
 }
@@ -0,0 +1,858 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.util;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.UniformProcessor;
+import ca.uqac.lif.cep.functions.BinaryFunction;
+import ca.uqac.lif.cep.functions.UnaryFunction;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Estimates the number of distinct elements in a stream, using a fixed amount
+ * of memory. Counting distinct elements exactly, as a {@link Sets.PutInto}
+ * followed by a {@link Size} does, requires keeping every element seen so
+ * far. A HyperLogLog sketch instead keeps 2<sup><i>p</i></sup> small
+ * registers, where <i>p</i> is the <em>precision</em> of the sketch. Each
+ * element is hashed, and the register given by the first <i>p</i> bits of
+ * the hash keeps the longest run of leading zeros seen in the remaining bits.
+ * The number of distinct elements is estimated from these registers, with a
+ * relative standard error of about 1.04/&radic;2<sup><i>p</i></sup>; with the
+ * default precision of 12, this is 1.6% for 4 KB of memory.
+ * <p>
+ * Two sketches of the same precision can be merged: the result is the sketch
+ * of the union of their elements. Sketches can therefore be computed
+ * separately, for example for each slice of a {@link ca.uqac.lif.cep.tmf.Slice
+ * Slice}, and combined afterwards with the {@link #union} function.
+ * <p>
+ * This class also contains the functions and processors that handle sketches:
+ * <ul>
+ * <li>{@link PutInto} adds each input event to a sketch, and outputs the
+ * sketch</li>
+ * <li>{@link Count} adds each input event to a sketch, and outputs the
+ * estimated number of distinct events so far</li>
+ * <li>{@link WindowCount} outputs the estimated number of distinct events
+ * among the last <i>n</i> events</li>
+ * <li>{@link #cardinality} is the estimated number of distinct elements of a
+ * sketch, and {@link #union} the merge of two sketches</li>
+ * </ul>
+ *
+ * @author Sylvain Hallé
+ */
+public class HyperLogLog implements Serializable
+{
+  /**
+   * Dummy UID
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The default precision of a sketch
+   */
+  public static final int DEFAULT_PRECISION = 12;
+
+  /**
+   * The smallest precision of a sketch
+   */
+  public static final int MIN_PRECISION = 4;
+
+  /**
+   * The largest precision of a sketch
+   */
+  public static final int MAX_PRECISION = 18;
+
+  /**
+   * A single instance of the {@link Cardinality} function
+   */
+  public static final Cardinality cardinality = new Cardinality();
+
+  /**
+   * A single instance of the {@link Union} function
+   */
+  public static final Union union = new Union();
+
+  /**
+   * The precision of the sketch
+   */
+  protected final int m_precision;
+
+  /**
+   * The registers of the sketch
+   */
+  protected final byte[] m_registers;
+
+  /**
+   * For each register value, the number of registers that have that value
+   */
+  protected final int[] m_histogram;
+
+  /**
+   * Creates a new sketch with the default precision
+   */
+  public HyperLogLog()
+  {
+    this(DEFAULT_PRECISION);
+  }
+
+  /**
+   * Creates a new sketch
+   *
+   * @param precision
+   *          The precision, between {@link #MIN_PRECISION} and
+   *          {@link #MAX_PRECISION}. The sketch has 2<sup><i>p</i></sup>
+   *          registers.
+   */
+  public HyperLogLog(int precision)
+  {
+    super();
+    if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+    {
+      throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION + " and "
+          + MAX_PRECISION);
+    }
+    m_precision = precision;
+    m_registers = new byte[1 << precision];
+    m_histogram = new int[66 - precision];
+    m_histogram[0] = m_registers.length;
+  }
+
+  /**
+   * Gets the precision of the sketch
+   *
+   * @return The precision
+   */
+  public int getPrecision()
+  {
+    return m_precision;
+  }
+
+  /**
+   * Gets the relative standard error of the estimates of this sketch
+   *
+   * @return The error
+   */
+  public double getStandardError()
+  {
+    return 1.04 / Math.sqrt(m_registers.length);
+  }
+
+  /**
+   * Adds an element to the sketch
+   *
+   * @param o
+   *          The element
+   * @return {@code true} if the sketch has changed, {@code false} otherwise
+   */
+  public boolean add(/* @Null */ Object o)
+  {
+    return addHash(hash(o));
+  }
+
+  /**
+   * Adds to the sketch an element given by its 64-bit hash
+   *
+   * @param h
+   *          The hash
+   * @return {@code true} if the sketch has changed, {@code false} otherwise
+   */
+  public boolean addHash(long h)
+  {
+    int index = getRegister(h, m_precision);
+    int rho = getRank(h, m_precision);
+    if (rho <= m_registers[index])
+    {
+      return false;
+    }
+    setRegister(index, rho);
+    return true;
+  }
+
+  /**
+   * Sets the value of a register, and updates the histogram
+   *
+   * @param index
+   *          The index of the register
+   * @param value
+   *          The value
+   */
+  protected void setRegister(int index, int value)
+  {
+    m_histogram[m_registers[index]]--;
+    m_histogram[value]++;
+    m_registers[index] = (byte) value;
+  }
+
+  /**
+   * Estimates the number of distinct elements added to the sketch
+   *
+   * @return The estimate
+   */
+  public long estimate()
+  {
+    return estimate(m_histogram, m_registers.length);
+  }
+
+  /**
+   * Merges another sketch into this one. This sketch then estimates the
+   * number of distinct elements added to either of them.
+   *
+   * @param other
+   *          The other sketch, which must have the same precision
+   * @return This sketch
+   */
+  public HyperLogLog merge(/* @NotNull */ HyperLogLog other)
+  {
+    if (other.m_precision != m_precision)
+    {
+      throw new IllegalArgumentException("Cannot merge sketches of different precisions");
+    }
+    for (int i = 0; i < m_registers.length; i++)
+    {
+      if (other.m_registers[i] > m_registers[i])
+      {
+        setRegister(i, other.m_registers[i]);
+      }
+    }
+    return this;
+  }
+
+  /**
+   * Creates a copy of this sketch
+   *
+   * @return The copy
+   */
+  public HyperLogLog copy()
+  {
+    HyperLogLog h = new HyperLogLog(m_precision);
+    h.merge(this);
+    return h;
+  }
+
+  /**
+   * Empties the sketch
+   */
+  public void clear()
+  {
+    Arrays.fill(m_registers, (byte) 0);
+    Arrays.fill(m_histogram, 0);
+    m_histogram[0] = m_registers.length;
+  }
+
+  /**
+   * Gets a copy of the registers of the sketch
+   *
+   * @return The registers
+   */
+  public byte[] getRegisters()
+  {
+    return m_registers.clone();
+  }
+
+  /**
+   * Replaces the registers of the sketch
+   *
+   * @param registers
+   *          The registers, as returned by {@link #getRegisters()} on a
+   *          sketch of the same precision
+   */
+  public void setRegisters(/* @NotNull */ byte[] registers)
+  {
+    clear();
+    for (int i = 0; i < m_registers.length; i++)
+    {
+      setRegister(i, registers[i]);
+    }
+  }
+
+  @Override
+  public String toString()
+  {
+    return "HLL(" + estimate() + ")";
+  }
+
+  /**
+   * Computes a 64-bit hash of an object. Strings and integral numbers are
+   * hashed on their whole value; other objects are hashed from their
+   * {@link Object#hashCode() hashCode()}. In all cases, the bits are then
+   * mixed, so that the hashes of similar objects are unrelated.
+   *
+   * @param o
+   *          The object
+   * @return The hash
+   */
+  public static long hash(/* @Null */ Object o)
+  {
+    long h;
+    if (o == null)
+    {
+      h = 0;
+    }
+    else if (o instanceof CharSequence)
+    {
+      // 64-bit FNV-1a
+      CharSequence s = (CharSequence) o;
+      h = 0xcbf29ce484222325L;
+      for (int i = 0; i < s.length(); i++)
+      {
+        h ^= s.charAt(i);
+        h *= 0x100000001b3L;
+      }
+    }
+    else if (o instanceof Long || o instanceof Integer || o instanceof Short
+        || o instanceof Byte)
+    {
+      h = ((Number) o).longValue();
+    }
+    else if (o instanceof Double || o instanceof Float)
+    {
+      h = Double.doubleToLongBits(((Number) o).doubleValue());
+    }
+    else
+    {
+      h = o.hashCode();
+    }
+    // Finalization step of MurmurHash3
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /**
+   * Gets the register an element is assigned to
+   *
+   * @param h
+   *          The hash of the element
+   * @param precision
+   *          The precision of the sketch
+   * @return The index of the register
+   */
+  protected static int getRegister(long h, int precision)
+  {
+    return (int) (h >>> (64 - precision));
+  }
+
+  /**
+   * Gets the position of the first 1 bit in the part of a hash that does not
+   * determine the register
+   *
+   * @param h
+   *          The hash of the element
+   * @param precision
+   *          The precision of the sketch
+   * @return The position, starting at 1
+   */
+  protected static int getRank(long h, int precision)
+  {
+    return Long.numberOfLeadingZeros((h << precision) | (1L << (precision - 1))) + 1;
+  }
+
+  /**
+   * Estimates a number of distinct elements from the values of the registers
+   *
+   * @param histogram
+   *          For each register value, the number of registers that have that
+   *          value
+   * @param m
+   *          The number of registers
+   * @return The estimate
+   */
+  protected static long estimate(int[] histogram, int m)
+  {
+    double sum = 0;
+    for (int i = histogram.length - 1; i >= 0; i--)
+    {
+      sum = (sum + histogram[i]) / 2;
+    }
+    // The loop divides the register of value 0 by 2 as well
+    sum *= 2;
+    double alpha;
+    switch (m)
+    {
+      case 16:
+        alpha = 0.673;
+        break;
+      case 32:
+        alpha = 0.697;
+        break;
+      case 64:
+        alpha = 0.709;
+        break;
+      default:
+        alpha = 0.7213 / (1 + 1.079 / m);
+    }
+    double e = alpha * m * m / sum;
+    int zeros = histogram[0];
+    if (e <= 2.5 * m && zeros > 0)
+    {
+      // Small range correction: linear counting
+      e = m * Math.log((double) m / zeros);
+    }
+    return Math.round(e);
+  }
+
+  /**
+   * Function that estimates the number of distinct elements of a sketch
+   */
+  public static class Cardinality extends UnaryFunction<HyperLogLog, Long>
+  {
+    protected Cardinality()
+    {
+      super(HyperLogLog.class, Long.class);
+    }
+
+    @Override
+    public Long getValue(HyperLogLog x)
+    {
+      return x.estimate();
+    }
+
+    @Override
+    public Cardinality duplicate(boolean with_state)
+    {
+      return this;
+    }
+  }
+
+  /**
+   * Function that merges two sketches into a new one
+   */
+  public static class Union extends BinaryFunction<HyperLogLog, HyperLogLog, HyperLogLog>
+  {
+    protected Union()
+    {
+      super(HyperLogLog.class, HyperLogLog.class, HyperLogLog.class);
+    }
+
+    @Override
+    public HyperLogLog getValue(HyperLogLog x, HyperLogLog y)
+    {
+      return x.copy().merge(y);
+    }
+
+    @Override
+    public Union duplicate(boolean with_state)
+    {
+      return this;
+    }
+  }
+
+  /**
+   * Processor that adds its input events to a sketch
+   */
+  protected abstract static class SketchProcessor extends UniformProcessor
+  {
+    /**
+     * The underlying sketch
+     */
+    protected HyperLogLog m_sketch;
+
+    /**
+     * Creates a new instance of the processor
+     *
+     * @param precision
+     *          The precision of the sketch
+     */
+    public SketchProcessor(int precision)
+    {
+      super(1, 1);
+      m_sketch = new HyperLogLog(precision);
+    }
+
+    /**
+     * Gets the underlying sketch
+     *
+     * @return The sketch
+     */
+    public HyperLogLog getSketch()
+    {
+      return m_sketch;
+    }
+
+    @Override
+    public void reset()
+    {
+      super.reset();
+      m_sketch.clear();
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeObject(m_sketch.m_registers);
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_sketch.setRegisters((byte[]) in.readObject());
+    }
+  }
+
+  /**
+   * Adds each input event to a sketch, and outputs the sketch. As with
+   * {@link Sets.PutInto}, the same sketch object is output every time.
+   */
+  public static class PutInto extends SketchProcessor
+  {
+    /**
+     * Creates a new instance of the processor with the default precision
+     */
+    public PutInto()
+    {
+      this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a new instance of the processor
+     *
+     * @param precision
+     *          The precision of the sketch
+     */
+    public PutInto(int precision)
+    {
+      super(precision);
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Object[] outputs)
+    {
+      m_sketch.add(inputs[0]);
+      outputs[0] = m_sketch;
+      return true;
+    }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return HyperLogLog.class;
+    }
+
+    @Override
+    public PutInto duplicate(boolean with_state)
+    {
+      PutInto p = new PutInto(m_sketch.m_precision);
+      if (with_state)
+      {
+        p.m_sketch.merge(m_sketch);
+      }
+      return p;
+    }
+  }
+
+  /**
+   * Adds each input event to a sketch, and outputs the estimated number of
+   * distinct events received so far
+   */
+  public static class Count extends SketchProcessor
+  {
+    /**
+     * Creates a new instance of the processor with the default precision
+     */
+    public Count()
+    {
+      this(DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a new instance of the processor
+     *
+     * @param precision
+     *          The precision of the sketch
+     */
+    public Count(int precision)
+    {
+      super(precision);
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Object[] outputs)
+    {
+      m_sketch.add(inputs[0]);
+      outputs[0] = m_sketch.estimate();
+      return true;
+    }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return Long.class;
+    }
+
+    @Override
+    public Count duplicate(boolean with_state)
+    {
+      Count c = new Count(m_sketch.m_precision);
+      if (with_state)
+      {
+        c.m_sketch.merge(m_sketch);
+      }
+      return c;
+    }
+  }
+
+  /**
+   * Outputs the estimated number of distinct events among the last <i>n</i>
+   * events received. The result is the same as that of a
+   * {@link ca.uqac.lif.cep.tmf.Window Window} of width <i>n</i> around a
+   * {@link Count}, but each event is processed in constant expected time,
+   * rather than by recomputing a sketch over the whole window.
+   * <p>
+   * For this, each register keeps, instead of a single value, the list of
+   * values that can still become its maximum as older events leave the
+   * window: a value is dropped as soon as a more recent event brings a value
+   * at least as large. Such a list holds a few entries on average. The
+   * processor also remembers the register of each of the last <i>n</i>
+   * events, so that their contribution can be removed when they leave the
+   * window.
+   */
+  public static class WindowCount extends UniformProcessor
+  {
+    /**
+     * The width of the window
+     */
+    protected final int m_width;
+
+    /**
+     * The precision of the sketch
+     */
+    protected final int m_precision;
+
+    /**
+     * For each register, the values that can still become its maximum,
+     * encoded as the position of the event followed by 8 bits for the value
+     */
+    protected final ArrayDeque<Long>[] m_candidates;
+
+    /**
+     * For each register value, the number of registers that have that value
+     */
+    protected final int[] m_histogram;
+
+    /**
+     * The register of each of the last events, indexed by their position
+     * modulo the width of the window
+     */
+    protected final int[] m_ring;
+
+    /**
+     * The position of the next event
+     */
+    protected long m_position = 0;
+
+    /**
+     * Creates a new instance of the processor with the default precision
+     *
+     * @param width
+     *          The width of the window
+     */
+    public WindowCount(int width)
+    {
+      this(width, DEFAULT_PRECISION);
+    }
+
+    /**
+     * Creates a new instance of the processor
+     *
+     * @param width
+     *          The width of the window
+     * @param precision
+     *          The precision of the sketch
+     */
+    @SuppressWarnings("unchecked")
+    public WindowCount(int width, int precision)
+    {
+      super(1, 1);
+      if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+      {
+        throw new IllegalArgumentException("Precision must be between " + MIN_PRECISION
+            + " and " + MAX_PRECISION);
+      }
+      m_width = Math.max(1, width);
+      m_precision = precision;
+      m_candidates = new ArrayDeque[1 << precision];
+      m_histogram = new int[66 - precision];
+      m_histogram[0] = m_candidates.length;
+      m_ring = new int[m_width];
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Object[] outputs)
+    {
+      if (m_position >= m_width)
+      {
+        // Remove the contribution of the event leaving the window
+        long old = m_position - m_width;
+        int index = m_ring[(int) (old % m_width)];
+        ArrayDeque<Long> list = m_candidates[index];
+        if (!list.isEmpty() && list.peekFirst() >>> 8 == old)
+        {
+          int before = getMax(list);
+          list.removeFirst();
+          updateHistogram(before, getMax(list));
+        }
+      }
+      long h = hash(inputs[0]);
+      int index = getRegister(h, m_precision);
+      int rho = getRank(h, m_precision);
+      ArrayDeque<Long> list = m_candidates[index];
+      if (list == null)
+      {
+        list = new ArrayDeque<Long>(4);
+        m_candidates[index] = list;
+      }
+      int before = getMax(list);
+      while (!list.isEmpty() && (list.peekLast() & 0xff) <= rho)
+      {
+        // Older values no larger than this one can never be the maximum
+        list.removeLast();
+      }
+      list.addLast((m_position << 8) | rho);
+      updateHistogram(before, getMax(list));
+      m_ring[(int) (m_position % m_width)] = index;
+      m_position++;
+      outputs[0] = estimate(m_histogram, m_candidates.length);
+      return true;
+    }
+
+    /**
+     * Gets the current value of a register
+     *
+     * @param list
+     *          The values that can become the maximum of the register
+     * @return The value
+     */
+    protected static int getMax(ArrayDeque<Long> list)
+    {
+      if (list.isEmpty())
+      {
+        return 0;
+      }
+      return (int) (list.peekFirst() & 0xff);
+    }
+
+    /**
+     * Updates the histogram when the value of a register changes
+     *
+     * @param before
+     *          The value before the change
+     * @param after
+     *          The value after the change
+     */
+    protected void updateHistogram(int before, int after)
+    {
+      m_histogram[before]--;
+      m_histogram[after]++;
+    }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return Long.class;
+    }
+
+    @Override
+    public void reset()
+    {
+      super.reset();
+      clearWindow();
+    }
+
+    /**
+     * Empties the window
+     */
+    protected void clearWindow()
+    {
+      Arrays.fill(m_candidates, null);
+      Arrays.fill(m_histogram, 0);
+      m_histogram[0] = m_candidates.length;
+      m_position = 0;
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeLong(m_position);
+      int in_window = (int) Math.min(m_position, m_width);
+      for (int i = 0; i < in_window; i++)
+      {
+        out.writeInt(m_ring[(int) ((m_position - in_window + i) % m_width)]);
+      }
+      for (ArrayDeque<Long> list : m_candidates)
+      {
+        if (list == null)
+        {
+          out.writeInt(0);
+          continue;
+        }
+        out.writeInt(list.size());
+        for (long c : list)
+        {
+          out.writeLong(c);
+        }
+      }
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      clearWindow();
+      m_position = in.readLong();
+      int in_window = (int) Math.min(m_position, m_width);
+      for (int i = 0; i < in_window; i++)
+      {
+        m_ring[(int) ((m_position - in_window + i) % m_width)] = in.readInt();
+      }
+      for (int i = 0; i < m_candidates.length; i++)
+      {
+        int size = in.readInt();
+        if (size == 0)
+        {
+          continue;
+        }
+        ArrayDeque<Long> list = new ArrayDeque<Long>(size);
+        for (int j = 0; j < size; j++)
+        {
+          list.addLast(in.readLong());
+        }
+        m_candidates[i] = list;
+        updateHistogram(0, getMax(list));
+      }
+    }
+
+    @Override
+    public WindowCount duplicate(boolean with_state)
+    {
+      WindowCount w = new WindowCount(m_width, m_precision);
+      if (with_state)
+      {
+        Checkpoint.copyState(this, w);
+      }
+      return w;
+    }
+  }
+}
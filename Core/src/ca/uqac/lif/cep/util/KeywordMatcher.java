@@ -0,0 +1,364 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Queue;
+
+/**
+ * Finds occurrences of a fixed set of keywords in a string, using the
+ * Aho-Corasick algorithm. The set of keywords is compiled once into an
+ * automaton; each string is then scanned in a single pass, whatever the
+ * number of keywords.
+ * <p>
+ * Keywords are identified by their position in the array given to the
+ * constructor. An instance of this class is immutable, and can be shared
+ * between threads.
+ *
+ * @author Sylvain Hallé
+ */
+public class KeywordMatcher
+{
+  /**
+   * The keywords to look for
+   */
+  protected final String[] m_keywords;
+
+  /**
+   * Whether the comparison ignores case
+   */
+  protected final boolean m_ignoreCase;
+
+  /**
+   * For each state, the characters labelling its outgoing transitions, in
+   * ascending order
+   */
+  protected final char[][] m_labels;
+
+  /**
+   * For each state, the targets of its outgoing transitions, in the same order
+   * as in {@link #m_labels}
+   */
+  protected final int[][] m_targets;
+
+  /**
+   * For each state, the state to go to when no transition matches
+   */
+  protected final int[] m_fail;
+
+  /**
+   * For each state, the ids of the keywords that end at that state
+   */
+  protected final int[][] m_outputs;
+
+  /**
+   * Creates a new keyword matcher
+   *
+   * @param ignore_case
+   *          Set to {@code true} to ignore case when comparing characters
+   * @param keywords
+   *          The keywords to look for
+   */
+  public KeywordMatcher(boolean ignore_case, String ... keywords)
+  {
+    super();
+    m_keywords = keywords;
+    m_ignoreCase = ignore_case;
+    // Build the trie
+    List<StringBuilder> labels = new ArrayList<StringBuilder>();
+    List<List<Integer>> targets = new ArrayList<List<Integer>>();
+    List<List<Integer>> outputs = new ArrayList<List<Integer>>();
+    labels.add(new StringBuilder());
+    targets.add(new ArrayList<Integer>());
+    outputs.add(new ArrayList<Integer>());
+    for (int k = 0; k < keywords.length; k++)
+    {
+      String word = keywords[k];
+      int state = 0;
+      for (int i = 0; i < word.length(); i++)
+      {
+        char c = normalize(word.charAt(i));
+        int pos = labels.get(state).indexOf(String.valueOf(c));
+        if (pos >= 0)
+        {
+          state = targets.get(state).get(pos);
+        }
+        else
+        {
+          int new_state = labels.size();
+          labels.add(new StringBuilder());
+          targets.add(new ArrayList<Integer>());
+          outputs.add(new ArrayList<Integer>());
+          labels.get(state).append(c);
+          targets.get(state).add(new_state);
+          state = new_state;
+        }
+      }
+      outputs.get(state).add(k);
+    }
+    int num_states = labels.size();
+    m_labels = new char[num_states][];
+    m_targets = new int[num_states][];
+    m_fail = new int[num_states];
+    m_outputs = new int[num_states][];
+    for (int s = 0; s < num_states; s++)
+    {
+      // Sort the transitions of each state by label
+      char[] l = labels.get(s).toString().toCharArray();
+      List<Integer> t = targets.get(s);
+      Integer[] order = new Integer[l.length];
+      for (int i = 0; i < l.length; i++)
+      {
+        order[i] = i;
+      }
+      final char[] unsorted = l;
+      Arrays.sort(order, new Comparator<Integer>()
+      {
+        @Override
+        public int compare(Integer o1, Integer o2)
+        {
+          return unsorted[o1] - unsorted[o2];
+        }
+      });
+      m_labels[s] = new char[l.length];
+      m_targets[s] = new int[l.length];
+      for (int i = 0; i < l.length; i++)
+      {
+        m_labels[s][i] = unsorted[order[i]];
+        m_targets[s][i] = t.get(order[i]);
+      }
+    }
+    // Compute failure links and merged outputs in breadth-first order
+    Queue<Integer> queue = new ArrayDeque<Integer>();
+    for (int child : m_targets[0])
+    {
+      m_fail[child] = 0;
+      queue.add(child);
+    }
+    m_outputs[0] = toArray(outputs.get(0));
+    while (!queue.isEmpty())
+    {
+      int s = queue.remove();
+      List<Integer> out = outputs.get(s);
+      for (int i = 0; i < m_labels[s].length; i++)
+      {
+        char c = m_labels[s][i];
+        int child = m_targets[s][i];
+        int f = m_fail[s];
+        while (f != 0 && transition(f, c) < 0)
+        {
+          f = m_fail[f];
+        }
+        int next = transition(f, c);
+        m_fail[child] = next >= 0 && next != child ? next : 0;
+        queue.add(child);
+      }
+      // The failure state is closer to the root, so its outputs are final
+      if (s != 0)
+      {
+        for (int k : m_outputs[m_fail[s]])
+        {
+          out.add(k);
+        }
+      }
+      m_outputs[s] = toArray(out);
+    }
+  }
+
+  /**
+   * Creates a new case-sensitive keyword matcher
+   *
+   * @param keywords
+   *          The keywords to look for
+   */
+  public KeywordMatcher(String ... keywords)
+  {
+    this(false, keywords);
+  }
+
+  /**
+   * Gets the keywords this matcher looks for
+   *
+   * @return The keywords
+   */
+  public String[] getKeywords()
+  {
+    return m_keywords;
+  }
+
+  /**
+   * Determines if at least one of the keywords occurs in a string. The scan
+   * stops at the first occurrence found.
+   *
+   * @param s
+   *          The string
+   * @return {@code true} if a keyword occurs in the string, {@code false}
+   *         otherwise
+   */
+  public boolean containsAny(/* @NotNull */ CharSequence s)
+  {
+    if (m_outputs[0].length > 0)
+    {
+      // The empty string is a keyword
+      return true;
+    }
+    int state = 0;
+    for (int i = 0; i < s.length(); i++)
+    {
+      state = next(state, normalize(s.charAt(i)));
+      if (m_outputs[state].length > 0)
+      {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Finds the keywords that occur in a string.
+   *
+   * @param s
+   *          The string
+   * @return A bit set, where the bit at index <i>k</i> is set if the
+   *         <i>k</i>-th keyword occurs in the string
+   */
+  public /* @NotNull */ BitSet find(/* @NotNull */ CharSequence s)
+  {
+    BitSet found = new BitSet(m_keywords.length);
+    addAll(found, m_outputs[0]);
+    int state = 0;
+    for (int i = 0; i < s.length(); i++)
+    {
+      state = next(state, normalize(s.charAt(i)));
+      addAll(found, m_outputs[state]);
+    }
+    return found;
+  }
+
+  /**
+   * Computes the state reached from a state when reading a character,
+   * following failure links if necessary
+   *
+   * @param state
+   *          The current state
+   * @param c
+   *          The character
+   * @return The next state
+   */
+  protected final int next(int state, char c)
+  {
+    for (;;)
+    {
+      int t = transition(state, c);
+      if (t >= 0)
+      {
+        return t;
+      }
+      if (state == 0)
+      {
+        return 0;
+      }
+      state = m_fail[state];
+    }
+  }
+
+  /**
+   * Gets the target of the transition labelled by a character in the trie
+   *
+   * @param state
+   *          The state
+   * @param c
+   *          The character
+   * @return The target state, or -1 if there is no such transition
+   */
+  protected final int transition(int state, char c)
+  {
+    char[] labels = m_labels[state];
+    if (labels.length < 8)
+    {
+      for (int i = 0; i < labels.length; i++)
+      {
+        if (labels[i] == c)
+        {
+          return m_targets[state][i];
+        }
+      }
+      return -1;
+    }
+    int pos = Arrays.binarySearch(labels, c);
+    if (pos < 0)
+    {
+      return -1;
+    }
+    return m_targets[state][pos];
+  }
+
+  /**
+   * Converts a character to the form used in the automaton
+   *
+   * @param c
+   *          The character
+   * @return The converted character
+   */
+  protected final char normalize(char c)
+  {
+    if (m_ignoreCase)
+    {
+      return Character.toLowerCase(Character.toUpperCase(c));
+    }
+    return c;
+  }
+
+  /**
+   * Sets the bits of a bit set at the given positions
+   *
+   * @param set
+   *          The bit set
+   * @param indices
+   *          The positions
+   */
+  protected static void addAll(BitSet set, int[] indices)
+  {
+    for (int k : indices)
+    {
+      set.set(k);
+    }
+  }
+
+  /**
+   * Converts a list of integers into an array
+   *
+   * @param list
+   *          The list
+   * @return The array
+   */
+  protected static int[] toArray(List<Integer> list)
+  {
+    int[] a = new int[list.size()];
+    for (int i = 0; i < a.length; i++)
+    {
+      a[i] = list.get(i);
+    }
+    return a;
+  }
+}
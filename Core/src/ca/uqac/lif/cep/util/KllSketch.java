@@ -0,0 +1,560 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.util;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.UniformProcessor;
+import ca.uqac.lif.cep.functions.BinaryFunction;
+import ca.uqac.lif.cep.functions.UnaryFunction;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Estimates the quantiles of a stream of numbers, using a bounded amount of
+ * memory. Computing a percentile exactly requires keeping and sorting all the
+ * values. A KLL sketch instead keeps a hierarchy of <em>compactors</em>: the
+ * values first go to the lowest one, and when a compactor is full, its values
+ * are sorted and every other one is promoted to the next compactor, where it
+ * stands for twice as many values. The capacity of the compactors decreases
+ * geometrically towards the bottom, so that the sketch holds O(<i>k</i>)
+ * values in total, and each value is processed in constant amortized time.
+ * <p>
+ * The parameter <i>k</i> determines the accuracy of the sketch: the rank of
+ * the value returned for a quantile <i>q</i> is within
+ * &plusmn;&epsilon;<i>n</i> of <i>qn</i>, where &epsilon; is given by
+ * {@link #getNormalizedRankError()}; for the default <i>k</i> of 200, it is
+ * about 1.3%. Sketches with the same <i>k</i> can be merged, for example to
+ * combine the sketches computed for each slice of a
+ * {@link ca.uqac.lif.cep.tmf.Slice Slice}.
+ * <p>
+ * This class also contains the functions and processors that handle sketches:
+ * <ul>
+ * <li>{@link PutInto} adds each input number to a sketch, and outputs the
+ * sketch</li>
+ * <li>{@link GetQuantile} returns the estimated quantile of a sketch</li>
+ * <li>{@link #union} merges two sketches</li>
+ * </ul>
+ *
+ * @author Sylvain Hallé
+ */
+public class KllSketch implements Serializable
+{
+  /**
+   * Dummy UID
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The default value of <i>k</i>
+   */
+  public static final int DEFAULT_K = 200;
+
+  /**
+   * A single instance of the {@link Union} function
+   */
+  public static final Union union = new Union();
+
+  /**
+   * The ratio between the capacities of two successive compactors
+   */
+  protected static final double RATIO = 2d / 3d;
+
+  /**
+   * The capacity of the topmost compactor
+   */
+  protected final int m_k;
+
+  /**
+   * The values of each compactor, starting from the lowest one
+   */
+  protected double[][] m_levels;
+
+  /**
+   * The number of values in each compactor
+   */
+  protected int[] m_sizes;
+
+  /**
+   * The number of values added to the sketch
+   */
+  protected long m_count = 0;
+
+  /**
+   * The smallest value added to the sketch
+   */
+  protected double m_min = Double.NaN;
+
+  /**
+   * The largest value added to the sketch
+   */
+  protected double m_max = Double.NaN;
+
+  /**
+   * Decides which half of the values of a compactor is promoted. The seed is
+   * fixed, so that the same stream always gives the same sketch.
+   */
+  protected final Random m_random = new Random(0);
+
+  /**
+   * Creates a new sketch with the default value of <i>k</i>
+   */
+  public KllSketch()
+  {
+    this(DEFAULT_K);
+  }
+
+  /**
+   * Creates a new sketch
+   *
+   * @param k
+   *          The capacity of the topmost compactor, which determines the
+   *          accuracy of the sketch. Must be at least 8.
+   */
+  public KllSketch(int k)
+  {
+    super();
+    if (k < 8)
+    {
+      throw new IllegalArgumentException("k must be at least 8");
+    }
+    m_k = k;
+    m_levels = new double[][] { new double[k] };
+    m_sizes = new int[1];
+  }
+
+  /**
+   * Gets the value of <i>k</i> of this sketch
+   *
+   * @return <i>k</i>
+   */
+  public int getK()
+  {
+    return m_k;
+  }
+
+  /**
+   * Gets the number of values added to the sketch
+   *
+   * @return The number of values
+   */
+  public long getCount()
+  {
+    return m_count;
+  }
+
+  /**
+   * Gets the error on the rank of the quantiles estimated by this sketch,
+   * relative to the number of values, with a 99% confidence
+   *
+   * @return The error
+   */
+  public double getNormalizedRankError()
+  {
+    return 2.296 / Math.pow(m_k, 0.9723);
+  }
+
+  /**
+   * Adds a value to the sketch
+   *
+   * @param x
+   *          The value
+   */
+  public void add(double x)
+  {
+    if (Double.isNaN(x))
+    {
+      return;
+    }
+    if (m_count == 0)
+    {
+      m_min = x;
+      m_max = x;
+    }
+    else
+    {
+      m_min = Math.min(m_min, x);
+      m_max = Math.max(m_max, x);
+    }
+    m_count++;
+    append(0, x);
+    compress();
+  }
+
+  /**
+   * Estimates the value at a given quantile
+   *
+   * @param q
+   *          The quantile, between 0 and 1
+   * @return The value, or {@link Double#NaN} if the sketch is empty
+   */
+  public double getQuantile(double q)
+  {
+    if (m_count == 0)
+    {
+      return Double.NaN;
+    }
+    if (q <= 0)
+    {
+      return m_min;
+    }
+    if (q >= 1)
+    {
+      return m_max;
+    }
+    // Go through the values of all compactors in increasing order, each
+    // with the weight of its compactor
+    double[][] sorted = new double[m_levels.length][];
+    int[] heads = new int[m_levels.length];
+    for (int h = 0; h < m_levels.length; h++)
+    {
+      sorted[h] = Arrays.copyOf(m_levels[h], m_sizes[h]);
+      Arrays.sort(sorted[h]);
+    }
+    long target = (long) Math.ceil(q * m_count);
+    long weight = 0;
+    for (;;)
+    {
+      int min = -1;
+      for (int h = 0; h < sorted.length; h++)
+      {
+        if (heads[h] < sorted[h].length
+            && (min < 0 || sorted[h][heads[h]] < sorted[min][heads[min]]))
+        {
+          min = h;
+        }
+      }
+      if (min < 0)
+      {
+        return m_max;
+      }
+      double x = sorted[min][heads[min]++];
+      weight += 1L << min;
+      if (weight >= target)
+      {
+        return x;
+      }
+    }
+  }
+
+  /**
+   * Merges another sketch into this one
+   *
+   * @param other
+   *          The other sketch, which must have the same <i>k</i>
+   * @return This sketch
+   */
+  public KllSketch merge(/* @NotNull */ KllSketch other)
+  {
+    if (other.m_k != m_k)
+    {
+      throw new IllegalArgumentException("Cannot merge sketches with different values of k");
+    }
+    if (other.m_count == 0)
+    {
+      return this;
+    }
+    if (m_count == 0)
+    {
+      m_min = other.m_min;
+      m_max = other.m_max;
+    }
+    else
+    {
+      m_min = Math.min(m_min, other.m_min);
+      m_max = Math.max(m_max, other.m_max);
+    }
+    m_count += other.m_count;
+    for (int h = 0; h < other.m_levels.length; h++)
+    {
+      for (int i = 0; i < other.m_sizes[h]; i++)
+      {
+        append(h, other.m_levels[h][i]);
+      }
+    }
+    compress();
+    return this;
+  }
+
+  /**
+   * Creates a copy of this sketch
+   *
+   * @return The copy
+   */
+  public KllSketch copy()
+  {
+    KllSketch s = new KllSketch(m_k);
+    s.m_levels = new double[m_levels.length][];
+    for (int h = 0; h < m_levels.length; h++)
+    {
+      s.m_levels[h] = m_levels[h].clone();
+    }
+    s.m_sizes = m_sizes.clone();
+    s.m_count = m_count;
+    s.m_min = m_min;
+    s.m_max = m_max;
+    return s;
+  }
+
+  /**
+   * Empties the sketch
+   */
+  public void clear()
+  {
+    m_levels = new double[][] { new double[m_k] };
+    m_sizes = new int[1];
+    m_count = 0;
+    m_min = Double.NaN;
+    m_max = Double.NaN;
+    m_random.setSeed(0);
+  }
+
+  /**
+   * Gets the capacity of a compactor
+   *
+   * @param h
+   *          The level of the compactor
+   * @return The capacity
+   */
+  protected int getCapacity(int h)
+  {
+    int depth = m_levels.length - 1 - h;
+    return Math.max(2, (int) Math.ceil(m_k * Math.pow(RATIO, depth)));
+  }
+
+  /**
+   * Adds a value to a compactor, creating it if necessary
+   *
+   * @param h
+   *          The level of the compactor
+   * @param x
+   *          The value
+   */
+  protected void append(int h, double x)
+  {
+    if (h >= m_levels.length)
+    {
+      m_levels = Arrays.copyOf(m_levels, h + 1);
+      m_sizes = Arrays.copyOf(m_sizes, h + 1);
+      m_levels[h] = new double[2];
+    }
+    if (m_sizes[h] == m_levels[h].length)
+    {
+      m_levels[h] = Arrays.copyOf(m_levels[h], Math.max(2, m_sizes[h] * 2));
+    }
+    m_levels[h][m_sizes[h]++] = x;
+  }
+
+  /**
+   * Compacts the compactors that are full, until the sketch holds no more
+   * values than its total capacity
+   */
+  protected void compress()
+  {
+    for (;;)
+    {
+      int h = 0;
+      while (h < m_levels.length && m_sizes[h] < getCapacity(h))
+      {
+        h++;
+      }
+      if (h == m_levels.length)
+      {
+        return;
+      }
+      compact(h);
+    }
+  }
+
+  /**
+   * Sorts the values of a compactor, and promotes every other one to the
+   * next compactor
+   *
+   * @param h
+   *          The level of the compactor
+   */
+  protected void compact(int h)
+  {
+    double[] level = m_levels[h];
+    int size = m_sizes[h];
+    // With an odd number of values, one of them stays at this level
+    int kept = size % 2;
+    Arrays.sort(level, kept, size);
+    int offset = m_random.nextBoolean() ? 1 : 0;
+    for (int i = kept + offset; i < size; i += 2)
+    {
+      append(h + 1, level[i]);
+    }
+    m_sizes[h] = kept;
+  }
+
+  @Override
+  public String toString()
+  {
+    return "KLL(n=" + m_count + ")";
+  }
+
+  /**
+   * Function that estimates the value at a quantile of a sketch
+   */
+  public static class GetQuantile extends UnaryFunction<KllSketch, Double>
+  {
+    /**
+     * The quantile
+     */
+    protected final double m_quantile;
+
+    /**
+     * Creates a new instance of the function
+     *
+     * @param q
+     *          The quantile, between 0 and 1; for example, 0.99 for the 99th
+     *          percentile
+     */
+    public GetQuantile(double q)
+    {
+      super(KllSketch.class, Double.class);
+      m_quantile = q;
+    }
+
+    @Override
+    public Double getValue(KllSketch x)
+    {
+      return x.getQuantile(m_quantile);
+    }
+
+    @Override
+    public GetQuantile duplicate(boolean with_state)
+    {
+      return new GetQuantile(m_quantile);
+    }
+  }
+
+  /**
+   * Function that merges two sketches into a new one
+   */
+  public static class Union extends BinaryFunction<KllSketch, KllSketch, KllSketch>
+  {
+    protected Union()
+    {
+      super(KllSketch.class, KllSketch.class, KllSketch.class);
+    }
+
+    @Override
+    public KllSketch getValue(KllSketch x, KllSketch y)
+    {
+      return x.copy().merge(y);
+    }
+
+    @Override
+    public Union duplicate(boolean with_state)
+    {
+      return this;
+    }
+  }
+
+  /**
+   * Adds each input number to a sketch, and outputs the sketch. The same
+   * sketch object is output every time.
+   */
+  public static class PutInto extends UniformProcessor
+  {
+    /**
+     * The underlying sketch
+     */
+    protected KllSketch m_sketch;
+
+    /**
+     * Creates a new instance of the processor with the default value of
+     * <i>k</i>
+     */
+    public PutInto()
+    {
+      this(DEFAULT_K);
+    }
+
+    /**
+     * Creates a new instance of the processor
+     *
+     * @param k
+     *          The value of <i>k</i> of the sketch
+     */
+    public PutInto(int k)
+    {
+      super(1, 1);
+      m_sketch = new KllSketch(k);
+    }
+
+    /**
+     * Gets the underlying sketch
+     *
+     * @return The sketch
+     */
+    public KllSketch getSketch()
+    {
+      return m_sketch;
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Object[] outputs)
+    {
+      m_sketch.add(((Number) inputs[0]).doubleValue());
+      outputs[0] = m_sketch;
+      return true;
+    }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return KllSketch.class;
+    }
+
+    @Override
+    public void reset()
+    {
+      super.reset();
+      m_sketch.clear();
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeObject(m_sketch);
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_sketch = (KllSketch) in.readObject();
+    }
+
+    @Override
+    public PutInto duplicate(boolean with_state)
+    {
+      PutInto p = new PutInto(m_sketch.m_k);
+      if (with_state)
+      {
+        p.m_sketch = m_sketch.copy();
+      }
+      return p;
+    }
+  }
+}
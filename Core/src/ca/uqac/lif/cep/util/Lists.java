@@ -17,17 +17,23 @@
  */
 package ca.uqac.lif.cep.util;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Connector.Variant;
 import ca.uqac.lif.cep.Processor;
+import ca.uqac.lif.cep.ProcessorException;
 import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pushable;
 import ca.uqac.lif.cep.SingleProcessor;
 import ca.uqac.lif.cep.functions.Function;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
@@ -74,6 +80,32 @@ public class Lists
     {
       return new LinkedList<Object>();
     }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      m_lock.lock();
+      try
+      {
+        out.writeCollection(m_packedEvents);
+      }
+      finally
+      {
+        m_lock.unlock();
+      }
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      List<Object> events = newList();
+      in.readCollection(events);
+      m_lock.lock();
+      m_packedEvents = events;
+      m_lock.unlock();
+    }
   }
 
   /**
@@ -102,7 +134,12 @@ public class Lists
     @Override
     public Processor duplicate(boolean with_state)
     {
-      return new Pack();
+      Pack p = new Pack();
+      if (with_state)
+      {
+        p.m_packedEvents.addAll(m_packedEvents);
+      }
+      return p;
     }
 
     @Override
@@ -259,6 +296,616 @@ public class Lists
     }
   }
 
+  /**
+   * Accumulates events, and outputs them as a list when the first of three
+   * bounds is reached:
+   * <ul>
+   * <li>a number of events</li>
+   * <li>a number of bytes, as estimated by a function evaluated on each
+   * event</li>
+   * <li>a delay since the first event of the batch</li>
+   * </ul>
+   * This is meant to feed processors that write events in bulk, and that
+   * need batches large enough to be efficient, yet small enough to fit a
+   * request, and frequent enough to keep the latency low. All the events
+   * pending are output when the end of the trace is reached.
+   * <p>
+   * Events are accumulated into one of two arrays allocated in advance, whose
+   * size is the maximum number of events of a batch. When a batch is closed,
+   * the other array takes over, and the events of the batch are copied into a
+   * list of the exact size, without preventing new events from being added.
+   * The list that is output cannot change size, and belongs to the receiver.
+   * <p>
+   * Without a delay, the batches are output like the events of any other
+   * processor, in push mode and in pull mode. With a delay, the processor
+   * only works in <strong>push</strong> mode: a thread closes the batches that
+   * reach their delay, and pushes them downstream. The batches are always
+   * output in the order they are closed, and no batch is pushed while the
+   * lock protecting the arrays is held, so that the arrival of new events is
+   * never held up by the processors downstream. An exception thrown
+   * downstream of that thread is rethrown upon the next event, or when the
+   * end of the trace is reached.
+   * <p>
+   * A {@link Checkpoint} saves the events of the current batch; when it is
+   * restored, the delay of that batch starts over.
+   *
+   * @author Sylvain Hallé
+   */
+  @SuppressWarnings("squid:S2160")
+  public static class Batch extends SingleProcessor
+  {
+    /**
+     * The default maximum number of events in a batch
+     */
+    public static final int DEFAULT_COUNT = 1024;
+
+    /**
+     * The maximum number of bytes of a batch, or 0 for no limit
+     */
+    protected long m_maxBytes = 0;
+
+    /**
+     * The function estimating the number of bytes of an event, or
+     * {@code null} if batches are not bounded in bytes
+     */
+    protected Function m_sizeFunction = null;
+
+    /**
+     * The maximum delay, in milliseconds, between the first event of a batch
+     * and its output, or 0 for no limit
+     */
+    protected long m_maxDelay = 0;
+
+    /**
+     * The array receiving the events of the current batch
+     */
+    protected transient Object[] m_buffer;
+
+    /**
+     * The other array, or {@code null} while the events of the previous batch
+     * are being copied out of it
+     */
+    protected transient Object[] m_spare;
+
+    /**
+     * The number of events in the current batch
+     */
+    protected int m_count = 0;
+
+    /**
+     * The number of bytes of the current batch
+     */
+    protected long m_bytes = 0;
+
+    /**
+     * The time, in nanoseconds, at which the first event of the current batch
+     * was received
+     */
+    protected long m_firstTime = 0;
+
+    /**
+     * The lock protecting the arrays and the current batch
+     */
+    protected final transient Lock m_lock = new ReentrantLock();
+
+    /**
+     * Signalled when the spare array can be used again
+     */
+    protected final transient Condition m_spareReturned = m_lock.newCondition();
+
+    /**
+     * Signalled to wake up the flusher thread when it must stop
+     */
+    protected final transient Condition m_wakeUp = m_lock.newCondition();
+
+    /**
+     * The number given to the next batch closed, so that batches are pushed
+     * in the order they are closed
+     */
+    protected long m_nextTicket = 0;
+
+    /**
+     * The number of the next batch to push
+     */
+    protected long m_nextPush = 0;
+
+    /**
+     * The monitor held while pushing a batch
+     */
+    protected final transient Object m_pushLock = new Object();
+
+    /**
+     * The thread closing batches that reach their delay
+     */
+    protected transient Flusher m_flusher = null;
+
+    /**
+     * An exception thrown downstream of the flusher thread, which is rethrown
+     * upon the next event or at the end of the trace
+     */
+    protected transient volatile RuntimeException m_error = null;
+
+    /**
+     * Arrays used to evaluate the size function, so that it does not
+     * allocate anything for each event
+     */
+    protected final transient Object[] m_sizeIn = new Object[1];
+
+    /**
+     * The array receiving the value of the size function
+     */
+    protected final transient Object[] m_sizeOut = new Object[1];
+
+    /**
+     * Creates a new batcher
+     *
+     * @param max_count
+     *          The maximum number of events in a batch
+     */
+    public Batch(int max_count)
+    {
+      super(1, 1);
+      max_count = Math.max(1, max_count);
+      m_buffer = new Object[max_count];
+      m_spare = new Object[max_count];
+    }
+
+    /**
+     * Creates a new batcher with the default maximum number of events
+     */
+    public Batch()
+    {
+      this(DEFAULT_COUNT);
+    }
+
+    /**
+     * Bounds the number of bytes of a batch. A batch is closed as soon as the
+     * bytes of its events reach the bound; the event that reaches it is part of
+     * the batch.
+     *
+     * @param max_bytes
+     *          The maximum number of bytes, or 0 for no limit
+     * @param size
+     *          A unary function returning the number of bytes of an event
+     * @return This processor
+     */
+    public Batch setMaxBytes(long max_bytes, /* @Null */ Function size)
+    {
+      m_maxBytes = Math.max(0, max_bytes);
+      m_sizeFunction = m_maxBytes > 0 ? size : null;
+      return this;
+    }
+
+    /**
+     * Bounds the delay between the first event of a batch and its output.
+     * Setting a delay makes the processor work in push mode only.
+     *
+     * @param max_delay
+     *          The delay, in milliseconds, or 0 for no limit
+     * @return This processor
+     */
+    public Batch setMaxDelay(long max_delay)
+    {
+      m_maxDelay = Math.max(0, max_delay);
+      return this;
+    }
+
+    /**
+     * Gets the maximum number of events in a batch
+     *
+     * @return The number of events
+     */
+    public int getMaxCount()
+    {
+      return m_buffer.length;
+    }
+
+    /**
+     * Gets the number of events of the current batch
+     *
+     * @return The number of events
+     */
+    public int getPendingCount()
+    {
+      m_lock.lock();
+      try
+      {
+        return m_count;
+      }
+      finally
+      {
+        m_lock.unlock();
+      }
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+    {
+      checkError();
+      if (m_maxDelay > 0)
+      {
+        startFlusher();
+      }
+      long bytes = 0;
+      if (m_sizeFunction != null)
+      {
+        m_sizeIn[0] = inputs[0];
+        m_sizeFunction.evaluate(m_sizeIn, m_sizeOut);
+        bytes = ((Number) m_sizeOut[0]).longValue();
+      }
+      boolean full;
+      while (true)
+      {
+        m_lock.lock();
+        try
+        {
+          if (m_count < m_buffer.length)
+          {
+            if (m_count == 0)
+            {
+              m_firstTime = System.nanoTime();
+            }
+            m_buffer[m_count++] = inputs[0];
+            m_bytes += bytes;
+            full = m_count == m_buffer.length || (m_maxBytes > 0 && m_bytes >= m_maxBytes);
+            break;
+          }
+        }
+        finally
+        {
+          m_lock.unlock();
+        }
+        // The flusher has yet to close the full batch
+        flush(false, outputs);
+      }
+      if (full)
+      {
+        flush(false, outputs);
+      }
+      return true;
+    }
+
+    @Override
+    protected boolean onEndOfTrace(Queue<Object[]> outputs)
+    {
+      checkError();
+      stopFlusher();
+      flush(false, outputs);
+      return true;
+    }
+
+    /**
+     * Rethrows the exception thrown downstream of the flusher thread, if
+     * any. The flusher is then stopped.
+     */
+    protected void checkError()
+    {
+      RuntimeException error = m_error;
+      if (error != null)
+      {
+        m_error = null;
+        stopFlusher();
+        throw new ProcessorException(error);
+      }
+    }
+
+    @Override
+    protected boolean onUpstreamExhausted(Queue<Object[]> outputs)
+    {
+      // In pull mode, output the current batch
+      flush(false, outputs);
+      return !outputs.isEmpty();
+    }
+
+    /**
+     * Closes the current batch, and outputs it. Without a delay, the batch is
+     * added to a queue of output fronts; otherwise, it is pushed downstream
+     * once all the batches closed before it have been pushed.
+     *
+     * @param timed
+     *          Set to {@code true} to close the batch only if it has reached
+     *          its delay
+     * @param outputs
+     *          The queue of output fronts
+     */
+    protected void flush(boolean timed, /* @Null */ Queue<Object[]> outputs)
+    {
+      Object[] batch;
+      int size;
+      long ticket;
+      m_lock.lock();
+      try
+      {
+        while (m_count > 0 && m_spare == null)
+        {
+          // The previous batch is still being copied out of the spare array
+          m_spareReturned.awaitUninterruptibly();
+        }
+        if (m_count == 0 || (timed && getRemaining() > 0))
+        {
+          return;
+        }
+        batch = m_buffer;
+        size = m_count;
+        m_buffer = m_spare;
+        m_spare = null;
+        m_count = 0;
+        m_bytes = 0;
+        ticket = m_nextTicket++;
+      }
+      finally
+      {
+        m_lock.unlock();
+      }
+      List<Object> list = Arrays.asList(Arrays.copyOf(batch, size));
+      Arrays.fill(batch, 0, size, null);
+      m_lock.lock();
+      try
+      {
+        m_spare = batch;
+        m_spareReturned.signalAll();
+      }
+      finally
+      {
+        m_lock.unlock();
+      }
+      if (m_maxDelay == 0 && outputs != null)
+      {
+        outputs.add(new Object[] { list });
+        return;
+      }
+      boolean interrupted = false;
+      synchronized (m_pushLock)
+      {
+        // Giving up would leave the batches closed after this one waiting
+        // forever, so the wait cannot be interrupted
+        while (m_nextPush != ticket)
+        {
+          try
+          {
+            m_pushLock.wait();
+          }
+          catch (InterruptedException e)
+          {
+            interrupted = true;
+          }
+        }
+        if (interrupted)
+        {
+          // Restore interrupted state
+          Thread.currentThread().interrupt();
+        }
+        try
+        {
+          getPushableOutput(0).push(list);
+        }
+        finally
+        {
+          m_nextPush++;
+          m_pushLock.notifyAll();
+        }
+      }
+    }
+
+    /**
+     * Gets the time left before the current batch reaches its delay. This
+     * method must be called while holding {@link #m_lock}.
+     *
+     * @return The time, in nanoseconds
+     */
+    protected long getRemaining()
+    {
+      if (m_count == 0)
+      {
+        return TimeUnit.MILLISECONDS.toNanos(m_maxDelay);
+      }
+      return m_firstTime + TimeUnit.MILLISECONDS.toNanos(m_maxDelay) - System.nanoTime();
+    }
+
+    /**
+     * Starts the thread closing batches that reach their delay, if it is not
+     * running
+     */
+    protected synchronized void startFlusher()
+    {
+      if (m_flusher == null)
+      {
+        m_flusher = new Flusher();
+        Thread t = new Thread(m_flusher);
+        t.setDaemon(true);
+        t.start();
+      }
+    }
+
+    /**
+     * Stops the thread closing batches that reach their delay, if it is
+     * running
+     */
+    protected synchronized void stopFlusher()
+    {
+      if (m_flusher != null)
+      {
+        m_flusher.m_run = false;
+        m_flusher = null;
+        m_lock.lock();
+        try
+        {
+          m_wakeUp.signalAll();
+        }
+        finally
+        {
+          m_lock.unlock();
+        }
+      }
+    }
+
+    @Override
+    public void stop()
+    {
+      stopFlusher();
+    }
+
+    @Override
+    public void reset()
+    {
+      super.reset();
+      stopFlusher();
+      m_lock.lock();
+      try
+      {
+        Arrays.fill(m_buffer, null);
+        m_count = 0;
+        m_bytes = 0;
+      }
+      finally
+      {
+        m_lock.unlock();
+      }
+      synchronized (m_pushLock)
+      {
+        m_nextTicket = 0;
+        m_nextPush = 0;
+      }
+      m_error = null;
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      m_lock.lock();
+      try
+      {
+        out.writeInt(m_count);
+        out.writeLong(m_bytes);
+        for (int i = 0; i < m_count; i++)
+        {
+          out.writeObject(m_buffer[i]);
+        }
+      }
+      finally
+      {
+        m_lock.unlock();
+      }
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      int count = in.readInt();
+      if (count > m_buffer.length)
+      {
+        throw new IOException("Batch of " + count + " events exceeds the maximum of "
+            + m_buffer.length);
+      }
+      long bytes = in.readLong();
+      m_lock.lock();
+      try
+      {
+        Arrays.fill(m_buffer, null);
+        for (int i = 0; i < count; i++)
+        {
+          m_buffer[i] = in.readObject();
+        }
+        m_count = count;
+        m_bytes = bytes;
+        m_firstTime = System.nanoTime();
+      }
+      finally
+      {
+        m_lock.unlock();
+      }
+    }
+
+    @Override
+    public synchronized Pullable getPullableOutput(int position)
+    {
+      if (m_maxDelay > 0)
+      {
+        return new Pullable.PullNotSupported(this, position);
+      }
+      return super.getPullableOutput(position);
+    }
+
+    @Override
+    public Batch duplicate(boolean with_state)
+    {
+      Batch b = new Batch(m_buffer.length);
+      b.m_maxBytes = m_maxBytes;
+      b.m_sizeFunction = m_sizeFunction == null ? null : m_sizeFunction.duplicate();
+      b.m_maxDelay = m_maxDelay;
+      if (with_state)
+      {
+        m_lock.lock();
+        try
+        {
+          System.arraycopy(m_buffer, 0, b.m_buffer, 0, m_count);
+          b.m_count = m_count;
+          b.m_bytes = m_bytes;
+          b.m_firstTime = m_firstTime;
+        }
+        finally
+        {
+          m_lock.unlock();
+        }
+      }
+      return b;
+    }
+
+    /**
+     * Closes the batches that reach their delay, and pushes them downstream
+     */
+    protected class Flusher implements Runnable
+    {
+      /**
+       * Whether the flusher keeps running
+       */
+      protected volatile boolean m_run = true;
+
+      @Override
+      public void run()
+      {
+        while (m_run)
+        {
+          m_lock.lock();
+          try
+          {
+            long remaining = getRemaining();
+            while (m_run && remaining > 0)
+            {
+              m_wakeUp.awaitNanos(remaining);
+              remaining = getRemaining();
+            }
+          }
+          catch (InterruptedException e)
+          {
+            // Restore interrupted state
+            Thread.currentThread().interrupt();
+            return;
+          }
+          finally
+          {
+            m_lock.unlock();
+          }
+          if (!m_run)
+          {
+            return;
+          }
+          try
+          {
+            flush(true, null);
+          }
+          catch (RuntimeException e)
+          {
+            m_error = e;
+            return;
+          }
+        }
+      }
+    }
+  }
+
   /**
    * Unpacks a list of objects by outputting its contents as separate events. This
    * processor is represented graphically as follows:
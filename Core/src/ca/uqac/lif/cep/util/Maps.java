@@ -17,8 +17,10 @@
  */
 package ca.uqac.lif.cep.util;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.UniformProcessor;
 import ca.uqac.lif.cep.functions.UnaryFunction;
+import java.io.IOException;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -98,6 +100,8 @@ public class Maps
   /**
    * Updates a map by putting key-value pairs into it. The processor takes two
    * input streams; the first contains the key, and the second contains the value.
+   * The same map object is output every time, and is modified by subsequent
+   * events; use {@link PutIntoNew} to get a copy that can be kept.
    */
   public static class PutInto extends UniformProcessor
   {
@@ -124,7 +128,27 @@ public class Maps
     @Override
     public PutInto duplicate(boolean with_state)
     {
-      return new PutInto();
+      PutInto pi = new PutInto();
+      if (with_state)
+      {
+        pi.m_map.putAll(m_map);
+      }
+      return pi;
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeMap(m_map);
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_map.clear();
+      in.readMap(m_map);
     }
 
     @Override
@@ -146,6 +170,8 @@ public class Maps
    * Updates a map by putting key-value pairs into it. The processor takes a
    * single input stream, whose events are <em>arrays</em>. The first element of
    * the array contains the key, and the second contains the value.
+   * The same map object is output every time, and is modified by subsequent
+   * events; use {@link ArrayPutIntoNew} to get a copy that can be kept.
    */
   public static class ArrayPutInto extends UniformProcessor
   {
@@ -172,7 +198,27 @@ public class Maps
     @Override
     public ArrayPutInto duplicate(boolean with_state)
     {
-      return new ArrayPutInto();
+      ArrayPutInto pi = new ArrayPutInto();
+      if (with_state)
+      {
+        pi.m_map.putAll(m_map);
+      }
+      return pi;
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeMap(m_map);
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_map.clear();
+      in.readMap(m_map);
     }
 
     @Override
@@ -189,4 +235,146 @@ public class Maps
       return Map.class;
     }
   }
+
+  /**
+   * Updates a map by putting key-value pairs into it, and outputs a new copy
+   * of the map on every event. The processor takes two input streams; the
+   * first contains the key, and the second contains the value. The copies
+   * are {@link PersistentHashMap}s: they cannot be modified, and producing
+   * one takes O(log<sub>32</sub> <i>n</i>) time.
+   */
+  public static class PutIntoNew extends UniformProcessor
+  {
+    /**
+     * The current version of the map
+     */
+    protected PersistentHashMap<Object, Object> m_map;
+
+    /**
+     * Create a new instance of the processor
+     */
+    public PutIntoNew()
+    {
+      super(2, 1);
+      m_map = PersistentHashMap.empty();
+    }
+
+    @Override
+    public void reset()
+    {
+      super.reset();
+      m_map = PersistentHashMap.empty();
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeObject(m_map);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_map = (PersistentHashMap<Object, Object>) in.readObject();
+    }
+
+    @Override
+    public PutIntoNew duplicate(boolean with_state)
+    {
+      PutIntoNew pi = new PutIntoNew();
+      if (with_state)
+      {
+        pi.m_map = m_map;
+      }
+      return pi;
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Object[] outputs)
+    {
+      m_map = m_map.plus(inputs[0], inputs[1]);
+      outputs[0] = m_map;
+      return true;
+    }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return Map.class;
+    }
+  }
+
+  /**
+   * Updates a map by putting key-value pairs into it, and outputs a new copy
+   * of the map on every event. The processor takes a single input stream,
+   * whose events are arrays containing a key and a value. The copies are
+   * {@link PersistentHashMap}s, as for {@link PutIntoNew}.
+   */
+  public static class ArrayPutIntoNew extends UniformProcessor
+  {
+    /**
+     * The current version of the map
+     */
+    protected PersistentHashMap<Object, Object> m_map;
+
+    /**
+     * Create a new instance of the processor
+     */
+    public ArrayPutIntoNew()
+    {
+      super(1, 1);
+      m_map = PersistentHashMap.empty();
+    }
+
+    @Override
+    public void reset()
+    {
+      super.reset();
+      m_map = PersistentHashMap.empty();
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeObject(m_map);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_map = (PersistentHashMap<Object, Object>) in.readObject();
+    }
+
+    @Override
+    public ArrayPutIntoNew duplicate(boolean with_state)
+    {
+      ArrayPutIntoNew pi = new ArrayPutIntoNew();
+      if (with_state)
+      {
+        pi.m_map = m_map;
+      }
+      return pi;
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Object[] outputs)
+    {
+      Object[] pair = (Object[]) inputs[0];
+      m_map = m_map.plus(pair[0], pair[1]);
+      outputs[0] = m_map;
+      return true;
+    }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return Map.class;
+    }
+  }
 }
@@ -0,0 +1,194 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A bounded cache of compiled regular expressions, keyed by their string
+ * representation. When the cache is full, the pattern that has been used
+ * least recently is evicted. The cache can safely be used by multiple
+ * threads.
+ * <p>
+ * Functions that receive a regular expression as an input event, such as
+ * {@link Strings.Matches}, use this cache so that the same expression is not
+ * compiled again for every event.
+ *
+ * @author Sylvain Hallé
+ */
+public class PatternCache
+{
+  /**
+   * The default number of patterns kept in a cache
+   */
+  public static final int DEFAULT_CAPACITY = 256;
+
+  /**
+   * A cache shared by all the functions of {@link Strings}
+   */
+  public static final PatternCache instance = new PatternCache(DEFAULT_CAPACITY);
+
+  /**
+   * The compiled patterns, in least-recently used order
+   */
+  protected final Map<String, Pattern> m_patterns;
+
+  /**
+   * The number of lookups that found a compiled pattern
+   */
+  protected final AtomicLong m_hits = new AtomicLong();
+
+  /**
+   * The number of lookups that had to compile a pattern
+   */
+  protected final AtomicLong m_misses = new AtomicLong();
+
+  /**
+   * The last matcher created by each thread, so that it can be reused when
+   * the same thread matches the same pattern again
+   */
+  protected final ThreadLocal<Matcher> m_lastMatcher = new ThreadLocal<Matcher>();
+
+  /**
+   * Creates a new pattern cache
+   *
+   * @param capacity
+   *          The maximum number of patterns kept in the cache
+   */
+  public PatternCache(final int capacity)
+  {
+    super();
+    m_patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true)
+    {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest)
+      {
+        return size() > capacity;
+      }
+    };
+  }
+
+  /**
+   * Gets the compiled version of a regular expression, compiling it if it is
+   * not in the cache
+   *
+   * @param regex
+   *          The regular expression
+   * @return The compiled pattern
+   */
+  public Pattern get(/* @NotNull */ String regex)
+  {
+    Pattern p;
+    synchronized (m_patterns)
+    {
+      p = m_patterns.get(regex);
+    }
+    if (p != null)
+    {
+      m_hits.incrementAndGet();
+      return p;
+    }
+    m_misses.incrementAndGet();
+    // Compile outside of the lock; two threads may compile the same
+    // expression, which is harmless
+    p = Pattern.compile(regex);
+    synchronized (m_patterns)
+    {
+      m_patterns.put(regex, p);
+    }
+    return p;
+  }
+
+  /**
+   * Gets a matcher of a regular expression on some input. If the calling
+   * thread obtained a matcher for the same expression on its previous call,
+   * that matcher is reset and returned instead of creating a new one. The
+   * matcher must therefore no longer be used once this method is called
+   * again by the same thread.
+   *
+   * @param regex
+   *          The regular expression
+   * @param input
+   *          The input to match
+   * @return The matcher
+   */
+  public Matcher matcher(/* @NotNull */ String regex, /* @NotNull */ CharSequence input)
+  {
+    Pattern p = get(regex);
+    Matcher m = m_lastMatcher.get();
+    if (m != null && m.pattern() == p)
+    {
+      return m.reset(input);
+    }
+    m = p.matcher(input);
+    m_lastMatcher.set(m);
+    return m;
+  }
+
+  /**
+   * Gets the number of lookups that found a compiled pattern in the cache
+   *
+   * @return The number of hits
+   */
+  public long getHits()
+  {
+    return m_hits.get();
+  }
+
+  /**
+   * Gets the number of lookups that had to compile a pattern
+   *
+   * @return The number of misses
+   */
+  public long getMisses()
+  {
+    return m_misses.get();
+  }
+
+  /**
+   * Gets the number of patterns currently in the cache
+   *
+   * @return The number of patterns
+   */
+  public int size()
+  {
+    synchronized (m_patterns)
+    {
+      return m_patterns.size();
+    }
+  }
+
+  /**
+   * Removes all the patterns from the cache and resets its counters
+   */
+  public void clear()
+  {
+    synchronized (m_patterns)
+    {
+      m_patterns.clear();
+    }
+    m_hits.set(0);
+    m_misses.set(0);
+  }
+}
@@ -0,0 +1,759 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.util;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map that is updated by creating new versions of itself. The
+ * map is a hash array mapped trie: each level of the trie consumes 5 bits of
+ * the hash of a key, so that a lookup or an update visits at most
+ * log<sub>32</sub>(<i>n</i>) nodes. An update copies only the nodes on the
+ * path to the key it modifies, and shares all the other nodes with the
+ * previous version. Producing a new version after each event therefore costs
+ * little time and memory, and every version can safely be handed to other
+ * threads.
+ * <p>
+ * The map implements the read-only methods of {@link Map}; its mutator
+ * methods throw an {@link UnsupportedOperationException}. It is updated with
+ * {@link #plus(Object, Object) plus()} and {@link #minus(Object) minus()}
+ * instead, which leave the original map unchanged.
+ *
+ * @param <K>
+ *          The type of the keys
+ * @param <V>
+ *          The type of the values
+ * @author Sylvain Hallé
+ */
+public class PersistentHashMap<K, V> extends AbstractMap<K, V> implements Serializable
+{
+  /**
+   * Dummy UID
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The number of hash bits consumed by each level of the trie
+   */
+  protected static final int BITS = 5;
+
+  /**
+   * The value returned by a node when a key is absent
+   */
+  protected static final Object NOT_FOUND = new Object();
+
+  /**
+   * An empty array of entries
+   */
+  protected static final Object[] NO_ENTRIES = new Object[0];
+
+  /**
+   * An empty array of nodes
+   */
+  protected static final Node[] NO_NODES = new Node[0];
+
+  /**
+   * The empty map
+   */
+  @SuppressWarnings("rawtypes")
+  protected static final PersistentHashMap EMPTY = new PersistentHashMap(
+      new BitmapNode(0, 0, NO_ENTRIES, NO_NODES), 0);
+
+  /**
+   * The root of the trie
+   */
+  protected final Node m_root;
+
+  /**
+   * The number of entries in the map
+   */
+  protected final int m_size;
+
+  /**
+   * Gets the empty map
+   *
+   * @param <K>
+   *          The type of the keys
+   * @param <V>
+   *          The type of the values
+   * @return The map
+   */
+  @SuppressWarnings("unchecked")
+  public static <K, V> PersistentHashMap<K, V> empty()
+  {
+    return EMPTY;
+  }
+
+  /**
+   * Creates a new map
+   *
+   * @param root
+   *          The root of the trie
+   * @param size
+   *          The number of entries in the trie
+   */
+  protected PersistentHashMap(Node root, int size)
+  {
+    super();
+    m_root = root;
+    m_size = size;
+  }
+
+  /**
+   * Gets a version of this map where a key is associated to a value
+   *
+   * @param key
+   *          The key
+   * @param value
+   *          The value
+   * @return The new map, or this map if the key is already associated to
+   *         this value
+   */
+  public PersistentHashMap<K, V> plus(/* @Null */ K key, /* @Null */ V value)
+  {
+    boolean[] added = new boolean[1];
+    Node root = m_root.put(key, value, hash(key), 0, added);
+    if (root == m_root)
+    {
+      return this;
+    }
+    return new PersistentHashMap<K, V>(root, added[0] ? m_size + 1 : m_size);
+  }
+
+  /**
+   * Gets a version of this map with all the entries of another map added to
+   * it
+   *
+   * @param map
+   *          The other map
+   * @return The new map
+   */
+  public PersistentHashMap<K, V> plusAll(/* @NotNull */ Map<? extends K, ? extends V> map)
+  {
+    PersistentHashMap<K, V> m = this;
+    for (Map.Entry<? extends K, ? extends V> e : map.entrySet())
+    {
+      m = m.plus(e.getKey(), e.getValue());
+    }
+    return m;
+  }
+
+  /**
+   * Gets a version of this map without a key
+   *
+   * @param key
+   *          The key
+   * @return The new map, or this map if the key is absent
+   */
+  public PersistentHashMap<K, V> minus(/* @Null */ Object key)
+  {
+    Node root = m_root.remove(key, hash(key), 0);
+    if (root == m_root)
+    {
+      return this;
+    }
+    return new PersistentHashMap<K, V>(root, m_size - 1);
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public V get(/* @Null */ Object key)
+  {
+    Object v = m_root.get(key, hash(key), 0);
+    return v == NOT_FOUND ? null : (V) v;
+  }
+
+  @Override
+  public boolean containsKey(/* @Null */ Object key)
+  {
+    return m_root.get(key, hash(key), 0) != NOT_FOUND;
+  }
+
+  @Override
+  public int size()
+  {
+    return m_size;
+  }
+
+  @Override
+  public Set<Map.Entry<K, V>> entrySet()
+  {
+    return new AbstractSet<Map.Entry<K, V>>()
+    {
+      @Override
+      public Iterator<Map.Entry<K, V>> iterator()
+      {
+        return new TrieIterator<Map.Entry<K, V>>(m_root)
+        {
+          @SuppressWarnings("unchecked")
+          @Override
+          protected Map.Entry<K, V> get(Node n, int i)
+          {
+            return new AbstractMap.SimpleImmutableEntry<K, V>((K) n.keyAt(i), (V) n.valueAt(i));
+          }
+        };
+      }
+
+      @Override
+      public int size()
+      {
+        return m_size;
+      }
+    };
+  }
+
+  /**
+   * Gets an iterator over the keys of this map
+   *
+   * @return The iterator
+   */
+  protected Iterator<K> keyIterator()
+  {
+    return new TrieIterator<K>(m_root)
+    {
+      @SuppressWarnings("unchecked")
+      @Override
+      protected K get(Node n, int i)
+      {
+        return (K) n.keyAt(i);
+      }
+    };
+  }
+
+  /**
+   * Computes the hash of a key. The high bits of the hash code are mixed into
+   * the low bits, which are the ones used by the first levels of the trie.
+   *
+   * @param key
+   *          The key
+   * @return The hash
+   */
+  protected static int hash(/* @Null */ Object key)
+  {
+    if (key == null)
+    {
+      return 0;
+    }
+    int h = key.hashCode();
+    return h ^ (h >>> 16);
+  }
+
+  /**
+   * Checks if two keys are equal
+   *
+   * @param x
+   *          The first key
+   * @param y
+   *          The second key
+   * @return {@code true} if the keys are equal
+   */
+  protected static boolean same(/* @Null */ Object x, /* @Null */ Object y)
+  {
+    return x == y || (x != null && x.equals(y));
+  }
+
+  /**
+   * Creates a node containing two entries whose keys have different hashes
+   * at the current level
+   */
+  protected static Node pair(Object k1, Object v1, int h1, Object k2, Object v2, int h2,
+      int shift)
+  {
+    if (shift >= 32)
+    {
+      // All the bits of the hashes are used
+      return new CollisionNode(new Object[] { k1, v1, k2, v2 });
+    }
+    int b1 = (h1 >>> shift) & 31;
+    int b2 = (h2 >>> shift) & 31;
+    if (b1 == b2)
+    {
+      return new BitmapNode(0, 1 << b1, NO_ENTRIES,
+          new Node[] { pair(k1, v1, h1, k2, v2, h2, shift + BITS) });
+    }
+    Object[] entries = b1 < b2 ? new Object[] { k1, v1, k2, v2 }
+        : new Object[] { k2, v2, k1, v1 };
+    return new BitmapNode((1 << b1) | (1 << b2), 0, entries, NO_NODES);
+  }
+
+  /**
+   * A node of the trie
+   */
+  protected abstract static class Node implements Serializable
+  {
+    /**
+     * Dummy UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Gets the value associated to a key
+     *
+     * @return The value, or {@link PersistentHashMap#NOT_FOUND}
+     */
+    abstract Object get(Object key, int hash, int shift);
+
+    /**
+     * Associates a key to a value
+     *
+     * @param added
+     *          Set to {@code true} if the key was absent
+     * @return The new node, or this node if nothing changed
+     */
+    abstract Node put(Object key, Object value, int hash, int shift, boolean[] added);
+
+    /**
+     * Removes a key
+     *
+     * @return The new node, or this node if the key is absent
+     */
+    abstract Node remove(Object key, int hash, int shift);
+
+    /**
+     * Gets the number of entries stored directly in this node
+     */
+    abstract int entryCount();
+
+    abstract Object keyAt(int i);
+
+    abstract Object valueAt(int i);
+
+    /**
+     * Gets the number of children of this node
+     */
+    abstract int nodeCount();
+
+    abstract Node nodeAt(int i);
+  }
+
+  /**
+   * A node of the trie where hash fragments index entries and children. Two
+   * bitmaps tell which of the 32 possible fragments lead to an entry or to a
+   * child; the entries and the children are stored in two compact arrays, in
+   * the order of their fragment.
+   */
+  protected static class BitmapNode extends Node
+  {
+    /**
+     * Dummy UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The fragments that lead to an entry
+     */
+    protected final int m_dataMap;
+
+    /**
+     * The fragments that lead to a child
+     */
+    protected final int m_nodeMap;
+
+    /**
+     * The keys and values of the entries, one after the other
+     */
+    protected final Object[] m_entries;
+
+    /**
+     * The children
+     */
+    protected final Node[] m_nodes;
+
+    BitmapNode(int data_map, int node_map, Object[] entries, Node[] nodes)
+    {
+      super();
+      m_dataMap = data_map;
+      m_nodeMap = node_map;
+      m_entries = entries;
+      m_nodes = nodes;
+    }
+
+    /**
+     * Gets the position, in a compact array, of the element for a fragment
+     */
+    protected static int index(int bitmap, int bit)
+    {
+      return Integer.bitCount(bitmap & (bit - 1));
+    }
+
+    @Override
+    Object get(Object key, int hash, int shift)
+    {
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((m_dataMap & bit) != 0)
+      {
+        int i = index(m_dataMap, bit);
+        return same(key, m_entries[2 * i]) ? m_entries[2 * i + 1] : NOT_FOUND;
+      }
+      if ((m_nodeMap & bit) != 0)
+      {
+        return m_nodes[index(m_nodeMap, bit)].get(key, hash, shift + BITS);
+      }
+      return NOT_FOUND;
+    }
+
+    @Override
+    Node put(Object key, Object value, int hash, int shift, boolean[] added)
+    {
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((m_dataMap & bit) != 0)
+      {
+        int i = index(m_dataMap, bit);
+        Object k = m_entries[2 * i];
+        Object v = m_entries[2 * i + 1];
+        if (same(key, k))
+        {
+          if (v == value)
+          {
+            return this;
+          }
+          Object[] entries = m_entries.clone();
+          entries[2 * i + 1] = value;
+          return new BitmapNode(m_dataMap, m_nodeMap, entries, m_nodes);
+        }
+        // Both keys move down to a new child
+        added[0] = true;
+        Node child = pair(k, v, hash(k), key, value, hash, shift + BITS);
+        int node_map = m_nodeMap | bit;
+        return new BitmapNode(m_dataMap ^ bit, node_map, removeEntry(m_entries, i),
+            insertNode(m_nodes, index(node_map, bit), child));
+      }
+      if ((m_nodeMap & bit) != 0)
+      {
+        int i = index(m_nodeMap, bit);
+        Node child = m_nodes[i].put(key, value, hash, shift + BITS, added);
+        if (child == m_nodes[i])
+        {
+          return this;
+        }
+        Node[] nodes = m_nodes.clone();
+        nodes[i] = child;
+        return new BitmapNode(m_dataMap, m_nodeMap, m_entries, nodes);
+      }
+      added[0] = true;
+      int data_map = m_dataMap | bit;
+      return new BitmapNode(data_map, m_nodeMap,
+          insertEntry(m_entries, index(data_map, bit), key, value), m_nodes);
+    }
+
+    @Override
+    Node remove(Object key, int hash, int shift)
+    {
+      int bit = 1 << ((hash >>> shift) & 31);
+      if ((m_dataMap & bit) != 0)
+      {
+        int i = index(m_dataMap, bit);
+        if (!same(key, m_entries[2 * i]))
+        {
+          return this;
+        }
+        return new BitmapNode(m_dataMap ^ bit, m_nodeMap, removeEntry(m_entries, i), m_nodes);
+      }
+      if ((m_nodeMap & bit) != 0)
+      {
+        int i = index(m_nodeMap, bit);
+        Node child = m_nodes[i].remove(key, hash, shift + BITS);
+        if (child == m_nodes[i])
+        {
+          return this;
+        }
+        if (child.nodeCount() == 0 && child.entryCount() == 1)
+        {
+          // A child with a single entry is replaced by that entry
+          int data_map = m_dataMap | bit;
+          return new BitmapNode(data_map, m_nodeMap ^ bit,
+              insertEntry(m_entries, index(data_map, bit), child.keyAt(0), child.valueAt(0)),
+              removeNode(m_nodes, i));
+        }
+        Node[] nodes = m_nodes.clone();
+        nodes[i] = child;
+        return new BitmapNode(m_dataMap, m_nodeMap, m_entries, nodes);
+      }
+      return this;
+    }
+
+    @Override
+    int entryCount()
+    {
+      return m_entries.length / 2;
+    }
+
+    @Override
+    Object keyAt(int i)
+    {
+      return m_entries[2 * i];
+    }
+
+    @Override
+    Object valueAt(int i)
+    {
+      return m_entries[2 * i + 1];
+    }
+
+    @Override
+    int nodeCount()
+    {
+      return m_nodes.length;
+    }
+
+    @Override
+    Node nodeAt(int i)
+    {
+      return m_nodes[i];
+    }
+
+    protected static Object[] insertEntry(Object[] entries, int i, Object key, Object value)
+    {
+      Object[] a = new Object[entries.length + 2];
+      System.arraycopy(entries, 0, a, 0, 2 * i);
+      a[2 * i] = key;
+      a[2 * i + 1] = value;
+      System.arraycopy(entries, 2 * i, a, 2 * i + 2, entries.length - 2 * i);
+      return a;
+    }
+
+    protected static Object[] removeEntry(Object[] entries, int i)
+    {
+      if (entries.length == 2)
+      {
+        return NO_ENTRIES;
+      }
+      Object[] a = new Object[entries.length - 2];
+      System.arraycopy(entries, 0, a, 0, 2 * i);
+      System.arraycopy(entries, 2 * i + 2, a, 2 * i, a.length - 2 * i);
+      return a;
+    }
+
+    protected static Node[] insertNode(Node[] nodes, int i, Node node)
+    {
+      Node[] a = new Node[nodes.length + 1];
+      System.arraycopy(nodes, 0, a, 0, i);
+      a[i] = node;
+      System.arraycopy(nodes, i, a, i + 1, nodes.length - i);
+      return a;
+    }
+
+    protected static Node[] removeNode(Node[] nodes, int i)
+    {
+      if (nodes.length == 1)
+      {
+        return NO_NODES;
+      }
+      Node[] a = new Node[nodes.length - 1];
+      System.arraycopy(nodes, 0, a, 0, i);
+      System.arraycopy(nodes, i + 1, a, i, a.length - i);
+      return a;
+    }
+  }
+
+  /**
+   * A leaf of the trie holding keys whose hashes are identical
+   */
+  protected static class CollisionNode extends Node
+  {
+    /**
+     * Dummy UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The keys and values of the entries, one after the other
+     */
+    protected final Object[] m_entries;
+
+    CollisionNode(Object[] entries)
+    {
+      super();
+      m_entries = entries;
+    }
+
+    /**
+     * Finds the position of a key
+     *
+     * @return The position, or -1 if the key is absent
+     */
+    protected int find(Object key)
+    {
+      for (int i = 0; i < m_entries.length; i += 2)
+      {
+        if (same(key, m_entries[i]))
+        {
+          return i / 2;
+        }
+      }
+      return -1;
+    }
+
+    @Override
+    Object get(Object key, int hash, int shift)
+    {
+      int i = find(key);
+      return i < 0 ? NOT_FOUND : m_entries[2 * i + 1];
+    }
+
+    @Override
+    Node put(Object key, Object value, int hash, int shift, boolean[] added)
+    {
+      int i = find(key);
+      if (i < 0)
+      {
+        added[0] = true;
+        return new CollisionNode(BitmapNode.insertEntry(m_entries, entryCount(), key, value));
+      }
+      if (m_entries[2 * i + 1] == value)
+      {
+        return this;
+      }
+      Object[] entries = m_entries.clone();
+      entries[2 * i + 1] = value;
+      return new CollisionNode(entries);
+    }
+
+    @Override
+    Node remove(Object key, int hash, int shift)
+    {
+      int i = find(key);
+      if (i < 0)
+      {
+        return this;
+      }
+      return new CollisionNode(BitmapNode.removeEntry(m_entries, i));
+    }
+
+    @Override
+    int entryCount()
+    {
+      return m_entries.length / 2;
+    }
+
+    @Override
+    Object keyAt(int i)
+    {
+      return m_entries[2 * i];
+    }
+
+    @Override
+    Object valueAt(int i)
+    {
+      return m_entries[2 * i + 1];
+    }
+
+    @Override
+    int nodeCount()
+    {
+      return 0;
+    }
+
+    @Override
+    Node nodeAt(int i)
+    {
+      throw new IndexOutOfBoundsException();
+    }
+  }
+
+  /**
+   * Iterates over the entries of a trie, one node at a time
+   *
+   * @param <T>
+   *          The type of the elements returned for each entry
+   */
+  protected abstract static class TrieIterator<T> implements Iterator<T>
+  {
+    /**
+     * The nodes that remain to visit
+     */
+    protected final ArrayDeque<Node> m_pending = new ArrayDeque<Node>();
+
+    /**
+     * The node being visited
+     */
+    protected Node m_node;
+
+    /**
+     * The position of the next entry in the node being visited
+     */
+    protected int m_index = 0;
+
+    TrieIterator(Node root)
+    {
+      super();
+      visit(root);
+    }
+
+    /**
+     * Starts visiting a node
+     */
+    protected void visit(Node n)
+    {
+      m_node = n;
+      m_index = 0;
+      for (int i = 0; i < n.nodeCount(); i++)
+      {
+        m_pending.push(n.nodeAt(i));
+      }
+    }
+
+    /**
+     * Gets the element returned for an entry
+     *
+     * @param n
+     *          The node
+     * @param i
+     *          The position of the entry in the node
+     * @return The element
+     */
+    protected abstract T get(Node n, int i);
+
+    @Override
+    public boolean hasNext()
+    {
+      while (m_index >= m_node.entryCount())
+      {
+        if (m_pending.isEmpty())
+        {
+          return false;
+        }
+        visit(m_pending.pop());
+      }
+      return true;
+    }
+
+    @Override
+    public T next()
+    {
+      if (!hasNext())
+      {
+        throw new NoSuchElementException();
+      }
+      return get(m_node, m_index++);
+    }
+
+    @Override
+    public void remove()
+    {
+      throw new UnsupportedOperationException();
+    }
+  }
+}
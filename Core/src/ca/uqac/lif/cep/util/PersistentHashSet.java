@@ -0,0 +1,145 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.util;
+
+import java.io.Serializable;
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * An immutable set that is updated by creating new versions of itself. The
+ * set is stored in a {@link PersistentHashMap}, and shares its cost: adding
+ * or removing an element takes O(log<sub>32</sub> <i>n</i>) time, and the new
+ * version shares most of its memory with the previous one.
+ * <p>
+ * The set implements the read-only methods of {@link Set}; its mutator
+ * methods throw an {@link UnsupportedOperationException}. It is updated with
+ * {@link #plus(Object) plus()} and {@link #minus(Object) minus()} instead,
+ * which leave the original set unchanged.
+ *
+ * @param <E>
+ *          The type of the elements
+ * @author Sylvain Hallé
+ */
+public class PersistentHashSet<E> extends AbstractSet<E> implements Serializable
+{
+  /**
+   * Dummy UID
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The empty set
+   */
+  protected static final PersistentHashSet<Object> EMPTY = new PersistentHashSet<Object>(
+      PersistentHashMap.<Object, Boolean> empty());
+
+  /**
+   * The map whose keys are the elements of the set
+   */
+  protected final PersistentHashMap<E, Boolean> m_map;
+
+  /**
+   * Gets the empty set
+   *
+   * @param <E>
+   *          The type of the elements
+   * @return The set
+   */
+  @SuppressWarnings("unchecked")
+  public static <E> PersistentHashSet<E> empty()
+  {
+    // The empty set holds no element of any type
+    return (PersistentHashSet<E>) EMPTY;
+  }
+
+  /**
+   * Creates a new set
+   *
+   * @param map
+   *          The map whose keys are the elements of the set
+   */
+  protected PersistentHashSet(PersistentHashMap<E, Boolean> map)
+  {
+    super();
+    m_map = map;
+  }
+
+  /**
+   * Gets a version of this set with an element added
+   *
+   * @param e
+   *          The element
+   * @return The new set, or this set if it already contains the element
+   */
+  public PersistentHashSet<E> plus(/* @Null */ E e)
+  {
+    PersistentHashMap<E, Boolean> map = m_map.plus(e, Boolean.TRUE);
+    return map == m_map ? this : new PersistentHashSet<E>(map);
+  }
+
+  /**
+   * Gets a version of this set with all the elements of a collection added
+   *
+   * @param c
+   *          The collection
+   * @return The new set
+   */
+  public PersistentHashSet<E> plusAll(/* @NotNull */ Collection<? extends E> c)
+  {
+    PersistentHashMap<E, Boolean> map = m_map;
+    for (E e : c)
+    {
+      map = map.plus(e, Boolean.TRUE);
+    }
+    return map == m_map ? this : new PersistentHashSet<E>(map);
+  }
+
+  /**
+   * Gets a version of this set with an element removed
+   *
+   * @param e
+   *          The element
+   * @return The new set, or this set if it does not contain the element
+   */
+  public PersistentHashSet<E> minus(/* @Null */ Object e)
+  {
+    PersistentHashMap<E, Boolean> map = m_map.minus(e);
+    return map == m_map ? this : new PersistentHashSet<E>(map);
+  }
+
+  @Override
+  public boolean contains(/* @Null */ Object o)
+  {
+    return m_map.containsKey(o);
+  }
+
+  @Override
+  public Iterator<E> iterator()
+  {
+    return m_map.keyIterator();
+  }
+
+  @Override
+  public int size()
+  {
+    return m_map.size();
+  }
+}
@@ -17,8 +17,10 @@
  */
 package ca.uqac.lif.cep.util;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.UniformProcessor;
 import ca.uqac.lif.cep.functions.BinaryFunction;
+import java.io.IOException;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -68,6 +70,21 @@ public class Sets
       m_set.clear();
     }
 
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeCollection(m_set);
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_set.clear();
+      in.readCollection(m_set);
+    }
+
     @Override
     public Class<?> getOutputType(int index)
     {
@@ -109,16 +126,49 @@ public class Sets
   }
 
   /**
-   * Updates a set.
+   * Updates a set, and outputs a new copy of it on every event. The copies
+   * are {@link PersistentHashSet}s: they cannot be modified, and each of them
+   * shares most of its memory with the previous one, so that producing a copy
+   * takes O(log<sub>32</sub> <i>n</i>) time instead of O(<i>n</i>). They can
+   * therefore be kept, or handed to other threads, while the processor keeps
+   * on receiving events.
    */
-  public static class PutIntoNew extends SetUpdateProcessor
+  public static class PutIntoNew extends UniformProcessor
   {
+    /**
+     * The current version of the set
+     */
+    protected PersistentHashSet<Object> m_set;
+
     /**
      * Create a new instance of the processor
      */
     public PutIntoNew()
     {
-      super();
+      super(1, 1);
+      m_set = PersistentHashSet.empty();
+    }
+
+    @Override
+    public void reset()
+    {
+      super.reset();
+      m_set = PersistentHashSet.empty();
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeObject(m_set);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_set = (PersistentHashSet<Object>) in.readObject();
     }
 
     @Override
@@ -127,7 +177,8 @@ public class Sets
       PutIntoNew pi = new PutIntoNew();
       if (with_state)
       {
-        pi.m_set.addAll(m_set);
+        // The set is immutable and can be shared
+        pi.m_set = m_set;
       }
       return pi;
     }
@@ -135,12 +186,16 @@ public class Sets
     @Override
     protected boolean compute(Object[] inputs, Object[] outputs)
     {
-      m_set.add(inputs[0]);
-      HashSet<Object> new_set = new HashSet<Object>();
-      new_set.addAll(m_set);
-      outputs[0] = new_set;
+      m_set = m_set.plus(inputs[0]);
+      outputs[0] = m_set;
       return true;
     }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return Set.class;
+    }
   }
 
   /**
@@ -0,0 +1,585 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.util;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.UniformProcessor;
+import ca.uqac.lif.cep.functions.BinaryFunction;
+import ca.uqac.lif.cep.functions.UnaryFunction;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Finds the most frequent elements of a stream, using a fixed amount of
+ * memory. The Space-Saving algorithm keeps at most <i>k</i> counters, each
+ * attached to an element. An element that has a counter increments it; an
+ * element that has none takes the counter of the element with the smallest
+ * count, and increments it. The count of an element is therefore never below
+ * its actual frequency, and exceeds it by at most the count it inherited,
+ * which is kept as the <em>error</em> of the counter. This error is at most
+ * <i>n</i>/<i>k</i>, where <i>n</i> is the number of elements added; any
+ * element whose frequency is above this bound is guaranteed to have a
+ * counter. The counters are kept sorted, so that adding an element takes
+ * O(log <i>k</i>) time.
+ * <p>
+ * Two summaries can be merged: the counts of an element in both are added,
+ * and only the <i>k</i> largest counts are kept.
+ * <p>
+ * This class also contains the functions and processors that handle
+ * summaries:
+ * <ul>
+ * <li>{@link PutInto} adds each input event to a summary, and outputs the
+ * summary</li>
+ * <li>{@link GetTop} returns the list of the most frequent elements of a
+ * summary</li>
+ * <li>{@link #union} merges two summaries</li>
+ * </ul>
+ *
+ * @author Sylvain Hallé
+ */
+public class SpaceSaving implements Serializable
+{
+  /**
+   * Dummy UID
+   */
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The default number of counters
+   */
+  public static final int DEFAULT_K = 100;
+
+  /**
+   * A single instance of the {@link Union} function
+   */
+  public static final Union union = new Union();
+
+  /**
+   * The maximum number of counters
+   */
+  protected final int m_k;
+
+  /**
+   * The counters, indexed by element
+   */
+  protected final Map<Object, Counter> m_counters;
+
+  /**
+   * The counters, sorted by increasing count
+   */
+  protected final TreeSet<Counter> m_sorted;
+
+  /**
+   * The number of elements added to the summary
+   */
+  protected long m_total = 0;
+
+  /**
+   * The number given to the next counter created, to tell apart counters
+   * with the same count
+   */
+  protected long m_nextId = 0;
+
+  /**
+   * Creates a new summary with the default number of counters
+   */
+  public SpaceSaving()
+  {
+    this(DEFAULT_K);
+  }
+
+  /**
+   * Creates a new summary
+   *
+   * @param k
+   *          The maximum number of counters
+   */
+  public SpaceSaving(int k)
+  {
+    super();
+    if (k < 1)
+    {
+      throw new IllegalArgumentException("k must be positive");
+    }
+    m_k = k;
+    m_counters = new HashMap<Object, Counter>();
+    m_sorted = new TreeSet<Counter>();
+  }
+
+  /**
+   * Gets the maximum number of counters
+   *
+   * @return The number of counters
+   */
+  public int getK()
+  {
+    return m_k;
+  }
+
+  /**
+   * Gets the number of elements added to the summary
+   *
+   * @return The number of elements
+   */
+  public long getTotal()
+  {
+    return m_total;
+  }
+
+  /**
+   * Gets the largest amount by which the count of an element can exceed its
+   * actual frequency
+   *
+   * @return The error
+   */
+  public long getErrorBound()
+  {
+    if (m_counters.size() < m_k)
+    {
+      return 0;
+    }
+    return m_sorted.first().m_count;
+  }
+
+  /**
+   * Adds an occurrence of an element to the summary
+   *
+   * @param o
+   *          The element
+   * @return The count of the element, including this occurrence
+   */
+  public long add(/* @Null */ Object o)
+  {
+    return add(o, 1, 0);
+  }
+
+  /**
+   * Adds occurrences of an element to the summary
+   *
+   * @param o
+   *          The element
+   * @param count
+   *          The number of occurrences
+   * @param error
+   *          The error on this number
+   * @return The count of the element, including these occurrences
+   */
+  protected long add(Object o, long count, long error)
+  {
+    m_total += count;
+    Counter c = m_counters.get(o);
+    if (c != null)
+    {
+      m_sorted.remove(c);
+      c.m_count += count;
+      c.m_error += error;
+      m_sorted.add(c);
+      return c.m_count;
+    }
+    if (m_counters.size() < m_k)
+    {
+      c = new Counter(o, count, error, m_nextId++);
+    }
+    else
+    {
+      // Take over the counter of the least frequent element
+      Counter min = m_sorted.pollFirst();
+      m_counters.remove(min.m_element);
+      c = new Counter(o, min.m_count + count, min.m_count + error, m_nextId++);
+    }
+    m_counters.put(o, c);
+    m_sorted.add(c);
+    return c.m_count;
+  }
+
+  /**
+   * Gets the count of an element
+   *
+   * @param o
+   *          The element
+   * @return The count, or 0 if the element has no counter
+   */
+  public long getCount(/* @Null */ Object o)
+  {
+    Counter c = m_counters.get(o);
+    return c == null ? 0 : c.m_count;
+  }
+
+  /**
+   * Gets the counters of the most frequent elements
+   *
+   * @param n
+   *          The maximum number of counters to return
+   * @return The counters, by decreasing count
+   */
+  public List<Counter> getTop(int n)
+  {
+    List<Counter> list = new ArrayList<Counter>(Math.min(n, m_sorted.size()));
+    Iterator<Counter> it = m_sorted.descendingIterator();
+    while (it.hasNext() && list.size() < n)
+    {
+      list.add(it.next());
+    }
+    return list;
+  }
+
+  /**
+   * Merges another summary into this one. Elements absent from a full
+   * summary are given the smallest count of that summary, both as a count and
+   * as an error, so that counts remain upper bounds of actual frequencies.
+   *
+   * @param other
+   *          The other summary
+   * @return This summary
+   */
+  public SpaceSaving merge(/* @NotNull */ SpaceSaving other)
+  {
+    long min_this = getErrorBound();
+    long min_other = other.getErrorBound();
+    Set<Object> elements = new HashSet<Object>(m_counters.keySet());
+    elements.addAll(other.m_counters.keySet());
+    List<Counter> merged = new ArrayList<Counter>(elements.size());
+    for (Object o : elements)
+    {
+      Counter c1 = m_counters.get(o);
+      Counter c2 = other.m_counters.get(o);
+      long count = (c1 == null ? min_this : c1.m_count) + (c2 == null ? min_other : c2.m_count);
+      long error = (c1 == null ? min_this : c1.m_error) + (c2 == null ? min_other : c2.m_error);
+      merged.add(new Counter(o, count, error, 0));
+    }
+    long total = m_total + other.m_total;
+    clear();
+    m_total = total;
+    for (Counter c : merged)
+    {
+      c.m_id = m_nextId++;
+      m_sorted.add(c);
+      if (m_sorted.size() > m_k)
+      {
+        m_sorted.pollFirst();
+      }
+    }
+    for (Counter c : m_sorted)
+    {
+      m_counters.put(c.m_element, c);
+    }
+    return this;
+  }
+
+  /**
+   * Creates a copy of this summary
+   *
+   * @return The copy
+   */
+  public SpaceSaving copy()
+  {
+    SpaceSaving s = new SpaceSaving(m_k);
+    for (Counter c : m_sorted)
+    {
+      Counter copy = new Counter(c.m_element, c.m_count, c.m_error, c.m_id);
+      s.m_counters.put(copy.m_element, copy);
+      s.m_sorted.add(copy);
+    }
+    s.m_total = m_total;
+    s.m_nextId = m_nextId;
+    return s;
+  }
+
+  /**
+   * Empties the summary
+   */
+  public void clear()
+  {
+    m_counters.clear();
+    m_sorted.clear();
+    m_total = 0;
+    m_nextId = 0;
+  }
+
+  @Override
+  public String toString()
+  {
+    return getTop(m_k).toString();
+  }
+
+  /**
+   * The counter of an element
+   */
+  public static class Counter implements Comparable<Counter>, Serializable
+  {
+    /**
+     * Dummy UID
+     */
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The element
+     */
+    protected final Object m_element;
+
+    /**
+     * The count of the element
+     */
+    protected long m_count;
+
+    /**
+     * The largest amount by which the count can exceed the actual frequency
+     * of the element
+     */
+    protected long m_error;
+
+    /**
+     * A number telling apart counters with the same count
+     */
+    protected long m_id;
+
+    Counter(Object element, long count, long error, long id)
+    {
+      super();
+      m_element = element;
+      m_count = count;
+      m_error = error;
+      m_id = id;
+    }
+
+    /**
+     * Gets the element of this counter
+     *
+     * @return The element
+     */
+    public Object getElement()
+    {
+      return m_element;
+    }
+
+    /**
+     * Gets the count of the element, which is at least its actual frequency
+     *
+     * @return The count
+     */
+    public long getCount()
+    {
+      return m_count;
+    }
+
+    /**
+     * Gets the largest amount by which the count can exceed the actual
+     * frequency of the element
+     *
+     * @return The error
+     */
+    public long getError()
+    {
+      return m_error;
+    }
+
+    @Override
+    public int compareTo(Counter c)
+    {
+      if (m_count != c.m_count)
+      {
+        return m_count < c.m_count ? -1 : 1;
+      }
+      if (m_id != c.m_id)
+      {
+        return m_id < c.m_id ? -1 : 1;
+      }
+      return 0;
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+      return o == this;
+    }
+
+    @Override
+    public int hashCode()
+    {
+      return (int) m_id;
+    }
+
+    @Override
+    public String toString()
+    {
+      return m_element + "=" + m_count;
+    }
+  }
+
+  /**
+   * Function that returns the most frequent elements of a summary, by
+   * decreasing count
+   */
+  @SuppressWarnings("rawtypes")
+  public static class GetTop extends UnaryFunction<SpaceSaving, List>
+  {
+    /**
+     * The maximum number of elements to return
+     */
+    protected final int m_n;
+
+    /**
+     * Creates a new instance of the function
+     *
+     * @param n
+     *          The maximum number of elements to return
+     */
+    public GetTop(int n)
+    {
+      super(SpaceSaving.class, List.class);
+      m_n = n;
+    }
+
+    @Override
+    public List getValue(SpaceSaving x)
+    {
+      List<Object> list = new ArrayList<Object>(m_n);
+      for (Counter c : x.getTop(m_n))
+      {
+        list.add(c.m_element);
+      }
+      return list;
+    }
+
+    @Override
+    public GetTop duplicate(boolean with_state)
+    {
+      return new GetTop(m_n);
+    }
+  }
+
+  /**
+   * Function that merges two summaries into a new one
+   */
+  public static class Union extends BinaryFunction<SpaceSaving, SpaceSaving, SpaceSaving>
+  {
+    protected Union()
+    {
+      super(SpaceSaving.class, SpaceSaving.class, SpaceSaving.class);
+    }
+
+    @Override
+    public SpaceSaving getValue(SpaceSaving x, SpaceSaving y)
+    {
+      return x.copy().merge(y);
+    }
+
+    @Override
+    public Union duplicate(boolean with_state)
+    {
+      return this;
+    }
+  }
+
+  /**
+   * Adds each input event to a summary, and outputs the summary. The same
+   * summary object is output every time.
+   */
+  public static class PutInto extends UniformProcessor
+  {
+    /**
+     * The underlying summary
+     */
+    protected SpaceSaving m_summary;
+
+    /**
+     * Creates a new instance of the processor with the default number of
+     * counters
+     */
+    public PutInto()
+    {
+      this(DEFAULT_K);
+    }
+
+    /**
+     * Creates a new instance of the processor
+     *
+     * @param k
+     *          The maximum number of counters
+     */
+    public PutInto(int k)
+    {
+      super(1, 1);
+      m_summary = new SpaceSaving(k);
+    }
+
+    /**
+     * Gets the underlying summary
+     *
+     * @return The summary
+     */
+    public SpaceSaving getSummary()
+    {
+      return m_summary;
+    }
+
+    @Override
+    protected boolean compute(Object[] inputs, Object[] outputs)
+    {
+      m_summary.add(inputs[0]);
+      outputs[0] = m_summary;
+      return true;
+    }
+
+    @Override
+    public Class<?> getOutputType(int index)
+    {
+      return SpaceSaving.class;
+    }
+
+    @Override
+    public void reset()
+    {
+      super.reset();
+      m_summary.clear();
+    }
+
+    @Override
+    public void writeState(Checkpoint.Output out) throws IOException
+    {
+      super.writeState(out);
+      out.writeObject(m_summary);
+    }
+
+    @Override
+    public void readState(Checkpoint.Input in) throws IOException
+    {
+      super.readState(in);
+      m_summary = (SpaceSaving) in.readObject();
+    }
+
+    @Override
+    public PutInto duplicate(boolean with_state)
+    {
+      PutInto p = new PutInto(m_summary.m_k);
+      if (with_state)
+      {
+        p.m_summary = m_summary.copy();
+      }
+      return p;
+    }
+  }
+}
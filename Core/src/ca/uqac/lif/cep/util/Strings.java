@@ -19,6 +19,7 @@ package ca.uqac.lif.cep.util;
 
 import ca.uqac.lif.cep.functions.BinaryFunction;
 import ca.uqac.lif.cep.functions.UnaryFunction;
+import java.util.BitSet;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Matcher;
@@ -104,7 +105,8 @@ public class Strings
   }
 
   /**
-   * Checks if a string matches a regular expression
+   * Checks if a string matches a regular expression. Compiled expressions are
+   * kept in a {@link PatternCache}.
    */
   public static class Matches extends BinaryFunction<String, String, Boolean>
   {
@@ -118,7 +120,7 @@ public class Strings
     @Override
     public Boolean getValue(String s1, String s2)
     {
-      return s1.matches(s2);
+      return PatternCache.instance.matcher(s2, s1).matches();
     }
   }
 
@@ -163,10 +165,21 @@ public class Strings
      */
     protected boolean m_trim = true;
 
+    /**
+     * The compiled separator, or {@code null} if the separator is a single
+     * literal character, which {@link String#split(String)} handles without
+     * using a regular expression
+     */
+    protected transient Pattern m_pattern = null;
+
     public SplitString(String separator)
     {
       super(String.class, Object.class);
       m_separator = separator;
+      if (separator.length() != 1 || ".$|()[{^?*+\\".indexOf(separator.charAt(0)) >= 0)
+      {
+        m_pattern = PatternCache.instance.get(separator);
+      }
     }
 
     /**
@@ -185,7 +198,15 @@ public class Strings
     @Override
     public Object getValue(String s)
     {
-      String[] parts = s.split(m_separator);
+      String[] parts;
+      if (m_pattern == null)
+      {
+        parts = s.split(m_separator);
+      }
+      else
+      {
+        parts = m_pattern.split(s);
+      }
       Object[] typed_parts = new Object[parts.length];
       for (int i = 0; i < parts.length; i++)
       {
@@ -266,7 +287,7 @@ public class Strings
     {
       super(String.class, Set.class);
       m_regex = regex;
-      m_pattern = Pattern.compile(regex);
+      m_pattern = PatternCache.instance.get(regex);
     }
 
     @Override
@@ -281,4 +302,146 @@ public class Strings
       return set;
     }
   }
+
+  /**
+   * Finds all the occurrences of a regular expression in a string. Contrary
+   * to {@link FindRegex}, the expression is not fixed: it is the function's
+   * second argument. Compiled expressions are kept in a {@link PatternCache}.
+   * The function returns the set of strings captured by the first group of
+   * the expression in each occurrence.
+   */
+  @SuppressWarnings("rawtypes")
+  public static class FindMatches extends BinaryFunction<String, String, Set>
+  {
+    public static final FindMatches instance = new FindMatches();
+
+    protected FindMatches()
+    {
+      super(String.class, String.class, Set.class);
+    }
+
+    @Override
+    public Set getValue(String s, String regex)
+    {
+      Matcher mat = PatternCache.instance.matcher(regex, s);
+      Set<String> set = new HashSet<String>();
+      while (mat.find())
+      {
+        set.add(mat.group(1));
+      }
+      return set;
+    }
+  }
+
+  /**
+   * Checks if a string contains at least one of a set of keywords. The
+   * string is scanned only once, whatever the number of keywords; this is
+   * much faster than combining many instances of {@link Contains} with a
+   * disjunction.
+   */
+  public static class ContainsAny extends UnaryFunction<String, Boolean>
+  {
+    /**
+     * The automaton used to find the keywords
+     */
+    protected final KeywordMatcher m_matcher;
+
+    /**
+     * Creates a new instance of the function
+     * 
+     * @param ignore_case
+     *          Set to {@code true} to ignore case when comparing characters
+     * @param keywords
+     *          The keywords to look for
+     */
+    public ContainsAny(boolean ignore_case, String ... keywords)
+    {
+      this(new KeywordMatcher(ignore_case, keywords));
+    }
+
+    /**
+     * Creates a new instance of the function
+     * 
+     * @param keywords
+     *          The keywords to look for
+     */
+    public ContainsAny(String ... keywords)
+    {
+      this(false, keywords);
+    }
+
+    /**
+     * Creates a new instance of the function
+     * 
+     * @param matcher
+     *          The automaton used to find the keywords
+     */
+    public ContainsAny(KeywordMatcher matcher)
+    {
+      super(String.class, Boolean.class);
+      m_matcher = matcher;
+    }
+
+    @Override
+    public Boolean getValue(String s)
+    {
+      return m_matcher.containsAny(s);
+    }
+  }
+
+  /**
+   * Finds which keywords of a set occur in a string. The function returns a
+   * {@link BitSet}, where the bit at index <i>k</i> is set if the <i>k</i>-th
+   * keyword occurs in the string. The string is scanned only once, whatever
+   * the number of keywords.
+   */
+  public static class FindKeywords extends UnaryFunction<String, BitSet>
+  {
+    /**
+     * The automaton used to find the keywords
+     */
+    protected final KeywordMatcher m_matcher;
+
+    /**
+     * Creates a new instance of the function
+     * 
+     * @param ignore_case
+     *          Set to {@code true} to ignore case when comparing characters
+     * @param keywords
+     *          The keywords to look for
+     */
+    public FindKeywords(boolean ignore_case, String ... keywords)
+    {
+      this(new KeywordMatcher(ignore_case, keywords));
+    }
+
+    /**
+     * Creates a new instance of the function
+     * 
+     * @param keywords
+     *          The keywords to look for
+     */
+    public FindKeywords(String ... keywords)
+    {
+      this(false, keywords);
+    }
+
+    /**
+     * Creates a new instance of the function
+     * 
+     * @param matcher
+     *          The automaton used to find the keywords
+     */
+    public FindKeywords(KeywordMatcher matcher)
+    {
+      super(String.class, BitSet.class);
+      m_matcher = matcher;
+    }
+
+    @Override
+    public BitSet getValue(String s)
+    {
+      return m_matcher.find(s);
+    }
+  }
 }
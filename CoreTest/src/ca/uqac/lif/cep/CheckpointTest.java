@@ -0,0 +1,355 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.junit.Test;
+
+import ca.uqac.lif.cep.functions.Cumulate;
+import ca.uqac.lif.cep.functions.CumulativeFunction;
+import ca.uqac.lif.cep.tmf.CountDecimate;
+import ca.uqac.lif.cep.tmf.Fork;
+import ca.uqac.lif.cep.tmf.QueueSink;
+import ca.uqac.lif.cep.tmf.QueueSource;
+import ca.uqac.lif.cep.tmf.Slice;
+import ca.uqac.lif.cep.tmf.Trim;
+import ca.uqac.lif.cep.tmf.Window;
+import ca.uqac.lif.cep.util.Bags;
+import ca.uqac.lif.cep.util.FindPattern;
+import ca.uqac.lif.cep.util.Lists;
+import ca.uqac.lif.cep.util.Maps;
+import ca.uqac.lif.cep.util.Numbers;
+import ca.uqac.lif.cep.util.Sets;
+
+/**
+ * Unit tests for {@link Checkpoint}.
+ */
+public class CheckpointTest
+{
+	@Test
+	public void testRestoreGroup()
+	{
+		// Uninterrupted run
+		GroupProcessor g1 = createGroup();
+		QueueSink[] s1 = connectSinks(g1);
+		List<Object> expected = new ArrayList<Object>();
+		for (int i = 0; i < 20; i++)
+		{
+			g1.getPushableInput().push(i);
+			if (i == 9)
+			{
+				collect(s1, new ArrayList<Object>());
+			}
+			if (i >= 10)
+			{
+				collect(s1, expected);
+			}
+		}
+		// Run interrupted after 10 events
+		GroupProcessor g2 = createGroup();
+		QueueSink[] s2 = connectSinks(g2);
+		for (int i = 0; i < 10; i++)
+		{
+			g2.getPushableInput().push(i);
+		}
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Checkpoint.save(g2, baos);
+		// Restore into a new graph and resume
+		GroupProcessor g3 = createGroup();
+		QueueSink[] s3 = connectSinks(g3);
+		Checkpoint.restore(g3, new ByteArrayInputStream(baos.toByteArray()));
+		List<Object> actual = new ArrayList<Object>();
+		for (int i = 10; i < 20; i++)
+		{
+			g3.getPushableInput().push(i);
+			collect(s3, actual);
+		}
+		assertEquals(23, expected.size());
+		assertEquals(expected, actual);
+		assertEquals(8, s2[0].getQueue().size());
+	}
+
+	@Test
+	public void testRestorePull()
+	{
+		QueueSource src1 = new QueueSource().setEvents(1, 2, 3, 4, 5);
+		Cumulate sum1 = new Cumulate(new CumulativeFunction<Number>(Numbers.addition));
+		Connector.connect(src1, sum1);
+		Pullable p1 = sum1.getPullableOutput();
+		p1.pull();
+		p1.pull();
+		ByteArrayOutputStream baos_src = new ByteArrayOutputStream();
+		ByteArrayOutputStream baos_sum = new ByteArrayOutputStream();
+		Checkpoint.save(src1, baos_src);
+		Checkpoint.save(sum1, baos_sum);
+		QueueSource src2 = new QueueSource().setEvents(1, 2, 3, 4, 5);
+		Cumulate sum2 = new Cumulate(new CumulativeFunction<Number>(Numbers.addition));
+		Connector.connect(src2, sum2);
+		Checkpoint.restore(src2, new ByteArrayInputStream(baos_src.toByteArray()));
+		Checkpoint.restore(sum2, new ByteArrayInputStream(baos_sum.toByteArray()));
+		Pullable p2 = sum2.getPullableOutput();
+		for (int i = 0; i < 5; i++)
+		{
+			assertEquals(((Number) p1.pull()).floatValue(), ((Number) p2.pull()).floatValue(), 0.0001);
+		}
+	}
+
+	@Test
+	public void testDuplicateWithState()
+	{
+		Window w1 = new Window(new Cumulate(new CumulativeFunction<Number>(Numbers.addition)), 3);
+		QueueSink sink1 = new QueueSink();
+		Connector.connect(w1, sink1);
+		w1.getPushableInput().push(1);
+		w1.getPushableInput().push(2);
+		Window w2 = w1.duplicate(true);
+		QueueSink sink2 = new QueueSink();
+		Connector.connect(w2, sink2);
+		w2.getPushableInput().push(3);
+		assertEquals(6f, ((Number) sink2.getQueue().remove()).floatValue(), 0.0001);
+	}
+
+	@Test
+	public void testSetsPutInto()
+	{
+		assertResumes(new Sets.PutInto(), new Sets.PutInto(), new Sets.PutInto(),
+				new Object[][] {{1}, {2}}, new Object[][] {{3}, {1}});
+	}
+
+	@Test
+	public void testMapsPutInto()
+	{
+		assertResumes(new Maps.PutInto(), new Maps.PutInto(), new Maps.PutInto(),
+				new Object[][] {{"a", 1}, {"b", 2}}, new Object[][] {{"c", 3}, {"a", 4}});
+	}
+
+	@Test
+	public void testMapsArrayPutInto()
+	{
+		assertResumes(new Maps.ArrayPutInto(), new Maps.ArrayPutInto(), new Maps.ArrayPutInto(),
+				new Object[][] {{new Object[] {"a", 1}}, {new Object[] {"b", 2}}},
+				new Object[][] {{new Object[] {"c", 3}}});
+	}
+
+	@Test
+	public void testSetsPutIntoNew()
+	{
+		assertResumes(new Sets.PutIntoNew(), new Sets.PutIntoNew(), new Sets.PutIntoNew(),
+				new Object[][] {{1}, {2}}, new Object[][] {{3}, {1}});
+	}
+
+	@Test
+	public void testMapsPutIntoNew()
+	{
+		assertResumes(new Maps.PutIntoNew(), new Maps.PutIntoNew(), new Maps.PutIntoNew(),
+				new Object[][] {{"a", 1}, {"b", 2}}, new Object[][] {{"c", 3}, {"a", 4}});
+	}
+
+	@Test
+	public void testMapsArrayPutIntoNew()
+	{
+		assertResumes(new Maps.ArrayPutIntoNew(), new Maps.ArrayPutIntoNew(), new Maps.ArrayPutIntoNew(),
+				new Object[][] {{new Object[] {"a", 1}}, {new Object[] {"b", 2}}},
+				new Object[][] {{new Object[] {"c", 3}}});
+	}
+
+	@Test
+	public void testListsPack()
+	{
+		assertResumes(new Lists.Pack(), new Lists.Pack(), new Lists.Pack(),
+				new Object[][] {{1, false}, {2, false}}, new Object[][] {{3, false}, {4, true}, {5, true}});
+	}
+
+	@Test
+	public void testListsTimePack() throws InterruptedException
+	{
+		Lists.TimePack p1 = new Lists.TimePack(20);
+		connectSinks(p1);
+		p1.getPushableInput().push(1);
+		p1.getPushableInput().push(2);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Checkpoint.save(p1, baos);
+		Lists.TimePack p2 = new Lists.TimePack(20);
+		QueueSink sink = connectSinks(p2)[0];
+		Checkpoint.restore(p2, new ByteArrayInputStream(baos.toByteArray()));
+		p2.getPushableInput().push(3);
+		p2.start();
+		try
+		{
+			while (sink.getQueue().isEmpty())
+			{
+				Thread.sleep(5);
+			}
+		}
+		finally
+		{
+			p2.stop();
+		}
+		// The events received before the checkpoint are in the first list
+		assertEquals(Arrays.asList(1, 2, 3), sink.getQueue().remove());
+	}
+
+	@Test
+	public void testBagsRunOn()
+	{
+		// An empty collection outputs the last front of the previous one
+		assertResumes(new Bags.RunOn(new Cumulate(new CumulativeFunction<Number>(Numbers.addition))),
+				new Bags.RunOn(new Cumulate(new CumulativeFunction<Number>(Numbers.addition))),
+				new Bags.RunOn(new Cumulate(new CumulativeFunction<Number>(Numbers.addition))),
+				new Object[][] {{Arrays.asList(1, 2)}}, new Object[][] {{new ArrayList<Object>()}, {Arrays.asList(3)}});
+	}
+
+	@Test
+	public void testFindPattern()
+	{
+		assertResumes(new FindPattern("a+b"), new FindPattern("a+b"), new FindPattern("a+b"),
+				new Object[][] {{"xab xa"}, {"a"}}, new Object[][] {{"ab"}, {"b"}});
+	}
+
+	@Test(expected = ProcessorException.class)
+	public void testMismatch()
+	{
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Checkpoint.save(new Trim(1), baos);
+		Checkpoint.restore(new CountDecimate(2), new ByteArrayInputStream(baos.toByteArray()));
+	}
+
+	/**
+	 * Checks that a processor restored from a checkpoint produces the same
+	 * output as a processor that was not interrupted
+	 * @param p1 The processor that runs without interruption
+	 * @param p2 The processor whose state is saved
+	 * @param p3 The processor into which the state is restored; all three
+	 * must be built in the same way
+	 * @param before The input fronts given before the checkpoint
+	 * @param after The input fronts given after the checkpoint
+	 */
+	protected static void assertResumes(Processor p1, Processor p2, Processor p3, Object[][] before, Object[][] after)
+	{
+		QueueSink[] s1 = connectSinks(p1);
+		QueueSink[] s2 = connectSinks(p2);
+		QueueSink[] s3 = connectSinks(p3);
+		for (Object[] front : before)
+		{
+			push(p1, front);
+			push(p2, front);
+		}
+		collect(s1, new ArrayList<Object>());
+		collect(s2, new ArrayList<Object>());
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Checkpoint.save(p2, baos);
+		Checkpoint.restore(p3, new ByteArrayInputStream(baos.toByteArray()));
+		List<Object> expected = new ArrayList<Object>();
+		List<Object> actual = new ArrayList<Object>();
+		for (Object[] front : after)
+		{
+			push(p1, front);
+			collect(s1, expected);
+			push(p3, front);
+			collect(s3, actual);
+		}
+		assertFalse(expected.isEmpty());
+		assertEquals(expected, actual);
+	}
+
+	/**
+	 * Pushes a front of events to the inputs of a processor
+	 * @param p The processor
+	 * @param front The events
+	 */
+	protected static void push(Processor p, Object[] front)
+	{
+		for (int i = 0; i < front.length; i++)
+		{
+			p.getPushableInput(i).push(front[i]);
+		}
+	}
+
+	/**
+	 * Creates a group made of a window, a slice and a decimation
+	 * @return The group
+	 */
+	protected static GroupProcessor createGroup()
+	{
+		GroupProcessor g = new GroupProcessor(1, 3);
+		Fork f = new Fork(3);
+		Window w = new Window(new Cumulate(new CumulativeFunction<Number>(Numbers.addition)), 3);
+		Slice s = new Slice(Numbers.isEven, new Cumulate(new CumulativeFunction<Number>(Numbers.addition)));
+		CountDecimate d = new CountDecimate(3);
+		Trim t = new Trim(1);
+		Connector.connect(f, 0, w, 0);
+		Connector.connect(f, 1, s, 0);
+		Connector.connect(f, 2, d, 0);
+		Connector.connect(d, t);
+		g.addProcessors(f, w, s, d, t);
+		g.associateInput(0, f, 0);
+		g.associateOutput(0, w, 0);
+		g.associateOutput(1, s, 0);
+		g.associateOutput(2, t, 0);
+		return g;
+	}
+
+	/**
+	 * Connects a sink to each output of a processor
+	 * @param p The processor
+	 * @return The sinks
+	 */
+	protected static QueueSink[] connectSinks(Processor p)
+	{
+		QueueSink[] sinks = new QueueSink[p.getOutputArity()];
+		for (int i = 0; i < sinks.length; i++)
+		{
+			sinks[i] = new QueueSink();
+			Connector.connect(p, i, sinks[i], 0);
+		}
+		return sinks;
+	}
+
+	/**
+	 * Removes the events from sinks and adds them to a list. Maps are copied,
+	 * as the slice outputs the same map object every time.
+	 * @param sinks The sinks
+	 * @param list The list
+	 */
+	protected static void collect(QueueSink[] sinks, List<Object> list)
+	{
+		for (int i = 0; i < sinks.length; i++)
+		{
+			Queue<Object> q = sinks[i].getQueue();
+			while (!q.isEmpty())
+			{
+				Object o = q.remove();
+				if (o instanceof Map)
+				{
+					o = new HashMap<Object, Object>((Map<?, ?>) o);
+				}
+				list.add(i + ":" + o);
+			}
+		}
+	}
+}
@@ -23,10 +23,15 @@ import java.util.HashSet;
 import java.util.Queue;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.junit.Test;
 
 import ca.uqac.lif.cep.functions.ApplyFunction;
+import ca.uqac.lif.cep.functions.Cumulate;
+import ca.uqac.lif.cep.functions.CumulativeFunction;
 import ca.uqac.lif.cep.functions.UnaryFunction;
 import ca.uqac.lif.cep.util.Numbers;
 import ca.uqac.lif.cep.tmf.Fork;
@@ -724,4 +729,120 @@ public class GroupTest
 			
 		}
 	}
+	
+	@Test
+	public void testTemplate()
+	{
+		// A group that adds the running sum of its input to each input event,
+		// containing a nested group
+		GroupProcessor inner = new GroupProcessor(1, 1);
+		{
+			Cumulate sum = new Cumulate(new CumulativeFunction<Number>(Numbers.addition));
+			inner.addProcessor(sum);
+			inner.associateInput(0, sum, 0);
+			inner.associateOutput(0, sum, 0);
+		}
+		GroupProcessor gp = new GroupProcessor(1, 1);
+		Fork f = new Fork(2);
+		ApplyFunction add = new ApplyFunction(Numbers.addition);
+		Connector.connect(f, 0, inner, 0);
+		Connector.connect(inner, 0, add, 0);
+		Connector.connect(f, 1, add, 1);
+		gp.addProcessors(f, inner, add);
+		gp.associateInput(0, f, 0);
+		gp.associateOutput(0, add, 0);
+		gp.setContext("a", 0);
+		ProcessorTemplate template = new ProcessorTemplate(gp);
+		assertSame(gp, template.getPrototype());
+		for (int k = 0; k < 2; k++)
+		{
+			Processor p = template.newInstance();
+			assertTrue(p instanceof GroupProcessor);
+			assertNotSame(gp, p);
+			assertEquals(0, p.getContext("a"));
+			QueueSink sink = new QueueSink();
+			Connector.connect(p, sink);
+			Pushable push = p.getPushableInput();
+			push.push(1);
+			push.push(2);
+			push.push(3);
+			Queue<Object> q = sink.getQueue();
+			assertEquals(2f, ((Number) q.remove()).floatValue(), 0.0001);
+			assertEquals(5f, ((Number) q.remove()).floatValue(), 0.0001);
+			assertEquals(9f, ((Number) q.remove()).floatValue(), 0.0001);
+		}
+		// Each instance has its own state
+		Processor p1 = template.newInstance();
+		Processor p2 = template.newInstance();
+		QueueSink sink1 = new QueueSink();
+		QueueSink sink2 = new QueueSink();
+		Connector.connect(p1, sink1);
+		Connector.connect(p2, sink2);
+		p1.getPushableInput().push(10);
+		p2.getPushableInput().push(1);
+		assertEquals(20f, ((Number) sink1.getQueue().remove()).floatValue(), 0.0001);
+		assertEquals(2f, ((Number) sink2.getQueue().remove()).floatValue(), 0.0001);
+	}
+	
+	@Test
+	public void testTemplateNoLock() throws InterruptedException
+	{
+		GroupProcessor gp = new GroupProcessor(1, 1);
+		Passthrough pt = new Passthrough(1);
+		gp.addProcessor(pt);
+		gp.associateInput(0, pt, 0);
+		gp.associateOutput(0, pt, 0);
+		final ProcessorTemplate template = new ProcessorTemplate(gp);
+		final CountDownLatch locked = new CountDownLatch(1);
+		final CountDownLatch done = new CountDownLatch(1);
+		Thread holder = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				// Another thread copying a group holds the class lock
+				synchronized (GroupProcessor.class)
+				{
+					locked.countDown();
+					try
+					{
+						done.await(10, TimeUnit.SECONDS);
+					}
+					catch (InterruptedException e)
+					{
+						// Stop waiting
+					}
+				}
+			}
+		};
+		holder.start();
+		locked.await();
+		final AtomicReference<Processor> instance = new AtomicReference<Processor>();
+		Thread worker = new Thread()
+		{
+			@Override
+			public void run()
+			{
+				instance.set(template.newInstance());
+			}
+		};
+		worker.start();
+		worker.join(5000);
+		// Instances are created without waiting for the lock
+		Processor p = instance.get();
+		done.countDown();
+		holder.join();
+		worker.join();
+		assertNotNull(p);
+	}
+	
+	@Test
+	public void testTemplateLeaf()
+	{
+		Passthrough pt = new Passthrough(1);
+		ProcessorTemplate template = new ProcessorTemplate(pt);
+		Processor p = template.newInstance();
+		assertTrue(p instanceof Passthrough);
+		assertNotSame(pt, p);
+	}
 }
@@ -24,8 +24,13 @@ import java.util.List;
 
 import org.junit.Test;
 
+import ca.uqac.lif.cep.CompactEventTracker.EventFunction;
+import ca.uqac.lif.cep.functions.Cumulate;
+import ca.uqac.lif.cep.functions.CumulativeFunction;
+import ca.uqac.lif.cep.tmf.BlackHole;
 import ca.uqac.lif.cep.tmf.Passthrough;
 import ca.uqac.lif.cep.tmf.QueueSource;
+import ca.uqac.lif.cep.util.Numbers;
 import ca.uqac.lif.petitpoucet.BrokenChain;
 import ca.uqac.lif.petitpoucet.NodeFunction;
 import ca.uqac.lif.petitpoucet.ProvenanceNode;
@@ -66,6 +71,173 @@ public class ProvenanceTest
 		assertEquals(tracker, pt.getEventTracker());
 	}
 	
+	@Test
+	public void testCompact1()
+	{
+		CompactEventTracker tracker = new CompactEventTracker();
+		QueueSource source = new QueueSource();
+		source.setEvents(new Object[]{1, 2, 3, 4, 5});
+		Cumulate sum = new Cumulate(new CumulativeFunction<Number>(Numbers.addition));
+		Connector.connect(tracker, source, sum);
+		tracker.setTo(source, sum);
+		Pullable p = sum.getPullableOutput();
+		for (int i = 0; i < 3; i++)
+		{
+			p.pull();
+		}
+		assertTrue(tracker.getRecordCount() > 0);
+		ProvenanceNode root = tracker.getProvenanceTree(sum.getId(), 0, 2);
+		assertEquals(new EventFunction(sum.getId(), false, 0, 2), root.getNodeFunction());
+		// The third sum depends on the third input and the second sum
+		ProvenanceNode input = findParent(root, new EventFunction(sum.getId(), true, 0, 2));
+		assertNotNull(input);
+		assertNotNull(findParent(root, new EventFunction(sum.getId(), false, 0, 1)));
+		// The input is the third event output by the source, which is the third
+		// element of its queue
+		ProvenanceNode src_out = findParent(input, new EventFunction(source.getId(), false, 0, 2));
+		assertNotNull(src_out);
+		assertEquals(1, src_out.getParents().size());
+		NodeFunction qf = src_out.getParents().get(0).getNodeFunction();
+		assertTrue(qf instanceof QueueSource.QueueFunction);
+		assertEquals(2, ((QueueSource.QueueFunction) qf).getIndex());
+		// Unknown processor
+		assertTrue(tracker.getProvenanceTree(-1, 0, 0) instanceof BrokenChain);
+		// Event not recorded
+		ProvenanceNode missing = tracker.getProvenanceTree(sum.getId(), 0, 100);
+		assertEquals(1, missing.getParents().size());
+		assertTrue(missing.getParents().get(0) instanceof BrokenChain);
+	}
+	
+	@Test
+	public void testCompactSampling()
+	{
+		CompactEventTracker tracker = new CompactEventTracker().setSamplingRate(2);
+		Passthrough pt = new Passthrough();
+		Connector.connect(pt, new BlackHole());
+		tracker.setTo(pt);
+		Pushable p = pt.getPushableInput();
+		for (int i = 0; i < 10; i++)
+		{
+			p.push(i);
+		}
+		assertEquals(5, tracker.getRecordCount());
+		ProvenanceNode root = tracker.getProvenanceTree(pt.getId(), 0, 4);
+		assertNotNull(findParent(root, new EventFunction(pt.getId(), true, 0, 4)));
+		root = tracker.getProvenanceTree(pt.getId(), 0, 5);
+		assertTrue(root.getParents().get(0) instanceof BrokenChain);
+	}
+	
+	@Test
+	public void testCompactBudget()
+	{
+		CompactEventTracker tracker = new CompactEventTracker().setMemoryBudget(4096);
+		Passthrough pt = new Passthrough();
+		Connector.connect(pt, new BlackHole());
+		tracker.setTo(pt);
+		Pushable p = pt.getPushableInput();
+		int n = 10 * CompactEventTracker.CHUNK_SIZE;
+		for (int i = 0; i < n; i++)
+		{
+			p.push(i);
+		}
+		assertTrue(tracker.getMemoryUsage() <= 4096);
+		assertTrue(tracker.getDiscardedCount() > 0);
+		assertEquals(n, tracker.getRecordCount() + tracker.getDiscardedCount());
+		// The last events are still there, the first ones are gone
+		ProvenanceNode root = tracker.getProvenanceTree(pt.getId(), 0, n - 1);
+		assertNotNull(findParent(root, new EventFunction(pt.getId(), true, 0, n - 1)));
+		root = tracker.getProvenanceTree(pt.getId(), 0, 0);
+		assertTrue(root.getParents().get(0) instanceof BrokenChain);
+	}
+	
+	@Test
+	public void testCompactRetention()
+	{
+		final long[] clock = new long[] {0};
+		CompactEventTracker tracker = new CompactEventTracker()
+		{
+			@Override
+			protected long now()
+			{
+				return clock[0];
+			}
+		};
+		tracker.setRetention(100);
+		Passthrough pt = new Passthrough();
+		Connector.connect(pt, new BlackHole());
+		tracker.setTo(pt);
+		Pushable p = pt.getPushableInput();
+		for (int i = 0; i < CompactEventTracker.CHUNK_SIZE; i++)
+		{
+			p.push(i);
+		}
+		clock[0] = 50;
+		p.push(0);
+		assertEquals(CompactEventTracker.CHUNK_SIZE + 1, tracker.getRecordCount());
+		clock[0] = 120;
+		p.push(0);
+		// The first chunk was last written at time 0 and is discarded
+		assertEquals(2, tracker.getRecordCount());
+		assertEquals(CompactEventTracker.CHUNK_SIZE, tracker.getDiscardedCount());
+	}
+	
+	@Test
+	public void testCompactManyChunks()
+	{
+		CompactEventTracker tracker = new CompactEventTracker();
+		int n = 5 * CompactEventTracker.CHUNK_SIZE;
+		// Processor 1 records its positions in order; the last event of the
+		// first chunk has a second record, which goes into the second chunk
+		for (int i = 0; i < n; i++)
+		{
+			tracker.associateToInput(1, 0, i, 0, i);
+			if (i == CompactEventTracker.CHUNK_SIZE - 1)
+			{
+				tracker.associateToInput(1, 1, i, 0, i);
+			}
+		}
+		// Processor 2 records them in reverse order
+		for (int i = n - 1; i >= 0; i--)
+		{
+			tracker.associateToInput(2, 0, i + 1, 0, i);
+		}
+		int[] positions = {0, CompactEventTracker.CHUNK_SIZE, 3 * CompactEventTracker.CHUNK_SIZE + 7, n - 1};
+		for (int pos : positions)
+		{
+			ProvenanceNode root = tracker.getProvenanceTree(1, 0, pos);
+			assertEquals(1, root.getParents().size());
+			assertNotNull(findParent(root, new EventFunction(1, true, 0, pos)));
+			root = tracker.getProvenanceTree(2, 0, pos);
+			assertEquals(1, root.getParents().size());
+			assertNotNull(findParent(root, new EventFunction(2, true, 0, pos + 1)));
+		}
+		ProvenanceNode root = tracker.getProvenanceTree(1, 0, CompactEventTracker.CHUNK_SIZE - 1);
+		assertEquals(2, root.getParents().size());
+		assertNotNull(findParent(root, new EventFunction(1, true, 1, CompactEventTracker.CHUNK_SIZE - 1)));
+		root = tracker.getProvenanceTree(1, 0, n);
+		assertTrue(root.getParents().get(0) instanceof BrokenChain);
+		root = tracker.getProvenanceTree(2, 0, -1);
+		assertTrue(root.getParents().get(0) instanceof BrokenChain);
+	}
+	
+	/**
+	 * Finds the parent of a provenance node that has a given node function
+	 * @param node The node
+	 * @param f The node function
+	 * @return The parent, or {@code null} if no parent has this function
+	 */
+	protected static ProvenanceNode findParent(ProvenanceNode node, NodeFunction f)
+	{
+		for (ProvenanceNode parent : node.getParents())
+		{
+			if (f.equals(parent.getNodeFunction()))
+			{
+				return parent;
+			}
+		}
+		return null;
+	}
+	
 	/**
 	 * A "dummy" event tracker that just records whatever calls have been made
 	 * to it. It is used for testing.
@@ -21,6 +21,15 @@ import static org.junit.Assert.*;
 
 import org.junit.Test;
 
+import ca.uqac.lif.cep.functions.ApplyFunction;
+import ca.uqac.lif.cep.functions.Constant;
+import ca.uqac.lif.cep.functions.ContextAssignment;
+import ca.uqac.lif.cep.functions.ContextVariable;
+import ca.uqac.lif.cep.functions.FunctionTree;
+import ca.uqac.lif.cep.functions.StreamVariable;
+import ca.uqac.lif.cep.tmf.QueueSink;
+import ca.uqac.lif.cep.util.Numbers;
+
 /**
  * Unit tests for the {@link Context} object.
  */
@@ -43,5 +52,112 @@ public class TestContext
 		Context c2 = new Context(null);
 		assertTrue(c2.isEmpty());
 	}
-
+	
+	@Test
+	public void testIndexed1()
+	{
+		ContextSchema schema = new ContextSchema("a", "b");
+		assertEquals(0, schema.indexOf("a"));
+		assertEquals(1, schema.indexOf("b"));
+		assertEquals(-1, schema.indexOf("c"));
+		IndexedContext c = new IndexedContext(schema);
+		assertTrue(c.isEmpty());
+		c.put("a", 0);
+		c.put("c", 2);
+		c.put("d", null);
+		assertEquals(4, schema.size());
+		assertEquals(0, c.get("a"));
+		assertEquals(0, c.get(schema.getSlot("a")));
+		assertEquals(2, c.get("c"));
+		assertNull(c.get("b"));
+		assertFalse(c.containsKey("b"));
+		assertTrue(c.containsKey("d"));
+		assertNull(c.get("d"));
+		assertEquals(3, c.size());
+		c.set(schema.getSlot("a"), 10);
+		assertEquals(10, c.get("a"));
+		// Copying into a plain map sees the values stored in slots
+		Context plain = new Context(c);
+		assertEquals(10, plain.get("a"));
+		assertEquals(2, plain.get("c"));
+		assertEquals(3, plain.size());
+		assertEquals(10, c.remove("a"));
+		assertFalse(c.containsKey("a"));
+		assertEquals(2, c.size());
+	}
+	
+	@Test
+	public void testIndexedPutAll()
+	{
+		ContextSchema schema = new ContextSchema("a");
+		IndexedContext c1 = new IndexedContext(schema);
+		c1.put("a", 0);
+		c1.put("b", 1);
+		c1.size(); // Forces the map to be updated
+		c1.put("a", 5);
+		IndexedContext c2 = new IndexedContext(schema);
+		c2.putAll(c1);
+		assertEquals(5, c2.get("a"));
+		assertEquals(1, c2.get("b"));
+		IndexedContext c3 = new IndexedContext(new ContextSchema());
+		c3.putAll(c1);
+		assertEquals(5, c3.get("a"));
+		assertEquals(1, c3.get("b"));
+	}
+	
+	@Test
+	public void testIndexedVariable()
+	{
+		ContextVariable v = new ContextVariable("a");
+		ContextAssignment ca = new ContextAssignment("a", new Constant(6));
+		Object[] out = new Object[1];
+		IndexedContext c1 = new IndexedContext(new ContextSchema("x", "a"));
+		v.evaluate(new Object[0], out, c1);
+		assertNull(out[0]);
+		ca.assign(new Object[0], out, c1);
+		v.evaluate(new Object[0], out, c1);
+		assertEquals(6, out[0]);
+		assertEquals(6, c1.get("a"));
+		// The slot is resolved again for a context with another schema
+		IndexedContext c2 = new IndexedContext(new ContextSchema("a"));
+		c2.put("a", 3);
+		v.evaluate(new Object[0], out, c2);
+		assertEquals(3, out[0]);
+		// And still works on a plain context
+		Context c3 = new Context();
+		c3.put("a", 4);
+		v.evaluate(new Object[0], out, c3);
+		assertEquals(4, out[0]);
+	}
+	
+	@Test
+	public void testIndexedProcessor()
+	{
+		ApplyFunction af = new ApplyFunction(new FunctionTree(Numbers.addition, 
+				StreamVariable.X, new ContextVariable("k")));
+		af.setContext("k", 1);
+		ContextSchema schema = new ContextSchema();
+		af.setContextSchema(schema);
+		assertTrue(af.getContext() instanceof IndexedContext);
+		assertEquals(1, af.getContext("k"));
+		ApplyFunction af2 = (ApplyFunction) af.duplicate();
+		assertSame(schema, af2.getContextSchema());
+		assertEquals(1, af2.getContext("k"));
+		Pushable p = af2.getPushableInput();
+		QueueSink sink = new QueueSink();
+		Connector.connect(af2, sink);
+		p.push(2);
+		assertEquals(3f, sink.getQueue().remove());
+		GroupProcessor gp = new GroupProcessor(1, 1);
+		gp.addProcessors(af);
+		gp.associateInput(0, af, 0);
+		gp.associateOutput(0, af, 0);
+		gp.setContextSchema(schema);
+		gp.setContext("k", 10);
+		assertEquals(10, af.getContext("k"));
+		GroupProcessor gp2 = (GroupProcessor) gp.duplicate();
+		Connector.connect(gp2, sink);
+		gp2.getPushableInput().push(2);
+		assertEquals(12f, sink.getQueue().remove());
+	}
 }
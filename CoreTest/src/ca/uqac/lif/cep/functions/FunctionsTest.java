@@ -19,14 +19,19 @@ package ca.uqac.lif.cep.functions;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.HashSet;
+import java.util.Queue;
 import java.util.Set;
 
 import org.junit.Test;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Connector.Variant;
 import ca.uqac.lif.cep.Connector;
 import ca.uqac.lif.cep.Context;
+import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.ProvenanceTest.DummyTracker;
 import ca.uqac.lif.cep.Pushable;
 import ca.uqac.lif.cep.Pushable.PushableException;
@@ -35,6 +40,8 @@ import ca.uqac.lif.cep.util.Equals;
 import ca.uqac.lif.cep.util.Numbers;
 import ca.uqac.lif.cep.tmf.BlackHole;
 import ca.uqac.lif.cep.tmf.Passthrough;
+import ca.uqac.lif.cep.tmf.QueueSink;
+import ca.uqac.lif.cep.tmf.QueueSource;
 
 /**
  * Unit tests for functions
@@ -362,6 +369,97 @@ public class FunctionsTest
 		return out[0];
 	}
 	
+	@Test
+	public void testApplyParallelPush()
+	{
+		ApplyFunctionParallel af = new ApplyFunctionParallel(new SlowDouble(), 4);
+		QueueSink sink = new QueueSink();
+		Connector.connect(af, sink);
+		Pushable p = af.getPushableInput();
+		for (int i = 0; i < 50; i++)
+		{
+			p.push(i);
+		}
+		p.notifyEndOfTrace();
+		Queue<Object> q = sink.getQueue();
+		assertEquals(50, q.size());
+		for (int i = 0; i < 50; i++)
+		{
+			assertEquals(2 * i, ((Number) q.remove()).intValue());
+		}
+		af.stop();
+	}
+	
+	@Test
+	public void testApplyParallelPull()
+	{
+		QueueSource src = new QueueSource().loop(false);
+		for (int i = 0; i < 50; i++)
+		{
+			src.addEvent(i);
+		}
+		ApplyFunctionParallel af = new ApplyFunctionParallel(new SlowDouble(), 3);
+		Connector.connect(src, af);
+		Pullable p = af.getPullableOutput();
+		for (int i = 0; i < 50; i++)
+		{
+			assertTrue(p.hasNext());
+			assertEquals(2 * i, ((Number) p.next()).intValue());
+		}
+		assertFalse(p.hasNext());
+		af.stop();
+	}
+	
+	@Test
+	public void testApplyParallelCheckpoint()
+	{
+		ApplyFunctionParallel af1 = new ApplyFunctionParallel(new SlowDouble(), 4);
+		QueueSink sink1 = new QueueSink();
+		Connector.connect(af1, sink1);
+		Pushable p1 = af1.getPushableInput();
+		for (int i = 0; i < 10; i++)
+		{
+			p1.push(i);
+		}
+		// Some fronts are still in flight when the checkpoint is taken
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Checkpoint.save(af1, baos);
+		af1.stop();
+		Queue<Object> q1 = sink1.getQueue();
+		int before = q1.size();
+		for (int i = 0; i < before; i++)
+		{
+			assertEquals(2 * i, ((Number) q1.remove()).intValue());
+		}
+		ApplyFunctionParallel af2 = new ApplyFunctionParallel(new SlowDouble(), 4);
+		Checkpoint.restore(af2, new ByteArrayInputStream(baos.toByteArray()));
+		QueueSink sink2 = new QueueSink();
+		Connector.connect(af2, sink2);
+		Pushable p2 = af2.getPushableInput();
+		for (int i = 10; i < 20; i++)
+		{
+			p2.push(i);
+		}
+		p2.notifyEndOfTrace();
+		Queue<Object> q2 = sink2.getQueue();
+		assertEquals(20 - before, q2.size());
+		for (int i = before; i < 20; i++)
+		{
+			assertEquals(2 * i, ((Number) q2.remove()).intValue());
+		}
+		af2.stop();
+	}
+	
+	@Test(expected=PushableException.class)
+	public void testApplyParallelException()
+	{
+		ApplyFunctionParallel af = new ApplyFunctionParallel(new ExceptionFunction(), 2);
+		Connector.connect(af, new BlackHole());
+		Pushable p = af.getPushableInput();
+		p.push(0);
+		p.notifyEndOfTrace();
+	}
+	
 	public static Object evaluate(Function f, Object ... inputs) 
 	{
 		Object[] ins = inputs;
@@ -392,6 +490,32 @@ public class FunctionsTest
 		}
 	}
 	
+	/**
+	 * Function that doubles a number, and takes a time that varies from one
+	 * number to the next
+	 */
+	public static class SlowDouble extends UnaryFunction<Number,Number>
+	{
+		public SlowDouble()
+		{
+			super(Number.class, Number.class);
+		}
+
+		@Override
+		public Number getValue(Number x)  
+		{
+			try
+			{
+				Thread.sleep((7 * x.intValue()) % 5);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			return x.intValue() * 2;
+		}
+	}
+	
 	public static class TestPassthroughFunction extends PassthroughFunction
 	{
 		@Override
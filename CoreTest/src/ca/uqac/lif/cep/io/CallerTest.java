@@ -19,12 +19,20 @@ package ca.uqac.lif.cep.io;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 import org.junit.Assume;
 import org.junit.Test;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Connector;
 import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pullable.PullableException;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.tmf.QueueSink;
 import ca.uqac.lif.cep.tmf.QueueSource;
 
 /**
@@ -81,4 +89,212 @@ public class CallerTest
 		String s = new String(bytes);
 		assertEquals("foo", s.trim());
 	}
+	
+	@Test
+	public void testCoProcessLinux()
+	{
+		Assume.assumeFalse(s_osName.contains("Windows"));
+		QueueSource source = new QueueSource();
+		source.setEvents(new Object[]{"foo", "bar".getBytes()});
+		// cat echoes each line it receives
+		Call caller = new Call("cat").setFraming(CoProcess.Framing.LINES);
+		Connector.connect(source, caller);
+		Pullable p = caller.getPullableOutput();
+		assertEquals("foo", new String((byte[]) p.pull()));
+		assertEquals("bar", new String((byte[]) p.pull()));
+		assertEquals("foo", new String((byte[]) p.pull()));
+		caller.stop();
+		// The command is started again on the next event
+		assertEquals("bar", new String((byte[]) p.pull()));
+		caller.stop();
+	}
+	
+	@Test
+	public void testCoProcessEndLinux()
+	{
+		Assume.assumeFalse(s_osName.contains("Windows"));
+		QueueSource source = new QueueSource().loop(false);
+		source.setEvents(new Object[]{"foo"});
+		Call caller = new Call("cat").setFraming(CoProcess.Framing.LINES);
+		Connector.connect(source, caller);
+		Pullable p = caller.getPullableOutput();
+		assertTrue(p.hasNext());
+		assertEquals("foo", new String((byte[]) p.pull()));
+		assertNotNull(caller.m_coProcess.m_process);
+		assertFalse(p.hasNext());
+		// The command is stopped at the end of the trace
+		assertNull(caller.m_coProcess.m_process);
+		// Same thing in push mode
+		QueueSink sink = new QueueSink();
+		Connector.connect(caller, sink);
+		Pushable ps = caller.getPushableInput();
+		ps.push("bar");
+		assertNotNull(caller.m_coProcess.m_process);
+		ps.notifyEndOfTrace();
+		assertNull(caller.m_coProcess.m_process);
+		assertEquals("bar", new String((byte[]) sink.getQueue().remove()));
+	}
+	
+	@Test
+	public void testCommandStringLinux()
+	{
+		Assume.assumeFalse(s_osName.contains("Windows"));
+		QueueSource source = new QueueSource();
+		source.setEvents(new Object[]{"foo"});
+		// A string is accepted outside of co-process mode too
+		Call caller = new Call("cat");
+		Connector.connect(source, caller);
+		Pullable p = caller.getPullableOutput();
+		assertEquals("foo", new String((byte[]) p.pull()));
+	}
+	
+	@Test
+	public void testCallPoolPullLinux()
+	{
+		Assume.assumeFalse(s_osName.contains("Windows"));
+		QueueSource source = new QueueSource().loop(false);
+		source.setEvents(new Object[]{"a", "b", "c", "d", "e"});
+		CallPool pool = new CallPool(2, 3, CoProcess.Framing.LENGTH_PREFIXED, "cat");
+		Connector.connect(source, pool);
+		Pullable p = pool.getPullableOutput();
+		StringBuilder out = new StringBuilder();
+		while (p.hasNext())
+		{
+			out.append(new String((byte[]) p.pull()));
+		}
+		assertEquals("abcde", out.toString());
+		// The commands are stopped at the end of the trace
+		assertNull(pool.m_workers[0].m_process);
+		assertNull(pool.m_workers[1].m_process);
+	}
+	
+	@Test
+	public void testCallPoolPushLinux()
+	{
+		Assume.assumeFalse(s_osName.contains("Windows"));
+		CallPool pool = new CallPool(3, 4, CoProcess.Framing.LINES, "cat");
+		QueueSink sink = new QueueSink();
+		Connector.connect(pool, sink);
+		Pushable p = pool.getPushableInput();
+		for (int i = 0; i < 5; i++)
+		{
+			p.push(Integer.toString(i));
+		}
+		// Only the responses beyond the in-flight bound have been output
+		assertEquals(2, sink.getQueue().size());
+		p.notifyEndOfTrace();
+		assertEquals(5, sink.getQueue().size());
+		for (CoProcess worker : pool.m_workers)
+		{
+			assertNull(worker.m_process);
+		}
+		for (int i = 0; i < 5; i++)
+		{
+			assertEquals(Integer.toString(i), new String((byte[]) sink.getQueue().remove()));
+		}
+		pool.stop();
+	}
+	
+	@Test
+	public void testCallPoolCheckpointLinux()
+	{
+		Assume.assumeFalse(s_osName.contains("Windows"));
+		CallPool pool1 = new CallPool(3, 4, CoProcess.Framing.LINES, "cat");
+		QueueSink sink1 = new QueueSink();
+		Connector.connect(pool1, sink1);
+		Pushable p1 = pool1.getPushableInput();
+		for (int i = 0; i < 5; i++)
+		{
+			p1.push(Integer.toString(i));
+		}
+		// Three requests are still pending when the checkpoint is taken
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Checkpoint.save(pool1, baos);
+		pool1.stop();
+		assertEquals(2, sink1.getQueue().size());
+		CallPool pool2 = new CallPool(3, 4, CoProcess.Framing.LINES, "cat");
+		Checkpoint.restore(pool2, new ByteArrayInputStream(baos.toByteArray()));
+		CallPool pool3 = pool2.duplicate(true);
+		for (CallPool pool : new CallPool[] {pool2, pool3})
+		{
+			assertEquals(2, pool.m_nextWorker);
+			QueueSink sink = new QueueSink();
+			Connector.connect(pool, sink);
+			Pushable p = pool.getPushableInput();
+			p.push("5");
+			p.push("6");
+			p.notifyEndOfTrace();
+			assertEquals(5, sink.getQueue().size());
+			for (int i = 2; i < 7; i++)
+			{
+				assertEquals(Integer.toString(i), new String((byte[]) sink.getQueue().remove()));
+			}
+		}
+	}
+	
+	@Test
+	public void testCommandRunnerLargeLinux() throws IOException
+	{
+		Assume.assumeFalse(s_osName.contains("Windows"));
+		byte[] in = makeBytes(200000);
+		byte[] out = CommandRunner.runAndGet(new String[]{"cat"}, in);
+		assertArrayEquals(in, out);
+	}
+	
+	@Test
+	public void testCommandRunnerSpillLinux() throws IOException, InterruptedException
+	{
+		Assume.assumeFalse(s_osName.contains("Windows"));
+		byte[] in = makeBytes(100000);
+		CommandRunner runner = new CommandRunner(new String[]{"cat"}, in);
+		runner.setMemoryLimit(1000);
+		runner.start();
+		assertEquals(0, runner.waitFor());
+		assertArrayEquals(in, runner.getBytes());
+		InputStream is = runner.getInputStream();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int len;
+		while ((len = is.read(buf)) > 0)
+		{
+			baos.write(buf, 0, len);
+		}
+		is.close();
+		assertArrayEquals(in, baos.toByteArray());
+	}
+	
+	@Test
+	public void testCommandRunnerPushableLinux() throws InterruptedException
+	{
+		Assume.assumeFalse(s_osName.contains("Windows"));
+		byte[] in = makeBytes(50000);
+		QueueSink sink = new QueueSink();
+		CommandRunner runner = new CommandRunner(new String[]{"cat"}, in);
+		runner.setStdoutPushable(sink.getPushableInput());
+		runner.start();
+		assertEquals(0, runner.waitFor());
+		assertEquals(0, runner.getBytes().length);
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		while (!sink.getQueue().isEmpty())
+		{
+			byte[] chunk = (byte[]) sink.getQueue().remove();
+			baos.write(chunk, 0, chunk.length);
+		}
+		assertArrayEquals(in, baos.toByteArray());
+	}
+	
+	/**
+	 * Creates an array of bytes with arbitrary contents
+	 * @param size The size of the array
+	 * @return The array
+	 */
+	protected static byte[] makeBytes(int size)
+	{
+		byte[] b = new byte[size];
+		for (int i = 0; i < size; i++)
+		{
+			b[i] = (byte) ('a' + (i % 26));
+		}
+		return b;
+	}
 }
@@ -21,19 +21,25 @@ import static org.junit.Assert.*;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Assume;
 import org.junit.Test;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.NextStatus;
 import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pullable.PullableException;
 import ca.uqac.lif.cep.Pushable;
 import ca.uqac.lif.cep.Pushable.PushableException;
+import ca.uqac.lif.cep.TimedPullable;
 import ca.uqac.lif.cep.util.FileHelper;
 
 /**
@@ -179,6 +185,29 @@ public class IoTest
 		assertEquals("3.5 3 ", s);
 	}
 	
+	@Test
+	public void testPrintBuffered()
+	{
+		String s;
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Print print = new Print(new PrintStream(baos));
+		print.setSeparator(" ").setPrefix("A").setSuffix("B").setBufferSize(20);
+		Pushable p = print.getPushableInput();
+		p.push("foo");
+		p.push(3.5f);
+		s = new String(baos.toByteArray());
+		// Nothing written yet: buffer not full
+		assertEquals("", s);
+		p.push(3d);
+		p.push(12L);
+		s = new String(baos.toByteArray());
+		assertEquals("AfooB A3.5B A3B A12B ", s);
+		p.push(2.25d);
+		p.notifyEndOfTrace();
+		s = new String(baos.toByteArray());
+		assertEquals("AfooB A3.5B A3B A12B A2.25B ", s);
+	}
+	
 	@Test
 	public void testPrintException1() throws IOException
 	{
@@ -190,6 +219,98 @@ public class IoTest
 		p.push("bar");
 	}
 	
+	@Test
+	public void testReadTuples()
+	{
+		String csv = "# A comment\n\na,b, c\n\n0,1.5,x\n1,2,\"y,\"\"z\"\"\"\r\n2.5,3,4\n,abc,\n";
+		ReadTuples reader = new ReadTuples(new ByteArrayInputStream(csv.getBytes()));
+		Pullable p = reader.getPullableOutput();
+		ReadTuples.Tuple t = (ReadTuples.Tuple) p.pull();
+		assertEquals(3, t.size());
+		assertEquals(0, t.get("a"));
+		assertEquals(1.5, t.get("b"));
+		assertEquals("x", t.get("c"));
+		assertNull(t.get("d"));
+		t = (ReadTuples.Tuple) p.pull();
+		assertEquals(1, t.get(0));
+		assertEquals(2, t.get(1));
+		assertEquals("y,\"z\"", t.get(2));
+		t = (ReadTuples.Tuple) p.pull();
+		assertEquals(2.5, t.get("a"));
+		// Column c is a string column
+		assertEquals("4", t.get("c"));
+		ReadTuples.Tuple t4 = (ReadTuples.Tuple) p.pull();
+		// Empty fields do not change the type of a column, and a value that is
+		// not a number is kept as is
+		assertNull(t4.get("a"));
+		assertEquals("abc", t4.get("b"));
+		assertNull(t4.get("c"));
+		assertFalse(p.hasNext());
+		ReadTuples.GetField f = new ReadTuples.GetField("b");
+		assertEquals(3, f.getValue(t));
+		assertEquals(3, reader.getSchema().size());
+		assertEquals(2, reader.getSchema().indexOf("c"));
+	}
+	
+	@Test
+	public void testReadTuplesDelimiter()
+	{
+		String csv = "x;y\n1;foo\n-3;bar";
+		ReadTuples reader = new ReadTuples(new ByteArrayInputStream(csv.getBytes()));
+		reader.setDelimiter(';');
+		Pullable p = reader.getPullableOutput();
+		ReadTuples.Tuple t = (ReadTuples.Tuple) p.pull();
+		assertEquals(1, t.get("x"));
+		assertEquals("foo", t.get("y"));
+		t = (ReadTuples.Tuple) p.pull();
+		assertEquals(-3, t.get("x"));
+		assertEquals("bar", t.get("y"));
+		assertFalse(p.hasNext());
+	}
+	
+	@Test
+	public void testReadTuplesTypes()
+	{
+		String csv = "x,y\n,\"5\"\n3,6\n\"4\",\n";
+		ReadTuples reader = new ReadTuples(new ByteArrayInputStream(csv.getBytes()));
+		Pullable p = reader.getPullableOutput();
+		ReadTuples.Tuple t = (ReadTuples.Tuple) p.pull();
+		assertNull(t.get("x"));
+		// A quoted first value makes a string column
+		assertEquals("5", t.get("y"));
+		t = (ReadTuples.Tuple) p.pull();
+		// The type of x is decided by its first non-empty value
+		assertEquals(3, t.get("x"));
+		assertEquals("6", t.get("y"));
+		t = (ReadTuples.Tuple) p.pull();
+		assertEquals(4, t.get("x"));
+		assertNull(t.get("y"));
+		assertFalse(p.hasNext());
+	}
+	
+	@Test
+	public void testReadTuplesNumbers()
+	{
+		String csv = "id,v\n123456789,1\n+12345678901,2.25\n99999999999999999999,-1e3\nA7,x\n";
+		ReadTuples reader = new ReadTuples(new ByteArrayInputStream(csv.getBytes()));
+		Pullable p = reader.getPullableOutput();
+		ReadTuples.Tuple t = (ReadTuples.Tuple) p.pull();
+		// Integers keep their precision
+		assertEquals(123456789, t.get("id"));
+		assertEquals(1, t.get("v"));
+		t = (ReadTuples.Tuple) p.pull();
+		assertEquals(12345678901L, t.get("id"));
+		assertEquals(2.25, t.get("v"));
+		t = (ReadTuples.Tuple) p.pull();
+		assertEquals(1e20, t.get("id"));
+		assertEquals(-1000.0, t.get("v"));
+		t = (ReadTuples.Tuple) p.pull();
+		// A value that is not a number is not lost
+		assertEquals("A7", t.get("id"));
+		assertEquals("x", t.get("v"));
+		assertFalse(p.hasNext());
+	}
+	
 	@Test
 	public void testLineReader()
 	{
@@ -270,6 +391,212 @@ public class IoTest
 		p.push(new Object());
 	}
 	
+	@Test
+	public void testEventLog() throws IOException
+	{
+		File dir = createTempDirectory();
+		try
+		{
+			WriteEventLog wel = new WriteEventLog(dir);
+			// Tiny segments, to force the creation of several of them
+			wel.setSegmentSize(100);
+			Pushable p = wel.getPushableInput();
+			for (int i = 0; i < 20; i++)
+			{
+				p.push(i % 2 == 0 ? (Object) i : "foo" + i);
+			}
+			assertEquals(20, wel.getNextSequence());
+			assertTrue(dir.list().length > 1);
+			ReadEventLog rel = new ReadEventLog(dir);
+			Pullable pl = rel.getPullableOutput();
+			for (int i = 0; i < 20; i++)
+			{
+				assertTrue(pl.hasNext());
+				assertEquals(i % 2 == 0 ? (Object) i : "foo" + i, pl.next());
+			}
+			assertFalse(pl.hasNext());
+			assertTrue(rel.getTimestamp() > 0);
+			// Events appended later are picked up by the same source
+			wel.close();
+			WriteEventLog wel2 = new WriteEventLog(dir);
+			wel2.setSegmentSize(100);
+			assertEquals(20, wel2.getNextSequence());
+			wel2.getPushableInput().push("bar");
+			wel2.close();
+			assertTrue(pl.hasNext());
+			assertEquals("bar", pl.next());
+			// Replay from an offset
+			rel.seek(13);
+			assertEquals("foo13", pl.next());
+			assertEquals(14, pl.next());
+		}
+		finally
+		{
+			deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void testEventLogReopen() throws IOException
+	{
+		File dir = createTempDirectory();
+		try
+		{
+			WriteEventLog wel = new WriteEventLog(dir);
+			wel.setSegmentSize(100);
+			wel.getPushableInput().push(0);
+			wel.close();
+			ReadEventLog rel = new ReadEventLog(dir);
+			Pullable pl = rel.getPullableOutput();
+			assertEquals(0, pl.next());
+			assertFalse(pl.hasNext());
+			// Reopen the log and append to the same segment
+			WriteEventLog wel2 = new WriteEventLog(dir);
+			wel2.setSegmentSize(100);
+			wel2.getPushableInput().push(1);
+			wel2.close();
+			assertEquals(1, dir.list().length);
+			assertTrue(pl.hasNext());
+			assertEquals(1, pl.next());
+			assertFalse(pl.hasNext());
+			// A writer with larger segments grows the segment the reader mapped
+			WriteEventLog wel3 = new WriteEventLog(dir);
+			wel3.setSegmentSize(4096);
+			for (int i = 2; i < 20; i++)
+			{
+				wel3.getPushableInput().push(i);
+			}
+			wel3.close();
+			assertEquals(1, dir.list().length);
+			for (int i = 2; i < 20; i++)
+			{
+				assertTrue(pl.hasNext());
+				assertEquals(i, pl.next());
+			}
+			assertFalse(pl.hasNext());
+		}
+		finally
+		{
+			deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void testEventLogFollow() throws IOException, InterruptedException
+	{
+		final File dir = createTempDirectory();
+		try
+		{
+			WriteEventLog wel = new WriteEventLog(dir);
+			wel.getPushableInput().push(0);
+			wel.close();
+			ReadEventLog rel = new ReadEventLog(dir).follow(true);
+			TimedPullable pl = (TimedPullable) rel.getPullableOutput();
+			assertEquals(0, pl.next());
+			// At the end of the log, the source does not say it has ended
+			assertEquals(NextStatus.MAYBE, pl.hasNextSoft());
+			assertEquals(NextStatus.MAYBE, pl.hasNext(10, TimeUnit.MILLISECONDS));
+			Thread writer = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					try
+					{
+						Thread.sleep(50);
+					}
+					catch (InterruptedException e)
+					{
+						// Write right away
+					}
+					WriteEventLog wel2 = new WriteEventLog(dir);
+					wel2.getPushableInput().push(1);
+					wel2.getPushableInput().push(2);
+					wel2.close();
+				}
+			};
+			writer.start();
+			// Waits for the events appended after the end was reached
+			assertTrue(pl.hasNext());
+			assertEquals(1, pl.next());
+			writer.join();
+			assertTrue(pl.hasNext());
+			assertEquals(2, pl.next());
+			// A duplicate follows the log too
+			assertEquals(NextStatus.MAYBE, rel.duplicate(true).getPullableOutput().hasNextSoft());
+		}
+		finally
+		{
+			deleteDirectory(dir);
+		}
+	}
+	
+	@Test
+	public void testEventLogCheckpoint() throws IOException
+	{
+		File dir = createTempDirectory();
+		try
+		{
+			WriteEventLog wel = new WriteEventLog(dir);
+			for (int i = 0; i < 10; i++)
+			{
+				wel.getPushableInput().push(i);
+			}
+			wel.close();
+			ReadEventLog rel1 = new ReadEventLog(dir);
+			Pullable pl1 = rel1.getPullableOutput();
+			pl1.next();
+			pl1.next();
+			pl1.next();
+			ByteArrayOutputStream baos = new ByteArrayOutputStream();
+			Checkpoint.save(rel1, baos);
+			ReadEventLog rel2 = new ReadEventLog(dir);
+			Checkpoint.restore(rel2, new ByteArrayInputStream(baos.toByteArray()));
+			Pullable pl2 = rel2.getPullableOutput();
+			List<Object> events = new ArrayList<Object>();
+			while (pl2.hasNext())
+			{
+				events.add(pl2.next());
+			}
+			assertEquals(7, events.size());
+			assertEquals(3, events.get(0));
+		}
+		finally
+		{
+			deleteDirectory(dir);
+		}
+	}
+	
+	/**
+	 * Creates an empty temporary directory
+	 * @return The directory
+	 * @throws IOException If the directory cannot be created
+	 */
+	protected static File createTempDirectory() throws IOException
+	{
+		File dir = File.createTempFile("eventlog", "");
+		dir.delete();
+		dir.mkdirs();
+		return dir;
+	}
+	
+	/**
+	 * Deletes a directory and the files it contains
+	 * @param dir The directory
+	 */
+	protected static void deleteDirectory(File dir)
+	{
+		File[] files = dir.listFiles();
+		if (files != null)
+		{
+			for (File f : files)
+			{
+				f.delete();
+			}
+		}
+		dir.delete();
+	}
+	
 	/**
 	 * Dummy class to throw an exception
 	 */
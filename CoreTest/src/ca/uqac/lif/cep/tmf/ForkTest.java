@@ -19,15 +19,23 @@ package ca.uqac.lif.cep.tmf;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.NextStatus;
 import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.TimedPullable;
 import ca.uqac.lif.cep.Utilities;
+import ca.uqac.lif.cep.functions.ApplyFunction;
+import ca.uqac.lif.cep.functions.UnaryFunction;
 import ca.uqac.lif.cep.tmf.Fork;
 import ca.uqac.lif.cep.tmf.Passthrough;
 import ca.uqac.lif.cep.tmf.QueueSink;
@@ -153,4 +161,203 @@ public class ForkTest
 		Utilities.queueContains(0, q1);
 		assertEquals(0, q2.size());
 	}
+	
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testForkParallel() 
+	{
+		Fork fork = new Fork(3).parallel(true).setCapacity(2);
+		Queue<Object>[] queues = new Queue[3];
+		for (int i = 0; i < 3; i++)
+		{
+			Passthrough pt = new Passthrough(1);
+			QueueSink sink = new QueueSink(1);
+			Connector.connect(fork, i, pt, 0);
+			Connector.connect(pt, sink);
+			queues[i] = sink.getQueue(0);
+		}
+		Pushable push = fork.getPushableInput(0);
+		for (int round = 0; round < 2; round++)
+		{
+			for (int i = 0; i < 1000; i++)
+			{
+				push.push(i);
+			}
+			// The end of the trace is notified after all the events are pushed
+			push.notifyEndOfTrace();
+			for (int j = 0; j < 3; j++)
+			{
+				assertEquals(1000, queues[j].size());
+				for (int i = 0; i < 1000; i++)
+				{
+					assertEquals(i, queues[j].remove());
+				}
+			}
+			fork.reset();
+		}
+		fork.stop();
+	}
+	
+	@Test
+	public void testForkParallelException() 
+	{
+		Fork fork = new Fork(2).parallel(true);
+		QueueSink sink = new QueueSink(1);
+		Connector.connect(fork, 0, sink, 0);
+		// Output 1 is connected to nothing: its branch fails on the first event
+		Pushable push = fork.getPushableInput(0);
+		push.push(0);
+		try
+		{
+			push.notifyEndOfTrace();
+			fail("The exception of the branch should have been thrown");
+		}
+		catch (Pushable.PushableException e)
+		{
+			// Expected
+		}
+		assertEquals(1, sink.getQueue(0).size());
+		fork.stop();
+	}
+	
+	@Test
+	public void testForkSharedDrop() 
+	{
+		QueueSource src = new QueueSource().loop(false);
+		for (int i = 0; i < 10; i++)
+		{
+			src.addEvent(i);
+		}
+		Fork fork = new Fork(2).useSharedBuffer(3, Fork.OverflowPolicy.DROP);
+		Connector.connect(src, fork);
+		Pullable p0 = fork.getPullableOutput(0);
+		Pullable p1 = fork.getPullableOutput(1);
+		for (int i = 0; i < 10; i++)
+		{
+			assertTrue(p0.hasNext());
+			assertEquals(i, p0.pull());
+		}
+		assertFalse(p0.hasNext());
+		// Output 1 only gets the last events that fit in the buffer
+		for (int i = 7; i < 10; i++)
+		{
+			assertTrue(p1.hasNext());
+			assertEquals(i, p1.pull());
+		}
+		assertFalse(p1.hasNext());
+		assertEquals(0, fork.getDropped(0));
+		assertEquals(7, fork.getDropped(1));
+	}
+	
+	@Test
+	public void testForkSharedUnlocked() throws InterruptedException
+	{
+		QueueSource src = new QueueSource().loop(false);
+		src.setEvents(0, 1);
+		final CountDownLatch entered = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		ApplyFunction af = new ApplyFunction(new UnaryFunction<Object,Object>(Object.class, Object.class)
+		{
+			@Override
+			public Object getValue(Object x)
+			{
+				entered.countDown();
+				try
+				{
+					release.await();
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+				}
+				return x;
+			}
+		});
+		final Fork fork = new Fork(2).useSharedBuffer(4, Fork.OverflowPolicy.BLOCK);
+		Connector.connect(src, af, fork);
+		final Pullable p0 = fork.getPullableOutput(0);
+		final Pullable p1 = fork.getPullableOutput(1);
+		final List<Object> received = new Vector<Object>();
+		Thread t0 = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				received.add(p0.pull());
+			}
+		});
+		t0.start();
+		assertTrue(entered.await(5, TimeUnit.SECONDS));
+		// Output 0 is waiting upstream; output 1 must not wait for the buffer
+		final List<Object> status = new Vector<Object>();
+		Thread t1 = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				status.add(p1.hasNextSoft());
+				status.add(fork.getDropped(1));
+			}
+		});
+		t1.start();
+		t1.join(2000);
+		release.countDown();
+		t0.join();
+		t1.join();
+		assertEquals(2, status.size());
+		assertEquals(NextStatus.MAYBE, status.get(0));
+		assertEquals(0, received.get(0));
+		assertEquals(0, p1.pull());
+		assertEquals(1, p1.pull());
+		assertEquals(1, p0.pull());
+		assertFalse(p0.hasNext());
+		assertFalse(p1.hasNext());
+	}
+	
+	@Test
+	public void testForkSharedBlock() throws InterruptedException
+	{
+		QueueSource src = new QueueSource().loop(false);
+		for (int i = 0; i < 100; i++)
+		{
+			src.addEvent(i);
+		}
+		Fork fork = new Fork(2).useSharedBuffer(2, Fork.OverflowPolicy.BLOCK);
+		Connector.connect(src, fork);
+		final Pullable p0 = fork.getPullableOutput(0);
+		Pullable p1 = fork.getPullableOutput(1);
+		assertEquals(0, p0.pull());
+		assertEquals(1, p0.pull());
+		// The buffer is full: output 0 must wait for output 1
+		assertEquals(NextStatus.MAYBE, p0.hasNextSoft());
+		assertEquals(NextStatus.MAYBE, ((TimedPullable) p0).hasNext(10, TimeUnit.MILLISECONDS));
+		assertEquals(0, p1.pull());
+		assertEquals(NextStatus.YES, p0.hasNextSoft());
+		final List<Object> received = new ArrayList<Object>();
+		Thread t = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				while (p0.hasNext())
+				{
+					received.add(p0.pull());
+				}
+			}
+		});
+		t.start();
+		for (int i = 1; i < 100; i++)
+		{
+			assertTrue(p1.hasNext());
+			assertEquals(i, p1.pull());
+		}
+		assertFalse(p1.hasNext());
+		t.join();
+		assertEquals(98, received.size());
+		for (int i = 0; i < 98; i++)
+		{
+			assertEquals(i + 2, received.get(i));
+		}
+		assertEquals(0, fork.getDropped(0));
+	}
 }
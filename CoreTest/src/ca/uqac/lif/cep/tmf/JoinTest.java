@@ -0,0 +1,189 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.tmf;
+
+import static org.junit.Assert.*;
+
+import java.util.Queue;
+
+import org.junit.Test;
+
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.functions.IdentityFunction;
+import ca.uqac.lif.cep.util.Numbers;
+
+/**
+ * Unit tests for {@link Join}.
+ */
+public class JoinTest
+{
+	@Test
+	public void testInnerPush()
+	{
+		// Join numbers by their parity, and sum the pairs
+		Join join = new Join(Numbers.isEven, Numbers.isEven).setCountWindow(2)
+				.setCombiner(Numbers.addition);
+		QueueSink sink = new QueueSink();
+		Connector.connect(join, sink);
+		Queue<Object> q = sink.getQueue();
+		Pushable left = join.getPushableInput(0);
+		Pushable right = join.getPushableInput(1);
+		left.push(0);
+		left.push(1);
+		assertTrue(q.isEmpty());
+		right.push(3);
+		assertEquals(1, q.size());
+		assertEquals(4, ((Number) q.remove()).intValue());
+		// The window of the left side now only keeps 1 and 4
+		left.push(4);
+		assertTrue(q.isEmpty());
+		right.push(6);
+		assertEquals(1, q.size());
+		assertEquals(10, ((Number) q.remove()).intValue());
+		right.push(7);
+		assertEquals(1, q.size());
+		assertEquals(8, ((Number) q.remove()).intValue());
+		assertEquals(2, join.getWindowSize(0));
+		assertEquals(2, join.getWindowSize(1));
+	}
+
+	@Test
+	public void testLeftOuterPush()
+	{
+		Join join = new Join(new IdentityFunction(1), new IdentityFunction(1)).setCountWindow(2)
+				.leftOuter(true);
+		QueueSink sink = new QueueSink();
+		Connector.connect(join, sink);
+		Queue<Object> q = sink.getQueue();
+		Pushable left = join.getPushableInput(0);
+		Pushable right = join.getPushableInput(1);
+		left.push("a");
+		left.push("b");
+		right.push("b");
+		assertPair("b", "b", q.remove());
+		// "a" leaves the window without a match
+		left.push("c");
+		assertPair("a", null, q.remove());
+		assertTrue(q.isEmpty());
+		left.notifyEndOfTrace();
+		assertTrue(q.isEmpty());
+		right.notifyEndOfTrace();
+		// "b" was matched, "c" was not
+		assertEquals(1, q.size());
+		assertPair("c", null, q.remove());
+	}
+
+	@Test
+	public void testTimeWindow()
+	{
+		// Events are their own timestamps, and keys are their parity
+		Join join = new Join(Numbers.isEven, Numbers.isEven).setCountWindow(0)
+				.setTimeWindow(10, new IdentityFunction(1), new IdentityFunction(1));
+		QueueSink sink = new QueueSink();
+		Connector.connect(join, sink);
+		Queue<Object> q = sink.getQueue();
+		Pushable left = join.getPushableInput(0);
+		Pushable right = join.getPushableInput(1);
+		left.push(0);
+		left.push(5);
+		right.push(12);
+		// 0 is too old; 12 and 5 have a different parity
+		assertTrue(q.isEmpty());
+		assertEquals(1, join.getWindowSize(0));
+		right.push(15);
+		assertPair(5, 15, q.remove());
+		left.push(21);
+		assertPair(21, 15, q.remove());
+		assertTrue(q.isEmpty());
+		assertEquals(1, join.getWindowSize(0));
+		assertEquals(2, join.getWindowSize(1));
+	}
+
+	@Test
+	public void testTimeWindowOnly()
+	{
+		Join join = new Join(Numbers.isEven, Numbers.isEven);
+		assertEquals(Join.DEFAULT_COUNT, join.getCountWindow());
+		// A time window alone lifts the default bound on the number of events
+		join.setTimeWindow(10 * Join.DEFAULT_COUNT, new IdentityFunction(1), new IdentityFunction(1));
+		assertEquals(0, join.getCountWindow());
+		QueueSink sink = new QueueSink();
+		Connector.connect(join, sink);
+		Pushable left = join.getPushableInput(0);
+		for (int i = 0; i < 2 * Join.DEFAULT_COUNT; i++)
+		{
+			left.push(2 * i);
+		}
+		assertEquals(2 * Join.DEFAULT_COUNT, join.getWindowSize(0));
+		join.getPushableInput(1).push(0);
+		// The right event matches every left event still in the window
+		assertEquals(2 * Join.DEFAULT_COUNT, sink.getQueue().size());
+		// An explicit count bound applies on top of the time window
+		Join join2 = new Join(Numbers.isEven, Numbers.isEven)
+				.setTimeWindow(100, new IdentityFunction(1), new IdentityFunction(1)).setCountWindow(5);
+		assertEquals(5, join2.getCountWindow());
+		for (int i = 0; i < 10; i++)
+		{
+			join2.getPushableInput(0).push(i);
+		}
+		assertEquals(5, join2.getWindowSize(0));
+	}
+
+	@Test
+	public void testPull()
+	{
+		QueueSource left = new QueueSource().loop(false);
+		left.setEvents(1, 2, 3, 4, 5);
+		QueueSource right = new QueueSource().loop(false);
+		right.setEvents(4, 6);
+		Join join = new Join(new IdentityFunction(1), new IdentityFunction(1)).leftOuter(true);
+		Connector.connect(left, 0, join, 0);
+		Connector.connect(right, 0, join, 1);
+		Pullable p = join.getPullableOutput();
+		assertTrue(p.hasNext());
+		assertPair(4, 4, p.pull());
+		// The unmatched left events come out at the end, in order
+		for (int i : new int[] {1, 2, 3, 5})
+		{
+			assertTrue(p.hasNext());
+			assertPair(i, null, p.pull());
+		}
+		assertFalse(p.hasNext());
+	}
+
+	@Test
+	public void testDuplicateWithState()
+	{
+		Join join = new Join(new IdentityFunction(1), new IdentityFunction(1));
+		join.getPushableInput(0).push("a");
+		Join copy = join.duplicate(true);
+		QueueSink sink = new QueueSink();
+		Connector.connect(copy, sink);
+		copy.getPushableInput(1).push("a");
+		assertPair("a", "a", sink.getQueue().remove());
+	}
+
+	protected static void assertPair(Object left, Object right, Object o)
+	{
+		Object[] pair = (Object[]) o;
+		assertEquals(left, pair[0]);
+		assertEquals(right, pair[1]);
+	}
+}
@@ -20,6 +20,7 @@ package ca.uqac.lif.cep.tmf;
 import static org.junit.Assert.*;
 
 import java.util.Queue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.junit.Test;
 
@@ -95,4 +96,149 @@ public class MuxTest
 		}
 		assertTrue(got_exception);
 	}
+
+	@Test
+	public void testMuxConcurrent() throws InterruptedException
+	{
+		final int num_threads = 4, num_events = 5000;
+		final Multiplex mux = new Multiplex(num_threads).concurrent(true).setCapacity(8);
+		final AtomicInteger ends = new AtomicInteger();
+		QueueSink sink = new QueueSink()
+		{
+			@Override
+			protected boolean onEndOfTrace(Queue<Object[]> outputs)
+			{
+				// All the events must have been received
+				assertEquals(num_threads * num_events, getQueue().size());
+				ends.incrementAndGet();
+				return false;
+			}
+		};
+		Connector.connect(mux, sink);
+		Thread[] threads = new Thread[num_threads];
+		for (int i = 0; i < num_threads; i++)
+		{
+			final int index = i;
+			threads[i] = new Thread()
+			{
+				@Override
+				public void run()
+				{
+					Pushable p = mux.getPushableInput(index);
+					for (int j = 0; j < num_events; j++)
+					{
+						p.push(index * num_events + j);
+					}
+					p.notifyEndOfTrace();
+				}
+			};
+			threads[i].start();
+		}
+		for (Thread t : threads)
+		{
+			t.join();
+		}
+		assertEquals(1, ends.get());
+		assertEquals(0, mux.getPendingCount());
+		Queue<Object> contents = sink.getQueue();
+		assertEquals(num_threads * num_events, contents.size());
+		int[] last = new int[num_threads];
+		for (int i = 0; i < num_threads; i++)
+		{
+			last[i] = -1;
+		}
+		for (Object o : contents)
+		{
+			int x = (Integer) o;
+			// Events from the same input keep their order
+			assertEquals(last[x / num_events] + 1, x % num_events);
+			last[x / num_events] = x % num_events;
+		}
+	}
+
+	@Test
+	public void testMuxFair()
+	{
+		Multiplex mux = new Multiplex(2).fair(true).concurrent(true);
+		final AtomicInteger ends = new AtomicInteger();
+		QueueSink sink = new QueueSink()
+		{
+			@Override
+			protected boolean onEndOfTrace(Queue<Object[]> outputs)
+			{
+				ends.incrementAndGet();
+				return false;
+			}
+		};
+		Connector.connect(mux, sink);
+		Queue<Object> contents = sink.getQueue();
+		Pushable p1 = mux.getPushableInput(0);
+		Pushable p2 = mux.getPushableInput(1);
+		// Pretend that another thread is draining the queues
+		mux.m_wip.set(1);
+		p1.push("a");
+		p1.push("b");
+		p1.push("c");
+		p2.push(1);
+		p2.push(2);
+		p1.notifyEndOfTrace();
+		p2.notifyEndOfTrace();
+		assertTrue(contents.isEmpty());
+		assertEquals(5, mux.getPendingCount());
+		assertEquals(0, ends.get());
+		mux.m_wip.set(0);
+		mux.drain();
+		assertEquals("a", contents.poll());
+		assertEquals(1, contents.poll());
+		assertEquals("b", contents.poll());
+		assertEquals(2, contents.poll());
+		assertEquals("c", contents.poll());
+		assertTrue(contents.isEmpty());
+		assertEquals(1, ends.get());
+		// A duplicate keeps the settings
+		Multiplex mux2 = mux.duplicate(false);
+		assertTrue(mux2.m_concurrent);
+		assertTrue(mux2.m_fair);
+		assertEquals(2, mux2.m_queues.length);
+	}
+
+	@Test
+	public void testMuxConcurrentException()
+	{
+		Multiplex mux = new Multiplex(2).concurrent(true);
+		final Pushable p1 = mux.getPushableInput(0);
+		final Pushable p2 = mux.getPushableInput(1);
+		QueueSink sink = new QueueSink()
+		{
+			@Override
+			protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+			{
+				if ("a".equals(inputs[0]))
+				{
+					// Another producer asks for a drain while this one is active
+					p2.push(1);
+					throw new IllegalStateException("a");
+				}
+				return super.compute(inputs, outputs);
+			}
+		};
+		Connector.connect(mux, sink);
+		Queue<Object> contents = sink.getQueue();
+		try
+		{
+			p1.push("a");
+			fail("The exception should be thrown to the draining thread");
+		}
+		catch (IllegalStateException e)
+		{
+			assertEquals("a", e.getMessage());
+		}
+		// The event of the other producer is not left in the queue
+		assertEquals(0, mux.getPendingCount());
+		assertEquals(0, mux.m_wip.get());
+		assertEquals(1, contents.poll());
+		assertTrue(contents.isEmpty());
+		p1.push("b");
+		assertEquals("b", contents.poll());
+	}
 }
@@ -0,0 +1,206 @@
+/*
+    BeepBeep, an event stream processor
+    Copyright (C) 2008-2018 Sylvain Hallé
+
+    This program is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published
+    by the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    This program is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package ca.uqac.lif.cep.tmf;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+
+import org.junit.Test;
+
+import ca.uqac.lif.cep.Checkpoint;
+import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.Pullable;
+import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.functions.ApplyFunction;
+import ca.uqac.lif.cep.functions.Constant;
+import ca.uqac.lif.cep.functions.Cumulate;
+import ca.uqac.lif.cep.functions.CumulativeFunction;
+import ca.uqac.lif.cep.functions.FunctionTree;
+import ca.uqac.lif.cep.functions.IdentityFunction;
+import ca.uqac.lif.cep.functions.StreamVariable;
+import ca.uqac.lif.cep.util.Numbers;
+
+/**
+ * Unit tests for {@link Parallelize}.
+ */
+public class ParallelizeTest
+{
+	@Test
+	public void testPushOrdered()
+	{
+		Parallelize par = new Parallelize(createDouble(), new IdentityFunction(1), 4).preserveOrder(true);
+		QueueSink sink = new QueueSink();
+		Connector.connect(par, sink);
+		Pushable p = par.getPushableInput();
+		for (int i = 0; i < 1000; i++)
+		{
+			p.push(i);
+		}
+		p.notifyEndOfTrace();
+		Queue<Object> q = sink.getQueue();
+		assertEquals(1000, q.size());
+		for (int i = 0; i < 1000; i++)
+		{
+			assertEquals(2 * i, ((Number) q.remove()).intValue());
+		}
+		par.stop();
+	}
+
+	@Test
+	public void testPushUnordered()
+	{
+		Parallelize par = new Parallelize(createDouble(), new IdentityFunction(1), 3).setCapacity(4);
+		QueueSink sink = new QueueSink();
+		Connector.connect(par, sink);
+		Pushable p = par.getPushableInput();
+		for (int i = 0; i < 500; i++)
+		{
+			p.push(i);
+		}
+		p.notifyEndOfTrace();
+		List<Integer> values = new ArrayList<Integer>();
+		for (Object o : sink.getQueue())
+		{
+			values.add(((Number) o).intValue());
+		}
+		Collections.sort(values);
+		assertEquals(500, values.size());
+		for (int i = 0; i < 500; i++)
+		{
+			assertEquals(2 * i, values.get(i).intValue());
+		}
+		par.stop();
+	}
+
+	@Test
+	public void testPull()
+	{
+		QueueSource src = new QueueSource().loop(false);
+		for (int i = 0; i < 100; i++)
+		{
+			src.addEvent(i);
+		}
+		Parallelize par = new Parallelize(createDouble(), new IdentityFunction(1), 2).preserveOrder(true);
+		Connector.connect(src, par);
+		Pullable p = par.getPullableOutput();
+		for (int i = 0; i < 100; i++)
+		{
+			assertTrue(p.hasNext());
+			assertEquals(2 * i, ((Number) p.next()).intValue());
+		}
+		assertFalse(p.hasNext());
+		par.stop();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testKeyedStateAndReset()
+	{
+		// Each copy computes a running sum per key; all events of a key must
+		// go to the same copy for the sums to be right
+		Slice slice = new Slice(new IdentityFunction(1), new Cumulate(new CumulativeFunction<Number>(Numbers.addition)));
+		Parallelize par = new Parallelize(slice, new IdentityFunction(1), 4).preserveOrder(true);
+		SinkLast sink = new SinkLast();
+		Connector.connect(par, sink);
+		Pushable p = par.getPushableInput();
+		for (int round = 0; round < 2; round++)
+		{
+			for (int i = 0; i < 100; i++)
+			{
+				p.push(i % 5);
+			}
+			p.notifyEndOfTrace();
+			Map<Object, Object> last = (Map<Object, Object>) sink.getLast()[0];
+			// Key 99 % 5 = 4 is the last one pushed; its sum is 20 * 4
+			assertEquals(80, ((Number) last.get(4)).intValue());
+			par.reset();
+			sink.reset();
+		}
+		par.stop();
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testCheckpoint()
+	{
+		Parallelize par1 = createKeyedSum();
+		QueueSink sink1 = new QueueSink();
+		Connector.connect(par1, sink1);
+		Pushable p1 = par1.getPushableInput();
+		for (int i = 0; i < 50; i++)
+		{
+			p1.push(i % 5);
+		}
+		int before = sink1.getQueue().size();
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Checkpoint.save(par1, baos);
+		// Restore into a new processor, and duplicate it with its state
+		Parallelize par2 = createKeyedSum();
+		Checkpoint.restore(par2, new ByteArrayInputStream(baos.toByteArray()));
+		Parallelize par3 = par2.duplicate(true);
+		for (Parallelize par : new Parallelize[] {par2, par3})
+		{
+			QueueSink sink = new QueueSink();
+			Connector.connect(par, sink);
+			Pushable p = par.getPushableInput();
+			for (int i = 50; i < 100; i++)
+			{
+				p.push(i % 5);
+			}
+			p.notifyEndOfTrace();
+			Queue<Object> q = sink.getQueue();
+			// The events of the fronts in flight at the checkpoint are not lost
+			assertEquals(100, before + q.size());
+			Map<Object, Object> last = null;
+			while (!q.isEmpty())
+			{
+				last = (Map<Object, Object>) q.remove();
+			}
+			// The sums include the events received before the checkpoint
+			assertEquals(80, ((Number) last.get(4)).intValue());
+			par.stop();
+		}
+		par1.stop();
+	}
+
+	/**
+	 * Creates a processor computing a running sum per key on four threads
+	 * @return The processor
+	 */
+	protected static Parallelize createKeyedSum()
+	{
+		Slice slice = new Slice(new IdentityFunction(1), new Cumulate(new CumulativeFunction<Number>(Numbers.addition)));
+		return new Parallelize(slice, new IdentityFunction(1), 4).preserveOrder(true);
+	}
+
+	/**
+	 * Creates a processor that multiplies its input by 2
+	 * @return The processor
+	 */
+	protected static ApplyFunction createDouble()
+	{
+		return new ApplyFunction(new FunctionTree(Numbers.multiplication, StreamVariable.X, new Constant(2)));
+	}
+}
@@ -19,15 +19,22 @@ package ca.uqac.lif.cep.tmf;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Queue;
 import java.util.Vector;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 
 import ca.uqac.lif.cep.Connector;
+import ca.uqac.lif.cep.IdleStrategy;
 import ca.uqac.lif.cep.NextStatus;
+import ca.uqac.lif.cep.Processor;
 import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.TimedPullable;
 import ca.uqac.lif.cep.Utilities;
 import ca.uqac.lif.cep.functions.StreamVariable;
 import ca.uqac.lif.cep.functions.Constant;
@@ -478,6 +485,153 @@ public class TmfTest
 		pl.stop();
 	}
 
+	@Test
+	public void testTankTimeout() throws InterruptedException
+	{
+		Tank t = new Tank();
+		final Pushable ps = t.getPushableInput();
+		Pullable pl = t.getPullableOutput();
+		// Nothing yet: the tank answers "maybe" once the timeout expires
+		assertEquals(NextStatus.MAYBE, ((TimedPullable) pl).hasNext(20, TimeUnit.MILLISECONDS));
+		Thread producer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				try
+				{
+					Thread.sleep(50);
+				}
+				catch (InterruptedException e)
+				{
+					// Ignore
+				}
+				ps.push("foo");
+			}
+		});
+		producer.start();
+		long start = System.currentTimeMillis();
+		assertEquals(NextStatus.YES, ((TimedPullable) pl).hasNext(10, TimeUnit.SECONDS));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals("foo", pl.pull());
+		producer.join();
+	}
+	
+	@Test
+	public void testTankTwoWaiters() throws InterruptedException
+	{
+		Tank t = new Tank();
+		// Consumers park for a long time, and only wake up when unparked
+		long park = TimeUnit.SECONDS.toNanos(10);
+		t.setIdleStrategy(new IdleStrategy.Backoff(0, 0, park, park));
+		final Pullable pl = t.getPullableOutput();
+		final List<NextStatus> statuses = Collections.synchronizedList(new ArrayList<NextStatus>());
+		Thread[] consumers = new Thread[2];
+		for (int i = 0; i < consumers.length; i++)
+		{
+			consumers[i] = new Thread(new Runnable()
+			{
+				@Override
+				public void run()
+				{
+					statuses.add(((TimedPullable) pl).hasNext(20, TimeUnit.SECONDS));
+				}
+			});
+			consumers[i].start();
+		}
+		// Give both consumers the time to start waiting
+		Thread.sleep(50);
+		long start = System.currentTimeMillis();
+		t.getPushableInput().push("foo");
+		for (Thread c : consumers)
+		{
+			c.join();
+		}
+		// Both consumers are woken up, rather than only the last one to wait
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertEquals(2, statuses.size());
+		assertEquals(NextStatus.YES, statuses.get(0));
+		assertEquals(NextStatus.YES, statuses.get(1));
+	}
+
+	@Test
+	public void testHasNextUntimed()
+	{
+		// A pullable that does not implement TimedPullable
+		Pullable pl = new Pullable.PullNotSupported(null, 0)
+		{
+			int m_calls = 0;
+
+			@Override
+			public NextStatus hasNextSoft()
+			{
+				m_calls++;
+				return m_calls < 3 ? NextStatus.MAYBE : NextStatus.YES;
+			}
+		};
+		assertFalse(pl instanceof TimedPullable);
+		assertEquals(NextStatus.YES, IdleStrategy.hasNext(pl, 1, TimeUnit.SECONDS, IdleStrategy.YIELD));
+		Tank t = new Tank();
+		assertEquals(NextStatus.MAYBE, IdleStrategy.hasNext(t.getPullableOutput(), 10,
+				TimeUnit.MILLISECONDS, IdleStrategy.YIELD));
+	}
+	
+	@Test
+	public void testSourceNotYet()
+	{
+		// A source that outputs an event only every third time it is asked
+		Source src = new Source(1)
+		{
+			int m_calls = 0;
+			
+			@Override
+			protected boolean compute(Object[] inputs, Queue<Object[]> outputs)
+			{
+				m_calls++;
+				if (m_calls > 9)
+				{
+					return false;
+				}
+				if (m_calls % 3 == 0)
+				{
+					outputs.add(new Object[] {m_calls});
+				}
+				return true;
+			}
+			
+			@Override
+			public Processor duplicate(boolean with_state)
+			{
+				return null;
+			}
+		};
+		src.setIdleStrategy(IdleStrategy.YIELD);
+		Pullable pl = src.getPullableOutput();
+		assertEquals(NextStatus.YES, ((TimedPullable) pl).hasNext(1, TimeUnit.SECONDS));
+		assertEquals(3, pl.pull());
+		assertTrue(pl.hasNext());
+		assertEquals(6, pl.pull());
+		assertEquals(NextStatus.YES, ((TimedPullable) pl).hasNext(IdleStrategy.FOREVER, TimeUnit.SECONDS));
+		assertEquals(9, pl.pull());
+		assertEquals(NextStatus.NO, ((TimedPullable) pl).hasNext(1, TimeUnit.SECONDS));
+		assertFalse(pl.hasNext());
+	}
+	
+	@Test
+	public void testBackoff()
+	{
+		IdleStrategy s = new IdleStrategy.Backoff(2, 2, 1000, 100000);
+		long start = System.nanoTime();
+		for (int i = 1; i < 30; i++)
+		{
+			s.idle(i);
+		}
+		// 25 parks of at most 100 microseconds each
+		assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(2));
+		assertTrue(IdleStrategy.getDeadline(IdleStrategy.FOREVER, TimeUnit.SECONDS) == IdleStrategy.FOREVER);
+		assertFalse(IdleStrategy.isExpired(IdleStrategy.FOREVER));
+	}
+
 	@Test
 	public void testTankLast()
 	{
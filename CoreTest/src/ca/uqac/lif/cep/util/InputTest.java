@@ -124,6 +124,24 @@ public class InputTest
 		assertEquals(" c", vals[2]);		
 	}
 	
+	@Test
+	public void testCsvToArrayRegex()
+	{
+		String line = "a|b;;c";
+		Strings.SplitString cta = new Strings.SplitString("[|;]+");
+		Object[] out = new Object[1];
+		cta.evaluate(new Object[]{line}, out);
+		Object[] vals = (Object[]) out[0];
+		assertEquals(3, vals.length);
+		assertEquals("a", vals[0]);
+		assertEquals("b", vals[1]);
+		assertEquals("c", vals[2]);
+		cta = new Strings.SplitString("|");
+		cta.evaluate(new Object[]{"a|b"}, out);
+		// A lone pipe is an empty alternation, as with String.split
+		assertEquals(3, ((Object[]) out[0]).length);
+	}
+	
 	@Test
 	public void testCsvToArrayNumber()
 	{
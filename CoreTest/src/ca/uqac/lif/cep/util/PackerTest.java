@@ -19,16 +19,26 @@ package ca.uqac.lif.cep.util;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 
 import org.junit.Test;
 
+import ca.uqac.lif.cep.Checkpoint;
 import ca.uqac.lif.cep.Connector;
 import ca.uqac.lif.cep.ProcessorException;
+import ca.uqac.lif.cep.Pullable;
 import ca.uqac.lif.cep.Pushable;
+import ca.uqac.lif.cep.Pushable.PushableException;
+import ca.uqac.lif.cep.functions.ApplyFunction;
+import ca.uqac.lif.cep.functions.FunctionException;
+import ca.uqac.lif.cep.functions.UnaryFunction;
 import ca.uqac.lif.cep.tmf.QueueSink;
+import ca.uqac.lif.cep.tmf.QueueSource;
+import ca.uqac.lif.cep.util.Lists.Batch;
 import ca.uqac.lif.cep.util.Lists.TimePack;
 import ca.uqac.lif.cep.util.Lists.Unpack;
 
@@ -80,4 +90,143 @@ public class PackerTest
 		assertFalse(q.isEmpty());
 		assertEquals(10, q.size());
 	}
+
+	@Test
+	public void batchCountTest()
+	{
+		Batch b = new Batch(4);
+		QueueSink sink = new QueueSink();
+		Connector.connect(b, sink);
+		Queue<Object> q = sink.getQueue();
+		Pushable p = b.getPushableInput();
+		for (int i = 0; i < 10; i++)
+		{
+			p.push(i);
+		}
+		assertEquals(2, q.size());
+		assertEquals(2, b.getPendingCount());
+		List<?> list = (List<?>) q.remove();
+		assertEquals(4, list.size());
+		assertEquals(0, list.get(0));
+		list = (List<?>) q.remove();
+		assertEquals(4, list.get(0));
+		p.notifyEndOfTrace();
+		list = (List<?>) q.remove();
+		assertEquals(2, list.size());
+		assertEquals(9, list.get(1));
+		assertEquals(0, b.getPendingCount());
+	}
+
+	@Test
+	public void batchBytesTest()
+	{
+		// Events are strings, whose size is their length
+		Batch b = new Batch(100).setMaxBytes(10, Size.instance);
+		QueueSink sink = new QueueSink();
+		Connector.connect(b, sink);
+		Queue<Object> q = sink.getQueue();
+		Pushable p = b.getPushableInput();
+		p.push("abcd");
+		p.push("efgh");
+		assertTrue(q.isEmpty());
+		p.push("ij");
+		assertEquals(3, ((List<?>) q.remove()).size());
+		p.push("0123456789abc");
+		assertEquals(1, ((List<?>) q.remove()).size());
+		p.push("a");
+		assertTrue(q.isEmpty());
+	}
+
+	@Test
+	public void batchCheckpointTest()
+	{
+		Batch b1 = new Batch(4);
+		QueueSink sink1 = new QueueSink();
+		Connector.connect(b1, sink1);
+		Pushable p1 = b1.getPushableInput();
+		for (int i = 0; i < 6; i++)
+		{
+			p1.push(i);
+		}
+		assertEquals(1, sink1.getQueue().size());
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		Checkpoint.save(b1, baos);
+		Batch b2 = new Batch(4);
+		Checkpoint.restore(b2, new ByteArrayInputStream(baos.toByteArray()));
+		assertEquals(2, b2.getPendingCount());
+		QueueSink sink2 = new QueueSink();
+		Connector.connect(b2, sink2);
+		Pushable p2 = b2.getPushableInput();
+		p2.push(6);
+		p2.push(7);
+		Queue<Object> q = sink2.getQueue();
+		assertEquals(1, q.size());
+		List<?> list = (List<?>) q.remove();
+		assertEquals(4, list.size());
+		assertEquals(4, list.get(0));
+		assertEquals(7, list.get(3));
+	}
+
+	@Test(expected=PushableException.class)
+	public void batchDelayErrorTest() throws InterruptedException
+	{
+		Batch b = new Batch(100).setMaxDelay(50);
+		ApplyFunction af = new ApplyFunction(new UnaryFunction<Object,Object>(Object.class, Object.class)
+		{
+			@Override
+			public Object getValue(Object x)
+			{
+				throw new FunctionException("foo");
+			}
+		});
+		Connector.connect(b, af);
+		Connector.connect(af, new QueueSink());
+		Pushable p = b.getPushableInput();
+		p.push(0);
+		// The flusher pushes the batch, and fails
+		Thread.sleep(300);
+		p.notifyEndOfTrace();
+	}
+
+	@Test
+	public void batchPullTest()
+	{
+		QueueSource src = new QueueSource().loop(false);
+		src.setEvents(0, 1, 2, 3, 4, 5, 6);
+		Batch b = new Batch(3);
+		Connector.connect(src, b);
+		Pullable p = b.getPullableOutput();
+		assertEquals(3, ((List<?>) p.pull()).size());
+		assertEquals(3, ((List<?>) p.pull()).size());
+		assertTrue(p.hasNext());
+		List<?> list = (List<?>) p.pull();
+		assertEquals(1, list.size());
+		assertEquals(6, list.get(0));
+		assertFalse(p.hasNext());
+	}
+
+	@Test
+	public void batchDelayTest() throws InterruptedException
+	{
+		Batch b = new Batch(100).setMaxDelay(200);
+		QueueSink sink = new QueueSink();
+		Connector.connect(b, sink);
+		Queue<Object> q = sink.getQueue();
+		Pushable p = b.getPushableInput();
+		for (int i = 0; i < 5; i++)
+		{
+			p.push(i);
+		}
+		assertTrue(q.isEmpty()); // Too early
+		Thread.sleep(600);
+		assertEquals(1, q.size());
+		assertEquals(5, ((List<?>) q.remove()).size());
+		p.push(5);
+		p.notifyEndOfTrace();
+		assertEquals(1, q.size());
+		assertEquals(5, ((List<?>) q.remove()).get(0));
+		Thread.sleep(300);
+		assertTrue(q.isEmpty());
+		assertTrue(b.getPullableOutput() instanceof Pullable.PullNotSupported);
+	}
 }
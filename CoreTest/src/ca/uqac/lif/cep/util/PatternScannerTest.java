@@ -157,4 +157,56 @@ public class PatternScannerTest
 		assertFalse(p.hasNext());
 	}
 	
+	@Test
+	public void testPatternScannerSmallChunks() 
+	{
+		FindPattern mf = new FindPattern("<(.*?)>");
+		QueueSink qsink = new QueueSink(1);
+		Queue<Object> queue = qsink.getQueue(0);
+		Connector.connect(mf, qsink);
+		Pushable in = mf.getPushableInput(0);
+		String input = "xx<abc>yy<de>zzzz<f";
+		for (int i = 0; i < input.length(); i++)
+		{
+			in.push(input.substring(i, i + 1));
+		}
+		assertEquals(2, queue.size());
+		assertEquals("abc", queue.remove());
+		assertEquals("de", queue.remove());
+		// Only the beginning of a potential match is kept
+		assertEquals("<f", mf.m_contents.toString());
+		in.push("g>");
+		assertEquals("fg", queue.remove());
+		assertEquals(0, mf.m_contents.length());
+	}
+	
+	@Test
+	public void testPatternScannerMaxBufferDrop() 
+	{
+		FindPattern mf = new FindPattern("<(.*?)>").setMaxBufferSize(5);
+		QueueSink qsink = new QueueSink(1);
+		Queue<Object> queue = qsink.getQueue(0);
+		Connector.connect(mf, qsink);
+		Pushable in = mf.getPushableInput(0);
+		in.push("<abc");
+		in.push("def");
+		assertTrue(queue.isEmpty());
+		in.push("gh><ij>");
+		assertEquals(1, queue.size());
+		assertEquals("ij", queue.remove());
+	}
+	
+	@Test
+	public void testPatternScannerMaxBufferEmit() 
+	{
+		FindPattern mf = new FindPattern("<(.*?)>").setMaxBufferSize(5).emitOverflow(true);
+		QueueSink qsink = new QueueSink(1);
+		Queue<Object> queue = qsink.getQueue(0);
+		Connector.connect(mf, qsink);
+		Pushable in = mf.getPushableInput(0);
+		in.push("<abc");
+		in.push("def");
+		assertEquals(1, queue.size());
+		assertEquals("<abcdef", queue.remove());
+	}
 }
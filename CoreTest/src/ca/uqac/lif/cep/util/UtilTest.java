@@ -18,14 +18,22 @@
 package ca.uqac.lif.cep.util;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.junit.Test;
 
@@ -38,6 +46,7 @@ import ca.uqac.lif.cep.functions.CumulativeFunction;
 import ca.uqac.lif.cep.functions.Cumulate;
 import ca.uqac.lif.cep.functions.FunctionsTest;
 import ca.uqac.lif.cep.functions.InvalidArgumentException;
+import ca.uqac.lif.cep.functions.UnaryFunction;
 import ca.uqac.lif.cep.util.Numbers;
 import ca.uqac.lif.cep.tmf.QueueSink;
 import ca.uqac.lif.cep.tmf.QueueSource;
@@ -154,6 +163,51 @@ public class UtilTest
 		ApplyToAll ata = new ApplyToAll(Numbers.absoluteValue);
 		evaluate(ata, new Object());
 	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testApplyToAllParallel()
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			List<Integer> list = new ArrayList<Integer>();
+			Object[] array = new Object[10500];
+			for (int i = 0; i < array.length; i++)
+			{
+				list.add(-i);
+				array[i] = -i;
+			}
+			ApplyToAll ata = new ApplyToAll(Numbers.absoluteValue).parallel(executor).setThreshold(1000);
+			List<Object> out_list = (List<Object>) evaluate(ata, list);
+			Object[] out_array = (Object[]) evaluate(ata, new Object[] {array});
+			Set<Object> out_set = (Set<Object>) evaluate(ata, new HashSet<Integer>(list));
+			assertEquals(list.size(), out_list.size());
+			assertEquals(array.length, out_array.length);
+			assertEquals(list.size(), out_set.size());
+			for (int i = 0; i < array.length; i++)
+			{
+				// Results come back in the order of the elements
+				assertEquals(i, ((Number) out_list.get(i)).intValue());
+				assertEquals(i, ((Number) out_array[i]).intValue());
+			}
+			// An exception in one of the chunks reaches the caller
+			list.set(9000, null);
+			try
+			{
+				evaluate(ata, list);
+				fail("Expected an exception");
+			}
+			catch (RuntimeException e)
+			{
+				// Expected
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
 	
 	@Test
 	public void testNthElement1()
@@ -341,6 +395,74 @@ public class UtilTest
 		assertEquals(false, FunctionsTest.evaluate(Strings.Matches.instance, "foobar", "f.*baz"));
 	}
 	
+	@Test
+	public void testPatternCache()
+	{
+		PatternCache cache = new PatternCache(2);
+		Pattern p1 = cache.get("a+");
+		assertTrue(p1 == cache.get("a+"));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		cache.get("b+");
+		// Touch a+ so that b+ is the least recently used
+		cache.get("a+");
+		cache.get("c+");
+		assertEquals(2, cache.size());
+		assertTrue(p1 == cache.get("a+"));
+		assertEquals(3, cache.getMisses());
+		cache.get("b+");
+		assertEquals(4, cache.getMisses());
+		Matcher m1 = cache.matcher("a+", "aaa");
+		assertTrue(m1.matches());
+		Matcher m2 = cache.matcher("a+", "bbb");
+		assertTrue(m1 == m2);
+		assertFalse(m2.matches());
+		cache.clear();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getHits());
+	}
+	
+	@Test
+	public void testKeywordMatcher()
+	{
+		KeywordMatcher km = new KeywordMatcher("he", "she", "his", "hers", "ushe");
+		BitSet found = km.find("ushers");
+		assertTrue(found.get(0));
+		assertTrue(found.get(1));
+		assertFalse(found.get(2));
+		assertTrue(found.get(3));
+		assertTrue(found.get(4));
+		assertTrue(km.containsAny("this"));
+		assertFalse(km.containsAny("xyz"));
+		assertFalse(km.containsAny(""));
+		assertTrue(km.find("HERS").isEmpty());
+		KeywordMatcher km_ci = new KeywordMatcher(true, "Error", "WARN");
+		assertEquals(2, km_ci.find("an ERROR and a warning").cardinality());
+	}
+	
+	@Test
+	public void testContainsAny()
+	{
+		Strings.ContainsAny f = new Strings.ContainsAny("foo", "bar", "baz");
+		assertEquals(true, FunctionsTest.evaluate(f, "abazb"));
+		assertEquals(false, FunctionsTest.evaluate(f, "fobaaz"));
+		Strings.FindKeywords fk = new Strings.FindKeywords(true, "foo", "bar", "baz");
+		BitSet found = (BitSet) FunctionsTest.evaluate(fk, "FOO, Baz");
+		assertTrue(found.get(0));
+		assertFalse(found.get(1));
+		assertTrue(found.get(2));
+	}
+	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testFindMatches()
+	{
+		Set<String> set = (Set<String>) FunctionsTest.evaluate(Strings.FindMatches.instance, "a1b a2b a1b", "a(\\d)b");
+		assertEquals(2, set.size());
+		assertTrue(set.contains("1"));
+		assertTrue(set.contains("2"));
+	}
+	
 	@Test
 	@SuppressWarnings("unchecked")
 	public void testMaps1()
@@ -433,6 +555,105 @@ public class UtilTest
 		assertEquals(1, m1.size());
 	}
 	
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testMapsPutNew()
+	{
+		Map<Object,Object> m1, m2;
+		QueueSource s1 = new QueueSource().setEvents(0, 1);
+		QueueSource s2 = new QueueSource().setEvents("a", "b");
+		Maps.PutIntoNew pi = new Maps.PutIntoNew();
+		Connector.connect(s1, 0, pi, 0);
+		Connector.connect(s2, 0, pi, 1);
+		Pullable p = pi.getPullableOutput();
+		m1 = (Map<Object,Object>) p.pull();
+		m2 = (Map<Object,Object>) p.pull();
+		assertEquals(1, m1.size());
+		assertEquals(2, m2.size());
+		assertEquals("b", m2.get(1));
+		Maps.PutIntoNew copy = pi.duplicate(true);
+		pi.reset();
+		assertEquals(1, m1.size());
+		Connector.connect(new QueueSource().setEvents(0), 0, copy, 0);
+		Connector.connect(new QueueSource().setEvents("c"), 0, copy, 1);
+		Map<Object,Object> m3 = (Map<Object,Object>) copy.getPullableOutput().pull();
+		assertEquals(2, m3.size());
+		assertEquals("c", m3.get(0));
+		assertEquals("a", m2.get(0));
+	}
+
+	@Test
+	public void testPersistentHashMap()
+	{
+		// "Aa" and "BB" have the same hash code, and so do their concatenations
+		String[] colliding = new String[] {"AaAa", "AaBB", "BBAa", "BBBB"};
+		Random r = new Random(0);
+		Map<Object,Object> expected = new HashMap<Object,Object>();
+		PersistentHashMap<Object,Object> map = PersistentHashMap.empty();
+		List<PersistentHashMap<Object,Object>> versions = new ArrayList<PersistentHashMap<Object,Object>>();
+		for (int i = 0; i < 5000; i++)
+		{
+			Object key = r.nextInt(4) == 0 ? colliding[r.nextInt(4)] : r.nextInt(2000);
+			if (r.nextInt(3) == 0)
+			{
+				expected.remove(key);
+				map = map.minus(key);
+			}
+			else
+			{
+				expected.put(key, i);
+				map = map.plus(key, i);
+			}
+			if (i % 1000 == 0)
+			{
+				versions.add(map);
+			}
+			assertEquals(expected.size(), map.size());
+		}
+		assertEquals(expected, map);
+		assertEquals(map, expected);
+		assertEquals(expected.hashCode(), map.hashCode());
+		int count = 0;
+		for (Map.Entry<Object,Object> e : map.entrySet())
+		{
+			assertEquals(expected.get(e.getKey()), e.getValue());
+			count++;
+		}
+		assertEquals(expected.size(), count);
+		// Removing everything gives back an empty map
+		for (Object key : expected.keySet())
+		{
+			map = map.minus(key);
+		}
+		assertTrue(map.isEmpty());
+		assertFalse(map.entrySet().iterator().hasNext());
+		// Earlier versions are unaffected
+		assertEquals(1, versions.get(0).size());
+		assertTrue(versions.get(4).size() > 1);
+	}
+
+	@Test
+	public void testPersistentHashSet()
+	{
+		PersistentHashSet<Object> s1 = PersistentHashSet.empty();
+		PersistentHashSet<Object> s2 = s1.plus("Aa").plus("BB").plus(null).plus(3);
+		assertTrue(s1.isEmpty());
+		assertEquals(4, s2.size());
+		assertTrue(s2.contains("BB"));
+		assertTrue(s2.contains(null));
+		assertSame(s2, s2.plus(3));
+		PersistentHashSet<Object> s3 = s2.minus("Aa");
+		assertEquals(3, s3.size());
+		assertFalse(s3.contains("Aa"));
+		assertTrue(s2.contains("Aa"));
+		Set<Object> expected = new HashSet<Object>();
+		expected.add("BB");
+		expected.add(null);
+		expected.add(3);
+		assertEquals(expected, s3);
+		assertEquals(expected, new HashSet<Object>(s3));
+	}
+
 	@Test
 	public void testSubset()
 	{
@@ -482,4 +703,414 @@ public class UtilTest
 		Bags.FilterElements gi = new Bags.FilterElements(Numbers.isEven);
 		FunctionsTest.evaluate(gi, new Object());
 	}
+
+	@Test
+	public void testLazyViews()
+	{
+		final int[] calls = new int[1];
+		UnaryFunction<Number,Number> square = new UnaryFunction<Number,Number>(Number.class, Number.class)
+		{
+			@Override
+			public Number getValue(Number x)
+			{
+				calls[0]++;
+				return x.intValue() * x.intValue();
+			}
+		};
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = 0; i < 10; i++)
+		{
+			list.add(i);
+		}
+		Object squares = evaluate(new ApplyToAll(square).lazy(true), list);
+		Object even = evaluate(new Bags.FilterElements(Numbers.isEven).lazy(true), squares);
+		// Nothing is evaluated until the view is read
+		assertEquals(0, calls[0]);
+		assertEquals(10, (int) (Integer) evaluate(Size.instance, squares));
+		assertEquals(0, calls[0]);
+		assertEquals(5, (int) (Integer) evaluate(Bags.getSize, even));
+		assertEquals(10, calls[0]);
+		assertEquals(0, evaluate(Bags.anyElement, even));
+		assertEquals(11, calls[0]);
+		assertTrue((Boolean) evaluate(Bags.contains, even, 16));
+		assertFalse((Boolean) evaluate(Bags.contains, even, 9));
+		Object out = evaluate(Bags.materialize, even);
+		assertTrue(out instanceof List);
+		assertEquals(5, ((List<?>) out).size());
+		assertEquals(64, ((List<?>) out).get(4));
+		// An eager function can read a view
+		assertEquals(out, evaluate(new Bags.FilterElements(Numbers.isEven), squares));
+		// A view reads its source each time it is iterated
+		list.remove(list.size() - 1);
+		assertEquals(9, (int) (Integer) evaluate(Bags.getSize, squares));
+		assertEquals(5, (int) (Integer) evaluate(Bags.getSize, even));
+		list.clear();
+		assertTrue(((Collection<?>) even).isEmpty());
+		// The materialized collection keeps its elements
+		assertEquals(5, ((List<?>) out).size());
+	}
+
+	@Test
+	public void testLazyViewsOwnFunction()
+	{
+		List<Integer> list = new ArrayList<Integer>();
+		for (int i = 1; i <= 3; i++)
+		{
+			list.add(i);
+		}
+		// Each view evaluates its own copy of the function
+		ApplyToAll sums = new ApplyToAll(new CumulativeFunction<Number>(Numbers.addition)).lazy(true);
+		Collection<?> v1 = (Collection<?>) evaluate(sums, list);
+		Collection<?> v2 = (Collection<?>) evaluate(sums, list);
+		assertEquals(Arrays.asList(1f, 3f, 6f), toFloats(v1));
+		assertEquals(Arrays.asList(1f, 3f, 6f), toFloats(v2));
+		Bags.FilterElements even = new Bags.FilterElements(Numbers.isEven).lazy(true);
+		Collection<?> f1 = (Collection<?>) evaluate(even, list);
+		assertEquals(1, f1.size());
+	}
+
+	protected static List<Float> toFloats(Collection<?> c)
+	{
+		List<Float> out = new ArrayList<Float>();
+		for (Object o : c)
+		{
+			out.add(((Number) o).floatValue());
+		}
+		return out;
+	}
+
+	@Test
+	public void testLazyViewsOnSets()
+	{
+		// Lazy and eager functions give the same result on a set
+		Set<Integer> set = new HashSet<Integer>();
+		for (int i = -3; i <= 3; i++)
+		{
+			set.add(i);
+		}
+		Object lazy = evaluate(new ApplyToAll(Numbers.absoluteValue).lazy(true), set);
+		Object eager = evaluate(new ApplyToAll(Numbers.absoluteValue), set);
+		assertTrue(lazy instanceof Set);
+		assertEquals(eager, lazy);
+		assertEquals(4, (int) (Integer) evaluate(Bags.getSize, lazy));
+		assertEquals(evaluate(Bags.getSize, eager), evaluate(Bags.getSize, lazy));
+		// Filtering a set cannot create duplicates: the result can be a view
+		Object lazy_even = evaluate(new Bags.FilterElements(Numbers.isEven).lazy(true), set);
+		Object eager_even = evaluate(new Bags.FilterElements(Numbers.isEven), set);
+		assertTrue(lazy_even instanceof Bags.View);
+		assertEquals(evaluate(Bags.getSize, eager_even), evaluate(Bags.getSize, lazy_even));
+		Object out = evaluate(Bags.materialize, lazy_even);
+		assertTrue(out instanceof Set);
+		assertEquals(eager_even, out);
+		// A view obtained from a set of values is mapped like a set
+		Object mapped = evaluate(new ApplyToAll(Numbers.absoluteValue).lazy(true), lazy_even);
+		assertEquals(evaluate(new ApplyToAll(Numbers.absoluteValue), eager_even), mapped);
+		assertEquals(2, (int) (Integer) evaluate(Bags.getSize, mapped));
+	}
+
+	@Test
+	public void testProduct()
+	{
+		List<Integer> x = new ArrayList<Integer>();
+		List<String> y = new ArrayList<String>();
+		for (int i = 0; i < 1000; i++)
+		{
+			x.add(i);
+			y.add(Integer.toString(i));
+		}
+		// The product of two collections is a list of pairs
+		Object eager = evaluate(Bags.product, x.subList(0, 3), y.subList(0, 2));
+		assertTrue(eager instanceof List);
+		assertEquals(6, ((List<?>) eager).size());
+		assertEquals(2, ((Object[]) ((List<?>) eager).get(5))[0]);
+		assertEquals("1", ((Object[]) ((List<?>) eager).get(5))[1]);
+		Collection<?> product = (Collection<?>) evaluate(Bags.lazyProduct, x, y);
+		assertTrue(product instanceof Bags.View);
+		assertEquals(1000000, product.size());
+		Object[] first = (Object[]) evaluate(Bags.anyElement, product);
+		assertEquals(0, first[0]);
+		assertEquals("0", first[1]);
+		int count = 0;
+		for (Object o : product)
+		{
+			Object[] pair = (Object[]) o;
+			assertEquals(count / 1000, pair[0]);
+			count++;
+		}
+		assertEquals(1000000, count);
+		assertTrue(((Collection<?>) evaluate(Bags.lazyProduct, x, new ArrayList<Object>())).isEmpty());
+		assertTrue(((Collection<?>) evaluate(Bags.lazyProduct, new ArrayList<Object>(), y)).isEmpty());
+		assertTrue(evaluate(Bags.materialize, evaluate(Bags.lazyProduct, x.subList(0, 3), y.subList(0, 2))) instanceof List);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testGetElementsParallel()
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try
+		{
+			Bags.FilterElements gi = new Bags.FilterElements(Numbers.isEven).parallel(executor)
+					.setThreshold(100);
+			List<Integer> s1 = new ArrayList<Integer>();
+			for (int i = 0; i < 1050; i++)
+			{
+				s1.add(i);
+			}
+			List<Object> value = (List<Object>) FunctionsTest.evaluate(gi, s1);
+			assertEquals(525, value.size());
+			for (int i = 0; i < value.size(); i++)
+			{
+				assertEquals(2 * i, value.get(i));
+			}
+			Set<Object> set = (Set<Object>) FunctionsTest.evaluate(gi, new HashSet<Integer>(s1));
+			assertEquals(525, set.size());
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+	
+	@Test
+	public void testHyperLogLogCount()
+	{
+		HyperLogLog.Count count = new HyperLogLog.Count();
+		QueueSink sink = new QueueSink();
+		Connector.connect(count, sink);
+		Pushable p = count.getPushableInput();
+		for (int i = 0; i < 10; i++)
+		{
+			p.push("foo" + i);
+			p.push("foo" + i);
+		}
+		// Small cardinalities are estimated almost exactly
+		assertEquals(10, ((Number) sinkLast(sink)).longValue(), 1);
+		for (int i = 0; i < 100000; i++)
+		{
+			p.push(i);
+			p.push(i);
+		}
+		long estimate = ((Number) sinkLast(sink)).longValue();
+		assertEquals(100010, estimate, 100010 * 0.05);
+		assertEquals(estimate, count.getSketch().estimate());
+		count.reset();
+		assertEquals(0, count.getSketch().estimate());
+	}
+	
+	@Test
+	public void testHyperLogLogUnion()
+	{
+		HyperLogLog h1 = new HyperLogLog(14);
+		HyperLogLog h2 = new HyperLogLog(14);
+		for (int i = 0; i < 20000; i++)
+		{
+			h1.add(i);
+			h2.add(i + 10000);
+		}
+		Object union = FunctionsTest.evaluate(HyperLogLog.union, h1, h2);
+		long estimate = (Long) FunctionsTest.evaluate(HyperLogLog.cardinality, union);
+		assertEquals(30000, estimate, 30000 * 0.05);
+		// The arguments are left untouched
+		assertEquals(h1.estimate(), h1.copy().estimate());
+		assertTrue(h1.estimate() < 25000);
+	}
+	
+	@Test
+	public void testHyperLogLogWindow()
+	{
+		int width = 500;
+		HyperLogLog.WindowCount count = new HyperLogLog.WindowCount(width, 8);
+		QueueSink sink = new QueueSink();
+		Connector.connect(count, sink);
+		Pushable p = count.getPushableInput();
+		List<Integer> events = new ArrayList<Integer>();
+		for (int i = 0; i < 3000; i++)
+		{
+			// Many distinct values at first, then only a few
+			events.add(i < 2000 ? i : i % 7);
+		}
+		for (int i = 0; i < events.size(); i++)
+		{
+			p.push(events.get(i));
+			// The result is that of a sketch of the last events only
+			HyperLogLog h = new HyperLogLog(8);
+			for (int j = Math.max(0, i - width + 1); j <= i; j++)
+			{
+				h.add(events.get(j));
+			}
+			assertEquals(h.estimate(), ((Number) sink.getQueue().remove()).longValue());
+			if (i == 1500)
+			{
+				// A copy carries on from the same state
+				HyperLogLog.WindowCount copy = count.duplicate(true);
+				QueueSink sink2 = new QueueSink();
+				Connector.connect(copy, sink2);
+				copy.getPushableInput().push(events.get(i + 1));
+				p.push(events.get(i + 1));
+				assertEquals(sink.getQueue().remove(), sink2.getQueue().remove());
+				i++;
+			}
+		}
+	}
+
+	@Test
+	public void testKllQuantile()
+	{
+		int n = 100000;
+		List<Integer> values = new ArrayList<Integer>(n);
+		for (int i = 0; i < n; i++)
+		{
+			values.add(i);
+		}
+		Collections.shuffle(values, new Random(0));
+		KllSketch.PutInto put = new KllSketch.PutInto();
+		QueueSink sink = new QueueSink();
+		Connector.connect(put, sink);
+		Pushable p = put.getPushableInput();
+		for (int v : values)
+		{
+			p.push(v);
+		}
+		KllSketch sketch = put.getSketch();
+		assertEquals(n, sketch.getCount());
+		double error = 2 * sketch.getNormalizedRankError() * n;
+		assertEquals(n / 2, (Double) evaluate(new KllSketch.GetQuantile(0.5), sketch), error);
+		assertEquals(n * 0.99, (Double) evaluate(new KllSketch.GetQuantile(0.99), sketch), error);
+		assertEquals(0, sketch.getQuantile(0), 0);
+		assertEquals(n - 1, sketch.getQuantile(1), 0);
+	}
+
+	@Test
+	public void testKllUnion()
+	{
+		KllSketch s1 = new KllSketch();
+		KllSketch s2 = new KllSketch();
+		for (int i = 0; i < 10000; i++)
+		{
+			s1.add(i);
+			s2.add(i + 10000);
+		}
+		KllSketch union = (KllSketch) evaluate(KllSketch.union, s1, s2);
+		assertEquals(20000, union.getCount());
+		assertEquals(10000, s1.getCount());
+		assertEquals(10000, union.getQuantile(0.5), 2 * union.getNormalizedRankError() * 20000);
+	}
+
+	@Test
+	public void testCountMin()
+	{
+		CountMin.Count count = new CountMin.Count(new CountMin(0.01, 0.01));
+		QueueSink sink = new QueueSink();
+		Connector.connect(count, sink);
+		Pushable p = count.getPushableInput();
+		Map<Integer, Integer> actual = new HashMap<Integer, Integer>();
+		Random r = new Random(0);
+		for (int i = 0; i < 20000; i++)
+		{
+			// Skewed stream: small values are much more frequent
+			int v = (int) Math.floor(Math.pow(r.nextDouble(), 4) * 1000);
+			Integer c = actual.get(v);
+			actual.put(v, c == null ? 1 : c + 1);
+			p.push(v);
+			assertTrue(((Number) sink.getQueue().remove()).longValue() >= actual.get(v));
+		}
+		CountMin sketch = count.getSketch();
+		double bound = sketch.getErrorBound();
+		for (Map.Entry<Integer, Integer> e : actual.entrySet())
+		{
+			long estimate = (Long) evaluate(CountMin.frequency, sketch, e.getKey());
+			assertTrue(estimate >= e.getValue());
+			assertTrue(estimate <= e.getValue() + bound);
+		}
+	}
+
+	@Test
+	public void testCountMinUnion()
+	{
+		CountMin c1 = new CountMin(100, 4);
+		CountMin c2 = new CountMin(100, 4);
+		for (int i = 0; i < 10; i++)
+		{
+			c1.add("a");
+			c2.add("a");
+			c2.add("b");
+		}
+		CountMin union = (CountMin) evaluate(CountMin.union, c1, c2);
+		assertTrue(union.estimate("a") >= 20);
+		assertTrue(union.estimate("b") >= 10);
+		assertEquals(30, union.getTotal());
+		assertEquals(10, c1.getTotal());
+	}
+
+	@Test
+	public void testSpaceSaving()
+	{
+		SpaceSaving.PutInto put = new SpaceSaving.PutInto(20);
+		QueueSink sink = new QueueSink();
+		Connector.connect(put, sink);
+		Pushable p = put.getPushableInput();
+		for (int i = 0; i < 10000; i++)
+		{
+			// Three heavy hitters among many rare elements
+			if (i % 4 == 0)
+			{
+				p.push("a");
+			}
+			else if (i % 4 == 1 && i % 8 != 1)
+			{
+				p.push("b");
+			}
+			else if (i % 16 == 2)
+			{
+				p.push("c");
+			}
+			else
+			{
+				p.push(i);
+			}
+		}
+		SpaceSaving summary = put.getSummary();
+		assertEquals(10000, summary.getTotal());
+		List<?> top = (List<?>) evaluate(new SpaceSaving.GetTop(3), summary);
+		assertEquals(3, top.size());
+		assertEquals("a", top.get(0));
+		assertEquals("b", top.get(1));
+		assertEquals("c", top.get(2));
+		assertTrue(summary.getCount("a") >= 2500);
+		assertTrue(summary.getCount("a") <= 2500 + summary.getErrorBound());
+	}
+
+	@Test
+	public void testSpaceSavingUnion()
+	{
+		SpaceSaving s1 = new SpaceSaving(3);
+		SpaceSaving s2 = new SpaceSaving(3);
+		for (int i = 0; i < 10; i++)
+		{
+			s1.add("a");
+			s2.add("a");
+			s2.add("b");
+		}
+		s1.add("c");
+		s2.add("d");
+		SpaceSaving union = (SpaceSaving) evaluate(SpaceSaving.union, s1, s2);
+		assertEquals(32, union.getTotal());
+		assertEquals(20, union.getCount("a"));
+		assertEquals(10, union.getCount("b"));
+		assertEquals(3, union.getTop(10).size());
+		assertEquals(11, s1.getTotal());
+		// "c" is absent from a full summary, and gets its smallest count
+		assertEquals(2, union.getCount("c"));
+	}
+
+	protected static Object sinkLast(QueueSink sink)
+	{
+		Object last = null;
+		for (Object o : sink.getQueue())
+		{
+			last = o;
+		}
+		return last;
+	}
 }